@@ -0,0 +1,63 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Document;
+
+/**
+ * Measures {@link AmbientMemoryFootprintCalculator} on the test layouts that have ambient
+ * variants, clocks and user configurations, with the ambient resources deduplicated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AmbientFootprintBenchmark {
+    @Param({
+        "/AmbientCondition.xml",
+        "/NestedListWithAmbient.xml",
+        "/ActiveDigitalClockBitmapFont.xml",
+        "/LinearCombinationsWithVariant.xml"
+    })
+    public String layout;
+
+    private Document document;
+    private Map<String, DrawableResourceDetails> resourceDetails;
+    private EvaluationSettings evaluationSettings;
+
+    @Setup
+    public void setUp() throws Exception {
+        document = BenchmarkLayouts.readTestLayout(layout);
+        evaluationSettings = new EvaluationSettings("");
+        resourceDetails = BenchmarkLayouts.createResourceDetails(document, evaluationSettings);
+    }
+
+    @Benchmark
+    public long ambientFootprint() {
+        return new AmbientMemoryFootprintCalculator(document, resourceDetails, evaluationSettings)
+                .computeAmbientMemoryFootprint(450, 450);
+    }
+}
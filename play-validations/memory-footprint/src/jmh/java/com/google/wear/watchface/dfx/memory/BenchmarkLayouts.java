@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.findSceneNode;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Document;
+
+/** The layouts used as inputs by the footprint calculator benchmarks. */
+final class BenchmarkLayouts {
+    private BenchmarkLayouts() {}
+
+    /** Reads one of the test layouts. */
+    static Document readTestLayout(String layoutPath) throws Exception {
+        try (InputStream is = BenchmarkLayouts.class.getResourceAsStream(layoutPath)) {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+        }
+    }
+
+    /**
+     * Creates a layout with {@code listCount} list configurations of {@code optionCount} options
+     * each, so {@code optionCount ^ listCount} user config sets. Each option draws an image of its
+     * own and one image from a pool shared by all the lists, which makes the lists depend on each
+     * other, so their config sets cannot be evaluated separately.
+     */
+    static Document createConfigHeavyLayout(int listCount, int optionCount) throws Exception {
+        StringBuilder declarations = new StringBuilder();
+        StringBuilder scene = new StringBuilder();
+        for (int list = 0; list < listCount; list++) {
+            declarations.append(
+                    String.format(
+                            "<ListConfiguration id=\"l%d\" displayName=\"list%d\""
+                                    + " defaultValue=\"l%d-0\">",
+                            list, list, list));
+            scene.append(String.format("<ListConfiguration id=\"l%d\">", list));
+            for (int option = 0; option < optionCount; option++) {
+                declarations.append(String.format("<ListOption id=\"l%d-%d\" />", list, option));
+                scene.append(
+                        String.format(
+                                "<ListOption id=\"l%d-%d\">"
+                                        + "<PartImage x=\"0\" y=\"0\" width=\"100\" height=\"100\">"
+                                        + "<Image resource=\"list%d-image%d\" />"
+                                        + "</PartImage>"
+                                        + "<PartImage x=\"0\" y=\"100\" width=\"50\" height=\"50\">"
+                                        + "<Image resource=\"shared-image%d\" />"
+                                        + "</PartImage>"
+                                        + "</ListOption>",
+                                list, option, list, option, (list + option) % optionCount));
+            }
+            declarations.append("</ListConfiguration>");
+            scene.append("</ListConfiguration>");
+        }
+        String layout =
+                "<WatchFace width=\"450\" height=\"450\">"
+                        + "<UserConfigurations>"
+                        + declarations
+                        + "</UserConfigurations>"
+                        + "<Scene>"
+                        + scene
+                        + "</Scene>"
+                        + "</WatchFace>";
+        return DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder()
+                .parse(new ByteArrayInputStream(layout.getBytes(UTF_8)));
+    }
+
+    /**
+     * Creates resource details for every resource referenced by the layout, with distinct sizes
+     * and digests, so that no two resources are considered duplicates.
+     */
+    static Map<String, DrawableResourceDetails> createResourceDetails(
+            Document document, EvaluationSettings evaluationSettings) {
+        Map<String, DrawableResourceDetails> resourceDetails = new HashMap<>();
+        for (String resource :
+                new WatchFaceResourceCollector(document, resourceDetails, evaluationSettings)
+                        .collectResources(findSceneNode(document))) {
+            long size = 1000L * (resource.hashCode() & 0xff) + 1000;
+            resourceDetails.put(
+                    resource,
+                    DrawableResourceDetails.builder()
+                            .setName(resource)
+                            .setNumberOfImages(1)
+                            .setBiggestFrameFootprintBytes(size)
+                            .setWidth((int) size / 4)
+                            .setHeight(1)
+                            .setBounds(new DrawableResourceDetails.Bounds(0, 0, (int) size / 4, 1))
+                            .setSha1(resource)
+                            .build());
+        }
+        return resourceDetails;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.findSceneNode;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Document;
+
+/**
+ * Compares enumerating the config sets of the test layouts as map-based {@link UserConfigSet}s,
+ * built by {@link UserConfigKey#buildConfigSets} and matched with map lookups, with enumerating
+ * them in the dense form of {@link ConfigSpace}, matched with int comparisons.
+ *
+ * <p>Both enumerate every config set of every self-contained set of user config keys and return
+ * the sum of the maximum footprints, like the lazy evaluation of the footprint calculator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConfigEnumerationBenchmark {
+    @Param({"/NestedLists.xml", "/LinearCombinations.xml"})
+    public String layout;
+
+    private List<Set<UserConfigKey>> userConfigSplit;
+    private List<ConfigSpace> configSpaces;
+    private DrawableNodeResourceSets resourceSets;
+
+    @Setup
+    public void setUp() throws Exception {
+        Document document;
+        try (InputStream is = getClass().getResourceAsStream(layout)) {
+            document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+        }
+        EvaluationSettings evaluationSettings = new EvaluationSettings("");
+        VariantConfigValue variant = VariantConfigValue.active(evaluationSettings);
+        DrawableNodeConfigTable table =
+                DrawableNodeConfigTable.create(findSceneNode(document), variant);
+        WatchFaceResourceCollector resourceCollector =
+                new WatchFaceResourceCollector(document, new HashMap<>(), evaluationSettings);
+
+        userConfigSplit =
+                ResourceConfigTable.fromDrawableNodeConfigTable(table, resourceCollector, variant)
+                        .replaceWithTopLevelKeys(document)
+                        .joinRelatedUserConfigKeys();
+        configSpaces = new ArrayList<>();
+        for (Set<UserConfigKey> keys : userConfigSplit) {
+            configSpaces.add(new ConfigSpace(keys));
+        }
+        resourceSets =
+                DrawableNodeResourceSets.create(
+                        table.getDependentDrawableNodes(),
+                        resourceCollector,
+                        variant,
+                        resource -> (long) resource.length());
+    }
+
+    @Benchmark
+    public long mapConfigSets() {
+        long footprint = 0;
+        BitSet scratch = new BitSet();
+        for (Set<UserConfigKey> keys : userConfigSplit) {
+            SizedIterator<UserConfigSet> configSets = UserConfigKey.buildConfigSets(keys);
+            long maxFootprint = 0;
+            while (configSets.hasNext()) {
+                maxFootprint =
+                        Math.max(
+                                maxFootprint,
+                                resourceSets.footprintOfMatchingEntries(
+                                        configSets.next(), scratch));
+            }
+            footprint += maxFootprint;
+        }
+        return footprint;
+    }
+
+    @Benchmark
+    public long denseConfigSets() {
+        long footprint = 0;
+        BitSet scratch = new BitSet();
+        for (ConfigSpace configSpace : configSpaces) {
+            DrawableNodeResourceSets.DenseMatcher matcher = resourceSets.denseMatcher(configSpace);
+            long[] maxFootprint = {0};
+            configSpace
+                    .spliterator()
+                    .forEachRemainingDense(
+                            denseConfigSet ->
+                                    maxFootprint[0] =
+                                            Math.max(
+                                                    maxFootprint[0],
+                                                    matcher.footprintOfMatchingEntries(
+                                                            denseConfigSet, scratch)));
+            footprint += maxFootprint[0];
+        }
+        return footprint;
+    }
+}
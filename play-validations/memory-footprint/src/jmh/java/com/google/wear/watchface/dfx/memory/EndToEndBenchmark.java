@@ -0,0 +1,60 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the whole evaluation of the test-samples packages, as run by the command line tool:
+ * reading the package, analyzing its resources, validating and evaluating its layouts.
+ *
+ * <p>The packages are built by the test-samples projects, which the jmh task depends on. Their
+ * paths are relative to the memory-footprint project directory, where the benchmarks run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@SuppressWarnings("KotlinInternal")
+public class EndToEndBenchmark {
+    @Param({
+        "test-samples/sample-wf/build/outputs/bundle/release/sample-wf-release.aab",
+        "test-samples/sample-wf/build/outputs/apk/release/sample-wf-release.apk",
+        "test-samples/apk-splits/build/outputs/bundle/release/apk-splits-release.aab"
+    })
+    public String watchFacePath;
+
+    private EvaluationSettings evaluationSettings;
+
+    @Setup
+    public void setUp() {
+        evaluationSettings = new EvaluationSettings(watchFacePath);
+    }
+
+    @Benchmark
+    public List<MemoryFootprint> evaluateMemoryFootprint() {
+        return ResourceMemoryEvaluator.evaluateMemoryFootprint(evaluationSettings);
+    }
+}
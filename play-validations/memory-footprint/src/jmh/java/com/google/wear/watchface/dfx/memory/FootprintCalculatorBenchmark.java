@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Document;
+
+/**
+ * Compares the lazy evaluation of the active footprint, which enumerates every user config set,
+ * with the greedy evaluation, which over-approximates it in a single traversal, on synthetic
+ * layouts whose lists all depend on each other.
+ *
+ * <p>The whole computation is measured, including the analysis of the layout, which is what a
+ * layout costs in a real evaluation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FootprintCalculatorBenchmark {
+    /** The number of lists of the layout, each with {@link #optionCount} options. */
+    @Param({"3", "5", "7"})
+    public int listCount;
+
+    @Param({"4"})
+    public int optionCount;
+
+    private Document document;
+    private Map<String, DrawableResourceDetails> resourceDetails;
+    private EvaluationSettings lazySettings;
+    private EvaluationSettings greedySettings;
+
+    @Setup
+    public void setUp() throws Exception {
+        document = BenchmarkLayouts.createConfigHeavyLayout(listCount, optionCount);
+        lazySettings = new EvaluationSettings("", Integer.MAX_VALUE);
+        greedySettings = new EvaluationSettings("", 0);
+        resourceDetails = BenchmarkLayouts.createResourceDetails(document, lazySettings);
+    }
+
+    @Benchmark
+    public long lazyEvaluation() {
+        return new ActiveMemoryFootprintCalculator(document, resourceDetails, lazySettings)
+                .computeActiveMemoryFootprint();
+    }
+
+    @Benchmark
+    public long greedyEvaluation() {
+        return new ActiveMemoryFootprintCalculator(document, resourceDetails, greedySettings)
+                .computeActiveMemoryFootprint();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.min;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares scanning the pixels of a decoded image one {@code getRgb} call at a time, with separate
+ * passes for the bounds and the quantization error, with the single pass row scan of {@link
+ * DrawableResourceDetails#analyzeFrame}.
+ *
+ * <p>The images are watch face sized PNGs with a transparent border, decoded by the {@link
+ * JvmImageProcessor}, so the benchmark goes through the same raster types as real resources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageScanBenchmark {
+    @Param({"450", "1024"})
+    public int size;
+
+    /** The PNG color type: with an alpha channel, or opaque. */
+    @Param({"rgba", "rgb"})
+    public String colorType;
+
+    private ImageProcessor.ImageData image;
+
+    @Setup
+    public void setUp() throws Exception {
+        boolean hasAlpha = colorType.equals("rgba");
+        BufferedImage source =
+                new BufferedImage(
+                        size,
+                        size,
+                        hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(size);
+        int border = size / 10;
+        for (int y = border; y < size - border; y++) {
+            for (int x = border; x < size - border; x++) {
+                source.setRGB(x, y, random.nextInt() | 0xff000000);
+            }
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(source, "png", png);
+
+        image =
+                new JvmImageProcessor(new EvaluationSettings(""))
+                        .createImageReader(new ByteArrayInputStream(png.toByteArray()), "image.png")
+                        .read(0);
+    }
+
+    @Benchmark
+    public void rowScan(Blackhole blackhole) {
+        blackhole.consume(DrawableResourceDetails.analyzeFrame(image, true));
+    }
+
+    @Benchmark
+    public void perPixelScan(Blackhole blackhole) {
+        blackhole.consume(computeBounds(image));
+        blackhole.consume(computeQualtizationStats(image).getVisibleError());
+    }
+
+    // The scans below are copied unchanged from DrawableResourceDetails as it was before the row
+    // scan, so that the benchmark measures against the previous implementation.
+
+    private static final int CHANNEL_MASK_A = 0xff000000;
+
+    private static final int QUANTIZATION_ERROR_LUT5[] =
+            create8bppToNbppQuantizationErrorLookUpTable(5);
+
+    private static final int QUANTIZATION_ERROR_LUT6[] =
+            create8bppToNbppQuantizationErrorLookUpTable(6);
+
+    private static DrawableResourceDetails.Bounds computeBounds(ImageProcessor.ImageData image) {
+        DrawableResourceDetails.Bounds bounds = new DrawableResourceDetails.Bounds();
+
+        // Scan from the top down to find the first non-transparent row.
+        int height = image.getHeight();
+        int y;
+        for (y = 0; y < height; y++) {
+            if (!isRowFullyTransparent(image, y)) {
+                bounds.top = y;
+                break;
+            }
+        }
+
+        if (y == height) {
+            // The image is fully transparent.
+            return null;
+        }
+
+        // Scan from the bottom up to find the first non-transparent row.
+        for (y = height; y > 0; ) {
+            y--;
+            if (!isRowFullyTransparent(image, y)) {
+                bounds.bottom = y + 1;
+                break;
+            }
+        }
+
+        // Scan from left to right to find the first non-transparent column.
+        int width = image.getWidth();
+        int x;
+        for (x = 0; x < width; x++) {
+            if (!isColumnFullyTransparent(image, x, bounds.top, bounds.bottom)) {
+                bounds.left = x;
+                break;
+            }
+        }
+
+        for (x = width; x > 0; ) {
+            x--;
+            if (!isColumnFullyTransparent(image, x, bounds.top, bounds.bottom)) {
+                bounds.right = x + 1;
+                break;
+            }
+        }
+
+        return bounds;
+    }
+
+    private static boolean isRowFullyTransparent(ImageProcessor.ImageData image, int y) {
+        int width = image.getWidth();
+        for (int x = 0; x < width; x++) {
+            if (!isFullyTransparent(image.getRgb(x, y))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isColumnFullyTransparent(
+            ImageProcessor.ImageData image, int x, int top, int bottom) {
+        for (int y = top; y < bottom; y++) {
+            if (!isFullyTransparent(image.getRgb(x, y))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isFullyTransparent(int argb) {
+        return (argb & CHANNEL_MASK_A) == 0;
+    }
+
+    private static class QuantizationStats {
+        long visiblePixels = 0;
+        long visiblePixelQuantizationErrorSum = 0;
+
+        double getVisibleError() {
+            return (double) visiblePixelQuantizationErrorSum / (double) visiblePixels;
+        }
+    }
+
+    private static QuantizationStats computeQualtizationStats(ImageProcessor.ImageData image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        QuantizationStats quantizationStats = new QuantizationStats();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int argb = image.getRgb(x, y);
+                int a = (argb >> 24) & 0xff;
+                if (a < 255) {
+                    continue;
+                }
+
+                quantizationStats.visiblePixels++;
+
+                int r = (argb >> 16) & 0xff;
+                int g = (argb >> 8) & 0xff;
+                int b = argb & 0xff;
+
+                quantizationStats.visiblePixelQuantizationErrorSum += QUANTIZATION_ERROR_LUT5[r];
+                quantizationStats.visiblePixelQuantizationErrorSum += QUANTIZATION_ERROR_LUT6[g];
+                quantizationStats.visiblePixelQuantizationErrorSum += QUANTIZATION_ERROR_LUT5[b];
+            }
+        }
+        return quantizationStats;
+    }
+
+    /** Constructs a table of the error introduced by quantizing an 8 bit value to a N bit value. */
+    private static int[] create8bppToNbppQuantizationErrorLookUpTable(int n) {
+        int[] table = new int[256];
+        int bitsLost = 8 - n;
+        int twoPowN = 1 << bitsLost;
+        int halfTwoPowN = 1 << (bitsLost - 1);
+        for (int i = 0; i < 256; i++) {
+            // This rounds i to the nearest n-bit value before converting back to an 8 bit value.
+            int quantizedValue = min(((i + halfTwoPowN) / twoPowN) * twoPowN, 255);
+
+            // Record the error due to quantization in the table. This has a saw-tooth pattern where
+            // n-bit values that correspond directly to 8 bit ones have an error of 0, rising to a
+            // maximum error of halfPlusOne in between.
+            table[i] = abs(i - quantizedValue);
+        }
+        return table;
+    }
+}
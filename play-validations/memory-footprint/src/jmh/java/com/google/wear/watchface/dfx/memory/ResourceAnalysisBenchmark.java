@@ -0,0 +1,241 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link DrawableResourceDetails#fromPackageResource}, which hashes a drawable resource,
+ * decodes all of its frames and scans their pixels, for the image formats found in watch faces.
+ *
+ * <p>The images are generated: PNGs are written with ImageIO, while the WebPs, which ImageIO
+ * cannot write, are encoded here as lossless images whose pixels randomly take one of two colors.
+ * The animated WebP has {@link #ANIMATION_FRAMES} such frames.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResourceAnalysisBenchmark {
+    private static final int ANIMATION_FRAMES = 8;
+    private static final int COLOR_A = 0xff200040;
+    private static final int COLOR_B = 0xff20ff40;
+
+    @Param({"png", "webp", "animatedWebp"})
+    public String format;
+
+    @Param({"450"})
+    public int size;
+
+    private AndroidResource resource;
+    private ImageProcessor imageProcessor;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(size);
+        byte[] data;
+        String extension;
+        switch (format) {
+            case "png":
+                data = encodePng(size, random);
+                extension = "png";
+                break;
+            case "webp":
+                data = riff(chunk("VP8L", encodeVp8l(size, size, random)));
+                extension = "webp";
+                break;
+            case "animatedWebp":
+                data = encodeAnimatedWebp(size, random);
+                extension = "webp";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+        resource =
+                new AndroidResource(
+                        "drawable",
+                        "image",
+                        extension,
+                        Paths.get("res/drawable/image." + extension),
+                        data);
+        imageProcessor = new JvmImageProcessor(new EvaluationSettings(""));
+        if (!DrawableResourceDetails.fromPackageResource(resource, imageProcessor).isPresent()) {
+            throw new IllegalStateException("The " + format + " image cannot be decoded");
+        }
+    }
+
+    @Benchmark
+    public Optional<DrawableResourceDetails> fromPackageResource() {
+        return DrawableResourceDetails.fromPackageResource(resource, imageProcessor);
+    }
+
+    private static byte[] encodePng(int size, Random random) throws Exception {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                image.setRGB(x, y, random.nextBoolean() ? COLOR_B : COLOR_A);
+            }
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    /**
+     * Encodes the frames in an extended WebP container with an animation, all of them covering
+     * the whole canvas.
+     */
+    private static byte[] encodeAnimatedWebp(int size, Random random) {
+        ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+        // the flags declare an animation with alpha
+        ByteArrayOutputStream vp8x = new ByteArrayOutputStream();
+        vp8x.write(0x12);
+        writeLittleEndian(vp8x, 0, 3);
+        writeLittleEndian(vp8x, size - 1, 3);
+        writeLittleEndian(vp8x, size - 1, 3);
+        chunks.writeBytes(chunk("VP8X", vp8x.toByteArray()));
+
+        // transparent background, looping forever
+        chunks.writeBytes(chunk("ANIM", new byte[6]));
+
+        for (int i = 0; i < ANIMATION_FRAMES; i++) {
+            ByteArrayOutputStream anmf = new ByteArrayOutputStream();
+            writeLittleEndian(anmf, 0, 3); // x / 2
+            writeLittleEndian(anmf, 0, 3); // y / 2
+            writeLittleEndian(anmf, size - 1, 3);
+            writeLittleEndian(anmf, size - 1, 3);
+            writeLittleEndian(anmf, 100, 3); // duration in ms
+            anmf.write(0); // alpha blending, no disposal
+            anmf.writeBytes(chunk("VP8L", encodeVp8l(size, size, random)));
+            chunks.writeBytes(chunk("ANMF", anmf.toByteArray()));
+        }
+        return riff(chunks.toByteArray());
+    }
+
+    /**
+     * Encodes a lossless WebP bitstream without transforms or color cache, using the simple prefix
+     * codes of the format: the green channel has two symbols, hence one bit per pixel, while the
+     * other channels have a single symbol, which takes no bits at all.
+     */
+    private static byte[] encodeVp8l(int width, int height, Random random) {
+        BitWriter bits = new BitWriter();
+        bits.write(0x2f, 8); // signature
+        bits.write(width - 1, 14);
+        bits.write(height - 1, 14);
+        bits.write(1, 1); // alpha is used
+        bits.write(0, 3); // version
+        bits.write(0, 1); // no transform
+        bits.write(0, 1); // no color cache
+        bits.write(0, 1); // no meta prefix codes
+
+        // green, red, blue, alpha and distance prefix codes
+        writeSimplePrefixCode(bits, (COLOR_A >> 8) & 0xff, (COLOR_B >> 8) & 0xff);
+        writeSimplePrefixCode(bits, (COLOR_A >> 16) & 0xff);
+        writeSimplePrefixCode(bits, COLOR_A & 0xff);
+        writeSimplePrefixCode(bits, COLOR_A >>> 24);
+        writeSimplePrefixCode(bits, 0);
+
+        for (int i = 0; i < width * height; i++) {
+            // with two symbols of length 1, the smaller symbol is coded as 0
+            bits.write(random.nextBoolean() ? 1 : 0, 1);
+        }
+        return bits.toByteArray();
+    }
+
+    private static void writeSimplePrefixCode(BitWriter bits, int symbol) {
+        bits.write(1, 1); // simple code
+        bits.write(0, 1); // one symbol
+        bits.write(1, 1); // 8 bits symbol
+        bits.write(symbol, 8);
+    }
+
+    private static void writeSimplePrefixCode(BitWriter bits, int symbol0, int symbol1) {
+        bits.write(1, 1); // simple code
+        bits.write(1, 1); // two symbols
+        bits.write(1, 1); // 8 bits first symbol
+        bits.write(symbol0, 8);
+        bits.write(symbol1, 8);
+    }
+
+    private static byte[] riff(byte[] chunks) {
+        ByteArrayOutputStream riff = new ByteArrayOutputStream();
+        riff.writeBytes("RIFF".getBytes(US_ASCII));
+        writeLittleEndian(riff, 4 + chunks.length, 4);
+        riff.writeBytes("WEBP".getBytes(US_ASCII));
+        riff.writeBytes(chunks);
+        return riff.toByteArray();
+    }
+
+    private static byte[] chunk(String fourCc, byte[] payload) {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        chunk.writeBytes(fourCc.getBytes(US_ASCII));
+        writeLittleEndian(chunk, payload.length, 4);
+        chunk.writeBytes(payload);
+        if (payload.length % 2 != 0) {
+            chunk.write(0);
+        }
+        return chunk.toByteArray();
+    }
+
+    private static void writeLittleEndian(ByteArrayOutputStream out, int value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            out.write((value >> (8 * i)) & 0xff);
+        }
+    }
+
+    /** Writes values least significant bit first, as the lossless WebP bitstream expects. */
+    private static class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int pending;
+        private int pendingBits;
+
+        void write(int value, int bitCount) {
+            for (int i = 0; i < bitCount; i++) {
+                pending |= ((value >> i) & 1) << pendingBits;
+                if (++pendingBits == 8) {
+                    out.write(pending);
+                    pending = 0;
+                    pendingBits = 0;
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            if (pendingBits > 0) {
+                out.write(pending);
+                pending = 0;
+                pendingBits = 0;
+            }
+            return out.toByteArray();
+        }
+    }
+}
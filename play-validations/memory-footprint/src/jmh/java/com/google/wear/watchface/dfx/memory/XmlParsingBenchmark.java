@@ -0,0 +1,129 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Compares parsing the raw XML resources of a package and checking whether each one is a watch
+ * face layout, as done when loading the package, with factories looked up for every resource and
+ * an XPath check of the root versus with the thread-local parsers of {@link XmlFactories} and a
+ * direct check of the root element, and versus parsing them into a {@link CompactLayoutTree}.
+ *
+ * <p>The package is simulated by {@code resourceCount} raw XML files, cycling through the test
+ * layouts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@SuppressWarnings("KotlinInternal")
+public class XmlParsingBenchmark {
+    private static final String[] LAYOUTS = {
+        "/ActiveAnalogClock.xml",
+        "/ActiveDigitalClockBitmapFont.xml",
+        "/AnimatedImages.xml",
+        "/LinearCombinations.xml",
+        "/NestedLists.xml",
+        "/TTFFont.xml",
+    };
+    private static final String WATCH_FACE_XPATH = "/WatchFace";
+
+    @Param({"200"})
+    public int resourceCount;
+
+    private final List<byte[]> resources = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws Exception {
+        for (int i = 0; i < resourceCount; i++) {
+            try (InputStream is = getClass().getResourceAsStream(LAYOUTS[i % LAYOUTS.length])) {
+                resources.add(AndroidResourceLoader.readAllBytes(is));
+            }
+        }
+    }
+
+    @Benchmark
+    public int newFactoriesPerResource() throws Exception {
+        int watchFaceCount = 0;
+        for (byte[] resource : resources) {
+            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            documentBuilderFactory.setNamespaceAware(true);
+            Document document = documentBuilderFactory.newDocumentBuilder().newDocument();
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.transform(
+                    new SAXSource(new InputSource(new ByteArrayInputStream(resource))),
+                    new DOMResult(document));
+            XPathExpression expression =
+                    XPathFactory.newInstance().newXPath().compile(WATCH_FACE_XPATH);
+            if ((Boolean) expression.evaluate(document, XPathConstants.BOOLEAN)) {
+                watchFaceCount++;
+            }
+        }
+        return watchFaceCount;
+    }
+
+    @Benchmark
+    public int sharedFactories() throws Exception {
+        int watchFaceCount = 0;
+        for (byte[] resource : resources) {
+            Document document = XmlFactories.namespaceAwareDocumentBuilder().newDocument();
+            XmlFactories.transformer()
+                    .transform(
+                            new SAXSource(new InputSource(new ByteArrayInputStream(resource))),
+                            new DOMResult(document));
+            if (document.getDocumentElement().getNodeName().equals("WatchFace")) {
+                watchFaceCount++;
+            }
+        }
+        return watchFaceCount;
+    }
+
+    @Benchmark
+    public int compactLayouts() throws Exception {
+        int watchFaceCount = 0;
+        for (byte[] resource : resources) {
+            Document document =
+                    CompactLayoutTree.parse(new ByteArrayInputStream(resource)).asDocument();
+            if (document.getDocumentElement().getNodeName().equals("WatchFace")) {
+                watchFaceCount++;
+            }
+        }
+        return watchFaceCount;
+    }
+}
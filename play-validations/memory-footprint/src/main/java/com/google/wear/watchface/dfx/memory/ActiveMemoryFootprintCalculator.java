@@ -1,44 +1,64 @@
 package com.google.wear.watchface.dfx.memory;
 
 import static com.google.wear.watchface.dfx.memory.DrawableResourceDetails.findInMap;
-import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.findSceneNode;
 
 import java.util.Map;
 import org.w3c.dom.Document;
 
 /** Computes the memory footprint of a watch face in active. */
 public class ActiveMemoryFootprintCalculator {
+    private final WatchFaceAnalysisContext context;
     private final VariantConfigValue activeConfigValue;
-    private final Document document;
     private final Map<String, DrawableResourceDetails> resourceMemoryMap;
     private final EvaluationSettings evaluationSettings;
+    private FootprintAttribution attribution;
+    private TopConfigurations topConfigurations;
 
     ActiveMemoryFootprintCalculator(
             Document document,
             Map<String, DrawableResourceDetails> resourceMemoryMap,
             EvaluationSettings evaluationSettings) {
-        this.activeConfigValue = VariantConfigValue.active(evaluationSettings);
-        this.document = document;
-        this.resourceMemoryMap = resourceMemoryMap;
-        this.evaluationSettings = evaluationSettings;
+        this(new WatchFaceAnalysisContext(document, resourceMemoryMap, evaluationSettings));
+    }
+
+    ActiveMemoryFootprintCalculator(WatchFaceAnalysisContext context) {
+        this.context = context;
+        this.activeConfigValue = context.getActiveVariant();
+        this.resourceMemoryMap = context.getResourceMemoryMap();
+        this.evaluationSettings = context.getEvaluationSettings();
     }
 
     long computeActiveMemoryFootprint() {
         if (evaluationSettings.isVerbose()) {
             System.out.println(">> Starting active evaluation");
         }
-        DrawableNodeConfigTable drawableNodeConfigTable =
-                DrawableNodeConfigTable.create(findSceneNode(document), activeConfigValue);
-        WatchFaceResourceCollector resourceCollector =
-                new WatchFaceResourceCollector(document, resourceMemoryMap, evaluationSettings);
-        return new DynamicNodePerConfigurationFootprintCalculator(
-                        document,
-                        evaluationSettings,
+        DynamicNodePerConfigurationFootprintCalculator calculator =
+                new DynamicNodePerConfigurationFootprintCalculator(
+                        context,
                         activeConfigValue,
-                        resourceCollector,
-                        drawableNodeConfigTable,
-                        this::evaluateResource)
-                .calculateMaxFootprintBytes();
+                        context.getResourceCollector(),
+                        context.getActiveDrawableNodeConfigTable(),
+                        this::evaluateResource);
+        long footprint = calculator.calculateMaxFootprintBytes();
+        attribution = calculator.getAttribution();
+        topConfigurations = calculator.getTopConfigurations();
+        return footprint;
+    }
+
+    /**
+     * Returns the attribution of the footprint computed by {@link #computeActiveMemoryFootprint()},
+     * or null if {@link EvaluationSettings#getReportAttribution()} is not enabled.
+     */
+    FootprintAttribution getAttribution() {
+        return attribution;
+    }
+
+    /**
+     * Returns the heaviest user configurations found by {@link #computeActiveMemoryFootprint()},
+     * or null if {@link EvaluationSettings#getTopConfigurations()} is not set.
+     */
+    TopConfigurations getTopConfigurations() {
+        return topConfigurations;
     }
 
     private long evaluateResource(String resource) {
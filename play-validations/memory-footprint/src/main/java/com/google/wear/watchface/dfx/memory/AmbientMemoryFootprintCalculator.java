@@ -16,13 +16,14 @@
 
 package com.google.wear.watchface.dfx.memory;
 
-import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.findSceneNode;
 import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.getNodeAttribute;
 import static java.lang.Math.min;
 import static java.util.stream.Collectors.toSet;
 
 import com.google.common.collect.ImmutableList;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,8 +41,8 @@ import org.w3c.dom.NodeList;
  * not included in any expressions. - The renderer only needs the resources for the current style.
  */
 class AmbientMemoryFootprintCalculator {
+    private final WatchFaceAnalysisContext context;
     private final VariantConfigValue ambientConfigValue;
-    private final Document document;
     private final Map<String, DrawableResourceDetails> resourceMemoryMap;
 
     private final WatchFaceResourceCollector resourceCollector;
@@ -68,32 +69,34 @@ class AmbientMemoryFootprintCalculator {
             Document document,
             Map<String, DrawableResourceDetails> resourceMemoryMap,
             EvaluationSettings evaluationSettings) {
-        this.ambientConfigValue = VariantConfigValue.ambient(evaluationSettings);
-        this.document = document;
-        this.resourceMemoryMap = resourceMemoryMap;
-        this.evaluationSettings = evaluationSettings;
+        this(new WatchFaceAnalysisContext(document, resourceMemoryMap, evaluationSettings));
+    }
+
+    AmbientMemoryFootprintCalculator(WatchFaceAnalysisContext context) {
+        this.context = context;
+        this.ambientConfigValue = context.getAmbientVariant();
+        this.resourceMemoryMap = context.getResourceMemoryMap();
+        this.evaluationSettings = context.getEvaluationSettings();
         this.resourceCollector = createResourceCollector();
     }
 
     private WatchFaceResourceCollector createResourceCollector() {
+        WatchFaceResourceCollector sharedCollector = context.getResourceCollector();
         if (!evaluationSettings.deduplicateAmbient()) {
-            return new WatchFaceResourceCollector(document, resourceMemoryMap, evaluationSettings);
+            return sharedCollector;
         }
         Map<String, String> dedupMap =
                 computeResourceDedupMap(resourceMemoryMap, evaluationSettings);
-        return new WatchFaceResourceCollector(document, resourceMemoryMap, evaluationSettings) {
+        // the duplicates are mapped on top of the resources found by the shared collector, so
+        // that the document is still only traversed once
+        return new WatchFaceResourceCollector(sharedCollector) {
 
             @Override
             Set<String> collectResources(Node currentNode, VariantConfigValue variant) {
-                return super.collectResources(currentNode, variant).stream()
+                return sharedCollector.collectResources(currentNode, variant).stream()
                         .map(dedupMap::get)
                         .collect(toSet());
             }
-
-            @Override
-            Set<String> collectResources(Node node) {
-                return super.collectResources(node).stream().map(dedupMap::get).collect(toSet());
-            }
         };
     }
 
@@ -126,21 +129,29 @@ class AmbientMemoryFootprintCalculator {
      * and the memory needed for all the full screen layers.
      */
     long computeAmbientMemoryFootprint(long screenWidth, long screenHeight) {
+        return computeAmbientFootprint().getFootprintBytes(screenWidth, screenHeight);
+    }
+
+    /**
+     * Computes the maximum number of layers and the maximum total dynamic resource bytes needed by
+     * any style configuration, which do not depend on the screen size. The footprint can then be
+     * computed for any number of screen sizes without evaluating the watch face again.
+     */
+    AmbientFootprint computeAmbientFootprint() {
         if (evaluationSettings.isVerbose()) {
             System.out.println(">> Starting ambient evaluation");
         }
         Visitor visitor = new Visitor(/* prevNodeIsDrawnDynamically= */ true, /* numClocks= */ 0);
-        visitor.visitNodes(findSceneNode(document));
+        visitor.visitNodes(context.getSceneNode());
 
-        long maximumResourceUsage =
+        DynamicNodePerConfigurationFootprintCalculator dynamicNodesCalculator =
                 new DynamicNodePerConfigurationFootprintCalculator(
-                                document,
-                                evaluationSettings,
-                                ambientConfigValue,
-                                resourceCollector,
-                                visitor.drawableNodeConfigTable,
-                                this::evaluateResource)
-                        .calculateMaxFootprintBytes();
+                        context,
+                        ambientConfigValue,
+                        resourceCollector,
+                        visitor.drawableNodeConfigTable,
+                        this::evaluateResource);
+        long maximumResourceUsage = dynamicNodesCalculator.calculateMaxFootprintBytes();
 
         // In V1 we support a maximum of 2 layers and 2 clocks.
         if (evaluationSettings.applyV1OffloadLimitations()) {
@@ -153,7 +164,58 @@ class AmbientMemoryFootprintCalculator {
                     visitor.numLayers, maximumResourceUsage);
         }
 
-        return (screenWidth * screenHeight * visitor.numLayers * 4) + maximumResourceUsage;
+        AmbientAttribution attribution = null;
+        if (evaluationSettings.getReportAttribution()) {
+            attribution =
+                    new AmbientAttribution(
+                            visitor.numLayers,
+                            visitor.layerStarts.subList(
+                                    0, min(visitor.numLayers, visitor.layerStarts.size())),
+                            dynamicNodesCalculator.getAttribution());
+        }
+        return new AmbientFootprint(visitor.numLayers, maximumResourceUsage, attribution);
+    }
+
+    /** The screen size independent part of the ambient memory footprint. */
+    static final class AmbientFootprint {
+        private final int numLayers;
+        private final long dynamicResourceBytes;
+        private final AmbientAttribution attribution;
+
+        AmbientFootprint(
+                int numLayers, long dynamicResourceBytes, AmbientAttribution attribution) {
+            this.numLayers = numLayers;
+            this.dynamicResourceBytes = dynamicResourceBytes;
+            this.attribution = attribution;
+        }
+
+        /**
+         * The attribution of the footprint, or null if {@link
+         * EvaluationSettings#getReportAttribution()} is not enabled.
+         */
+        AmbientAttribution getAttribution() {
+            return attribution;
+        }
+
+        /** The number of full screen layers needed by the watch face. */
+        int getNumLayers() {
+            return numLayers;
+        }
+
+        /** The maximum total bytes of the resources that are drawn dynamically. */
+        long getDynamicResourceBytes() {
+            return dynamicResourceBytes;
+        }
+
+        /** Returns the ambient footprint on a screen of the given size. */
+        long getFootprintBytes(long screenWidth, long screenHeight) {
+            return (screenWidth * screenHeight * numLayers * 4) + dynamicResourceBytes;
+        }
+
+        /** Returns the ambient footprint on a screen of the given size. */
+        long getFootprintBytes(ScreenSize screenSize) {
+            return screenSize.getLayerBytes() * numLayers + dynamicResourceBytes;
+        }
     }
 
     private long evaluateResource(String resource) {
@@ -162,7 +224,8 @@ class AmbientMemoryFootprintCalculator {
         long imageBytes = details.getBiggestFrameFootprintBytes();
 
         // If this image can be downsampled then the size is halved.
-        if (details.canUseRGB565()) {
+        boolean useRGB565 = evaluationSettings.supportsRgb565() && details.canUseRGB565();
+        if (useRGB565) {
             imageBytes /= 2;
         }
 
@@ -174,7 +237,7 @@ class AmbientMemoryFootprintCalculator {
                     ((double) imageBytes) / 1024 / 1024,
                     details.getWidth(),
                     details.getHeight(),
-                    details.canUseRGB565() ? "RGB565" : "ARGB8888");
+                    useRGB565 ? "RGB565" : "ARGB8888");
         }
         return imageBytes;
     }
@@ -189,6 +252,12 @@ class AmbientMemoryFootprintCalculator {
          */
         private int numLayers = 0;
 
+        /**
+         * The path of the node that starts each layer, if attribution is enabled. Under user
+         * configurations, the layers of the option that needs the most of them are kept.
+         */
+        private final List<String> layerStarts = new ArrayList<>();
+
         /** The number of clocks found so far. */
         private int numClocks;
 
@@ -278,6 +347,7 @@ class AmbientMemoryFootprintCalculator {
          */
         private void processConfiguration(Node node) {
             int maxConfigNumLayers = 0;
+            List<String> heaviestOptionLayerStarts = Collections.emptyList();
 
             UserConfigKey userConfigKey = UserConfigKey.fromNode(node);
 
@@ -303,6 +373,7 @@ class AmbientMemoryFootprintCalculator {
 
                 if (maxConfigNumLayers < visitor.numLayers) {
                     maxConfigNumLayers = visitor.numLayers;
+                    heaviestOptionLayerStarts = visitor.layerStarts;
                 }
 
                 // Make sure a layer is generated if we subsequently visit a Part* node.
@@ -310,6 +381,7 @@ class AmbientMemoryFootprintCalculator {
             }
 
             numLayers += maxConfigNumLayers;
+            layerStarts.addAll(heaviestOptionLayerStarts);
         }
 
         /**
@@ -330,6 +402,9 @@ class AmbientMemoryFootprintCalculator {
             // <ComplicationSlot> or <DigitalClock> then we need a new layer.
             if (prevNodeIsDrawnDynamically) {
                 numLayers++;
+                if (evaluationSettings.getReportAttribution()) {
+                    layerStarts.add(pathToString(node));
+                }
                 if (evaluationSettings.isVerbose()) {
                     System.out.printf("Layer %s starts at: %s\n", numLayers, pathToString(node));
                 }
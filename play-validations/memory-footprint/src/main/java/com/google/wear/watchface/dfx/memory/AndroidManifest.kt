@@ -12,9 +12,7 @@ import java.util.zip.ZipEntry
 import java.util.zip.ZipFile
 import java.util.zip.ZipInputStream
 import javax.xml.namespace.NamespaceContext
-import javax.xml.parsers.DocumentBuilderFactory
 import javax.xml.xpath.XPathConstants
-import javax.xml.xpath.XPathFactory
 
 private const val ANDROID_MANIFEST_FILE_NAME = "AndroidManifest.xml"
 private const val DWF_PROPERTY_NAME = "com.google.wear.watchface.format.version"
@@ -99,11 +97,7 @@ class AndroidManifest private constructor(
 
         @JvmStatic
         private fun loadFromPlainXml(bytes: ByteArray, resDir: Path? = null): AndroidManifest {
-            val factory = DocumentBuilderFactory.newInstance()
-            factory.isValidating = false
-            factory.isNamespaceAware = true
-            factory.isIgnoringComments = false
-            val docBuilder = factory.newDocumentBuilder()
+            val docBuilder = XmlFactories.namespaceAwareDocumentBuilder()
 
             val doc = docBuilder.parse(ByteArrayInputStream(bytes))
             return loadFromDocument(doc, resDir = resDir)
@@ -140,7 +134,7 @@ class AndroidManifest private constructor(
             val manifestEntry = zipFile.stream()
                 .filter { f: ZipEntry -> f.name.endsWith(ANDROID_MANIFEST_FILE_NAME) }
                 .findFirst()
-                .get()
+                .orElseThrow { RuntimeException("Android Manifest not found") }
 
             val inputStream = zipFile.getInputStream(manifestEntry)
             val resourcesEntry = zipFile.getEntry("resources.arsc")
@@ -152,6 +146,15 @@ class AndroidManifest private constructor(
             return loadFromBinaryXml(inputStream, resourceTable)
         }
 
+        @Deprecated(
+            "Extract the base split with AndroidResourceLoader.ExtractedSplit and use loadFromApk",
+            ReplaceWith("loadFromApk(baseSplit.zipFile)")
+        )
+        @JvmStatic
+        fun loadFromMokkaZip(baseSplitZipStream: ZipInputStream): AndroidManifest =
+            AndroidResourceLoader.ExtractedSplit.extract("base-split.apk", baseSplitZipStream)
+                .use { split -> loadFromApk(split.zipFile) }
+
         @JvmStatic
         fun loadFromAabDirectory(aabPath: Path): AndroidManifest? {
             val childrenFiles = aabPath.toFile().walk()
@@ -162,32 +165,8 @@ class AndroidManifest private constructor(
             return loadFromPlainXml(manifestFile.readBytes(), resDir)
         }
 
-        @JvmStatic
-        fun loadFromMokkaZip(baseSplitZipStream: ZipInputStream): AndroidManifest {
-            var manifestBytes: ByteArray? = null
-            var resourcesBytes: ByteArray? = null
-            var entry = baseSplitZipStream.nextEntry
-            while (entry != null) {
-                if (entry.name.endsWith(ANDROID_MANIFEST_FILE_NAME)) {
-                    manifestBytes = baseSplitZipStream.readBytes()
-                } else if (entry.name.endsWith("resources.arsc")) {
-                    resourcesBytes = baseSplitZipStream.readBytes()
-                }
-                entry = baseSplitZipStream.nextEntry
-            }
-            if (manifestBytes == null) {
-                throw java.lang.RuntimeException("Android Manifest not found")
-            }
-            val resourceTable = resourcesBytes?.let { bytes ->
-                AndroidResourceLoader.loadResourceTable(ByteArrayInputStream(bytes))
-            }
-            return loadFromBinaryXml(ByteArrayInputStream(manifestBytes), resourceTable)
-        }
-
         private fun getAttribute(doc: Document, pathSpec: String): String {
-            val xPath = XPathFactory.newInstance().newXPath()
-            xPath.namespaceContext = androidNamespace
-            val expression = xPath.compile(pathSpec)
+            val expression = XmlFactories.xPathExpression(pathSpec, androidNamespace)
             return expression.evaluate(doc, XPathConstants.STRING) as String
         }
     }
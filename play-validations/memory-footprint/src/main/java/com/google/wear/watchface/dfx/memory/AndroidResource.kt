@@ -16,6 +16,8 @@
 
 package com.google.wear.watchface.dfx.memory
 
+import java.io.InputStream
+import java.nio.ByteBuffer
 import java.nio.file.Path
 import java.nio.file.Paths
 import java.util.regex.Pattern
@@ -31,9 +33,35 @@ class AndroidResource(
     // Path in the package. This is the obfuscated path to the actual data, where obfuscation has
     // been used, for example "res/raw/watchface.xml" may point to something like "res/li.xml".
     val filePath: Path,
-    // The resource data itself.
-    val data: ByteArray
+    // The source of the resource data, which is only read when needed.
+    private val dataSource: ResourceData
 ) {
+    constructor(
+        resourceType: String,
+        resourceName: String,
+        extension: String,
+        filePath: Path,
+        data: ByteArray
+    ) : this(resourceType, resourceName, extension, filePath, ResourceData.of(data))
+
+    /**
+     * The resource data itself. Unless the resource was created from data in memory, the data is
+     * read from its source on every access, so prefer [openStream] for resources that may be
+     * large, such as images.
+     */
+    val data: ByteArray
+        get() = dataSource.readBytes()
+
+    /** The size of the resource data in bytes. */
+    val size: Long
+        get() = dataSource.size
+
+    /** Opens a new stream over the resource data. The caller is responsible for closing it. */
+    fun openStream(): InputStream = dataSource.openStream()
+
+    /** Returns the resource data as a read-only buffer if it is memory-mapped, otherwise null. */
+    fun asByteBuffer(): ByteBuffer? = dataSource.asByteBuffer()
+
     // TODO: This should be improved to parse res/xml/watch_face_info.xml where present, so as not
     // to assume all XML files in the res/raw directory are watch face XML files.
     fun isWatchFaceXml(): Boolean = extension == "xml" && resourceType == "raw"
@@ -52,14 +80,18 @@ class AndroidResource(
         private const val VALID_RESOURCE_GROUPS: Int = 4
 
         @JvmStatic
-        fun fromPath(filePath: Path, data: ByteArray): AndroidResource {
+        fun fromPath(filePath: Path, data: ByteArray): AndroidResource =
+            fromPath(filePath, ResourceData.of(data))
+
+        @JvmStatic
+        fun fromPath(filePath: Path, dataSource: ResourceData): AndroidResource {
             val pathWithFwdSlashes = filePath.toString().replace('\\', '/')
             val matcher = VALID_RESOURCE_PATH.matcher(pathWithFwdSlashes)
             if (matcher.matches() && matcher.groupCount() == VALID_RESOURCE_GROUPS) {
                 val resType = matcher.group(1)
                 val resName = matcher.group(2)
                 val ext = matcher.group(4)
-                return AndroidResource(resType, resName, ext, filePath, data)
+                return AndroidResource(resType, resName, ext, filePath, dataSource)
             }
             throw RuntimeException("Not a valid resource file: $pathWithFwdSlashes")
         }
@@ -16,17 +16,19 @@
 
 package com.google.wear.watchface.dfx.memory
 
-import com.google.common.io.Files
 import com.google.devrel.gmscore.tools.apk.arsc.ResourceFile
 import com.google.devrel.gmscore.tools.apk.arsc.ResourceTableChunk
 import com.google.devrel.gmscore.tools.apk.arsc.ResourceValue
 import java.io.IOException
 import java.io.InputStream
+import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
 import java.util.zip.ZipEntry
 import java.util.zip.ZipFile
 import java.util.zip.ZipInputStream
+import java.util.zip.ZipOutputStream
 import kotlin.streams.asSequence
 
 /**
@@ -52,7 +54,7 @@ object AndroidResourceLoader {
         return aabPath.toFile().walk().mapNotNull { file ->
             if (AndroidResource.isValidResourcePath(file.toPath())) {
                 val resourceRelativePath =  Paths.get(file.path.substring(relativePathOffset))
-                AndroidResource.fromPath(resourceRelativePath, file.readBytes())
+                AndroidResource.fromPath(resourceRelativePath, ResourceData.ofFile(file.toPath()))
             } else if (file.toPath().endsWith("manifest/AndroidManifest.xml")) {
                 val resourceRelativePath =  Paths.get(file.path.substring(relativePathOffset))
                 AndroidResource(
@@ -60,7 +62,7 @@ object AndroidResourceLoader {
                     resourceName = "AndroidManifest.xml",
                     extension = "xml",
                     filePath = resourceRelativePath,
-                    data = file.readBytes()
+                    dataSource = ResourceData.ofFile(file.toPath())
                 )
             } else {
                 null
@@ -68,13 +70,20 @@ object AndroidResourceLoader {
         }
     }
 
-    fun streamFromAabFile(aabZipFile: ZipFile): Sequence<AndroidResource> {
+    /**
+     * Streams the resources of an AAB. If [mappedZipFile] is a mapping of the same file, then the
+     * uncompressed entries are read from the mapping.
+     */
+    fun streamFromAabFile(
+        aabZipFile: ZipFile,
+        mappedZipFile: MappedZipFile? = null
+    ): Sequence<AndroidResource> {
         return aabZipFile.stream().asSequence().mapNotNull { zipEntry ->
             val zipEntryPath = Paths.get(zipEntry.name)
             if (AndroidResource.isValidResourcePath(zipEntryPath)) {
                 AndroidResource.fromPath(
                     zipEntryPath,
-                    aabZipFile.getInputStream(zipEntry).use { it.readBytes() }
+                    ResourceData.ofZipEntry(aabZipFile, zipEntry, mappedZipFile)
                 )
             } else if (zipEntry.name.endsWith("manifest/AndroidManifest.xml")) {
                 AndroidResource(
@@ -82,7 +91,7 @@ object AndroidResourceLoader {
                     "AndroidManifest",
                     "xml",
                     Paths.get(zipEntry.name),
-                    aabZipFile.getInputStream(zipEntry).use { it.readBytes() }
+                    ResourceData.ofZipEntry(aabZipFile, zipEntry, mappedZipFile)
                 )
             } else {
                 null
@@ -90,22 +99,56 @@ object AndroidResourceLoader {
         }
     }
 
-    fun streamFromMokkaZip(mokkaZip: ZipFile): Sequence<AndroidResource> {
-        return mokkaZip.entries().asSequence().flatMap {
-            val filesStream = ZipInputStream(mokkaZip.getInputStream(it))
-            val entries = sequence {
-                var next = filesStream.nextEntry
-                while (next != null) {
-                    yield(next)
-                    next = filesStream.nextEntry
+    /**
+     * Streams the resources of every split in a mokka zip. If [baseSplit] is given, the split it
+     * was extracted from is read from it instead, rather than being inflated again from the zip.
+     */
+    fun streamFromMokkaZip(
+        mokkaZip: ZipFile,
+        baseSplit: ExtractedSplit? = null
+    ): Sequence<AndroidResource> {
+        return mokkaZip.entries().asSequence().flatMap { split ->
+            if (baseSplit != null && split.name == baseSplit.name) {
+                return@flatMap streamFromZipEntries(baseSplit.zipFile, baseSplit.mappedZipFile)
+            }
+            sequence {
+                ZipInputStream(mokkaZip.getInputStream(split)).use { filesStream ->
+                    var next = filesStream.nextEntry
+                    while (next != null) {
+                        if (AndroidResource.isValidResourcePath(next.name)) {
+                            // The entries of a nested zip can only be read in order, so the data
+                            // of each resource is copied before moving on to the next entry.
+                            yield(AndroidResource.fromPath(next.name, filesStream.readBytes()))
+                        }
+                        next = filesStream.nextEntry
+                    }
                 }
-            }.filter { AndroidResource.isValidResourcePath(it.name) }
-                .map { AndroidResource.fromPath(it.name, filesStream.readBytes()) }
-            entries.toList()
+            }
         }
     }
 
-    fun streamFromApkFile(apkFile: ZipFile): Sequence<AndroidResource> {
+    private fun streamFromZipEntries(
+        zipFile: ZipFile,
+        mappedZipFile: MappedZipFile?
+    ): Sequence<AndroidResource> {
+        return zipFile.stream().asSequence()
+            .filter { AndroidResource.isValidResourcePath(it.name) }
+            .map { entry ->
+                AndroidResource.fromPath(
+                    Paths.get(entry.name),
+                    ResourceData.ofZipEntry(zipFile, entry, mappedZipFile)
+                )
+            }
+    }
+
+    /**
+     * Streams the resources of an APK. If [mappedZipFile] is a mapping of the same file, then the
+     * uncompressed entries are read from the mapping.
+     */
+    fun streamFromApkFile(
+        apkFile: ZipFile,
+        mappedZipFile: MappedZipFile? = null
+    ): Sequence<AndroidResource> {
         val arscEntry = ZipEntry(RESOURCES_FILE_NAME)
 
         val table = apkFile.getInputStream(arscEntry).use { loadResourceTable(it) }
@@ -119,13 +162,12 @@ object AndroidResourceLoader {
             .filter { it.value()?.type() == ResourceValue.Type.STRING }
             .map { entry ->
                 val path = stringPool.getString(entry.value()!!.data())
-                val data = apkFile.getInputStream(ZipEntry(path)).readBytes()
                 AndroidResource(
                     entry.parent().typeName,
                     entry.key(),
-                    Files.getFileExtension(path),
+                    com.google.common.io.Files.getFileExtension(path),
                     Paths.get(path),
-                    data
+                    ResourceData.ofZipEntry(apkFile, path, mappedZipFile)
                 )
             }
     }
@@ -140,6 +182,76 @@ object AndroidResourceLoader {
         return chunks[0] as ResourceTableChunk
     }
 
+    /**
+     * A split APK nested in a mokka zip, extracted once to a temporary file, so that its entries
+     * can be read in any order. Closing it deletes the temporary file.
+     */
+    class ExtractedSplit private constructor(
+        /** The name of the split entry in the mokka zip. */
+        val name: String,
+        private val path: Path,
+        val zipFile: ZipFile,
+        val mappedZipFile: MappedZipFile?
+    ) : AutoCloseable {
+        override fun close() {
+            try {
+                zipFile.close()
+            } finally {
+                try {
+                    Files.deleteIfExists(path)
+                } catch (e: IOException) {
+                    // the file may still be mapped on some platforms, so retry on exit
+                    path.toFile().deleteOnExit()
+                }
+            }
+        }
+
+        companion object {
+            /** Extracts the given split entry of a mokka zip. */
+            @JvmStatic
+            fun extract(mokkaZip: ZipFile, splitEntry: ZipEntry): ExtractedSplit =
+                extract(splitEntry.name) { path ->
+                    mokkaZip.getInputStream(splitEntry).use { stream ->
+                        Files.copy(stream, path, StandardCopyOption.REPLACE_EXISTING)
+                    }
+                }
+
+            /**
+             * Extracts a split from a stream over its entries, for callers that have already
+             * opened the split as a [ZipInputStream]. The entries are written back to a temporary
+             * zip, so the split can then be read in the same way as one extracted from a mokka zip.
+             */
+            @JvmStatic
+            fun extract(name: String, splitStream: ZipInputStream): ExtractedSplit =
+                extract(name) { path ->
+                    ZipOutputStream(Files.newOutputStream(path)).use { output ->
+                        var entry = splitStream.nextEntry
+                        while (entry != null) {
+                            output.putNextEntry(ZipEntry(entry.name))
+                            splitStream.copyTo(output)
+                            output.closeEntry()
+                            entry = splitStream.nextEntry
+                        }
+                    }
+                }
+
+            private fun extract(name: String, writeSplit: (Path) -> Unit): ExtractedSplit {
+                val path = Files.createTempFile("split", ".apk")
+                var zipFile: ZipFile? = null
+                try {
+                    writeSplit(path)
+                    zipFile = ZipFile(path.toFile())
+                    return ExtractedSplit(name, path, zipFile, MappedZipFile.open(path))
+                } catch (e: Exception) {
+                    // the zip file must be closed before the file can be deleted on Windows
+                    zipFile?.close()
+                    Files.deleteIfExists(path)
+                    throw e
+                }
+            }
+        }
+    }
+
     @JvmStatic
     fun readAllBytes(steam: InputStream) = steam.readBytes()
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Evaluates the memory footprint of many watch face packages in a single process, so that the
+ * startup costs of the evaluator are paid only once.
+ *
+ * <p>Every package is evaluated with the same settings and produces a JSON report, which has the
+ * same shape as the one produced in report mode, plus a {@code watchFace} property holding the
+ * path of the package. A package that fails to be evaluated produces a report with the {@code
+ * error} and {@code stackTrace} properties instead, and does not affect the evaluation of the
+ * other packages.
+ */
+@SuppressWarnings("KotlinInternal")
+class BatchEvaluator {
+    private static final Set<String> PACKAGE_EXTENSIONS = ImmutableSet.of(".apk", ".aab", ".zip");
+
+    private final EvaluationSettings evaluationSettings;
+    /** The metrics of each package evaluated so far, by package path. */
+    private final Map<String, EvaluationMetrics> packageMetrics = new ConcurrentHashMap<>();
+
+    BatchEvaluator(EvaluationSettings evaluationSettings) {
+        this.evaluationSettings = evaluationSettings;
+    }
+
+    /**
+     * Evaluates all the packages of the batch and writes their reports, either as JSON Lines to
+     * the given stream, or as one file per package in the batch output directory. The reports are
+     * written in the order in which the packages are listed, regardless of the parallelism.
+     *
+     * @param out the stream where the JSON Lines are written when there is no output directory.
+     * @return true if all the packages were evaluated successfully.
+     * @throws IOException if the batch input cannot be read or a report cannot be written.
+     */
+    boolean evaluate(PrintStream out) throws IOException {
+        List<String> packagePaths = readPackagePaths(Paths.get(evaluationSettings.getBatchInput()));
+        String outputDirectory = evaluationSettings.getBatchOutputDirectory();
+        if (outputDirectory != null) {
+            Files.createDirectories(Paths.get(outputDirectory));
+        }
+
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        evaluationSettings.getBatchParallelism(),
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("batch-evaluation-%d")
+                                .setDaemon(true)
+                                .build());
+        try {
+            List<Future<JsonObject>> reports = new ArrayList<>();
+            for (String packagePath : packagePaths) {
+                reports.add(executor.submit(() -> evaluatePackage(packagePath)));
+            }
+
+            Gson lineGson = new Gson();
+            Gson fileGson = new GsonBuilder().setPrettyPrinting().create();
+            Set<String> usedReportNames = new HashSet<>();
+            boolean allSucceeded = true;
+            for (int i = 0; i < packagePaths.size(); i++) {
+                JsonObject report = awaitReport(packagePaths.get(i), reports.get(i));
+                allSucceeded &= !report.has("error");
+                if (outputDirectory == null) {
+                    out.println(lineGson.toJson(report));
+                } else {
+                    String reportName = reportFileName(packagePaths.get(i), i, usedReportNames);
+                    Files.write(
+                            Paths.get(outputDirectory, reportName),
+                            fileGson.toJson(report).getBytes(UTF_8));
+                }
+            }
+            if (evaluationSettings.getTraceFile() != null) {
+                writeTrace(packagePaths, Paths.get(evaluationSettings.getTraceFile()));
+            }
+            return allSucceeded;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Writes a single trace of all the evaluated packages, in the order of the batch. */
+    private void writeTrace(List<String> packagePaths, Path traceFile) throws IOException {
+        Map<String, EvaluationMetrics> evaluations = new LinkedHashMap<>();
+        for (String packagePath : packagePaths) {
+            EvaluationMetrics metrics = packageMetrics.get(packagePath);
+            if (metrics != null) {
+                evaluations.put(packagePath, metrics);
+            }
+        }
+        EvaluationMetrics.writeTrace(evaluations, traceFile);
+    }
+
+    /** Evaluates a single package of the batch, turning any failure into an error report. */
+    JsonObject evaluatePackage(String packagePath) {
+        EvaluationSettings packageSettings = evaluationSettings.withWatchFacePath(packagePath);
+        packageMetrics.put(packagePath, packageSettings.getMetrics());
+        JsonObject report;
+        try {
+            report = ResourceMemoryEvaluator.createJsonReport(packageSettings);
+        } catch (Exception e) {
+            report = errorReport(e);
+        }
+        report.addProperty("watchFace", packagePath);
+        if (evaluationSettings.getReportMetrics()) {
+            report.add("metrics", packageSettings.getMetrics().toJson());
+        }
+        return report;
+    }
+
+    /**
+     * Reads the paths of the packages to be evaluated. If the batch input is a directory, then all
+     * the packages inside it are returned, sorted by path. Unpacked bundles, i.e. subdirectories,
+     * are considered packages as well. Otherwise, the batch input is a file listing one package
+     * path per line, where blank lines and lines starting with # are ignored.
+     */
+    static List<String> readPackagePaths(Path batchInput) throws IOException {
+        if (Files.isDirectory(batchInput)) {
+            try (Stream<Path> children = Files.list(batchInput)) {
+                return children.filter(BatchEvaluator::isPackage)
+                        .map(Path::toString)
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+        return Files.readAllLines(batchInput, UTF_8).stream()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .collect(Collectors.toList());
+    }
+
+    private static boolean isPackage(Path path) {
+        if (Files.isDirectory(path)) {
+            return true;
+        }
+        String fileName = path.getFileName().toString();
+        int extensionStart = fileName.lastIndexOf('.');
+        return extensionStart >= 0
+                && PACKAGE_EXTENSIONS.contains(fileName.substring(extensionStart).toLowerCase());
+    }
+
+    private static JsonObject awaitReport(String packagePath, Future<JsonObject> report) {
+        try {
+            return report.get();
+        } catch (ExecutionException e) {
+            // evaluatePackage handles all exceptions, so only errors end up here
+            JsonObject errorReport = errorReport(e.getCause() != null ? e.getCause() : e);
+            errorReport.addProperty("watchFace", packagePath);
+            return errorReport;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating " + packagePath, e);
+        }
+    }
+
+    private static JsonObject errorReport(Throwable throwable) {
+        StringWriter stringWriter = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(stringWriter));
+        JsonObject errorReport = new JsonObject();
+        errorReport.addProperty("error", throwable.getMessage());
+        errorReport.addProperty("stackTrace", stringWriter.toString());
+        return errorReport;
+    }
+
+    /**
+     * Returns the name of the report file for the given package. Packages from different
+     * directories may share the same file name, in which case the index of the package in the
+     * batch is used to tell their reports apart.
+     */
+    private static String reportFileName(String packagePath, int index, Set<String> usedNames) {
+        String reportName = Paths.get(packagePath).getFileName() + ".json";
+        if (!usedNames.add(reportName)) {
+            reportName = String.format("%s-%d.json", Paths.get(packagePath).getFileName(), index);
+            usedNames.add(reportName);
+        }
+        return reportName;
+    }
+}
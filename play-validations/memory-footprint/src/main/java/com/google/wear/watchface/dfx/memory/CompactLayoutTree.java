@@ -0,0 +1,1171 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import com.google.common.primitives.ImmutableIntArray;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Comment;
+import org.w3c.dom.DOMConfiguration;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.EntityReference;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.TypeInfo;
+import org.w3c.dom.UserDataHandler;
+
+/**
+ * An immutable, array-backed watch face layout, built in a single StAX pass. Compared to a W3C DOM,
+ * it stores each node as a few ints, and shares the strings of the tag and attribute names.
+ *
+ * <p>The nodes are numbered in document order, the document itself being node 0. The children of
+ * each node and the attributes of each element are stored as contiguous ranges of shared arrays.
+ * Comments, processing instructions and whitespace-only text are dropped, while adjacent text and
+ * CDATA sections are merged into a single text node.
+ *
+ * <p>{@link #asDocument()} exposes the tree through read-only implementations of the W3C DOM
+ * interfaces, so the memory footprint calculators run on it unchanged. The features that the
+ * calculators do not need, such as namespace-aware lookups by name, are not supported. Each node
+ * is always represented by the same {@link Node} object, so nodes can be used as map keys. Any
+ * attempt to modify the tree throws a {@link DOMException}.
+ */
+@SuppressWarnings("KotlinInternal")
+final class CompactLayoutTree {
+    private static final int DOCUMENT_INDEX = 0;
+    private static final int NO_PARENT = -1;
+    private static final String DOCUMENT_NAME = "#document";
+    private static final String TEXT_NAME = "#text";
+
+    /** The distinct names of the elements and attributes. */
+    private final String[] names;
+
+    /** For each node, the index of its name in {@link #names}. */
+    private final int[] nodeNameIds;
+
+    /** For each node, the index of its parent, or {@link #NO_PARENT} for the document. */
+    private final int[] parents;
+
+    /**
+     * The children of node {@code i} are {@code children[childStarts[i]]} up to, excluding, {@code
+     * children[childStarts[i + 1]]}.
+     */
+    private final int[] childStarts;
+
+    private final int[] children;
+
+    /**
+     * For each node but the document, the index in {@link #children} at which it is stored, so that
+     * its siblings are found without scanning the children of its parent.
+     */
+    private final int[] childSlots;
+
+    /**
+     * The attributes of element {@code i} are at the indexes {@code attributeStarts[i]} up to,
+     * excluding, {@code attributeStarts[i + 1]} of {@link #attributeNameIds} and {@link
+     * #attributeValues}. The range of a text node holds its text, with no name.
+     */
+    private final int[] attributeStarts;
+
+    private final int[] attributeNameIds;
+    private final String[] attributeValues;
+
+    /** The DOM view of each node, by node index. */
+    private final TreeNode[] nodes;
+
+    private CompactLayoutTree(
+            String[] names,
+            int[] nodeNameIds,
+            int[] parents,
+            int[] attributeStarts,
+            int[] attributeNameIds,
+            String[] attributeValues) {
+        this.names = names;
+        this.nodeNameIds = nodeNameIds;
+        this.parents = parents;
+        this.attributeStarts = attributeStarts;
+        this.attributeNameIds = attributeNameIds;
+        this.attributeValues = attributeValues;
+
+        // Nodes are numbered in document order, so bucketing them by parent keeps the children of
+        // each node in document order.
+        int nodeCount = nodeNameIds.length;
+        this.childStarts = new int[nodeCount + 1];
+        for (int i = 1; i < nodeCount; i++) {
+            childStarts[parents[i] + 1]++;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            childStarts[i + 1] += childStarts[i];
+        }
+        this.children = new int[Math.max(0, nodeCount - 1)];
+        this.childSlots = new int[nodeCount];
+        childSlots[DOCUMENT_INDEX] = -1;
+        int[] nextChildSlots = childStarts.clone();
+        for (int i = 1; i < nodeCount; i++) {
+            int slot = nextChildSlots[parents[i]]++;
+            children[slot] = i;
+            childSlots[i] = slot;
+        }
+
+        this.nodes = new TreeNode[nodeCount];
+        nodes[DOCUMENT_INDEX] = new DocumentNode();
+        for (int i = 1; i < nodeCount; i++) {
+            nodes[i] = isText(i) ? new TextNode(i) : new ElementNode(i);
+        }
+    }
+
+    /** Parses the layout from the given stream, which is not closed. */
+    static CompactLayoutTree parse(InputStream inputStream) throws XMLStreamException {
+        XMLStreamReader reader = XmlFactories.xmlInputFactory().createXMLStreamReader(inputStream);
+        try {
+            return new Builder().build(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** Returns the document node of the tree. */
+    Document asDocument() {
+        return (Document) nodes[DOCUMENT_INDEX];
+    }
+
+    /** Returns the number of nodes of the tree, including the document. */
+    int getNodeCount() {
+        return nodes.length;
+    }
+
+    /**
+     * Returns a W3C DOM copy of the given document if it is the document of a compact layout, or
+     * the document itself otherwise. The copy is needed by the consumers that rely on the full DOM
+     * semantics, such as the XSD validation.
+     */
+    static Document toW3cDocument(Document document) {
+        if (!(document instanceof CompactLayoutTree.DocumentNode)) {
+            return document;
+        }
+        CompactLayoutTree tree = ((CompactLayoutTree.DocumentNode) document).getTree();
+        Document copy = XmlFactories.namespaceAwareDocumentBuilder().newDocument();
+        tree.copyChildren(DOCUMENT_INDEX, copy, copy);
+        return copy;
+    }
+
+    private void copyChildren(int node, Node copyParent, Document copy) {
+        for (int i = childStarts[node]; i < childStarts[node + 1]; i++) {
+            int child = children[i];
+            if (isText(child)) {
+                copyParent.appendChild(
+                        copy.createTextNode(attributeValues[attributeStarts[child]]));
+                continue;
+            }
+            String name = names[nodeNameIds[child]];
+            Element element = copy.createElementNS(elementNamespaceUri(child), name);
+            for (int j = attributeStarts[child]; j < attributeStarts[child + 1]; j++) {
+                String attributeName = names[attributeNameIds[j]];
+                element.setAttributeNS(
+                        attributeNamespaceUri(child, attributeName),
+                        attributeName,
+                        attributeValues[j]);
+            }
+            copyParent.appendChild(element);
+            copyChildren(child, element, copy);
+        }
+    }
+
+    private boolean isText(int node) {
+        int start = attributeStarts[node];
+        return start < attributeStarts[node + 1] && attributeNameIds[start] == -1;
+    }
+
+    private String getAttribute(int node, String name) {
+        for (int i = attributeStarts[node]; i < attributeStarts[node + 1]; i++) {
+            int nameId = attributeNameIds[i];
+            if (nameId != -1 && names[nameId].equals(name)) {
+                return attributeValues[i];
+            }
+        }
+        return null;
+    }
+
+    private String elementNamespaceUri(int element) {
+        return namespaceUri(element, prefixOf(names[nodeNameIds[element]]));
+    }
+
+    private String attributeNamespaceUri(int element, String attributeName) {
+        if (attributeName.equals("xmlns") || attributeName.startsWith("xmlns:")) {
+            return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+        }
+        // unprefixed attributes are in no namespace, rather than in the default one
+        String prefix = prefixOf(attributeName);
+        return prefix == null ? null : namespaceUri(element, prefix);
+    }
+
+    /**
+     * Returns the namespace bound to the given prefix, or the default namespace if the prefix is
+     * null, by the declarations in scope at the given node.
+     */
+    private String namespaceUri(int node, String prefix) {
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return XMLConstants.XML_NS_URI;
+        }
+        String declaration = prefix == null ? "xmlns" : "xmlns:" + prefix;
+        for (int current = node; current != NO_PARENT; current = parents[current]) {
+            String uri = getAttribute(current, declaration);
+            if (uri != null) {
+                return uri.isEmpty() ? null : uri;
+            }
+        }
+        return null;
+    }
+
+    private static String prefixOf(String name) {
+        int colon = name.indexOf(':');
+        return colon == -1 ? null : name.substring(0, colon);
+    }
+
+    private static String localNameOf(String name) {
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    private void appendTextContent(int node, StringBuilder builder) {
+        if (isText(node)) {
+            builder.append(attributeValues[attributeStarts[node]]);
+            return;
+        }
+        for (int i = childStarts[node]; i < childStarts[node + 1]; i++) {
+            appendTextContent(children[i], builder);
+        }
+    }
+
+    /** Builds the arrays of a tree from the events of a stream reader. */
+    private static final class Builder {
+        private final Map<String, Integer> nameIds = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final ImmutableIntArray.Builder nodeNameIds = ImmutableIntArray.builder();
+        private final ImmutableIntArray.Builder parents = ImmutableIntArray.builder();
+        private final ImmutableIntArray.Builder attributeStarts = ImmutableIntArray.builder();
+        private final ImmutableIntArray.Builder attributeNameIds = ImmutableIntArray.builder();
+        private final List<String> attributeValues = new ArrayList<>();
+
+        /** The indexes of the elements that are open, the innermost one first. */
+        private final ArrayDeque<Integer> openNodes = new ArrayDeque<>();
+
+        /** The text read since the last element boundary. */
+        private final StringBuilder pendingText = new StringBuilder();
+
+        private int nodeCount = 0;
+
+        CompactLayoutTree build(XMLStreamReader reader) throws XMLStreamException {
+            addNode(nameId(DOCUMENT_NAME), NO_PARENT);
+            openNodes.push(DOCUMENT_INDEX);
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        flushText();
+                        int element = addNode(nameId(qualifiedName(reader)), openNodes.peek());
+                        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                            String prefix = reader.getNamespacePrefix(i);
+                            addAttribute(
+                                    prefix == null || prefix.isEmpty()
+                                            ? "xmlns"
+                                            : "xmlns:" + prefix,
+                                    reader.getNamespaceURI(i));
+                        }
+                        for (int i = 0; i < reader.getAttributeCount(); i++) {
+                            addAttribute(
+                                    qualifiedName(
+                                            reader.getAttributePrefix(i),
+                                            reader.getAttributeLocalName(i)),
+                                    reader.getAttributeValue(i));
+                        }
+                        openNodes.push(element);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        flushText();
+                        openNodes.pop();
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        pendingText.append(reader.getText());
+                        break;
+                    default:
+                        // comments, processing instructions and the document boundaries
+                        break;
+                }
+            }
+            attributeStarts.add(attributeValues.size());
+            return new CompactLayoutTree(
+                    names.toArray(new String[0]),
+                    nodeNameIds.build().toArray(),
+                    parents.build().toArray(),
+                    attributeStarts.build().toArray(),
+                    attributeNameIds.build().toArray(),
+                    attributeValues.toArray(new String[0]));
+        }
+
+        private int addNode(int nameId, int parent) {
+            nodeNameIds.add(nameId);
+            parents.add(parent);
+            attributeStarts.add(attributeValues.size());
+            return nodeCount++;
+        }
+
+        private void addAttribute(String name, String value) {
+            attributeNameIds.add(nameId(name));
+            attributeValues.add(value);
+        }
+
+        private void flushText() {
+            if (pendingText.length() == 0) {
+                return;
+            }
+            if (!pendingText.toString().isBlank()) {
+                addNode(nameId(TEXT_NAME), openNodes.peek());
+                attributeNameIds.add(-1);
+                attributeValues.add(pendingText.toString());
+            }
+            pendingText.setLength(0);
+        }
+
+        private int nameId(String name) {
+            return nameIds.computeIfAbsent(
+                    name,
+                    key -> {
+                        names.add(key);
+                        return names.size() - 1;
+                    });
+        }
+
+        private static String qualifiedName(XMLStreamReader reader) {
+            return qualifiedName(reader.getPrefix(), reader.getLocalName());
+        }
+
+        private static String qualifiedName(String prefix, String localName) {
+            return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+        }
+    }
+
+    private static DOMException readOnly() {
+        return new DOMException(
+                DOMException.NO_MODIFICATION_ALLOWED_ERR, "The compact layout tree is read-only");
+    }
+
+    private static DOMException notSupported() {
+        return new DOMException(
+                DOMException.NOT_SUPPORTED_ERR,
+                "The compact layout tree does not support this operation");
+    }
+
+    /** The children of a node. */
+    private final class ChildList implements NodeList {
+        private final int node;
+
+        ChildList(int node) {
+            this.node = node;
+        }
+
+        @Override
+        public Node item(int index) {
+            if (index < 0 || index >= getLength()) {
+                return null;
+            }
+            return nodes[children[childStarts[node] + index]];
+        }
+
+        @Override
+        public int getLength() {
+            return childStarts[node + 1] - childStarts[node];
+        }
+    }
+
+    /** A list of nodes, given by their indexes. */
+    private final class IndexList implements NodeList {
+        private final int[] indexes;
+
+        IndexList(int[] indexes) {
+            this.indexes = indexes;
+        }
+
+        @Override
+        public Node item(int index) {
+            return index < 0 || index >= indexes.length ? null : nodes[indexes[index]];
+        }
+
+        @Override
+        public int getLength() {
+            return indexes.length;
+        }
+    }
+
+    /** The attributes of an element. */
+    private final class AttributeMap implements NamedNodeMap {
+        private final int element;
+
+        AttributeMap(int element) {
+            this.element = element;
+        }
+
+        @Override
+        public Node getNamedItem(String name) {
+            for (int i = attributeStarts[element]; i < attributeStarts[element + 1]; i++) {
+                if (names[attributeNameIds[i]].equals(name)) {
+                    return new AttributeNode(element, i);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Node item(int index) {
+            if (index < 0 || index >= getLength()) {
+                return null;
+            }
+            return new AttributeNode(element, attributeStarts[element] + index);
+        }
+
+        @Override
+        public int getLength() {
+            return attributeStarts[element + 1] - attributeStarts[element];
+        }
+
+        @Override
+        public Node setNamedItem(Node arg) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node removeNamedItem(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node getNamedItemNS(String namespaceURI, String localName) {
+            throw notSupported();
+        }
+
+        @Override
+        public Node setNamedItemNS(Node arg) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node removeNamedItemNS(String namespaceURI, String localName) {
+            throw readOnly();
+        }
+    }
+
+    /** The common, read-only implementation of the nodes of the tree. */
+    private abstract class TreeNode implements Node {
+        final int index;
+
+        TreeNode(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getNodeName() {
+            return names[nodeNameIds[index]];
+        }
+
+        @Override
+        public String getNodeValue() {
+            return null;
+        }
+
+        @Override
+        public void setNodeValue(String nodeValue) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node getParentNode() {
+            int parent = parents[index];
+            return parent == NO_PARENT ? null : nodes[parent];
+        }
+
+        @Override
+        public NodeList getChildNodes() {
+            return new ChildList(index);
+        }
+
+        @Override
+        public Node getFirstChild() {
+            return hasChildNodes() ? nodes[children[childStarts[index]]] : null;
+        }
+
+        @Override
+        public Node getLastChild() {
+            return hasChildNodes() ? nodes[children[childStarts[index + 1] - 1]] : null;
+        }
+
+        @Override
+        public Node getPreviousSibling() {
+            return siblingAt(-1);
+        }
+
+        @Override
+        public Node getNextSibling() {
+            return siblingAt(1);
+        }
+
+        private Node siblingAt(int offset) {
+            int parent = parents[index];
+            if (parent == NO_PARENT) {
+                return null;
+            }
+            int sibling = childSlots[index] + offset;
+            return sibling >= childStarts[parent] && sibling < childStarts[parent + 1]
+                    ? nodes[children[sibling]]
+                    : null;
+        }
+
+        @Override
+        public NamedNodeMap getAttributes() {
+            return null;
+        }
+
+        @Override
+        public Document getOwnerDocument() {
+            return asDocument();
+        }
+
+        @Override
+        public Node insertBefore(Node newChild, Node refChild) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node replaceChild(Node newChild, Node oldChild) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node removeChild(Node oldChild) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node appendChild(Node newChild) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean hasChildNodes() {
+            return childStarts[index + 1] > childStarts[index];
+        }
+
+        @Override
+        public Node cloneNode(boolean deep) {
+            throw notSupported();
+        }
+
+        @Override
+        public void normalize() {
+            // the text nodes are merged when the tree is built
+        }
+
+        @Override
+        public boolean isSupported(String feature, String version) {
+            return false;
+        }
+
+        @Override
+        public String getNamespaceURI() {
+            return null;
+        }
+
+        @Override
+        public String getPrefix() {
+            return null;
+        }
+
+        @Override
+        public void setPrefix(String prefix) {
+            throw readOnly();
+        }
+
+        @Override
+        public String getLocalName() {
+            return null;
+        }
+
+        @Override
+        public boolean hasAttributes() {
+            return false;
+        }
+
+        @Override
+        public String getBaseURI() {
+            return null;
+        }
+
+        @Override
+        public short compareDocumentPosition(Node other) {
+            throw notSupported();
+        }
+
+        @Override
+        public String getTextContent() {
+            StringBuilder builder = new StringBuilder();
+            appendTextContent(index, builder);
+            return builder.toString();
+        }
+
+        @Override
+        public void setTextContent(String textContent) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean isSameNode(Node other) {
+            return this == other;
+        }
+
+        @Override
+        public String lookupPrefix(String namespaceURI) {
+            return null;
+        }
+
+        @Override
+        public boolean isDefaultNamespace(String namespaceURI) {
+            return false;
+        }
+
+        @Override
+        public String lookupNamespaceURI(String prefix) {
+            return namespaceUri(index, prefix);
+        }
+
+        @Override
+        public boolean isEqualNode(Node arg) {
+            return this == arg;
+        }
+
+        @Override
+        public Object getFeature(String feature, String version) {
+            return null;
+        }
+
+        @Override
+        public Object setUserData(String key, Object data, UserDataHandler handler) {
+            throw notSupported();
+        }
+
+        @Override
+        public Object getUserData(String key) {
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + getNodeName() + ": " + getNodeValue() + "]";
+        }
+    }
+
+    private final class ElementNode extends TreeNode implements Element {
+        ElementNode(int index) {
+            super(index);
+        }
+
+        @Override
+        public short getNodeType() {
+            return ELEMENT_NODE;
+        }
+
+        @Override
+        public NamedNodeMap getAttributes() {
+            return new AttributeMap(index);
+        }
+
+        @Override
+        public boolean hasAttributes() {
+            return attributeStarts[index + 1] > attributeStarts[index];
+        }
+
+        @Override
+        public String getNamespaceURI() {
+            return elementNamespaceUri(index);
+        }
+
+        @Override
+        public String getPrefix() {
+            return prefixOf(getNodeName());
+        }
+
+        @Override
+        public String getLocalName() {
+            return localNameOf(getNodeName());
+        }
+
+        @Override
+        public String getTagName() {
+            return getNodeName();
+        }
+
+        @Override
+        public String getAttribute(String name) {
+            String value = CompactLayoutTree.this.getAttribute(index, name);
+            return value == null ? "" : value;
+        }
+
+        @Override
+        public void setAttribute(String name, String value) {
+            throw readOnly();
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr getAttributeNode(String name) {
+            return (Attr) getAttributes().getNamedItem(name);
+        }
+
+        @Override
+        public Attr setAttributeNode(Attr newAttr) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr removeAttributeNode(Attr oldAttr) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagName(String name) {
+            throw notSupported();
+        }
+
+        @Override
+        public String getAttributeNS(String namespaceURI, String localName) {
+            throw notSupported();
+        }
+
+        @Override
+        public void setAttributeNS(String namespaceURI, String qualifiedName, String value) {
+            throw readOnly();
+        }
+
+        @Override
+        public void removeAttributeNS(String namespaceURI, String localName) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr getAttributeNodeNS(String namespaceURI, String localName) {
+            throw notSupported();
+        }
+
+        @Override
+        public Attr setAttributeNodeNS(Attr newAttr) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+            throw notSupported();
+        }
+
+        @Override
+        public boolean hasAttribute(String name) {
+            return CompactLayoutTree.this.getAttribute(index, name) != null;
+        }
+
+        @Override
+        public boolean hasAttributeNS(String namespaceURI, String localName) {
+            throw notSupported();
+        }
+
+        @Override
+        public TypeInfo getSchemaTypeInfo() {
+            return null;
+        }
+
+        @Override
+        public void setIdAttribute(String name, boolean isId) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setIdAttributeNS(String namespaceURI, String localName, boolean isId) {
+            throw readOnly();
+        }
+
+        @Override
+        public void setIdAttributeNode(Attr idAttr, boolean isId) {
+            throw readOnly();
+        }
+    }
+
+    private final class TextNode extends TreeNode {
+        TextNode(int index) {
+            super(index);
+        }
+
+        @Override
+        public short getNodeType() {
+            return TEXT_NODE;
+        }
+
+        @Override
+        public String getNodeValue() {
+            return attributeValues[attributeStarts[index]];
+        }
+    }
+
+    /** An attribute of an element. Attributes are not part of the tree, like in the DOM. */
+    private final class AttributeNode extends TreeNode implements Attr {
+        private final int attribute;
+
+        AttributeNode(int element, int attribute) {
+            super(element);
+            this.attribute = attribute;
+        }
+
+        @Override
+        public String getNodeName() {
+            return getName();
+        }
+
+        @Override
+        public short getNodeType() {
+            return ATTRIBUTE_NODE;
+        }
+
+        @Override
+        public String getNodeValue() {
+            return getValue();
+        }
+
+        @Override
+        public Node getParentNode() {
+            return null;
+        }
+
+        @Override
+        public NodeList getChildNodes() {
+            return new IndexList(new int[0]);
+        }
+
+        @Override
+        public Node getFirstChild() {
+            return null;
+        }
+
+        @Override
+        public Node getLastChild() {
+            return null;
+        }
+
+        @Override
+        public Node getPreviousSibling() {
+            return null;
+        }
+
+        @Override
+        public Node getNextSibling() {
+            return null;
+        }
+
+        @Override
+        public boolean hasChildNodes() {
+            return false;
+        }
+
+        @Override
+        public String getTextContent() {
+            return getValue();
+        }
+
+        @Override
+        public boolean isSameNode(Node other) {
+            return other instanceof AttributeNode
+                    && ((AttributeNode) other).attribute == attribute
+                    && ((AttributeNode) other).getTree() == getTree();
+        }
+
+        @Override
+        public boolean isEqualNode(Node other) {
+            return isSameNode(other);
+        }
+
+        @Override
+        public String getNamespaceURI() {
+            return attributeNamespaceUri(index, getName());
+        }
+
+        @Override
+        public String getPrefix() {
+            return prefixOf(getName());
+        }
+
+        @Override
+        public String getLocalName() {
+            return localNameOf(getName());
+        }
+
+        @Override
+        public String getName() {
+            return names[attributeNameIds[attribute]];
+        }
+
+        @Override
+        public boolean getSpecified() {
+            return true;
+        }
+
+        @Override
+        public String getValue() {
+            return attributeValues[attribute];
+        }
+
+        @Override
+        public void setValue(String value) {
+            throw readOnly();
+        }
+
+        @Override
+        public Element getOwnerElement() {
+            return (Element) nodes[index];
+        }
+
+        @Override
+        public TypeInfo getSchemaTypeInfo() {
+            return null;
+        }
+
+        @Override
+        public boolean isId() {
+            return false;
+        }
+
+        private CompactLayoutTree getTree() {
+            return CompactLayoutTree.this;
+        }
+    }
+
+    private final class DocumentNode extends TreeNode implements Document {
+        DocumentNode() {
+            super(DOCUMENT_INDEX);
+        }
+
+        CompactLayoutTree getTree() {
+            return CompactLayoutTree.this;
+        }
+
+        @Override
+        public short getNodeType() {
+            return DOCUMENT_NODE;
+        }
+
+        @Override
+        public Document getOwnerDocument() {
+            return null;
+        }
+
+        @Override
+        public String getTextContent() {
+            return null;
+        }
+
+        @Override
+        public DocumentType getDoctype() {
+            return null;
+        }
+
+        @Override
+        public DOMImplementation getImplementation() {
+            throw notSupported();
+        }
+
+        @Override
+        public Element getDocumentElement() {
+            for (int i = childStarts[DOCUMENT_INDEX]; i < childStarts[DOCUMENT_INDEX + 1]; i++) {
+                if (nodes[children[i]] instanceof Element) {
+                    return (Element) nodes[children[i]];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Element createElement(String tagName) {
+            throw readOnly();
+        }
+
+        @Override
+        public DocumentFragment createDocumentFragment() {
+            throw readOnly();
+        }
+
+        @Override
+        public Text createTextNode(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public Comment createComment(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public CDATASection createCDATASection(String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public ProcessingInstruction createProcessingInstruction(String target, String data) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr createAttribute(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public EntityReference createEntityReference(String name) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagName(String tagname) {
+            boolean matchAll = tagname.equals("*");
+            ImmutableIntArray.Builder matches = ImmutableIntArray.builder();
+            for (int i = 1; i < nodeNameIds.length; i++) {
+                if (!isText(i) && (matchAll || names[nodeNameIds[i]].equals(tagname))) {
+                    matches.add(i);
+                }
+            }
+            return new IndexList(matches.build().toArray());
+        }
+
+        @Override
+        public Node importNode(Node importedNode, boolean deep) {
+            throw readOnly();
+        }
+
+        @Override
+        public Element createElementNS(String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+
+        @Override
+        public Attr createAttributeNS(String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+
+        @Override
+        public NodeList getElementsByTagNameNS(String namespaceURI, String localName) {
+            throw notSupported();
+        }
+
+        @Override
+        public Element getElementById(String elementId) {
+            return null;
+        }
+
+        @Override
+        public String getInputEncoding() {
+            return null;
+        }
+
+        @Override
+        public String getXmlEncoding() {
+            return null;
+        }
+
+        @Override
+        public boolean getXmlStandalone() {
+            return false;
+        }
+
+        @Override
+        public void setXmlStandalone(boolean xmlStandalone) {
+            throw readOnly();
+        }
+
+        @Override
+        public String getXmlVersion() {
+            return "1.0";
+        }
+
+        @Override
+        public void setXmlVersion(String xmlVersion) {
+            throw readOnly();
+        }
+
+        @Override
+        public boolean getStrictErrorChecking() {
+            return true;
+        }
+
+        @Override
+        public void setStrictErrorChecking(boolean strictErrorChecking) {
+            throw readOnly();
+        }
+
+        @Override
+        public String getDocumentURI() {
+            return null;
+        }
+
+        @Override
+        public void setDocumentURI(String documentURI) {
+            throw readOnly();
+        }
+
+        @Override
+        public Node adoptNode(Node source) {
+            throw readOnly();
+        }
+
+        @Override
+        public DOMConfiguration getDomConfig() {
+            throw notSupported();
+        }
+
+        @Override
+        public void normalizeDocument() {
+            // the text nodes are merged when the tree is built
+        }
+
+        @Override
+        public Node renameNode(Node n, String namespaceURI, String qualifiedName) {
+            throw readOnly();
+        }
+    }
+}
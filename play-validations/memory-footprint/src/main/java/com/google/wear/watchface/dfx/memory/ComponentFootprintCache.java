@@ -0,0 +1,86 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The maximum footprints of the components of a layout, ie. of its self-contained sets of user
+ * config keys, from a previous evaluation of the same layout with the same settings. The maximum
+ * footprint of a component only depends on the footprints of the resources of its drawable nodes,
+ * so it is reused when none of them changed, instead of enumerating the config sets of the
+ * component again.
+ *
+ * <p>The components evaluated by the current evaluation are recorded, whether they were reused or
+ * not, to be stored in the next {@link EvaluationSnapshot}.
+ */
+class ComponentFootprintCache {
+    /** The maximum footprint of a component, and the footprints of the resources it depends on. */
+    static class Component {
+        final Map<String, Long> resourceBytes;
+        final long maxFootprintBytes;
+
+        Component(Map<String, Long> resourceBytes, long maxFootprintBytes) {
+            this.resourceBytes = resourceBytes;
+            this.maxFootprintBytes = maxFootprintBytes;
+        }
+    }
+
+    private final Map<String, Component> previousComponents;
+    private final Map<String, Component> components = new ConcurrentHashMap<>();
+
+    /**
+     * @param previousComponents the components of the previous evaluation of the layout, keyed by
+     *     {@link #componentId}.
+     */
+    ComponentFootprintCache(Map<String, Component> previousComponents) {
+        this.previousComponents = previousComponents;
+    }
+
+    /** Returns the id of the component made of the given keys, for the given variant. */
+    static String componentId(VariantConfigValue variant, Iterable<UserConfigKey> keys) {
+        TreeSet<String> keyIds = new TreeSet<>();
+        keys.forEach(key -> keyIds.add(key.getKeyId()));
+        return (variant.isAmbient() ? "ambient:" : "active:") + String.join(",", keyIds);
+    }
+
+    /**
+     * Returns the maximum footprint of the component from the previous evaluation, if its resources
+     * have the same footprints as then, and records it for the current evaluation.
+     */
+    OptionalLong reuse(String componentId, Map<String, Long> resourceBytes) {
+        Component previous = previousComponents.get(componentId);
+        if (previous == null || !previous.resourceBytes.equals(resourceBytes)) {
+            return OptionalLong.empty();
+        }
+        components.put(componentId, previous);
+        return OptionalLong.of(previous.maxFootprintBytes);
+    }
+
+    /** Records the maximum footprint of a component computed by the current evaluation. */
+    void record(String componentId, Map<String, Long> resourceBytes, long maxFootprintBytes) {
+        components.put(componentId, new Component(resourceBytes, maxFootprintBytes));
+    }
+
+    /** Returns the components of the current evaluation, keyed by their id. */
+    Map<String, Component> getComponents() {
+        return components;
+    }
+}
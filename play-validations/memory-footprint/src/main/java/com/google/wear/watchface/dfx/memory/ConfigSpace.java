@@ -0,0 +1,262 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The config sets of a set of user config keys, ie. the cartesian product of their values, with
+ * random access. Each config set has an index, which is a mixed-radix number whose digits are the
+ * indices of the values of each key, the first key being the least significant digit. This makes
+ * it possible to jump to any config set, to split the config sets into ranges that are evaluated
+ * in parallel, to sample them, or to resume an enumeration from a given index.
+ *
+ * <p>Like {@link UserConfigKey#buildConfigSets}, keys without any configuration values are
+ * ignored, and there are no config sets if no key has values.
+ *
+ * <p>Hot loops should enumerate the config sets in their dense form, with {@link
+ * IndexRange#forEachRemainingDense}, which holds the value index of each key, by key ordinal, in an
+ * array that is updated in place. This avoids allocating a {@link UserConfigSet} per config set.
+ */
+class ConfigSpace {
+    private final List<UserConfigKey> keys = new ArrayList<>();
+    private final Map<UserConfigKey, Integer> keyOrdinals = new HashMap<>();
+    private final List<List<UserConfigValue>> values = new ArrayList<>();
+    private final BigInteger exactSize;
+    private final long size;
+
+    /**
+     * Creates the config space of the given keys. The configuration values of the keys are read
+     * here, so that the config space can then be accessed concurrently, unlike the watch face
+     * document.
+     */
+    ConfigSpace(Iterable<UserConfigKey> configs) {
+        BigInteger product = BigInteger.ONE;
+        for (UserConfigKey key : configs) {
+            List<UserConfigValue> keyValues = key.getConfigurationValues();
+            if (!keyValues.isEmpty()) {
+                keyOrdinals.put(key, keys.size());
+                keys.add(key);
+                values.add(keyValues);
+                product = product.multiply(BigInteger.valueOf(keyValues.size()));
+            }
+        }
+        this.exactSize = keys.isEmpty() ? BigInteger.ZERO : product;
+        this.size =
+                exactSize.bitLength() < Long.SIZE ? exactSize.longValueExact() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of config sets, or {@link Long#MAX_VALUE} if it does not fit in a long.
+     */
+    long getSize() {
+        return size;
+    }
+
+    /** Returns the exact number of config sets. */
+    BigInteger getExactSize() {
+        return exactSize;
+    }
+
+    /**
+     * Whether every config set has a long index, which is required for random access. Config
+     * spaces that are too big are never enumerated anyway.
+     */
+    boolean isIndexable() {
+        return exactSize.bitLength() < Long.SIZE;
+    }
+
+    /** Returns the number of keys that have values, ie. the length of a dense config set. */
+    int getKeyCount() {
+        return keys.size();
+    }
+
+    /** Returns the keys that have values, by ordinal. */
+    List<UserConfigKey> getKeys() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    /** Returns the ordinal of the key in the dense config sets, or -1 if it is not in the space. */
+    int ordinalOf(UserConfigKey key) {
+        return keyOrdinals.getOrDefault(key, -1);
+    }
+
+    /**
+     * Returns the index of the value among the values of the key with the given ordinal, or -1 if
+     * the key does not have this value.
+     */
+    int valueIndexOf(int keyOrdinal, UserConfigValue value) {
+        return values.get(keyOrdinal).indexOf(value);
+    }
+
+    /** Returns the config set with the given index. */
+    UserConfigSet get(long index) {
+        checkState(isIndexable(), "Config space of size %s is too big to index", exactSize);
+        checkArgument(index >= 0 && index < size, "Index %s out of bounds [0, %s)", index, size);
+        return toConfigSet(decode(index));
+    }
+
+    /** Returns a spliterator over all the config sets, in index order. */
+    IndexRange spliterator() {
+        return spliterator(0, size);
+    }
+
+    /**
+     * Returns a spliterator over the config sets with indices from {@code fromIndex}, inclusive, to
+     * {@code toIndex}, exclusive, in index order.
+     */
+    IndexRange spliterator(long fromIndex, long toIndex) {
+        checkState(isIndexable(), "Config space of size %s is too big to index", exactSize);
+        checkArgument(
+                0 <= fromIndex && fromIndex <= toIndex && toIndex <= size,
+                "Invalid range [%s, %s) of config space of size %s",
+                fromIndex,
+                toIndex,
+                size);
+        return new IndexRange(fromIndex, toIndex);
+    }
+
+    /** Converts an index to the value indices of each key. */
+    private int[] decode(long index) {
+        int[] digits = new int[keys.size()];
+        for (int i = 0; i < digits.length; i++) {
+            int radix = values.get(i).size();
+            digits[i] = (int) (index % radix);
+            index /= radix;
+        }
+        return digits;
+    }
+
+    private UserConfigSet toConfigSet(int[] digits) {
+        Map<UserConfigKey, UserConfigValue> config = new HashMap<>();
+        for (int i = 0; i < digits.length; i++) {
+            config.put(keys.get(i), values.get(i).get(digits[i]));
+        }
+        return new UserConfigSet(config);
+    }
+
+    /**
+     * Iterates over a range of indices. Splitting halves the range, and iterating increments the
+     * digits of the current index in place, rather than decoding every index.
+     */
+    class IndexRange implements Spliterator<UserConfigSet> {
+        private long index;
+        private final long end;
+
+        private IndexRange(long index, long end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super UserConfigSet> action) {
+            if (index >= end) {
+                return false;
+            }
+            action.accept(get(index++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super UserConfigSet> action) {
+            forEachRemainingDense(digits -> action.accept(toConfigSet(digits)));
+        }
+
+        /**
+         * Performs the action for each remaining config set in its dense form, ie. an array holding
+         * the value index of each key by key ordinal. The same array is updated in place for every
+         * config set, so the action must not keep it.
+         */
+        void forEachRemainingDense(Consumer<int[]> action) {
+            if (index >= end) {
+                return;
+            }
+            int[] digits = decode(index);
+            for (; index < end; index++) {
+                action.accept(digits);
+                increment(digits);
+            }
+        }
+
+        /** Returns the index of the next config set of the range. */
+        long getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the index of the first remaining config set that matches the predicate, which is
+         * given the config sets in their dense form like {@link #forEachRemainingDense}, or -1 if
+         * none matches. The config sets are consumed up to and including the matching one.
+         */
+        long findFirstDense(Predicate<int[]> predicate) {
+            if (index >= end) {
+                return -1;
+            }
+            int[] digits = decode(index);
+            while (index < end) {
+                long current = index++;
+                if (predicate.test(digits)) {
+                    return current;
+                }
+                increment(digits);
+            }
+            return -1;
+        }
+
+        private void increment(int[] digits) {
+            for (int i = 0; i < digits.length; i++) {
+                if (++digits[i] < values.get(i).size()) {
+                    return;
+                }
+                digits[i] = 0;
+            }
+        }
+
+        @Override
+        public IndexRange trySplit() {
+            long remaining = end - index;
+            if (remaining < 2) {
+                return null;
+            }
+            long middle = index + remaining / 2;
+            IndexRange prefix = new IndexRange(index, middle);
+            index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+}
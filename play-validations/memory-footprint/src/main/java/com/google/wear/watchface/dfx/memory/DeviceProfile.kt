@@ -0,0 +1,154 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory
+
+import com.google.gson.JsonElement
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.Files
+import java.nio.file.Path
+
+/**
+ * A class of devices that a watch face is evaluated against. Every property that is null is taken
+ * from the [EvaluationSettings] the profile is applied to.
+ *
+ * Profiles are read from a JSON file holding an array of objects such as:
+ * ```
+ * [
+ *   {
+ *     "name": "small-round",
+ *     "screenSize": "384x384",
+ *     "offloadVersion": 1,
+ *     "ambientLimitMb": 10,
+ *     "activeLimitMb": 100,
+ *     "rgb565": false
+ *   }
+ * ]
+ * ```
+ *
+ * @property name the name of the profile, which identifies it in the reports.
+ * @property screenSize the size of the screen, used to cost the full screen layers in ambient.
+ * @property offloadVersion the version of the DWF offloading of the device. The V1 offloading
+ *   limitations are applied to version 1.
+ * @property ambientLimitBytes the memory limit in bytes for the ambient mode.
+ * @property activeLimitBytes the memory limit in bytes for the active mode.
+ * @property supportsRgb565 whether the device can render images as RGB565 in ambient.
+ */
+data class DeviceProfile(
+    val name: String,
+    val screenSize: ScreenSize? = null,
+    val offloadVersion: Int? = null,
+    val ambientLimitBytes: Long? = null,
+    val activeLimitBytes: Long? = null,
+    val supportsRgb565: Boolean? = null
+) {
+    companion object {
+        /** Reads the profiles of a device profile file. */
+        @JvmStatic
+        fun readProfiles(profileFile: Path): List<DeviceProfile> =
+            parseProfiles(String(Files.readAllBytes(profileFile), UTF_8))
+
+        /**
+         * Parses the profiles of a device profile file.
+         *
+         * @throws IllegalArgumentException if the profiles are malformed, or if two of them share
+         *   the same name.
+         */
+        @JvmStatic
+        fun parseProfiles(json: String): List<DeviceProfile> {
+            val root = JsonParser.parseString(json)
+            require(root.isJsonArray) { "The device profiles must be a JSON array" }
+            val profiles = root.asJsonArray.map { element ->
+                require(element.isJsonObject) { "Every device profile must be a JSON object" }
+                parseProfile(element.asJsonObject)
+            }
+            val duplicateNames = profiles.groupBy { it.name }.filterValues { it.size > 1 }.keys
+            require(duplicateNames.isEmpty()) {
+                "Device profile names must be unique, but found $duplicateNames more than once"
+            }
+            return profiles
+        }
+
+        private fun parseProfile(profile: JsonObject): DeviceProfile {
+            val name = profile.get("name")?.asString
+            require(!name.isNullOrBlank()) { "Every device profile must have a name" }
+            return DeviceProfile(
+                name = name,
+                screenSize = profile.optional("screenSize")?.let { ScreenSize.parse(it.asString) },
+                offloadVersion = profile.optional("offloadVersion")?.asInt,
+                ambientLimitBytes =
+                    profile.optional("ambientLimitMb")?.let {
+                        MemoryFootprint.toBytes(it.asDouble)
+                    },
+                activeLimitBytes =
+                    profile.optional("activeLimitMb")?.let {
+                        MemoryFootprint.toBytes(it.asDouble)
+                    },
+                supportsRgb565 = profile.optional("rgb565")?.asBoolean
+            )
+        }
+
+        private fun JsonObject.optional(property: String): JsonElement? =
+            get(property)?.takeUnless { it.isJsonNull }
+    }
+}
+
+/**
+ * The result of the evaluation of a watch face against a [DeviceProfile].
+ *
+ * @property profile the profile the watch face was evaluated against.
+ * @property footprint the maximum memory footprint of the layouts of the watch face on the device.
+ * @property failure why the watch face fails the memory limits of the profile, or null if it
+ *   passes them.
+ */
+data class DeviceProfileResult(
+    val profile: DeviceProfile,
+    val footprint: MemoryFootprint,
+    val failure: String?
+) {
+    val passed: Boolean
+        get() = failure == null
+
+    /** Returns the footprint as in the JSON report, plus the profile name and the outcome. */
+    fun toJson(): JsonObject {
+        val json = JsonObject()
+        json.addProperty("profile", profile.name)
+        for ((property, value) in footprint.toJson().entrySet()) {
+            json.add(property, value)
+        }
+        json.addProperty("passed", passed)
+        failure?.let { json.addProperty("failure", it) }
+        return json
+    }
+
+    companion object {
+        /** Validates [footprint] against the limits of the [profileSettings]. */
+        @JvmStatic
+        fun validate(
+            profile: DeviceProfile,
+            footprint: MemoryFootprint,
+            profileSettings: EvaluationSettings
+        ): DeviceProfileResult =
+            try {
+                footprint.validate(profileSettings)
+                DeviceProfileResult(profile, footprint, null)
+            } catch (e: TestFailedException) {
+                DeviceProfileResult(profile, footprint, e.message)
+            }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The resources of a list of drawable node config table entries, collected once and stored as
+ * bitsets over an index of the distinct resources. The footprint of the entries rendered under a
+ * user config set is then computed by OR-ing the bitsets of the matching entries and summing the
+ * sizes of the resulting resources, instead of collecting the resources of each node again for
+ * every config set.
+ */
+@SuppressWarnings("KotlinInternal")
+class DrawableNodeResourceSets {
+    private final List<DrawableNodeConfigTable.Entry> entries;
+    /** The resources of each entry. Entries with the same resources share the same bitset. */
+    private final List<BitSet> entryResources;
+    /** The footprint of each indexed resource, in bytes. */
+    private final long[] resourceSizes;
+    /** The name of each indexed resource. */
+    private final List<String> resourceNames;
+
+    private DrawableNodeResourceSets(
+            List<DrawableNodeConfigTable.Entry> entries,
+            List<BitSet> entryResources,
+            long[] resourceSizes,
+            List<String> resourceNames) {
+        this.entries = entries;
+        this.entryResources = entryResources;
+        this.resourceSizes = resourceSizes;
+        this.resourceNames = resourceNames;
+    }
+
+    /**
+     * Collects the resources of the given entries and evaluates the footprint of each distinct
+     * resource once. Entries without any resource are left out, since they never add to the
+     * footprint.
+     */
+    static DrawableNodeResourceSets create(
+            List<DrawableNodeConfigTable.Entry> entries,
+            WatchFaceResourceCollector resourceCollector,
+            VariantConfigValue variant,
+            Function<String, Long> evaluator) {
+        Map<String, Integer> resourceIndex = new HashMap<>();
+        List<Long> resourceSizes = new ArrayList<>();
+        List<String> resourceNames = new ArrayList<>();
+        Map<BitSet, BitSet> internedResourceSets = new HashMap<>();
+        List<DrawableNodeConfigTable.Entry> entriesWithResources = new ArrayList<>();
+        List<BitSet> entryResources = new ArrayList<>();
+
+        for (DrawableNodeConfigTable.Entry entry : entries) {
+            Set<String> resources = resourceCollector.collectResources(entry.node, variant);
+            if (resources.isEmpty()) {
+                continue;
+            }
+            BitSet resourceSet = new BitSet();
+            for (String resource : resources) {
+                int index =
+                        resourceIndex.computeIfAbsent(
+                                resource,
+                                key -> {
+                                    resourceSizes.add(evaluator.apply(key));
+                                    resourceNames.add(key);
+                                    return resourceSizes.size() - 1;
+                                });
+                resourceSet.set(index);
+            }
+            entriesWithResources.add(entry);
+            entryResources.add(internedResourceSets.computeIfAbsent(resourceSet, key -> key));
+        }
+
+        return new DrawableNodeResourceSets(
+                entriesWithResources,
+                entryResources,
+                resourceSizes.stream().mapToLong(Long::longValue).toArray(),
+                resourceNames);
+    }
+
+    /**
+     * Returns the footprint of the resources of the entries that are rendered under the given user
+     * config set, counting each resource once.
+     *
+     * @param scratch a bitset that is cleared and reused to hold the matching resources, to avoid
+     *     allocating a new one for each config set.
+     */
+    long footprintOfMatchingEntries(UserConfigSet configSet, BitSet scratch) {
+        scratch.clear();
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).matchesConfigSet(configSet)) {
+                scratch.or(entryResources.get(i));
+            }
+        }
+        return footprintOf(scratch);
+    }
+
+    /** Returns the total footprint of the given set of indexed resources. */
+    long footprintOf(BitSet resources) {
+        long footprint = 0;
+        for (int index = resources.nextSetBit(0);
+                index >= 0;
+                index = resources.nextSetBit(index + 1)) {
+            footprint += resourceSizes[index];
+        }
+        return footprint;
+    }
+
+    /** Returns the entries that reference at least one resource, in their original order. */
+    List<DrawableNodeConfigTable.Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the resources of the entry at the given index of {@link #getEntries()}. The bitset
+     * must not be modified.
+     */
+    BitSet getEntryResources(int entryIndex) {
+        return entryResources.get(entryIndex);
+    }
+
+    /**
+     * Returns a matcher of the entries against the dense config sets of the given config space.
+     * Entries that require a key or a value that is not in the config space are left out, since
+     * they never match.
+     */
+    DenseMatcher denseMatcher(ConfigSpace configSpace) {
+        List<Integer> matchableEntries = new ArrayList<>();
+        List<Integer> constraintOffsets = new ArrayList<>();
+        List<Integer> keyOrdinals = new ArrayList<>();
+        List<Integer> valueIndices = new ArrayList<>();
+        for (int entryIndex = 0; entryIndex < entries.size(); entryIndex++) {
+            int offset = keyOrdinals.size();
+            boolean isMatchable = true;
+            for (Map.Entry<UserConfigKey, UserConfigValue> constraint :
+                    entries.get(entryIndex).userConfigSet.config.entrySet()) {
+                int keyOrdinal = configSpace.ordinalOf(constraint.getKey());
+                int valueIndex =
+                        keyOrdinal < 0
+                                ? -1
+                                : configSpace.valueIndexOf(keyOrdinal, constraint.getValue());
+                if (valueIndex < 0) {
+                    isMatchable = false;
+                    break;
+                }
+                keyOrdinals.add(keyOrdinal);
+                valueIndices.add(valueIndex);
+            }
+            if (isMatchable) {
+                matchableEntries.add(entryIndex);
+                constraintOffsets.add(offset);
+            } else {
+                keyOrdinals.subList(offset, keyOrdinals.size()).clear();
+                valueIndices.subList(offset, valueIndices.size()).clear();
+            }
+        }
+        constraintOffsets.add(keyOrdinals.size());
+        return new DenseMatcher(
+                matchableEntries.stream().mapToInt(Integer::intValue).toArray(),
+                constraintOffsets.stream().mapToInt(Integer::intValue).toArray(),
+                keyOrdinals.stream().mapToInt(Integer::intValue).toArray(),
+                valueIndices.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Matches the entries against dense config sets, where checking an entry takes one int
+     * comparison per key that the entry requires, instead of map lookups.
+     */
+    class DenseMatcher {
+        private final int[] entryIndices;
+        /** The constraints of entry i are between constraintOffsets[i] and [i + 1], exclusive. */
+        private final int[] constraintOffsets;
+        private final int[] keyOrdinals;
+        private final int[] valueIndices;
+
+        private DenseMatcher(
+                int[] entryIndices,
+                int[] constraintOffsets,
+                int[] keyOrdinals,
+                int[] valueIndices) {
+            this.entryIndices = entryIndices;
+            this.constraintOffsets = constraintOffsets;
+            this.keyOrdinals = keyOrdinals;
+            this.valueIndices = valueIndices;
+        }
+
+        /**
+         * Returns the footprint of the resources of the entries that are rendered under the given
+         * dense config set, counting each resource once.
+         *
+         * @param scratch a bitset that is cleared and reused to hold the matching resources.
+         */
+        long footprintOfMatchingEntries(int[] denseConfigSet, BitSet scratch) {
+            scratch.clear();
+            for (int i = 0; i < entryIndices.length; i++) {
+                if (matches(i, denseConfigSet)) {
+                    scratch.or(entryResources.get(entryIndices[i]));
+                }
+            }
+            return footprintOf(scratch);
+        }
+
+        /**
+         * Returns the resources of the entries that can match a config set of the config space,
+         * which are the only resources that the footprints of its config sets depend on.
+         */
+        BitSet getMatchableResources() {
+            BitSet resources = new BitSet();
+            for (int entryIndex : entryIndices) {
+                resources.or(entryResources.get(entryIndex));
+            }
+            return resources;
+        }
+
+        private boolean matches(int i, int[] denseConfigSet) {
+            for (int c = constraintOffsets[i]; c < constraintOffsets[i + 1]; c++) {
+                if (denseConfigSet[keyOrdinals[c]] != valueIndices[c]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Returns the number of distinct resources referenced by the entries. */
+    int getResourceCount() {
+        return resourceSizes.length;
+    }
+
+    /** Returns the name of the indexed resource. */
+    String getResourceName(int index) {
+        return resourceNames.get(index);
+    }
+
+    /** Returns the footprint of the indexed resource, in bytes. */
+    long getResourceSize(int index) {
+        return resourceSizes[index];
+    }
+}
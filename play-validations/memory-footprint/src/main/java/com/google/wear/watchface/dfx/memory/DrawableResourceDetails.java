@@ -20,17 +20,24 @@ import static java.lang.Math.abs;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
-import java.io.ByteArrayInputStream;
+import com.google.common.base.Suppliers;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Formatter;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /** Details about a drawable resource that are relevant for the memory footprint calculation. */
 class DrawableResourceDetails {
     private static final int CHANNEL_MASK_A = 0xff000000;
 
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+
     /**
      * A lookup table used for computing the loss of precision where an 8bit value is quantized to a
      * 5bit value.
@@ -124,13 +131,57 @@ class DrawableResourceDetails {
      */
     static Optional<DrawableResourceDetails> fromPackageResource(
             AndroidResource resource, ImageProcessor imageProcessor) {
+        return fromPackageResource(
+                resource, imageProcessor, DrawableResourceDetailsCache.disabled());
+    }
+
+    /**
+     * Evaluates the memory footprint of a drawable asset, reusing the results of a previous
+     * analysis of the same resource data if they are found in the given cache.
+     *
+     * @param resource the resource from a watch face package.
+     * @param imageProcessor the image processing implementation.
+     * @param cache the cache of image analysis results, keyed by the SHA-1 of the resource data.
+     * @return the memory footprint of that asset file or {@code Optional.empty()} if the file is
+     *     not a drawable asset.
+     * @throws java.lang.IllegalArgumentException when the image cannot be processed.
+     */
+    static Optional<DrawableResourceDetails> fromPackageResource(
+            AndroidResource resource,
+            ImageProcessor imageProcessor,
+            DrawableResourceDetailsCache cache) {
+        return fromPackageResource(resource, imageProcessor, cache, /* lazyAnalysis= */ false);
+    }
+
+    /**
+     * Evaluates the memory footprint of a drawable asset, optionally deferring the analysis of its
+     * pixels.
+     *
+     * <p>With lazy analysis, only the headers of the image are read to find its dimensions and
+     * number of frames. The frames are decoded the first time the bounds or the RGB565
+     * compatibility of the drawable are requested, if ever. Until then, the resource data is kept
+     * in memory.
+     *
+     * @param resource the resource from a watch face package.
+     * @param imageProcessor the image processing implementation.
+     * @param cache the cache of image analysis results, keyed by the SHA-1 of the resource data.
+     * @param lazyAnalysis whether the pixel analysis is deferred until its results are needed.
+     * @return the memory footprint of that asset file or {@code Optional.empty()} if the file is
+     *     not a drawable asset.
+     * @throws java.lang.IllegalArgumentException when the image cannot be processed.
+     */
+    static Optional<DrawableResourceDetails> fromPackageResource(
+            AndroidResource resource,
+            ImageProcessor imageProcessor,
+            DrawableResourceDetailsCache cache,
+            boolean lazyAnalysis) {
         // For fonts we assume the raw size of the resource is the MCU footprint.
         if (resource.isFont()) {
             return Optional.of(
                     new Builder()
                             .setName(resource.getResourceName())
                             .setNumberOfImages(1)
-                            .setBiggestFrameFootprintBytes(resource.getData().length)
+                            .setBiggestFrameFootprintBytes(resource.getSize())
                             .build());
         }
 
@@ -142,17 +193,87 @@ class DrawableResourceDetails {
 
         String sha1;
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            sha1 = byteArray2Hex(md.digest(resource.getData()));
+            sha1 = computeSha1(resource);
         } catch (Exception e) {
             throw new IllegalArgumentException(
                     String.format("Error while processing image %s", resource.getFilePath()), e);
         }
 
-        ImageProcessor.ImageReader reader =
-                imageProcessor.createImageReader(
-                        new ByteArrayInputStream(resource.getData()), resource.getResourceName());
+        if (lazyAnalysis) {
+            Optional<ImageAnalysis> probe = probeImage(resource, imageProcessor);
+            if (!probe.isPresent()) {
+                return Optional.empty();
+            }
+            // The probe has no pixel analysis results, so it's only a conservative fallback.
+            Supplier<ImageAnalysis> pixelAnalysis =
+                    () ->
+                            cache.getOrAnalyze(sha1, () -> analyzeImage(resource, imageProcessor))
+                                    .orElse(probe.get());
+            return Optional.of(
+                    builderFromAnalysis(resource, sha1, probe.get())
+                            .setPixelAnalysis(pixelAnalysis)
+                            .build());
+        }
 
+        return cache.getOrAnalyze(sha1, () -> analyzeImage(resource, imageProcessor))
+                .map(
+                        imageAnalysis ->
+                                builderFromAnalysis(resource, sha1, imageAnalysis)
+                                        .setBounds(imageAnalysis.bounds)
+                                        .setCanUseRGB565(imageAnalysis.canUseRGB565)
+                                        .build());
+    }
+
+    private static String computeSha1(AndroidResource resource)
+            throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        ByteBuffer mappedData = resource.asByteBuffer();
+        if (mappedData != null) {
+            md.update(mappedData);
+            return byteArray2Hex(md.digest());
+        }
+        try (InputStream stream = resource.openStream()) {
+            byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = stream.read(buffer)) != -1) {
+                md.update(buffer, 0, bytesRead);
+            }
+        }
+        return byteArray2Hex(md.digest());
+    }
+
+    /** Creates a builder holding the dimensions found by the analysis of an image resource. */
+    private static Builder builderFromAnalysis(
+            AndroidResource resource, String sha1, ImageAnalysis imageAnalysis) {
+        return new Builder()
+                .setName(resource.getResourceName())
+                .setNumberOfImages(imageAnalysis.numberOfImages)
+                .setBiggestFrameFootprintBytes(
+                        ((long) imageAnalysis.width) * imageAnalysis.height * 4)
+                .setWidth(imageAnalysis.width)
+                .setHeight(imageAnalysis.height)
+                .setSha1(sha1);
+    }
+
+    /**
+     * Reads the dimensions and the number of frames of the given resource, without decoding its
+     * pixels.
+     *
+     * @return the analysis without bounds and RGB565 compatibility, or {@code Optional.empty()} if
+     *     the resource is not an image that can be decoded by the image processor.
+     */
+    private static Optional<ImageAnalysis> probeImage(
+            AndroidResource resource, ImageProcessor imageProcessor) {
+        try (InputStream stream = resource.openStream()) {
+            return probeImage(
+                    imageProcessor.createImageReader(stream, resource.getResourceName()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                    String.format("Error while processing image %s", resource.getFilePath()), e);
+        }
+    }
+
+    private static Optional<ImageAnalysis> probeImage(ImageProcessor.ImageReader reader) {
         if (reader == null) {
             return Optional.empty();
         }
@@ -160,7 +281,39 @@ class DrawableResourceDetails {
         int numberOfImages = reader.getNumImages();
         int maxWidth = 0;
         int maxHeight = 0;
-        double maxQuantizationError = 0.0;
+        for (int i = 0; i < numberOfImages; i++) {
+            maxWidth = max(maxWidth, reader.getWidth(i));
+            maxHeight = max(maxHeight, reader.getHeight(i));
+        }
+        return Optional.of(new ImageAnalysis(numberOfImages, maxWidth, maxHeight, null, false));
+    }
+
+    /**
+     * Decodes every frame of the given resource and analyzes its pixels.
+     *
+     * @return the result of the analysis or {@code Optional.empty()} if the resource is not an
+     *     image that can be decoded by the image processor.
+     */
+    private static Optional<ImageAnalysis> analyzeImage(
+            AndroidResource resource, ImageProcessor imageProcessor) {
+        try (InputStream stream = resource.openStream()) {
+            return analyzeImage(
+                    imageProcessor.createImageReader(stream, resource.getResourceName()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                    String.format("Error while processing image %s", resource.getFilePath()), e);
+        }
+    }
+
+    private static Optional<ImageAnalysis> analyzeImage(ImageProcessor.ImageReader reader) {
+        if (reader == null) {
+            return Optional.empty();
+        }
+
+        int numberOfImages = reader.getNumImages();
+        int maxWidth = 0;
+        int maxHeight = 0;
+        boolean canBeQuantized = true;
         DrawableResourceDetails.Bounds accumulatedBounds = null;
 
         for (int i = 0; i < numberOfImages; i++) {
@@ -170,7 +323,11 @@ class DrawableResourceDetails {
             maxHeight = max(maxHeight, reader.getHeight(i));
 
             ImageProcessor.ImageData image = reader.read(i);
-            Bounds bounds = computeBounds(image);
+            // The image can only be quantized if all of its frames can, so there is no need to
+            // check the quantization error of the remaining frames once one of them fails.
+            FrameAnalysis frameAnalysis = analyzeFrame(image, canBeQuantized);
+            Bounds bounds = frameAnalysis.bounds;
+            canBeQuantized = frameAnalysis.canBeQuantized;
 
             if (bounds != null) {
                 if (accumulatedBounds == null) {
@@ -179,25 +336,32 @@ class DrawableResourceDetails {
                     accumulatedBounds = accumulatedBounds.computeUnion(bounds);
                 }
             }
-
-            QuantizationStats stats = computeQualtizationStats(image);
-            maxQuantizationError = max(maxQuantizationError, stats.getVisibleError());
         }
 
-        long biggestFrameMemoryFootprint = ((long) maxWidth) * maxHeight * 4;
-        boolean canBeQuantized = (maxQuantizationError < MAX_ACCEPTABLE_QUANTIZATION_ERROR);
-
         return Optional.of(
-                new Builder()
-                        .setName(resource.getResourceName())
-                        .setNumberOfImages(numberOfImages)
-                        .setBiggestFrameFootprintBytes(biggestFrameMemoryFootprint)
-                        .setBounds(accumulatedBounds)
-                        .setWidth(maxWidth)
-                        .setHeight(maxHeight)
-                        .setSha1(sha1)
-                        .setCanUseRGB565(canBeQuantized)
-                        .build());
+                new ImageAnalysis(
+                        numberOfImages, maxWidth, maxHeight, accumulatedBounds, canBeQuantized));
+    }
+
+    /**
+     * The result of decoding and analyzing the pixels of an image resource. It only depends on the
+     * resource data, so it can be shared between resources with the same content.
+     */
+    static class ImageAnalysis {
+        final int numberOfImages;
+        final int width;
+        final int height;
+        final Bounds bounds;
+        final boolean canUseRGB565;
+
+        ImageAnalysis(
+                int numberOfImages, int width, int height, Bounds bounds, boolean canUseRGB565) {
+            this.numberOfImages = numberOfImages;
+            this.width = width;
+            this.height = height;
+            this.bounds = bounds;
+            this.canUseRGB565 = canUseRGB565;
+        }
     }
 
     private final String name;
@@ -209,6 +373,12 @@ class DrawableResourceDetails {
     private final String sha1;
     private final boolean canUseRGB565;
 
+    /**
+     * Provides the bounds and RGB565 compatibility when the pixel analysis is deferred, or null if
+     * they were computed upfront. It runs the analysis at most once.
+     */
+    private final Supplier<ImageAnalysis> pixelAnalysis;
+
     private DrawableResourceDetails(
             String name,
             long numberOfImages,
@@ -217,7 +387,8 @@ class DrawableResourceDetails {
             int width,
             int height,
             String sha1,
-            boolean canUseRGB565) {
+            boolean canUseRGB565,
+            Supplier<ImageAnalysis> pixelAnalysis) {
         this.name = name;
         this.numberOfImages = numberOfImages;
         this.biggestFrameFootprintBytes = biggestFrameFootprintBytes;
@@ -226,12 +397,18 @@ class DrawableResourceDetails {
         this.height = height;
         this.sha1 = sha1;
         this.canUseRGB565 = canUseRGB565;
+        this.pixelAnalysis = pixelAnalysis == null ? null : Suppliers.memoize(pixelAnalysis::get);
     }
 
     String getName() {
         return name;
     }
 
+    /** The number of frames of the drawable, 1 for static images. */
+    long getNumberOfImages() {
+        return numberOfImages;
+    }
+
     /** The SHA-1 digest in hexadecimal. */
     String getSha1() {
         return sha1;
@@ -242,7 +419,7 @@ class DrawableResourceDetails {
      * fidelity.
      */
     boolean canUseRGB565() {
-        return canUseRGB565;
+        return pixelAnalysis != null ? pixelAnalysis.get().canUseRGB565 : canUseRGB565;
     }
 
     /**
@@ -265,7 +442,7 @@ class DrawableResourceDetails {
     }
 
     public Bounds getBounds() {
-        return bounds;
+        return pixelAnalysis != null ? pixelAnalysis.get().bounds : bounds;
     }
 
     /** The actual width of the drawable resource file. */
@@ -278,6 +455,24 @@ class DrawableResourceDetails {
         return height;
     }
 
+    /**
+     * Returns a copy of these details, which can be resized by the optimization estimation of a
+     * single layout without affecting the other layouts. The deferred pixel analysis, if any, is
+     * shared with the copy, so that it still runs at most once.
+     */
+    DrawableResourceDetails copy() {
+        return new DrawableResourceDetails(
+                name,
+                numberOfImages,
+                biggestFrameFootprintBytes,
+                bounds,
+                width,
+                height,
+                sha1,
+                canUseRGB565,
+                pixelAnalysis);
+    }
+
     public void setOptimizedSizeAndBytes(long optimizedBytes, int width, int height) {
         this.biggestFrameFootprintBytes = optimizedBytes;
         this.width = width;
@@ -307,6 +502,10 @@ class DrawableResourceDetails {
                 .build();
     }
 
+    /**
+     * Describes these details. The results of a deferred pixel analysis are not shown, so that
+     * logging the details does not decode the image.
+     */
     @Override
     public java.lang.String toString() {
         return "DrawableResourceDetails{"
@@ -318,7 +517,7 @@ class DrawableResourceDetails {
                 + ", biggestFrameFootprintBytes="
                 + biggestFrameFootprintBytes
                 + ", bounds="
-                + bounds
+                + (pixelAnalysis != null ? "<deferred>" : bounds)
                 + ", width="
                 + width
                 + ", height="
@@ -326,36 +525,41 @@ class DrawableResourceDetails {
                 + ", sha1='"
                 + sha1
                 + "', canUseRGB565="
-                + canUseRGB565
+                + (pixelAnalysis != null ? "<deferred>" : canUseRGB565)
                 + '}';
     }
 
+    /**
+     * Compares these details with other details. If the pixel analysis of either of them is
+     * deferred, their bounds and RGB565 compatibility are not compared, so that the comparison does
+     * not decode the images. The pixel analysis only depends on the resource data, so it is
+     * identified by the SHA-1 digest instead.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof DrawableResourceDetails)) return false;
         DrawableResourceDetails that = (DrawableResourceDetails) o;
+        boolean isAnalysisDeferred = pixelAnalysis != null || that.pixelAnalysis != null;
         return numberOfImages == that.numberOfImages
                 && biggestFrameFootprintBytes == that.biggestFrameFootprintBytes
                 && width == that.width
                 && height == that.height
                 && Objects.equals(name, that.name)
-                && Objects.equals(bounds, that.bounds)
                 && Objects.equals(sha1, that.sha1)
-                && canUseRGB565 == that.canUseRGB565;
+                && (isAnalysisDeferred
+                        ? sha1 != null
+                        : Objects.equals(bounds, that.bounds)
+                                && canUseRGB565 == that.canUseRGB565);
     }
 
+    /**
+     * Hashes the details that are known without the pixel analysis, so that details with a
+     * deferred analysis can be used as keys without decoding the images.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(
-                name,
-                numberOfImages,
-                biggestFrameFootprintBytes,
-                bounds,
-                width,
-                height,
-                sha1,
-                canUseRGB565);
+        return Objects.hash(name, numberOfImages, biggestFrameFootprintBytes, width, height, sha1);
     }
 
     static Builder builder() {
@@ -372,6 +576,7 @@ class DrawableResourceDetails {
         private int height;
         private String sha1;
         private boolean canUseRGB565;
+        private Supplier<ImageAnalysis> pixelAnalysis;
 
         public Builder setName(String name) {
             this.name = name;
@@ -413,6 +618,15 @@ class DrawableResourceDetails {
             return this;
         }
 
+        /**
+         * Defers the computation of the bounds and RGB565 compatibility to the given analysis,
+         * which overrides the values set with {@link #setBounds} and {@link #setCanUseRGB565}.
+         */
+        Builder setPixelAnalysis(Supplier<ImageAnalysis> pixelAnalysis) {
+            this.pixelAnalysis = pixelAnalysis;
+            return this;
+        }
+
         public DrawableResourceDetails build() {
             return new DrawableResourceDetails(
                     name,
@@ -422,124 +636,126 @@ class DrawableResourceDetails {
                     width,
                     height,
                     sha1,
-                    canUseRGB565);
+                    canUseRGB565,
+                    pixelAnalysis);
+        }
+    }
+
+    /** The result of scanning the pixels of a single frame. */
+    static class FrameAnalysis {
+        /** The bounds of the visible pixels, or null if the frame is fully transparent. */
+        final Bounds bounds;
+
+        /**
+         * Whether the frame can be quantized to RGB565 without a noticeable loss of quality. The
+         * quantization error is computed over the opaque pixels only, so a frame without opaque
+         * pixels cannot be quantized.
+         */
+        final boolean canBeQuantized;
+
+        FrameAnalysis(Bounds bounds, boolean canBeQuantized) {
+            this.bounds = bounds;
+            this.canBeQuantized = canBeQuantized;
         }
     }
 
     /**
-     * Reads the image with the specified index and then computes the {@link Bounds} of the visible
-     * pixels.
+     * Computes the {@link Bounds} of the visible pixels of the frame and its RGB565 quantization
+     * error in a single pass over its rows.
+     *
+     * <p>The quantization check stops as soon as the average error is bound to exceed the
+     * acceptable error, even if all the remaining pixels were opaque and had no error. From then
+     * on, and when the check is not requested, a row is only scanned from both ends until it can't
+     * extend the bounds found so far.
      *
      * @param image the {@link ImageProcessor.ImageData}
-     * @return The {@link Bounds} of the visible pixels.
+     * @param checkQuantization whether the quantization error must be computed. If false, the
+     *     frame is reported as not quantizable.
      */
-    private static Bounds computeBounds(ImageProcessor.ImageData image) {
-        Bounds bounds = new Bounds();
-
-        // Scan from the top down to find the first non-transparent row.
+    static FrameAnalysis analyzeFrame(ImageProcessor.ImageData image, boolean checkQuantization) {
+        int width = image.getWidth();
         int height = image.getHeight();
-        int y;
-        for (y = 0; y < height; y++) {
-            if (!isRowFullyTransparent(image, y)) {
-                bounds.top = y;
-                break;
-            }
-        }
+        int[] row = new int[width];
 
-        if (y == height) {
-            // The image is fully transparent.
-            return null;
-        }
+        int top = -1;
+        int bottom = 0;
+        int left = width;
+        int right = 0;
+        boolean quantizationPossible = checkQuantization;
+        long visiblePixels = 0;
+        long visiblePixelQuantizationErrorSum = 0;
 
-        // Scan from the bottom up to find the first non-transparent row.
-        for (y = height; y > 0; ) {
-            y--;
-            if (!isRowFullyTransparent(image, y)) {
-                bounds.bottom = y + 1;
-                break;
-            }
-        }
+        for (int y = 0; y < height; y++) {
+            image.getRgbRow(y, row);
+            int rowLeft = width;
+            int rowRight = 0;
+            if (quantizationPossible) {
+                for (int x = 0; x < width; x++) {
+                    int argb = row[x];
+                    if (isFullyTransparent(argb)) {
+                        continue;
+                    }
+                    if (rowLeft == width) {
+                        rowLeft = x;
+                    }
+                    rowRight = x + 1;
+
+                    if ((argb >>> 24) < 255) {
+                        continue;
+                    }
+                    visiblePixels++;
+                    visiblePixelQuantizationErrorSum +=
+                            QUANTIZATION_ERROR_LUT5[(argb >> 16) & 0xff]
+                                    + QUANTIZATION_ERROR_LUT6[(argb >> 8) & 0xff]
+                                    + QUANTIZATION_ERROR_LUT5[argb & 0xff];
+                }
 
-        // Scan from left to right to find the first non-transparent column.
-        int width = image.getWidth();
-        int x;
-        for (x = 0; x < width; x++) {
-            if (!isColumnFullyTransparent(image, x, bounds.top, bounds.bottom)) {
-                bounds.left = x;
-                break;
+                long remainingPixels = (long) (height - y - 1) * width;
+                if (visiblePixelQuantizationErrorSum
+                        >= MAX_ACCEPTABLE_QUANTIZATION_ERROR * (visiblePixels + remainingPixels)) {
+                    quantizationPossible = false;
+                }
+            } else {
+                int x = 0;
+                while (x < width && isFullyTransparent(row[x])) {
+                    x++;
+                }
+                if (x == width) {
+                    continue;
+                }
+                rowLeft = x;
+                // Only the pixels to the right of the bounds found so far can extend them.
+                rowRight = width;
+                while (rowRight > max(right, rowLeft + 1)
+                        && isFullyTransparent(row[rowRight - 1])) {
+                    rowRight--;
+                }
             }
-        }
 
-        for (x = width; x > 0; ) {
-            x--;
-            if (!isColumnFullyTransparent(image, x, bounds.top, bounds.bottom)) {
-                bounds.right = x + 1;
-                break;
+            if (rowRight == 0) {
+                // The row is fully transparent.
+                continue;
             }
-        }
-
-        return bounds;
-    }
-
-    private static boolean isRowFullyTransparent(ImageProcessor.ImageData image, int y) {
-        int width = image.getWidth();
-        for (int x = 0; x < width; x++) {
-            if (!isFullyTransparent(image.getRgb(x, y))) {
-                return false;
+            if (top < 0) {
+                top = y;
             }
+            bottom = y + 1;
+            left = min(left, rowLeft);
+            right = max(right, rowRight);
         }
-        return true;
-    }
 
-    private static boolean isColumnFullyTransparent(
-            ImageProcessor.ImageData image, int x, int top, int bottom) {
-        for (int y = top; y < bottom; y++) {
-            if (!isFullyTransparent(image.getRgb(x, y))) {
-                return false;
-            }
-        }
-        return true;
+        Bounds bounds = top < 0 ? null : new Bounds(left, top, right, bottom);
+        boolean canBeQuantized =
+                quantizationPossible
+                        && (double) visiblePixelQuantizationErrorSum / (double) visiblePixels
+                                < MAX_ACCEPTABLE_QUANTIZATION_ERROR;
+        return new FrameAnalysis(bounds, canBeQuantized);
     }
 
     private static boolean isFullyTransparent(int argb) {
         return (argb & CHANNEL_MASK_A) == 0;
     }
 
-    private static class QuantizationStats {
-        long visiblePixels = 0;
-        long visiblePixelQuantizationErrorSum = 0;
-
-        double getVisibleError() {
-            return (double) visiblePixelQuantizationErrorSum / (double) visiblePixels;
-        }
-    }
-
-    private static QuantizationStats computeQualtizationStats(ImageProcessor.ImageData image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-        QuantizationStats quantizationStats = new QuantizationStats();
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int argb = image.getRgb(x, y);
-                int a = (argb >> 24) & 0xff;
-                if (a < 255) {
-                    continue;
-                }
-
-                quantizationStats.visiblePixels++;
-
-                int r = (argb >> 16) & 0xff;
-                int g = (argb >> 8) & 0xff;
-                int b = argb & 0xff;
-
-                quantizationStats.visiblePixelQuantizationErrorSum += QUANTIZATION_ERROR_LUT5[r];
-                quantizationStats.visiblePixelQuantizationErrorSum += QUANTIZATION_ERROR_LUT6[g];
-                quantizationStats.visiblePixelQuantizationErrorSum += QUANTIZATION_ERROR_LUT5[b];
-            }
-        }
-        return quantizationStats;
-    }
-
     /** Constructs a table of the error introduced by quantizing an 8 bit value to a N bit value. */
     private static int[] create8bppToNbppQuantizationErrorLookUpTable(int n) {
         int[] table = new int[256];
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A persistent cache of image analysis results, keyed by the SHA-1 digest of the resource data.
+ * Decoding and scanning the pixels of every frame is the most expensive part of analyzing a watch
+ * face package, so the results are stored on disk and reused across runs for resources whose
+ * content did not change.
+ *
+ * <p>Each entry is stored as a small JSON file in the cache directory. Entries written by a
+ * different {@link #ANALYSIS_VERSION} are ignored and overwritten. When the cache grows over its
+ * maximum size, the least recently used entries are evicted by {@link #trim()}. Failing to read or
+ * write the cache never fails the evaluation, it only leads to the image being analyzed again.
+ */
+class DrawableResourceDetailsCache {
+    /**
+     * The version of the image analysis. It must be incremented whenever a change in {@link
+     * DrawableResourceDetails} alters the analysis results, so that stale entries are not reused.
+     */
+    static final int ANALYSIS_VERSION = 1;
+
+    private static final String ENTRY_EXTENSION = ".json";
+
+    private static final DrawableResourceDetailsCache DISABLED =
+            new DrawableResourceDetailsCache(null, 0, false);
+
+    private final Gson gson = new Gson();
+    private final Path directory;
+    private final long maxSizeBytes;
+    private final boolean verbose;
+
+    DrawableResourceDetailsCache(Path directory, long maxSizeBytes, boolean verbose) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.verbose = verbose;
+    }
+
+    /** Returns a cache that does not store anything, always running the analysis. */
+    static DrawableResourceDetailsCache disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Creates the cache configured by the evaluation settings, or a disabled cache if no cache
+     * directory was set.
+     */
+    static DrawableResourceDetailsCache fromSettings(EvaluationSettings evaluationSettings) {
+        String cacheDirectory = evaluationSettings.getAnalysisCacheDirectory();
+        if (cacheDirectory == null) {
+            return DISABLED;
+        }
+        return new DrawableResourceDetailsCache(
+                Paths.get(cacheDirectory),
+                evaluationSettings.getAnalysisCacheMaxBytes(),
+                evaluationSettings.isVerbose());
+    }
+
+    /**
+     * Returns the cached analysis for the resource data with the given digest, running the
+     * analyzer and storing its result when there is no valid entry.
+     *
+     * @param sha1 the SHA-1 digest of the resource data, in hexadecimal.
+     * @param analyzer the image analysis to run on a cache miss. An empty result, meaning that the
+     *     resource is not an image, is cached as well.
+     */
+    Optional<DrawableResourceDetails.ImageAnalysis> getOrAnalyze(
+            String sha1, Supplier<Optional<DrawableResourceDetails.ImageAnalysis>> analyzer) {
+        if (directory == null) {
+            return analyzer.get();
+        }
+        Entry cachedEntry = read(sha1);
+        if (cachedEntry != null) {
+            return cachedEntry.toImageAnalysis();
+        }
+        Optional<DrawableResourceDetails.ImageAnalysis> analysis = analyzer.get();
+        write(sha1, Entry.fromImageAnalysis(analysis));
+        return analysis;
+    }
+
+    /**
+     * Evicts the least recently used entries until the total size of the cache is at most the
+     * configured maximum size.
+     */
+    void trim() {
+        if (directory == null || !Files.isDirectory(directory)) {
+            return;
+        }
+        List<EntryFile> entryFiles = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                if (!file.getFileName().toString().endsWith(ENTRY_EXTENSION)) {
+                    continue;
+                }
+                BasicFileAttributes attributes =
+                        Files.readAttributes(file, BasicFileAttributes.class);
+                entryFiles.add(
+                        new EntryFile(file, attributes.size(), attributes.lastModifiedTime()));
+            }
+
+            long totalSize = entryFiles.stream().mapToLong(entryFile -> entryFile.size).sum();
+            if (totalSize <= maxSizeBytes) {
+                return;
+            }
+            entryFiles.sort(Comparator.comparing((EntryFile entryFile) -> entryFile.lastModified));
+            for (EntryFile entryFile : entryFiles) {
+                if (totalSize <= maxSizeBytes) {
+                    break;
+                }
+                Files.deleteIfExists(entryFile.path);
+                totalSize -= entryFile.size;
+            }
+        } catch (IOException e) {
+            logFailure("trim", e);
+        }
+    }
+
+    private Entry read(String sha1) {
+        Path entryPath = entryPath(sha1);
+        if (!Files.isRegularFile(entryPath)) {
+            return null;
+        }
+        try {
+            String json = new String(Files.readAllBytes(entryPath), UTF_8);
+            Entry entry = gson.fromJson(json, Entry.class);
+            if (entry == null || entry.version != ANALYSIS_VERSION) {
+                return null;
+            }
+            // Record the access, so that the entry is kept when the cache is trimmed.
+            Files.setLastModifiedTime(entryPath, FileTime.fromMillis(System.currentTimeMillis()));
+            return entry;
+        } catch (IOException | JsonParseException e) {
+            logFailure("read", e);
+            return null;
+        }
+    }
+
+    private void write(String sha1, Entry entry) {
+        Path temporaryPath = null;
+        try {
+            Files.createDirectories(directory);
+            // Write to a temporary file first, so that concurrent readers never see a partially
+            // written entry.
+            temporaryPath = Files.createTempFile(directory, sha1, ".tmp");
+            Files.write(temporaryPath, gson.toJson(entry).getBytes(UTF_8));
+            Files.move(
+                    temporaryPath,
+                    entryPath(sha1),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logFailure("write", e);
+            if (temporaryPath != null) {
+                try {
+                    Files.deleteIfExists(temporaryPath);
+                } catch (IOException ignored) {
+                    // the temporary file is not an entry, so it doesn't affect the cache
+                }
+            }
+        }
+    }
+
+    private Path entryPath(String sha1) {
+        return directory.resolve(sha1 + ENTRY_EXTENSION);
+    }
+
+    private void logFailure(String operation, Exception e) {
+        if (verbose) {
+            System.out.printf(
+                    "Could not %s the image analysis cache in %s: %s%n",
+                    operation, directory, e.getMessage());
+        }
+    }
+
+    /** The serialized form of a cache entry. */
+    private static class Entry {
+        int version;
+        boolean isImage;
+        int numberOfImages;
+        int width;
+        int height;
+        DrawableResourceDetails.Bounds bounds;
+        boolean canUseRGB565;
+
+        static Entry fromImageAnalysis(Optional<DrawableResourceDetails.ImageAnalysis> analysis) {
+            Entry entry = new Entry();
+            entry.version = ANALYSIS_VERSION;
+            entry.isImage = analysis.isPresent();
+            analysis.ifPresent(
+                    imageAnalysis -> {
+                        entry.numberOfImages = imageAnalysis.numberOfImages;
+                        entry.width = imageAnalysis.width;
+                        entry.height = imageAnalysis.height;
+                        entry.bounds = imageAnalysis.bounds;
+                        entry.canUseRGB565 = imageAnalysis.canUseRGB565;
+                    });
+            return entry;
+        }
+
+        Optional<DrawableResourceDetails.ImageAnalysis> toImageAnalysis() {
+            if (!isImage) {
+                return Optional.empty();
+            }
+            return Optional.of(
+                    new DrawableResourceDetails.ImageAnalysis(
+                            numberOfImages, width, height, bounds, canUseRGB565));
+        }
+    }
+
+    private static class EntryFile {
+        final Path path;
+        final long size;
+        final FileTime lastModified;
+
+        EntryFile(Path path, long size, FileTime lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
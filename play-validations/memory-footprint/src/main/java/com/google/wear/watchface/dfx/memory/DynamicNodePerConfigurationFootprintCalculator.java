@@ -18,17 +18,30 @@ package com.google.wear.watchface.dfx.memory;
 
 import static com.google.wear.watchface.dfx.memory.UserConfigValue.SupportedConfigs.isValidUserConfigNode;
 import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.childrenStream;
-import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.findSceneNode;
+import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.getNodeAttribute;
 import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.isDrawableNode;
 import static java.lang.Math.max;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
+import com.google.common.math.LongMath;
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Counter;
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Phase;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.Function;
 import java.util.stream.LongStream;
-import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
 /**
@@ -42,7 +55,7 @@ import org.w3c.dom.Node;
  */
 @SuppressWarnings("KotlinInternal")
 class DynamicNodePerConfigurationFootprintCalculator {
-    private final Document document;
+    private final WatchFaceAnalysisContext context;
     private final EvaluationSettings evaluationSettings;
     private final Node sceneNode;
     private final WatchFaceResourceCollector resourceCollector;
@@ -52,16 +65,40 @@ class DynamicNodePerConfigurationFootprintCalculator {
 
     private final Function<String, Long> evaluator;
 
+    /**
+     * The attribution of the last maximum footprint calculated, if {@link
+     * EvaluationSettings#getReportAttribution()} is enabled.
+     */
+    private FootprintAttribution attribution;
+
+    /**
+     * The heaviest user configurations of the last maximum footprint calculated, if {@link
+     * EvaluationSettings#getTopConfigurations()} is set.
+     */
+    private TopConfigurations topConfigurations;
+
+    /**
+     * The greedy footprint of each node evaluated so far, so that the greedy attribution and
+     * ranking, which compare the footprints of the options at every level, do not evaluate the
+     * same subtrees again.
+     */
+    private final Map<Node, Long> greedyFootprints = new HashMap<>();
+
+    /**
+     * The number of ranges that the config sets are split into for each evaluation thread, so that
+     * threads that finish early can pick up the remaining work.
+     */
+    private static final int PARTITIONS_PER_THREAD = 4;
+
     DynamicNodePerConfigurationFootprintCalculator(
-            Document document,
-            EvaluationSettings evaluationSettings,
+            WatchFaceAnalysisContext context,
             VariantConfigValue variant,
             WatchFaceResourceCollector resourceCollector,
             DrawableNodeConfigTable drawableNodeConfigTable,
             Function<String, Long> evaluator) {
-        this.document = document;
-        this.sceneNode = findSceneNode(document);
-        this.evaluationSettings = evaluationSettings;
+        this.context = context;
+        this.sceneNode = context.getSceneNode();
+        this.evaluationSettings = context.getEvaluationSettings();
         this.variant = variant;
         this.resourceCollector = resourceCollector;
         this.drawableNodeConfigTable = drawableNodeConfigTable;
@@ -78,29 +115,73 @@ class DynamicNodePerConfigurationFootprintCalculator {
         List<Set<UserConfigKey>> userConfigSplit =
                 ResourceConfigTable.fromDrawableNodeConfigTable(
                                 drawableNodeConfigTable, resourceCollector, variant)
-                        .replaceWithTopLevelKeys(document)
+                        .replaceWithTopLevelKeys(context.getUserConfigKeys())
                         .joinRelatedUserConfigKeys();
 
-        // map each self-contained set of user config keys to a lazy iterator that generates all
-        // possible combinations of key-value pairs from that set of user config keys
-        List<SizedIterator<UserConfigSet>> configIterators =
-                userConfigSplit.stream().map(UserConfigKey::buildConfigSets).collect(toList());
+        // map each self-contained set of user config keys to the space of all possible
+        // combinations of key-value pairs from that set of user config keys
+        List<ConfigSpace> configSpaces =
+                userConfigSplit.stream().map(ConfigSpace::new).collect(toList());
 
         long totalNumberOfConfigs =
-                configIterators.stream().mapToLong(SizedIterator::getSize).sum();
+                configSpaces.stream()
+                        .mapToLong(ConfigSpace::getSize)
+                        .reduce(0, LongMath::saturatedAdd);
 
         if (evaluationSettings.isVerbose()) {
             System.out.printf("Watch face has %d configs%n", totalNumberOfConfigs);
         }
 
+        EvaluationMetrics metrics = evaluationSettings.getMetrics();
+        if (evaluationSettings.getExactEvaluation()) {
+            metrics.increment(Counter.EXACT_EVALUATIONS);
+            try (EvaluationMetrics.Timer ignored = metrics.start(Phase.ENUMERATE_CONFIGS)) {
+                return branchAndBoundEvaluate(userConfigSplit);
+            }
+        }
+
         if (totalNumberOfConfigs > evaluationSettings.getGreedyEvaluationSwitch()) {
             if (evaluationSettings.isVerbose()) {
                 System.out.println("Using greedy evaluation%n");
             }
+            metrics.increment(Counter.GREEDY_EVALUATIONS);
+            if (evaluationSettings.getReportAttribution()) {
+                attribution = greedyAttribution();
+            }
+            if (evaluationSettings.getTopConfigurations() > 0) {
+                topConfigurations =
+                        rankConfigurations(
+                                List.of(greedyTopConfigurations(sceneNode)),
+                                /* footprintOfLeafsWithoutConfigs= */ 0,
+                                /* approximate= */ true);
+            }
             return greedyEvaluate();
         }
 
-        return lazyEvaluate(configIterators);
+        metrics.increment(Counter.LAZY_EVALUATIONS);
+        try (EvaluationMetrics.Timer ignored = metrics.start(Phase.ENUMERATE_CONFIGS)) {
+            if (evaluationSettings.getEvaluationThreads() > 1) {
+                return parallelLazyEvaluate(configSpaces);
+            }
+            return lazyEvaluate(configSpaces);
+        }
+    }
+
+    /**
+     * Returns the attribution of the maximum footprint computed by {@link
+     * #calculateMaxFootprintBytes()}, or null if {@link EvaluationSettings#getReportAttribution()}
+     * is not enabled.
+     */
+    FootprintAttribution getAttribution() {
+        return attribution;
+    }
+
+    /**
+     * Returns the heaviest user configurations found by {@link #calculateMaxFootprintBytes()}, or
+     * null if {@link EvaluationSettings#getTopConfigurations()} is not set.
+     */
+    TopConfigurations getTopConfigurations() {
+        return topConfigurations;
     }
 
     /**
@@ -114,6 +195,16 @@ class DynamicNodePerConfigurationFootprintCalculator {
     }
 
     private long greedyEvaluate(Node currentNode) {
+        // not computeIfAbsent, as the evaluation of the children adds to the map
+        Long footprint = greedyFootprints.get(currentNode);
+        if (footprint == null) {
+            footprint = evaluateGreedyFootprint(currentNode);
+            greedyFootprints.put(currentNode, footprint);
+        }
+        return footprint;
+    }
+
+    private long evaluateGreedyFootprint(Node currentNode) {
         if (variant.isNodeSkipped(currentNode)) {
             return 0;
         }
@@ -129,37 +220,456 @@ class DynamicNodePerConfigurationFootprintCalculator {
         return childrenFootprints.sum();
     }
 
+    /**
+     * Attributes the footprint of {@link #greedyEvaluate()} by following, under each user
+     * configuration, the option with the biggest greedy footprint.
+     */
+    private FootprintAttribution greedyAttribution() {
+        Map<String, String> configuration = new TreeMap<>();
+        Set<String> resources = new HashSet<>();
+        collectGreedyAttribution(sceneNode, configuration, resources);
+        return createAttribution(configuration, resources, /* approximate= */ true);
+    }
+
+    private void collectGreedyAttribution(
+            Node currentNode, Map<String, String> configuration, Set<String> resources) {
+        if (variant.isNodeSkipped(currentNode)) {
+            return;
+        }
+        if (isDrawableNode(currentNode) && dynamicNodesToConsider.contains(currentNode)) {
+            resources.addAll(resourceCollector.collectResources(currentNode, variant));
+            return;
+        }
+        if (isValidUserConfigNode(currentNode)) {
+            Optional<Node> heaviestOption =
+                    childrenStream(currentNode)
+                            .max(Comparator.comparingLong(this::greedyEvaluate));
+            if (heaviestOption.isPresent()) {
+                Optional<String> keyId = getNodeAttribute(currentNode, "id");
+                Optional<String> valueId = getNodeAttribute(heaviestOption.get(), "id");
+                if (keyId.isPresent() && valueId.isPresent()) {
+                    configuration.put(keyId.get(), valueId.get());
+                }
+                collectGreedyAttribution(heaviestOption.get(), configuration, resources);
+            }
+            return;
+        }
+        childrenStream(currentNode)
+                .forEach(child -> collectGreedyAttribution(child, configuration, resources));
+    }
+
+    /**
+     * Ranks the heaviest configurations like {@link #greedyEvaluate()} computes the heaviest one:
+     * the configurations of the options of a user configuration are alternatives, and those of the
+     * children of any other node are combined. Like the greedy footprint, the ranking counts
+     * duplicated resources as many times as they appear.
+     */
+    private List<TopConfigSets.Entry<Map<String, String>>> greedyTopConfigurations(
+            Node currentNode) {
+        if (variant.isNodeSkipped(currentNode)) {
+            return List.of(new TopConfigSets.Entry<>(0, Map.of()));
+        }
+        if (isDrawableNode(currentNode) && dynamicNodesToConsider.contains(currentNode)) {
+            return List.of(new TopConfigSets.Entry<>(greedyEvaluate(currentNode), Map.of()));
+        }
+        int count = evaluationSettings.getTopConfigurations();
+        if (isValidUserConfigNode(currentNode)) {
+            Optional<String> keyId = getNodeAttribute(currentNode, "id");
+            TopConfigSets<Map<String, String>> optionConfigurations = new TopConfigSets<>(count);
+            childrenStream(currentNode)
+                    .forEach(
+                            option -> {
+                                Optional<String> valueId = getNodeAttribute(option, "id");
+                                for (TopConfigSets.Entry<Map<String, String>> entry :
+                                        greedyTopConfigurations(option)) {
+                                    if (!optionConfigurations.accepts(entry.footprint)) {
+                                        continue;
+                                    }
+                                    Map<String, String> configuration =
+                                            new TreeMap<>(entry.configSet);
+                                    if (keyId.isPresent() && valueId.isPresent()) {
+                                        configuration.put(keyId.get(), valueId.get());
+                                    }
+                                    optionConfigurations.offer(entry.footprint, configuration);
+                                }
+                            });
+            List<TopConfigSets.Entry<Map<String, String>>> configurations =
+                    optionConfigurations.toSortedList();
+            return configurations.isEmpty()
+                    ? List.of(new TopConfigSets.Entry<>(0, Map.of()))
+                    : configurations;
+        }
+        List<TopConfigSets.Entry<Map<String, String>>> configurations =
+                List.of(new TopConfigSets.Entry<>(0, Map.of()));
+        for (Node child : childrenStream(currentNode).collect(toList())) {
+            configurations =
+                    TopConfigSets.largestSums(
+                            configurations,
+                            greedyTopConfigurations(child),
+                            count,
+                            DynamicNodePerConfigurationFootprintCalculator::mergeConfigurations);
+        }
+        return configurations;
+    }
+
     /**
      * Lazily evaluates the watch face layout, returning the maximum memory footprint that the watch
      * face can have, in bytes, under any user configuration.
      *
-     * <p>The user configurations are represented as a list of iterators, each producing partial
-     * user config sets. Any two user config sets from different iterators are mutually exclusive,
-     * meaning that they do not affect the same resource. This allows us to evaluate the iterators
-     * in isolation, without having to compute all combinations of user configs.
+     * <p>The user configurations are represented as a list of config spaces, each producing
+     * partial user config sets. Any two user config sets from different spaces are mutually
+     * exclusive, meaning that they do not affect the same resource. This allows us to evaluate the
+     * spaces in isolation, without having to compute all combinations of user configs.
      *
-     * <p>We use a lazy iterator because we can still have too many configs to store in memory,
-     * hence we are * producing and evaluating them lazily.
+     * <p>The config sets are produced and evaluated lazily, in their dense form, because we can
+     * still have too many configs to store in memory.
      *
-     * @param configIterators the list of iterators producing mutually-exclusive config sets.
-     */
-    private long lazyEvaluate(List<SizedIterator<UserConfigSet>> configIterators) {
-        long footprintOfResourcesWithConfigs =
-                configIterators.stream()
-                        .mapToLong(
-                                userConfigIterator ->
-                                        evaluateConfigSetForMaxFootprintBytes(
-                                                userConfigIterator,
-                                                variant,
-                                                drawableNodeConfigTable
-                                                        .getDependentDrawableNodes()))
-                        .sum();
+     * @param configSpaces the list of spaces of mutually-exclusive config sets.
+     */
+    private long lazyEvaluate(List<ConfigSpace> configSpaces) {
+        DrawableNodeResourceSets drawablesWithConfigs = createDependentDrawableNodeResourceSets();
+        int topConfigSetCount = evaluationSettings.getTopConfigurations();
+        long[] maxFootprints = new long[configSpaces.size()];
+        List<TopConfigSets<Long>> topConfigSets = new ArrayList<>();
+        for (int i = 0; i < configSpaces.size(); i++) {
+            ConfigSpace configSpace = configSpaces.get(i);
+            DrawableNodeResourceSets.DenseMatcher matcher =
+                    drawablesWithConfigs.denseMatcher(configSpace);
+            TopConfigSets<Long> top =
+                    topConfigSetCount > 0 ? new TopConfigSets<>(topConfigSetCount) : null;
+            topConfigSets.add(top);
+            OptionalLong reused = reuseComponent(configSpace, matcher, drawablesWithConfigs);
+            if (reused.isPresent()) {
+                maxFootprints[i] = reused.getAsLong();
+                continue;
+            }
+            evaluationSettings.getMetrics().add(Counter.CONFIGS_ENUMERATED, configSpace.getSize());
+            maxFootprints[i] =
+                    evaluateConfigSetForMaxFootprintBytes(configSpace.spliterator(), matcher, top);
+            recordComponent(configSpace, matcher, drawablesWithConfigs, maxFootprints[i]);
+        }
+        return combineConfigSpaces(
+                configSpaces, maxFootprints, topConfigSets, drawablesWithConfigs);
+    }
+
+    /**
+     * Adds up the maximum footprints of the config spaces and the footprint of the drawable nodes
+     * without configs. If attribution is enabled, then the first config set of each space that
+     * reaches its maximum footprint is searched for, which enumerates the config sets again, but
+     * stops as soon as it is found. If the top configurations are requested, then they are ranked
+     * from the heaviest config sets of each space, given by {@code topConfigSets}.
+     */
+    private long combineConfigSpaces(
+            List<ConfigSpace> configSpaces,
+            long[] maxFootprints,
+            List<TopConfigSets<Long>> topConfigSets,
+            DrawableNodeResourceSets drawablesWithConfigs) {
+        long footprintOfResourcesWithConfigs = LongStream.of(maxFootprints).sum();
         long footprintOfLeafsWithoutConfigs =
                 evaluateIndependentDrawableNodesBytes(variant, drawableNodeConfigTable);
 
+        if (evaluationSettings.getReportAttribution()) {
+            Map<UserConfigKey, UserConfigValue> heaviestConfig = new HashMap<>();
+            for (int i = 0; i < configSpaces.size(); i++) {
+                ConfigSpace configSpace = configSpaces.get(i);
+                DrawableNodeResourceSets.DenseMatcher matcher =
+                        drawablesWithConfigs.denseMatcher(configSpace);
+                BitSet scratch = new BitSet();
+                long maxFootprint = maxFootprints[i];
+                long index =
+                        configSpace
+                                .spliterator()
+                                .findFirstDense(
+                                        denseConfigSet ->
+                                                matcher.footprintOfMatchingEntries(
+                                                                denseConfigSet, scratch)
+                                                        == maxFootprint);
+                if (index >= 0) {
+                    heaviestConfig.putAll(configSpace.get(index).config);
+                }
+            }
+            attribution =
+                    createAttribution(
+                            new UserConfigSet(heaviestConfig),
+                            drawablesWithConfigs,
+                            /* approximate= */ false);
+        }
+
+        if (evaluationSettings.getTopConfigurations() > 0) {
+            List<List<TopConfigSets.Entry<Map<String, String>>>> rankings = new ArrayList<>();
+            for (int i = 0; i < configSpaces.size(); i++) {
+                List<TopConfigSets.Entry<Map<String, String>>> ranking = new ArrayList<>();
+                for (TopConfigSets.Entry<Long> entry : topConfigSets.get(i).toSortedList()) {
+                    ranking.add(
+                            new TopConfigSets.Entry<>(
+                                    entry.footprint,
+                                    toConfiguration(configSpaces.get(i).get(entry.configSet))));
+                }
+                rankings.add(ranking);
+            }
+            topConfigurations =
+                    rankConfigurations(
+                            rankings, footprintOfLeafsWithoutConfigs, /* approximate= */ false);
+        }
+
         return footprintOfResourcesWithConfigs + footprintOfLeafsWithoutConfigs;
     }
 
+    /**
+     * Evaluates the watch face layout like {@link #lazyEvaluate}, using the shared fork-join pool
+     * of {@link EvaluationSettings#getEvaluationThreads()} threads. The {@link ConfigSpace} of each
+     * self-contained set of user config keys is split into index ranges, whose maximum footprints
+     * are computed in parallel and reduced to the maximum for the set. The sets themselves are also
+     * evaluated concurrently.
+     */
+    private long parallelLazyEvaluate(List<ConfigSpace> configSpaces) {
+        DrawableNodeResourceSets drawablesWithConfigs = createDependentDrawableNodeResourceSets();
+        int threads = evaluationSettings.getEvaluationThreads();
+        ForkJoinPool pool = WatchFaceLayoutEvaluator.getConfigEnumerationPool(threads);
+        long[] maxFootprints = new long[configSpaces.size()];
+        // the task of each config space, or null if its maximum footprint was reused
+        List<MaxFootprintTask> componentTasks = new ArrayList<>();
+        for (int i = 0; i < configSpaces.size(); i++) {
+            ConfigSpace configSpace = configSpaces.get(i);
+            DrawableNodeResourceSets.DenseMatcher matcher =
+                    drawablesWithConfigs.denseMatcher(configSpace);
+            OptionalLong reused = reuseComponent(configSpace, matcher, drawablesWithConfigs);
+            if (reused.isPresent()) {
+                maxFootprints[i] = reused.getAsLong();
+                componentTasks.add(null);
+                continue;
+            }
+            evaluationSettings.getMetrics().add(Counter.CONFIGS_ENUMERATED, configSpace.getSize());
+            long splitThreshold = max(1, configSpace.getSize() / (threads * PARTITIONS_PER_THREAD));
+            MaxFootprintTask componentTask =
+                    new MaxFootprintTask(
+                            configSpace.spliterator(),
+                            splitThreshold,
+                            matcher,
+                            evaluationSettings.getTopConfigurations());
+            pool.submit(componentTask);
+            componentTasks.add(componentTask);
+        }
+        List<TopConfigSets<Long>> topConfigSets = new ArrayList<>();
+        for (int i = 0; i < configSpaces.size(); i++) {
+            MaxFootprintTask componentTask = componentTasks.get(i);
+            if (componentTask == null) {
+                topConfigSets.add(null);
+                continue;
+            }
+            maxFootprints[i] = componentTask.join();
+            topConfigSets.add(componentTask.topConfigSets);
+            recordComponent(
+                    configSpaces.get(i),
+                    componentTask.drawablesWithConfigs,
+                    drawablesWithConfigs,
+                    maxFootprints[i]);
+        }
+        return combineConfigSpaces(
+                configSpaces, maxFootprints, topConfigSets, drawablesWithConfigs);
+    }
+
+    /**
+     * Evaluates the watch face layout exactly, like {@link #lazyEvaluate}, but finds the maximum
+     * footprint of each self-contained set of user config keys with a {@link MaxFootprintSearch}
+     * rather than by enumerating its config sets. Unlike {@link #greedyEvaluate}, this does not
+     * over-approximate the footprint of watch faces with too many configs.
+     */
+    private long branchAndBoundEvaluate(List<Set<UserConfigKey>> userConfigSplit) {
+        DrawableNodeResourceSets drawablesWithConfigs = createDependentDrawableNodeResourceSets();
+        long footprintOfResourcesWithConfigs = 0;
+        Map<UserConfigKey, UserConfigValue> heaviestConfig = new HashMap<>();
+        List<List<TopConfigSets.Entry<Map<String, String>>>> rankings = new ArrayList<>();
+        for (Set<UserConfigKey> userConfigKeys : userConfigSplit) {
+            ConfigSpace configSpace = null;
+            DrawableNodeResourceSets.DenseMatcher matcher = null;
+            if (reusableComponents() != null) {
+                configSpace = new ConfigSpace(userConfigKeys);
+                matcher = drawablesWithConfigs.denseMatcher(configSpace);
+                OptionalLong reused = reuseComponent(configSpace, matcher, drawablesWithConfigs);
+                if (reused.isPresent()) {
+                    footprintOfResourcesWithConfigs += reused.getAsLong();
+                    continue;
+                }
+            }
+            MaxFootprintSearch search =
+                    new MaxFootprintSearch(
+                            new ArrayList<>(userConfigKeys),
+                            drawablesWithConfigs,
+                            evaluationSettings.getTopConfigurations(),
+                            evaluationSettings.getReportAttribution());
+            long maxFootprint = search.search();
+            footprintOfResourcesWithConfigs += maxFootprint;
+            if (configSpace != null) {
+                recordComponent(configSpace, matcher, drawablesWithConfigs, maxFootprint);
+            }
+            if (evaluationSettings.getReportAttribution()) {
+                heaviestConfig.putAll(search.getBestConfigSet().config);
+            }
+            List<TopConfigSets.Entry<Map<String, String>>> ranking = new ArrayList<>();
+            for (TopConfigSets.Entry<UserConfigSet> entry : search.getTopConfigSets()) {
+                ranking.add(
+                        new TopConfigSets.Entry<>(
+                                entry.footprint, toConfiguration(entry.configSet)));
+            }
+            rankings.add(ranking);
+            evaluationSettings
+                    .getMetrics()
+                    .add(Counter.CONFIGS_ENUMERATED, search.getStatistics().configSetsEvaluated);
+            if (evaluationSettings.isVerbose()) {
+                System.out.printf(
+                        "Searched configs of %s: %s%n", userConfigKeys, search.getStatistics());
+            }
+        }
+        long footprintOfLeafsWithoutConfigs =
+                evaluateIndependentDrawableNodesBytes(variant, drawableNodeConfigTable);
+
+        if (evaluationSettings.getReportAttribution()) {
+            attribution =
+                    createAttribution(
+                            new UserConfigSet(heaviestConfig),
+                            drawablesWithConfigs,
+                            /* approximate= */ false);
+        }
+        if (evaluationSettings.getTopConfigurations() > 0) {
+            topConfigurations =
+                    rankConfigurations(
+                            rankings, footprintOfLeafsWithoutConfigs, /* approximate= */ false);
+        }
+        return footprintOfResourcesWithConfigs + footprintOfLeafsWithoutConfigs;
+    }
+
+    /**
+     * Returns the cache of the maximum footprints of the components, ie. of the config spaces, if
+     * they can be reused. They cannot when the top configurations are ranked, which needs the
+     * heaviest config sets of every component, nor by the exact evaluation with attribution, which
+     * needs the heaviest config set found by the search.
+     */
+    private ComponentFootprintCache reusableComponents() {
+        if (evaluationSettings.getTopConfigurations() > 0
+                || (evaluationSettings.getExactEvaluation()
+                        && evaluationSettings.getReportAttribution())) {
+            return null;
+        }
+        return context.getComponentFootprintCache();
+    }
+
+    /**
+     * Returns the maximum footprint of the config space from the previous evaluation of the
+     * layout, if the resources it depends on did not change since.
+     */
+    private OptionalLong reuseComponent(
+            ConfigSpace configSpace,
+            DrawableNodeResourceSets.DenseMatcher matcher,
+            DrawableNodeResourceSets drawablesWithConfigs) {
+        ComponentFootprintCache components = reusableComponents();
+        if (components == null) {
+            return OptionalLong.empty();
+        }
+        OptionalLong reused =
+                components.reuse(
+                        ComponentFootprintCache.componentId(variant, configSpace.getKeys()),
+                        componentResourceBytes(matcher, drawablesWithConfigs));
+        if (reused.isPresent()) {
+            evaluationSettings.getMetrics().increment(Counter.CONFIG_SPACES_REUSED);
+        }
+        return reused;
+    }
+
+    /** Records the maximum footprint of the config space, to be reused by the next evaluation. */
+    private void recordComponent(
+            ConfigSpace configSpace,
+            DrawableNodeResourceSets.DenseMatcher matcher,
+            DrawableNodeResourceSets drawablesWithConfigs,
+            long maxFootprint) {
+        ComponentFootprintCache components = reusableComponents();
+        if (components != null) {
+            components.record(
+                    ComponentFootprintCache.componentId(variant, configSpace.getKeys()),
+                    componentResourceBytes(matcher, drawablesWithConfigs),
+                    maxFootprint);
+        }
+    }
+
+    /** Returns the footprint of each resource that the config sets of a matcher depend on. */
+    private static Map<String, Long> componentResourceBytes(
+            DrawableNodeResourceSets.DenseMatcher matcher,
+            DrawableNodeResourceSets drawablesWithConfigs) {
+        Map<String, Long> resourceBytes = new TreeMap<>();
+        BitSet resources = matcher.getMatchableResources();
+        for (int index = resources.nextSetBit(0);
+                index >= 0;
+                index = resources.nextSetBit(index + 1)) {
+            resourceBytes.put(
+                    drawablesWithConfigs.getResourceName(index),
+                    drawablesWithConfigs.getResourceSize(index));
+        }
+        return resourceBytes;
+    }
+
+    /**
+     * Computes the maximum footprint of the config sets of a spliterator. Ranges bigger than the
+     * split threshold are split off and evaluated by forked tasks. If the top config sets are
+     * requested, then the heaviest config sets of the range are kept in {@link #topConfigSets}.
+     */
+    private class MaxFootprintTask extends RecursiveTask<Long> {
+        private final ConfigSpace.IndexRange configSets;
+        private final long splitThreshold;
+        private final DrawableNodeResourceSets.DenseMatcher drawablesWithConfigs;
+        private final int topConfigSetCount;
+        private final TopConfigSets<Long> topConfigSets;
+
+        MaxFootprintTask(
+                ConfigSpace.IndexRange configSets,
+                long splitThreshold,
+                DrawableNodeResourceSets.DenseMatcher drawablesWithConfigs,
+                int topConfigSetCount) {
+            this.configSets = configSets;
+            this.splitThreshold = splitThreshold;
+            this.drawablesWithConfigs = drawablesWithConfigs;
+            this.topConfigSetCount = topConfigSetCount;
+            this.topConfigSets =
+                    topConfigSetCount > 0 ? new TopConfigSets<>(topConfigSetCount) : null;
+        }
+
+        @Override
+        protected Long compute() {
+            List<MaxFootprintTask> forkedTasks = new ArrayList<>();
+            ConfigSpace.IndexRange prefix;
+            while (configSets.estimateSize() > splitThreshold
+                    && (prefix = configSets.trySplit()) != null) {
+                MaxFootprintTask forkedTask =
+                        new MaxFootprintTask(
+                                prefix, splitThreshold, drawablesWithConfigs, topConfigSetCount);
+                forkedTask.fork();
+                forkedTasks.add(forkedTask);
+            }
+
+            long maxFootprint =
+                    evaluateConfigSetForMaxFootprintBytes(
+                            configSets, drawablesWithConfigs, topConfigSets);
+            for (MaxFootprintTask forkedTask : forkedTasks) {
+                maxFootprint = max(maxFootprint, forkedTask.join());
+                if (topConfigSets != null) {
+                    topConfigSets.addAll(forkedTask.topConfigSets);
+                }
+            }
+            return maxFootprint;
+        }
+    }
+
+    /**
+     * Collects the resources of the drawable nodes that depend on user configs, once, rather than
+     * once per config set.
+     */
+    private DrawableNodeResourceSets createDependentDrawableNodeResourceSets() {
+        return DrawableNodeResourceSets.create(
+                drawableNodeConfigTable.getDependentDrawableNodes(),
+                resourceCollector,
+                variant,
+                evaluator);
+    }
+
     /**
      * Computes the memory footprint of the drawable nodes that do not have any user configuration
      * parent, hence are not affected by user configs and are always rendered.
@@ -174,34 +684,124 @@ class DynamicNodePerConfigurationFootprintCalculator {
     }
 
     /**
-     * Iterates over all the configs produced by the given iterator and computes the memory
-     * footprint of the resources that match the config. Returns the maximum footprint for any
-     * config set.
+     * Attributes the footprint of the given config set to the resources of the dependent entries
+     * that match it, plus the resources of the drawable nodes without configs.
      */
-    private long evaluateConfigSetForMaxFootprintBytes(
-            SizedIterator<UserConfigSet> iterator,
-            VariantConfigValue variant,
-            List<DrawableNodeConfigTable.Entry> drawablesWithConfigs) {
-        long maxFootprint = 0;
-        while (iterator.hasNext()) {
-            UserConfigSet next = iterator.next();
-            List<DrawableNodeConfigTable.Entry> nodesMatchingConfigSet =
-                    drawablesWithConfigs.stream()
-                            .filter(entry -> entry.matchesConfigSet(next))
-                            .collect(toList());
-
-            long footprintForConfig =
-                    nodesMatchingConfigSet.stream()
-                            .flatMap(
-                                    entry ->
-                                            resourceCollector
-                                                    .collectResources(entry.node, variant)
-                                                    .stream())
-                            .distinct()
-                            .mapToLong(evaluator::apply)
-                            .sum();
-            maxFootprint = max(footprintForConfig, maxFootprint);
-        }
-        return maxFootprint;
+    private FootprintAttribution createAttribution(
+            UserConfigSet configSet,
+            DrawableNodeResourceSets drawablesWithConfigs,
+            boolean approximate) {
+        Map<String, String> configuration = toConfiguration(configSet);
+        BitSet matchingResources = new BitSet();
+        drawablesWithConfigs.footprintOfMatchingEntries(configSet, matchingResources);
+        Set<String> resources = new HashSet<>();
+        for (int index = matchingResources.nextSetBit(0);
+                index >= 0;
+                index = matchingResources.nextSetBit(index + 1)) {
+            resources.add(drawablesWithConfigs.getResourceName(index));
+        }
+        return createAttribution(configuration, resources, approximate);
+    }
+
+    private FootprintAttribution createAttribution(
+            Map<String, String> configuration, Set<String> resources, boolean approximate) {
+        Set<String> allResources = new HashSet<>(resources);
+        for (DrawableNodeConfigTable.Entry entry :
+                drawableNodeConfigTable.getIndependentDrawableNodes()) {
+            allResources.addAll(resourceCollector.collectResources(entry.node, variant));
+        }
+        List<ResourceFootprint> resourceFootprints =
+                allResources.stream()
+                        .map(resource -> new ResourceFootprint(resource, evaluator.apply(resource)))
+                        .sorted(
+                                Comparator.comparingLong(ResourceFootprint::getBytes)
+                                        .reversed()
+                                        .thenComparing(ResourceFootprint::getResource))
+                        .collect(toList());
+        return new FootprintAttribution(configuration, resourceFootprints, approximate);
+    }
+
+    /**
+     * Ranks the heaviest user configurations of the watch face from the heaviest config sets of
+     * each self-contained set of user config keys. As the sets are independent, a configuration is
+     * made of one config set of each set, and its footprint is the sum of theirs plus the footprint
+     * of the drawable nodes without configs.
+     */
+    private TopConfigurations rankConfigurations(
+            List<List<TopConfigSets.Entry<Map<String, String>>>> rankings,
+            long footprintOfLeafsWithoutConfigs,
+            boolean approximate) {
+        List<TopConfigSets.Entry<Map<String, String>>> configurations =
+                List.of(new TopConfigSets.Entry<>(footprintOfLeafsWithoutConfigs, Map.of()));
+        for (List<TopConfigSets.Entry<Map<String, String>>> ranking : rankings) {
+            // a set without config sets contributes nothing, like in the maximum footprint
+            if (ranking.isEmpty()) {
+                continue;
+            }
+            configurations =
+                    TopConfigSets.largestSums(
+                            configurations,
+                            ranking,
+                            evaluationSettings.getTopConfigurations(),
+                            DynamicNodePerConfigurationFootprintCalculator::mergeConfigurations);
+        }
+        return new TopConfigurations(
+                configurations.stream()
+                        .map(entry -> new ConfigurationFootprint(entry.configSet, entry.footprint))
+                        .collect(toList()),
+                approximate);
+    }
+
+    private static Map<String, String> mergeConfigurations(
+            Map<String, String> left, Map<String, String> right) {
+        Map<String, String> configuration = new TreeMap<>(left);
+        configuration.putAll(right);
+        return configuration;
+    }
+
+    /** Returns the id of the value of each key of the config set, keyed by the id of the key. */
+    private static Map<String, String> toConfiguration(UserConfigSet configSet) {
+        Map<String, String> configuration = new TreeMap<>();
+        for (Map.Entry<UserConfigKey, UserConfigValue> entry : configSet.config.entrySet()) {
+            configuration.put(entry.getKey().getKeyId(), entry.getValue().getConfigValueId());
+        }
+        return configuration;
+    }
+
+    /**
+     * Iterates over all the configs of the given range and computes the memory footprint of the
+     * resources that match the config. Returns the maximum footprint for any config set. If {@code
+     * topConfigSets} is not null, then the index of each config set is also offered to it.
+     */
+    private static long evaluateConfigSetForMaxFootprintBytes(
+            ConfigSpace.IndexRange configSets,
+            DrawableNodeResourceSets.DenseMatcher drawablesWithConfigs,
+            TopConfigSets<Long> topConfigSets) {
+        long[] maxFootprint = {0};
+        BitSet matchingResources = new BitSet();
+        if (topConfigSets == null) {
+            configSets.forEachRemainingDense(
+                    denseConfigSet -> {
+                        long footprintForConfig =
+                                drawablesWithConfigs.footprintOfMatchingEntries(
+                                        denseConfigSet, matchingResources);
+                        maxFootprint[0] = max(footprintForConfig, maxFootprint[0]);
+                    });
+            return maxFootprint[0];
+        }
+        long[] index = {configSets.getIndex()};
+        configSets.forEachRemainingDense(
+                denseConfigSet -> {
+                    long footprintForConfig =
+                            drawablesWithConfigs.footprintOfMatchingEntries(
+                                    denseConfigSet, matchingResources);
+                    maxFootprint[0] = max(footprintForConfig, maxFootprint[0]);
+                    // the index is only boxed for the config sets that are kept
+                    if (topConfigSets.accepts(footprintForConfig)) {
+                        topConfigSets.offer(footprintForConfig, index[0]);
+                    }
+                    index[0]++;
+                });
+        return maxFootprint[0];
     }
 }
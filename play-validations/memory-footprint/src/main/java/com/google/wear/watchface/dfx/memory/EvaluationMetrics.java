@@ -0,0 +1,394 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects timings and counters about the evaluation of a watch face package, to find out where
+ * the time of a slow evaluation goes.
+ *
+ * <p>Metrics are recorded from any thread. The time of a phase is the sum of the time spent in it
+ * by all threads, so it can be bigger than the wall-clock time of the evaluation when resources or
+ * layouts are evaluated concurrently. Phases may also be nested, eg. images are decoded while they
+ * are analyzed.
+ *
+ * <p>Disabled metrics record nothing, so they can be used unconditionally.
+ */
+public final class EvaluationMetrics {
+    /** The timed phases of an evaluation. */
+    enum Phase {
+        /** Opening the package and reading its files. */
+        READ_PACKAGE("readPackage"),
+        /** Parsing the raw XML resources. */
+        PARSE_XML("parseXml"),
+        /** Hashing and analyzing the image and font resources, including decoding. */
+        ANALYZE_IMAGES("analyzeImages"),
+        /** Decoding the frames of images. */
+        DECODE_IMAGES("decodeImages"),
+        /** Validating the layouts against the watch face format XSD. */
+        VALIDATE_SCHEMA("validateSchema"),
+        /** Evaluating the memory footprint of a layout. */
+        EVALUATE_LAYOUT("evaluateLayout"),
+        /** Enumerating or searching the user configurations of a layout. */
+        ENUMERATE_CONFIGS("enumerateConfigs");
+
+        final String jsonName;
+
+        Phase(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    /** The counters of an evaluation. */
+    enum Counter {
+        /** The number of files read from the package. */
+        RESOURCES_READ("resourcesRead"),
+        /** The uncompressed size of the files read from the package. */
+        BYTES_READ("bytesRead"),
+        /** The number of image frames decoded. */
+        IMAGES_DECODED("imagesDecoded"),
+        /** The number of pixels read from the decoded frames. */
+        PIXELS_SCANNED("pixelsScanned"),
+        /** The number of layouts evaluated. */
+        LAYOUTS_EVALUATED("layoutsEvaluated"),
+        /** The number of user config sets whose footprint was computed. */
+        CONFIGS_ENUMERATED("configsEnumerated"),
+        /** The number of footprints over-approximated with the greedy evaluation. */
+        GREEDY_EVALUATIONS("greedyEvaluations"),
+        /** The number of footprints computed by enumerating all the user config sets. */
+        LAZY_EVALUATIONS("lazyEvaluations"),
+        /** The number of footprints computed with the branch-and-bound search. */
+        EXACT_EVALUATIONS("exactEvaluations"),
+        /** The number of layouts whose footprint was reused from the incremental snapshot. */
+        LAYOUTS_REUSED("layoutsReused"),
+        /**
+         * The number of self-contained sets of user config keys whose maximum footprint was reused
+         * from the incremental snapshot rather than computed again.
+         */
+        CONFIG_SPACES_REUSED("configSpacesReused");
+
+        final String jsonName;
+
+        Counter(String jsonName) {
+            this.jsonName = jsonName;
+        }
+    }
+
+    /** Measures the time spent in a phase, from its creation until it is closed. */
+    interface Timer extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final Timer NO_OP_TIMER = () -> {};
+
+    private static final EvaluationMetrics DISABLED = new EvaluationMetrics(false, false);
+
+    private final boolean enabled;
+    private final boolean tracing;
+    private final Map<Phase, LongAdder> phaseNanos = new EnumMap<>(Phase.class);
+    private final Map<Phase, LongAdder> phaseCounts = new EnumMap<>(Phase.class);
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+    /** The spans of all the timers, only kept when tracing. */
+    private final Queue<Span> spans = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates metrics for an evaluation.
+     *
+     * @param enabled whether anything is recorded.
+     * @param tracing whether the individual spans of the timers are kept, for writing a trace.
+     */
+    EvaluationMetrics(boolean enabled, boolean tracing) {
+        this.enabled = enabled;
+        this.tracing = enabled && tracing;
+        // the maps are fully populated upfront, so that they are only read concurrently
+        for (Phase phase : Phase.values()) {
+            phaseNanos.put(phase, new LongAdder());
+            phaseCounts.put(phase, new LongAdder());
+        }
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+        }
+    }
+
+    /** Returns metrics that record nothing. */
+    static EvaluationMetrics disabled() {
+        return DISABLED;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing the given phase on the calling thread. The returned timer must be closed on
+     * the same thread, typically with a try-with-resources statement.
+     */
+    Timer start(Phase phase) {
+        if (!enabled) {
+            return NO_OP_TIMER;
+        }
+        long startNanos = System.nanoTime();
+        return () -> {
+            long durationNanos = System.nanoTime() - startNanos;
+            phaseNanos.get(phase).add(durationNanos);
+            phaseCounts.get(phase).increment();
+            if (tracing) {
+                Thread thread = Thread.currentThread();
+                spans.add(
+                        new Span(
+                                phase,
+                                thread.getId(),
+                                thread.getName(),
+                                startNanos,
+                                durationNanos));
+            }
+        };
+    }
+
+    void increment(Counter counter) {
+        add(counter, 1);
+    }
+
+    void add(Counter counter, long amount) {
+        if (enabled) {
+            counters.get(counter).add(amount);
+        }
+    }
+
+    long getCount(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    long getPhaseCount(Phase phase) {
+        return phaseCounts.get(phase).sum();
+    }
+
+    /**
+     * Returns an image processor that counts the frames and pixels read through the given one, and
+     * times their decoding.
+     */
+    ImageProcessor instrument(ImageProcessor imageProcessor) {
+        if (!enabled) {
+            return imageProcessor;
+        }
+        return new InstrumentedImageProcessor(imageProcessor);
+    }
+
+    /**
+     * Returns the metrics as a JSON object, with the time and number of occurrences of each phase,
+     * the counters, and the peak heap usage. The peak heap usage is the sum of the peaks of the
+     * heap memory pools of the JVM, so it covers all the evaluations that ran in the process so
+     * far, not only this one.
+     */
+    JsonObject toJson() {
+        JsonObject phases = new JsonObject();
+        for (Phase phase : Phase.values()) {
+            JsonObject phaseJson = new JsonObject();
+            phaseJson.addProperty("count", phaseCounts.get(phase).sum());
+            phaseJson.addProperty("totalMillis", phaseNanos.get(phase).sum() / 1_000_000.0);
+            phases.add(phase.jsonName, phaseJson);
+        }
+        JsonObject countersJson = new JsonObject();
+        for (Counter counter : Counter.values()) {
+            countersJson.addProperty(counter.jsonName, counters.get(counter).sum());
+        }
+        JsonObject metrics = new JsonObject();
+        metrics.add("phases", phases);
+        metrics.add("counters", countersJson);
+        metrics.addProperty("peakHeapBytes", peakHeapBytes());
+        return metrics;
+    }
+
+    private static long peakHeapBytes() {
+        long peakHeapBytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peakHeapBytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peakHeapBytes;
+    }
+
+    /**
+     * Writes the spans of the given evaluations as a trace in the Trace Event Format, which can be
+     * opened with chrome://tracing or Perfetto. Each evaluation is shown as a process, named after
+     * its watch face, with a track per thread.
+     *
+     * @param evaluations the metrics of each evaluation, by watch face path.
+     * @param traceFile the file where the trace is written.
+     * @throws IOException if the file cannot be written.
+     */
+    static void writeTrace(Map<String, EvaluationMetrics> evaluations, Path traceFile)
+            throws IOException {
+        long originNanos =
+                evaluations.values().stream()
+                        .flatMap(metrics -> metrics.spans.stream())
+                        .mapToLong(span -> span.startNanos)
+                        .min()
+                        .orElse(0);
+        JsonArray events = new JsonArray();
+        int processId = 0;
+        for (Map.Entry<String, EvaluationMetrics> evaluation : evaluations.entrySet()) {
+            processId++;
+            JsonObject processName = new JsonObject();
+            processName.addProperty("name", "process_name");
+            processName.addProperty("ph", "M");
+            processName.addProperty("pid", processId);
+            JsonObject processNameArgs = new JsonObject();
+            processNameArgs.addProperty("name", evaluation.getKey());
+            processName.add("args", processNameArgs);
+            events.add(processName);
+
+            for (Span span : evaluation.getValue().spans) {
+                JsonObject event = new JsonObject();
+                event.addProperty("name", span.phase.jsonName);
+                event.addProperty("cat", "evaluation");
+                event.addProperty("ph", "X");
+                event.addProperty("ts", (span.startNanos - originNanos) / 1000.0);
+                event.addProperty("dur", span.durationNanos / 1000.0);
+                event.addProperty("pid", processId);
+                event.addProperty("tid", span.threadId);
+                JsonObject args = new JsonObject();
+                args.addProperty("thread", span.threadName);
+                event.add("args", args);
+                events.add(event);
+            }
+        }
+        JsonObject trace = new JsonObject();
+        trace.add("traceEvents", events);
+        trace.addProperty("displayTimeUnit", "ms");
+        if (traceFile.getParent() != null) {
+            Files.createDirectories(traceFile.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(traceFile, UTF_8)) {
+            new Gson().toJson(trace, writer);
+        }
+    }
+
+    /** A single timed occurrence of a phase. */
+    private static class Span {
+        final Phase phase;
+        final long threadId;
+        final String threadName;
+        final long startNanos;
+        final long durationNanos;
+
+        Span(Phase phase, long threadId, String threadName, long startNanos, long durationNanos) {
+            this.phase = phase;
+            this.threadId = threadId;
+            this.threadName = threadName;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    private class InstrumentedImageProcessor implements ImageProcessor {
+        private final ImageProcessor delegate;
+
+        InstrumentedImageProcessor(ImageProcessor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ImageReader createImageReader(InputStream stream, String imageName) {
+            ImageReader reader = delegate.createImageReader(stream, imageName);
+            return reader == null ? null : new InstrumentedImageReader(reader);
+        }
+    }
+
+    private class InstrumentedImageReader implements ImageProcessor.ImageReader {
+        private final ImageProcessor.ImageReader delegate;
+
+        InstrumentedImageReader(ImageProcessor.ImageReader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int getWidth(int imageIndex) {
+            return delegate.getWidth(imageIndex);
+        }
+
+        @Override
+        public int getHeight(int imageIndex) {
+            return delegate.getHeight(imageIndex);
+        }
+
+        @Override
+        public int getNumImages() {
+            return delegate.getNumImages();
+        }
+
+        @Override
+        public ImageProcessor.ImageData read(int imageIndex) {
+            ImageProcessor.ImageData image;
+            try (Timer ignored = start(Phase.DECODE_IMAGES)) {
+                image = delegate.read(imageIndex);
+            }
+            increment(Counter.IMAGES_DECODED);
+            return image == null ? null : new InstrumentedImageData(image);
+        }
+    }
+
+    private class InstrumentedImageData implements ImageProcessor.ImageData {
+        private final ImageProcessor.ImageData delegate;
+
+        InstrumentedImageData(ImageProcessor.ImageData delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int getWidth() {
+            return delegate.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return delegate.getHeight();
+        }
+
+        @Override
+        public int getRgb(int x, int y) {
+            increment(Counter.PIXELS_SCANNED);
+            return delegate.getRgb(x, y);
+        }
+
+        @Override
+        public void getRgbRow(int y, int[] row) {
+            add(Counter.PIXELS_SCANNED, delegate.getWidth());
+            delegate.getRgbRow(y, row);
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.google.wear.watchface.dfx.memory
 
 import com.google.common.collect.ImmutableList
+import java.nio.file.Paths
 import java.util.Optional
 import java.util.jar.Manifest
 import kotlin.system.exitProcess
@@ -29,7 +30,8 @@ import org.apache.commons.cli.ParseException
 /**
  * Contains the CLI arguments that the script was invoked with.
  *
- * @property watchFacePath Path to the watch face package to be evaluated.
+ * @property watchFacePath Path to the watch face package to be evaluated. Empty in batch mode,
+ *   where the packages are read from [batchInput].
  */
 class EvaluationSettings(
     val watchFacePath: String
@@ -111,19 +113,261 @@ class EvaluationSettings(
     @get:JvmName("estimateOptimization")
     var estimateOptimization: Boolean = false
         private set
+    /**
+     * The number of worker threads used to decode and analyze the image resources of the watch
+     * face package. Defaults to 1, in which case the resources are analyzed on the calling thread.
+     */
+    var resourceAnalysisThreads: Int = 1
+        private set
+    /**
+     * The directory in which the image analysis results are cached between runs, keyed by the
+     * SHA-1 of the image data. If null, then no cache is used.
+     */
+    var analysisCacheDirectory: String? = null
+        private set
+    /**
+     * The maximum size in bytes of the image analysis cache. Defaults to 64 * 2^20 bytes (or 64
+     * MB).
+     */
+    var analysisCacheMaxBytes: Long = MemoryFootprint.toBytes(64.0)
+        private set
+    /**
+     * When enabled, the image resources are only probed for their dimensions and number of frames
+     * while the package is loaded. Their pixels are decoded later, and only for the images whose
+     * bounds or RGB565 compatibility are actually needed by the evaluation.
+     */
+    var lazyImageAnalysis: Boolean = false
+        private set
+    /**
+     * Path to a file listing the watch face packages to be evaluated, one per line, or to a
+     * directory containing them. If set, the evaluator runs in batch mode.
+     */
+    var batchInput: String? = null
+        private set
+    /** The number of packages that are evaluated concurrently in batch mode. Defaults to 1. */
+    var batchParallelism: Int = 1
+        private set
+    /**
+     * The directory where batch mode writes one JSON report per package. If null, the reports are
+     * written to the standard output as JSON Lines.
+     */
+    var batchOutputDirectory: String? = null
+        private set
+    /**
+     * The number of worker threads used to enumerate the user configurations of the watch face when
+     * computing its maximum footprint. Defaults to 1, in which case the configurations are
+     * enumerated on the calling thread.
+     */
+    var evaluationThreads: Int = 1
+        private set
+    /**
+     * When enabled, the maximum footprint is computed exactly with a branch-and-bound search over
+     * the user configurations, instead of enumerating all of them, or over-approximating it with
+     * the greedy evaluation when there are more than [greedyEvaluationSwitch] of them.
+     */
+    var exactEvaluation: Boolean = false
+        private set
+    /**
+     * When enabled, the watch face layouts are parsed in a single StAX pass into a compact,
+     * array-backed tree, instead of a full W3C DOM.
+     */
+    var compactLayouts: Boolean = false
+        private set
+    /**
+     * The number of layouts of the watch face that are evaluated concurrently. Defaults to 1, in
+     * which case the layouts are evaluated one after the other on the calling thread.
+     */
+    var layoutParallelism: Int = 1
+        private set
+    /**
+     * When enabled, the JSON reports include a "metrics" object with the time spent in each phase
+     * of the evaluation and counters such as the number of images decoded.
+     */
+    var reportMetrics: Boolean = false
+        private set
+    /**
+     * The file where the timed phases of the evaluation are written as a trace, in the Trace Event
+     * Format. If null, then no trace is written.
+     */
+    var traceFile: String? = null
+        private set
+    /**
+     * The screen size used to cost the full screen layers in ambient. If null, then the size
+     * declared by the width and height of each layout is used.
+     */
+    var screenSize: ScreenSize? = null
+        private set
+    /**
+     * Additional screen sizes for which the ambient footprint is reported, so that the footprint on
+     * several device classes is computed in a single run.
+     */
+    var ambientScreenSizes: List<ScreenSize> = emptyList()
+        private set
+    /**
+     * Whether images that do not need more than 16 bits per pixel are rendered as RGB565 in
+     * ambient, which halves their memory footprint.
+     */
+    @get:JvmName("supportsRgb565")
+    var supportsRgb565: Boolean = true
+        private set
+    /**
+     * The device profiles the watch face is evaluated against. If not empty, then the package is
+     * read once, and the watch face is evaluated and validated once per profile.
+     */
+    var deviceProfiles: List<DeviceProfile> = emptyList()
+        private set
+    /**
+     * Whether the JSON report explains the maximum footprints: the user configuration that produces
+     * them, the resources rendered under it and, in ambient, the nodes that start each layer.
+     */
+    var reportAttribution: Boolean = false
+        private set
+    /**
+     * The number of heaviest user configurations listed in the JSON report for the active mode, or
+     * 0 to list none.
+     */
+    var topConfigurations: Int = 0
+        private set
+    /**
+     * Path to the snapshot of the previous evaluation of the watch face. If set, then the layouts
+     * whose content, resources and settings did not change since the snapshot are not evaluated
+     * again, and the snapshot is updated with the new evaluation.
+     */
+    var incrementalSnapshot: String? = null
+        private set
+    /**
+     * Whether the incremental evaluation is checked against a full evaluation of the same layouts,
+     * failing if their footprints differ.
+     */
+    var incrementalCheck: Boolean = false
+        private set
+
+    /** The settings these settings were derived from for a device profile, if any. */
+    private var profileParent: EvaluationSettings? = null
+
+    /**
+     * The metrics of the evaluation run with these settings. They record nothing unless
+     * [reportMetrics] is enabled or a [traceFile] is set.
+     */
+    val metrics: EvaluationMetrics by lazy {
+        // the evaluations of the device profiles are recorded with the rest of the package
+        val parent = profileParent
+        if (parent != null) {
+            parent.metrics
+        } else if (reportMetrics || traceFile != null) {
+            EvaluationMetrics(true, traceFile != null)
+        } else {
+            EvaluationMetrics.disabled()
+        }
+    }
 
     val isHoneyfaceMode
         get() = schemaVersion == HONEYFACE_VERSION
 
+    /**
+     * Describes the settings that change the footprint of a layout, so that footprints evaluated
+     * with other settings are not reused by the incremental evaluation. Every setting that affects
+     * the evaluation of a layout must be listed here.
+     */
+    val layoutEvaluationFingerprint: String
+        get() =
+            listOf(
+                    schemaVersion,
+                    greedyEvaluationSwitch,
+                    supportOldStyleAnalogOrDigitalClock,
+                    deduplicateAmbient,
+                    applyV1OffloadLimitations,
+                    estimateOptimization,
+                    exactEvaluation,
+                    screenSize,
+                    ambientScreenSizes,
+                    supportsRgb565,
+                    reportAttribution,
+                    topConfigurations
+                )
+                .joinToString(";")
+
+    @get:JvmName("isBatchMode")
+    val batchMode
+        get() = batchInput != null
+
+    /**
+     * Creates a copy of these settings for evaluating the package at [watchFacePath]. Used in batch
+     * mode, where every package is evaluated with the same settings.
+     */
+    fun withWatchFacePath(watchFacePath: String): EvaluationSettings =
+        EvaluationSettings(watchFacePath).also {
+            it.schemaVersion = schemaVersion
+            it.greedyEvaluationSwitch = greedyEvaluationSwitch
+            it.ambientLimitBytes = ambientLimitBytes
+            it.activeLimitBytes = activeLimitBytes
+            it.verbose = verbose
+            it.reportMode = reportMode
+            it.supportOldStyleAnalogOrDigitalClock = supportOldStyleAnalogOrDigitalClock
+            it.deduplicateAmbient = deduplicateAmbient
+            it.applyV1OffloadLimitations = applyV1OffloadLimitations
+            it.estimateOptimization = estimateOptimization
+            it.resourceAnalysisThreads = resourceAnalysisThreads
+            it.analysisCacheDirectory = analysisCacheDirectory
+            it.analysisCacheMaxBytes = analysisCacheMaxBytes
+            it.lazyImageAnalysis = lazyImageAnalysis
+            it.batchInput = batchInput
+            it.batchParallelism = batchParallelism
+            it.batchOutputDirectory = batchOutputDirectory
+            it.evaluationThreads = evaluationThreads
+            it.exactEvaluation = exactEvaluation
+            it.compactLayouts = compactLayouts
+            it.layoutParallelism = layoutParallelism
+            it.reportMetrics = reportMetrics
+            it.traceFile = traceFile
+            it.screenSize = screenSize
+            it.ambientScreenSizes = ambientScreenSizes
+            it.supportsRgb565 = supportsRgb565
+            it.deviceProfiles = deviceProfiles
+            it.reportAttribution = reportAttribution
+            it.topConfigurations = topConfigurations
+            it.incrementalSnapshot = incrementalSnapshot
+            it.incrementalCheck = incrementalCheck
+        }
+
+    /**
+     * Creates a copy of these settings whose evaluations are not recorded in any metrics. Used for
+     * the full evaluation that checks the incremental evaluation, so that the metrics only count
+     * the work of the latter.
+     */
+    fun withoutMetrics(): EvaluationSettings =
+        withWatchFacePath(watchFacePath).also {
+            it.reportMetrics = false
+            it.traceFile = null
+        }
+
+    /**
+     * Creates a copy of these settings for evaluating the same package against [profile]. The
+     * properties that the profile does not set are kept, and the metrics of the copy are recorded
+     * in the metrics of these settings.
+     */
+    fun withDeviceProfile(profile: DeviceProfile): EvaluationSettings =
+        withWatchFacePath(watchFacePath).also {
+            it.profileParent = this
+            it.deviceProfiles = emptyList()
+            profile.screenSize?.let { screenSize -> it.screenSize = screenSize }
+            profile.offloadVersion?.let { version -> it.applyV1OffloadLimitations = version == 1 }
+            profile.ambientLimitBytes?.let { limit -> it.ambientLimitBytes = limit }
+            profile.activeLimitBytes?.let { limit -> it.activeLimitBytes = limit }
+            profile.supportsRgb565?.let { supported -> it.supportsRgb565 = supported }
+        }
+
     private object CliParserOptions {
         val options = Options()
 
         val watchFacePathOption =
             options.createOption {
                 longOpt("watch-face")
-                    .desc("Path to the watch face package to be evaluated. Required.")
+                    .desc(
+                        "Path to the watch face package to be evaluated. Required, unless " +
+                            "--batch is set."
+                    )
                     .hasArg()
-                    .required()
             }
         val schemaVersionOption =
             options.createOption {
@@ -203,6 +447,236 @@ class EvaluationSettings(
                     .type(Number::class.java)
             }
 
+        val resourceAnalysisThreadsOption =
+            options.createOption {
+                longOpt("resource-analysis-threads")
+                    .desc(
+                        "Number of threads used to decode and analyze the image resources " +
+                            "of the watch face package. Optional. Defaults to 1."
+                    )
+                    .hasArg()
+                    .type(Number::class.java)
+            }
+
+        val analysisCacheDirectoryOption =
+            options.createOption {
+                longOpt("analysis-cache-dir")
+                    .desc(
+                        "Directory in which the results of the image analysis are cached " +
+                            "between runs. Optional."
+                    )
+                    .hasArg()
+                    .type(String::class.java)
+            }
+
+        val analysisCacheMaxSizeOption =
+            options.createOption {
+                longOpt("analysis-cache-max-mb")
+                    .desc("Maximum size in MB of the image analysis cache. Optional.")
+                    .hasArg()
+                    .type(Number::class.java)
+            }
+
+        val lazyImageAnalysisOption =
+            options.createOption {
+                longOpt("lazy-image-analysis")
+                    .desc(
+                        "Only decode the pixels of the images whose bounds or RGB565 " +
+                            "compatibility are needed by the evaluation. Optional."
+                    )
+                    .hasArg(false)
+            }
+
+        val batchInputOption =
+            options.createOption {
+                longOpt("batch")
+                    .desc(
+                        "Path to a file listing watch face packages, one per line, or to a " +
+                            "directory of watch face packages. Evaluates every package in the " +
+                            "same process and writes a JSON report for each of them. Implies " +
+                            "--report."
+                    )
+                    .hasArg()
+                    .type(String::class.java)
+            }
+
+        val batchParallelismOption =
+            options.createOption {
+                longOpt("batch-parallelism")
+                    .desc(
+                        "Number of packages evaluated concurrently in batch mode. Optional. " +
+                            "Defaults to 1."
+                    )
+                    .hasArg()
+                    .type(Number::class.java)
+            }
+
+        val batchOutputDirectoryOption =
+            options.createOption {
+                longOpt("batch-output-dir")
+                    .desc(
+                        "Directory where batch mode writes one JSON report per package. " +
+                            "Optional. Defaults to writing JSON Lines to the standard output."
+                    )
+                    .hasArg()
+                    .type(String::class.java)
+            }
+
+        val evaluationThreadsOption =
+            options.createOption {
+                longOpt("evaluation-threads")
+                    .desc(
+                        "Number of threads used to enumerate the user configurations of the " +
+                            "watch face. Optional. Defaults to 1."
+                    )
+                    .hasArg()
+                    .type(Number::class.java)
+            }
+
+        val exactEvaluationOption =
+            options.createOption {
+                longOpt("exact-evaluation")
+                    .desc(
+                        "Compute the exact maximum footprint with a branch-and-bound search " +
+                            "over the user configurations, even when there are too many of " +
+                            "them to enumerate. Optional."
+                    )
+                    .hasArg(false)
+            }
+
+        val compactLayoutsOption =
+            options.createOption {
+                longOpt("compact-layouts")
+                    .desc(
+                        "Parse the watch face layouts into a compact read-only tree instead " +
+                            "of a full DOM, which is faster and uses less memory. Optional."
+                    )
+                    .hasArg(false)
+            }
+
+        val layoutParallelismOption =
+            options.createOption {
+                longOpt("layout-parallelism")
+                    .desc(
+                        "Number of watch face layouts evaluated concurrently. Optional. " +
+                            "Defaults to 1."
+                    )
+                    .hasArg()
+                    .type(Number::class.java)
+            }
+
+        val reportMetricsOption =
+            options.createOption {
+                longOpt("metrics")
+                    .desc(
+                        "Include the timings and counters of the evaluation in the JSON " +
+                            "report. Optional."
+                    )
+                    .hasArg(false)
+            }
+
+        val traceFileOption =
+            options.createOption {
+                longOpt("trace-file")
+                    .desc(
+                        "File where the timed phases of the evaluation are written in the " +
+                            "Trace Event Format. Optional."
+                    )
+                    .hasArg()
+                    .type(String::class.java)
+            }
+
+        val screenSizeOption =
+            options.createOption {
+                longOpt("screen-size")
+                    .desc(
+                        "Screen size, as WIDTHxHEIGHT, used to compute the memory of the layers " +
+                            "in ambient. Optional. Defaults to the width and height of each layout."
+                    )
+                    .hasArg()
+                    .type(String::class.java)
+            }
+
+        val ambientScreenSizesOption =
+            options.createOption {
+                longOpt("ambient-screen-sizes")
+                    .desc(
+                        "Comma separated screen sizes, as WIDTHxHEIGHT, for which the ambient " +
+                            "memory footprint is also reported, e.g. 384x384,466x466. Optional."
+                    )
+                    .hasArg()
+                    .type(String::class.java)
+            }
+
+        val disableRgb565Option =
+            options.createOption {
+                longOpt("disable-rgb565")
+                    .desc(
+                        "Assume the device cannot render images as RGB565 in ambient, so that " +
+                            "every image takes 32 bits per pixel. Optional."
+                    )
+                    .hasArg(false)
+            }
+
+        val deviceProfilesOption =
+            options.createOption {
+                longOpt("device-profiles")
+                    .desc(
+                        "Path to a JSON file of device profiles, each with a name and optionally " +
+                            "a screenSize, offloadVersion, ambientLimitMb, activeLimitMb and " +
+                            "rgb565. The package is read once and validated against every " +
+                            "profile. Optional."
+                    )
+                    .hasArg()
+                    .type(String::class.java)
+            }
+
+        val attributionOption =
+            options.createOption {
+                longOpt("attribution")
+                    .desc(
+                        "Include in the JSON report the user configuration and the resources " +
+                            "that produce the maximum footprint in active and ambient. Optional."
+                    )
+                    .hasArg(false)
+            }
+
+        val topConfigurationsOption =
+            options.createOption {
+                longOpt("top-configurations")
+                    .desc(
+                        "Number of heaviest user configurations, with their footprint in active, " +
+                            "to include in the JSON report. The ranking is approximate when the " +
+                            "greedy evaluation is used. Optional."
+                    )
+                    .hasArg()
+                    .type(Number::class.java)
+            }
+
+        val incrementalSnapshotOption =
+            options.createOption {
+                longOpt("incremental-snapshot")
+                    .desc(
+                        "Path to the snapshot of the previous evaluation. Only the layouts, and " +
+                            "the user configurations of the layouts, whose resources or content " +
+                            "changed since are evaluated again, then the snapshot is updated. " +
+                            "Unless --analysis-cache-dir is set, the image analysis is cached " +
+                            "next to the snapshot. Cannot be used with --batch. Optional."
+                    )
+                    .hasArg()
+                    .type(String::class.java)
+            }
+
+        val incrementalCheckOption =
+            options.createOption {
+                longOpt("incremental-check")
+                    .desc(
+                        "Also run a full evaluation of the layouts, and fail if the incremental " +
+                            "evaluation differs from it. Requires --incremental-snapshot. Optional."
+                    )
+                    .hasArg(false)
+            }
+
         val reportModeOption =
             options.createOption {
                 longOpt("report")
@@ -246,9 +720,13 @@ class EvaluationSettings(
 
                     val line = parser.parse(options, arguments)
 
+                    if (!line.hasOption(watchFacePathOption) && !line.hasOption(batchInputOption)) {
+                        throw ParseException("Missing required option: watch-face")
+                    }
+
                     val evaluationSettings =
                         EvaluationSettings(
-                            line.getOptionValue(watchFacePathOption)
+                            line.getOptionValue(watchFacePathOption) ?: ""
                         )
 
                     if (line.hasOption(activeLimitOption)) {
@@ -287,6 +765,133 @@ class EvaluationSettings(
                     if (line.hasOption(estimateOptimizationOption)) {
                         evaluationSettings.estimateOptimization = true
                     }
+                    if (line.hasOption(resourceAnalysisThreadsOption)) {
+                        evaluationSettings.resourceAnalysisThreads =
+                            validatePositive(
+                                resourceAnalysisThreadsOption,
+                                (line.getParsedOptionValue(resourceAnalysisThreadsOption)
+                                        as Number)
+                                    .toInt()
+                            )
+                    }
+                    if (line.hasOption(analysisCacheDirectoryOption)) {
+                        evaluationSettings.analysisCacheDirectory =
+                            line.getOptionValue(analysisCacheDirectoryOption)
+                    }
+                    if (line.hasOption(analysisCacheMaxSizeOption)) {
+                        evaluationSettings.analysisCacheMaxBytes =
+                            MemoryFootprint.toBytes(
+                                validatePositive(
+                                    analysisCacheMaxSizeOption,
+                                    (line.getParsedOptionValue(analysisCacheMaxSizeOption)
+                                            as Number)
+                                        .toDouble()
+                                )
+                            )
+                    }
+                    if (line.hasOption(lazyImageAnalysisOption)) {
+                        evaluationSettings.lazyImageAnalysis = true
+                    }
+                    if (line.hasOption(batchInputOption)) {
+                        evaluationSettings.batchInput = line.getOptionValue(batchInputOption)
+                        // batch mode always produces JSON reports
+                        evaluationSettings.reportMode = true
+                    }
+                    if (line.hasOption(batchParallelismOption)) {
+                        evaluationSettings.batchParallelism =
+                            validatePositive(
+                                batchParallelismOption,
+                                (line.getParsedOptionValue(batchParallelismOption) as Number)
+                                    .toInt()
+                            )
+                    }
+                    if (line.hasOption(batchOutputDirectoryOption)) {
+                        evaluationSettings.batchOutputDirectory =
+                            line.getOptionValue(batchOutputDirectoryOption)
+                    }
+                    if (line.hasOption(evaluationThreadsOption)) {
+                        evaluationSettings.evaluationThreads =
+                            validatePositive(
+                                evaluationThreadsOption,
+                                (line.getParsedOptionValue(evaluationThreadsOption) as Number)
+                                    .toInt()
+                            )
+                    }
+                    if (line.hasOption(exactEvaluationOption)) {
+                        evaluationSettings.exactEvaluation = true
+                    }
+                    if (line.hasOption(compactLayoutsOption)) {
+                        evaluationSettings.compactLayouts = true
+                    }
+                    if (line.hasOption(reportMetricsOption)) {
+                        evaluationSettings.reportMetrics = true
+                    }
+                    if (line.hasOption(traceFileOption)) {
+                        evaluationSettings.traceFile = line.getOptionValue(traceFileOption)
+                    }
+                    if (line.hasOption(layoutParallelismOption)) {
+                        evaluationSettings.layoutParallelism =
+                            validatePositive(
+                                layoutParallelismOption,
+                                (line.getParsedOptionValue(layoutParallelismOption) as Number)
+                                    .toInt()
+                            )
+                    }
+                    if (line.hasOption(screenSizeOption)) {
+                        evaluationSettings.screenSize =
+                            parseScreenSize(screenSizeOption, line.getOptionValue(screenSizeOption))
+                    }
+                    if (line.hasOption(ambientScreenSizesOption)) {
+                        evaluationSettings.ambientScreenSizes =
+                            line.getOptionValue(ambientScreenSizesOption)
+                                .split(",")
+                                .filter { it.isNotBlank() }
+                                .map { parseScreenSize(ambientScreenSizesOption, it) }
+                                .distinct()
+                    }
+                    if (line.hasOption(disableRgb565Option)) {
+                        evaluationSettings.supportsRgb565 = false
+                    }
+                    if (line.hasOption(deviceProfilesOption)) {
+                        evaluationSettings.deviceProfiles =
+                            DeviceProfile.readProfiles(
+                                Paths.get(line.getOptionValue(deviceProfilesOption))
+                            )
+                        if (evaluationSettings.deviceProfiles.isEmpty()) {
+                            throw ParseException("Argument --device-profiles has no profiles")
+                        }
+                    }
+                    if (line.hasOption(attributionOption)) {
+                        evaluationSettings.reportAttribution = true
+                    }
+                    if (line.hasOption(topConfigurationsOption)) {
+                        evaluationSettings.topConfigurations =
+                            validatePositive(
+                                topConfigurationsOption,
+                                (line.getParsedOptionValue(topConfigurationsOption) as Number)
+                                    .toInt()
+                            )
+                    }
+                    if (line.hasOption(incrementalSnapshotOption)) {
+                        if (line.hasOption(batchInputOption)) {
+                            throw ParseException(
+                                "Argument --incremental-snapshot cannot be used with --batch"
+                            )
+                        }
+                        val snapshot = line.getOptionValue(incrementalSnapshotOption)
+                        evaluationSettings.incrementalSnapshot = snapshot
+                        if (evaluationSettings.analysisCacheDirectory == null) {
+                            evaluationSettings.analysisCacheDirectory = "$snapshot.analysis-cache"
+                        }
+                    }
+                    if (line.hasOption(incrementalCheckOption)) {
+                        if (evaluationSettings.incrementalSnapshot == null) {
+                            throw ParseException(
+                                "Argument --incremental-check requires --incremental-snapshot"
+                            )
+                        }
+                        evaluationSettings.incrementalCheck = true
+                    }
                     if (line.hasOption(reportModeOption)) {
                         evaluationSettings.reportMode = true
                     }
@@ -316,6 +921,32 @@ class EvaluationSettings(
             }
         }
 
+        private fun validatePositive(option: Option, value: Int): Int {
+            if (value < 1) {
+                throw ParseException(
+                    "Argument --${option.longOpt} must be a positive number, but was $value"
+                )
+            }
+            return value
+        }
+
+        private fun validatePositive(option: Option, value: Double): Double {
+            if (value <= 0) {
+                throw ParseException(
+                    "Argument --${option.longOpt} must be a positive number, but was $value"
+                )
+            }
+            return value
+        }
+
+        private fun parseScreenSize(option: Option, value: String): ScreenSize {
+            try {
+                return ScreenSize.parse(value)
+            } catch (e: IllegalArgumentException) {
+                throw ParseException("Argument --${option.longOpt} is invalid: ${e.message}")
+            }
+        }
+
         private fun validateSchemaVersion(schemaVersionOption: String) {
             if (!SUPPORTED_VERSIONS.contains(schemaVersionOption)) {
                 throw ParseException(
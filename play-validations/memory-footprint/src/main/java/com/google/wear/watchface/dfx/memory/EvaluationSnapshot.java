@@ -0,0 +1,190 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The results of the previous evaluation of a watch face, stored in a JSON file so that the next
+ * evaluation only re-evaluates what changed since. For each layout, identified by the hash of its
+ * content and by the settings it was evaluated with, the snapshot holds the fingerprints of the
+ * resources of the layout, its footprint, and the maximum footprints of its components.
+ *
+ * <p>Snapshots written by a different {@link #SNAPSHOT_VERSION} or {@link
+ * DrawableResourceDetailsCache#ANALYSIS_VERSION} are ignored. Like the image analysis cache,
+ * failing to read or write the snapshot never fails the evaluation, it only leads to the layouts
+ * being evaluated again.
+ */
+class EvaluationSnapshot {
+    /**
+     * The version of the snapshot. It must be incremented whenever a change alters the footprints
+     * of the layouts or of their components, so that stale results are not reused.
+     */
+    static final int SNAPSHOT_VERSION = 1;
+
+    /** The evaluation of a layout with some settings. */
+    static class LayoutEntry {
+        final String layoutHash;
+        final String settingsFingerprint;
+        /** The SHA-1 digest of each resource of the layout, or its details if it has no digest. */
+        final Map<String, String> resourceFingerprints;
+
+        final MemoryFootprint footprint;
+        /** The components of the layout, keyed by {@link ComponentFootprintCache#componentId}. */
+        final Map<String, ComponentFootprintCache.Component> components;
+
+        LayoutEntry(
+                String layoutHash,
+                String settingsFingerprint,
+                Map<String, String> resourceFingerprints,
+                MemoryFootprint footprint,
+                Map<String, ComponentFootprintCache.Component> components) {
+            this.layoutHash = layoutHash;
+            this.settingsFingerprint = settingsFingerprint;
+            this.resourceFingerprints = resourceFingerprints;
+            this.footprint = footprint;
+            this.components = components;
+        }
+
+        private String key() {
+            return entryKey(layoutHash, settingsFingerprint);
+        }
+    }
+
+    private static final Gson GSON = new Gson();
+
+    private final Path path;
+    private final boolean verbose;
+    private final Map<String, LayoutEntry> layouts = new ConcurrentHashMap<>();
+
+    private EvaluationSnapshot(Path path, boolean verbose) {
+        this.path = path;
+        this.verbose = verbose;
+    }
+
+    /**
+     * Reads the snapshot stored at the given path. The snapshot is empty if there is no file
+     * there, or if it cannot be read.
+     */
+    static EvaluationSnapshot read(Path path, boolean verbose) {
+        EvaluationSnapshot snapshot = new EvaluationSnapshot(path, verbose);
+        if (!Files.isRegularFile(path)) {
+            return snapshot;
+        }
+        try {
+            String json = new String(Files.readAllBytes(path), UTF_8);
+            SnapshotFile file = GSON.fromJson(json, SnapshotFile.class);
+            if (file == null
+                    || file.version != SNAPSHOT_VERSION
+                    || file.analysisVersion != DrawableResourceDetailsCache.ANALYSIS_VERSION
+                    || file.layouts == null) {
+                return snapshot;
+            }
+            for (LayoutEntry entry : file.layouts) {
+                snapshot.layouts.put(entry.key(), entry);
+            }
+        } catch (IOException | JsonParseException e) {
+            snapshot.logFailure("read", e);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the evaluation of the layout with the given hash and settings, or null if it was
+     * not evaluated by the previous evaluation.
+     */
+    LayoutEntry find(String layoutHash, String settingsFingerprint) {
+        return layouts.get(entryKey(layoutHash, settingsFingerprint));
+    }
+
+    /** Stores the evaluation of a layout, replacing the previous one. */
+    void put(LayoutEntry entry) {
+        layouts.put(entry.key(), entry);
+    }
+
+    /**
+     * Writes the snapshot, dropping the layouts whose hash is not among the given ones, since they
+     * were removed from or changed in the watch face.
+     */
+    void write(Set<String> layoutHashes) {
+        List<LayoutEntry> entries = new ArrayList<>();
+        for (LayoutEntry entry : layouts.values()) {
+            if (layoutHashes.contains(entry.layoutHash)) {
+                entries.add(entry);
+            }
+        }
+        Path temporaryPath = null;
+        try {
+            Path directory = path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            // Write to a temporary file first, so that the snapshot is never partially written.
+            temporaryPath = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            Files.write(temporaryPath, GSON.toJson(new SnapshotFile(entries)).getBytes(UTF_8));
+            Files.move(
+                    temporaryPath,
+                    path,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logFailure("write", e);
+            if (temporaryPath != null) {
+                try {
+                    Files.deleteIfExists(temporaryPath);
+                } catch (IOException ignored) {
+                    // the temporary file is not read by the next evaluation
+                }
+            }
+        }
+    }
+
+    private static String entryKey(String layoutHash, String settingsFingerprint) {
+        return layoutHash + "\n" + settingsFingerprint;
+    }
+
+    private void logFailure(String operation, Exception e) {
+        if (verbose) {
+            System.out.printf(
+                    "Could not %s the evaluation snapshot %s: %s%n",
+                    operation, path, e.getMessage());
+        }
+    }
+
+    /** The serialized form of the snapshot. */
+    private static class SnapshotFile {
+        int version;
+        int analysisVersion;
+        List<LayoutEntry> layouts;
+
+        SnapshotFile(List<LayoutEntry> layouts) {
+            this.version = SNAPSHOT_VERSION;
+            this.analysisVersion = DrawableResourceDetailsCache.ANALYSIS_VERSION;
+            this.layouts = layouts;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory
+
+/**
+ * Explains the maximum footprint of the dynamic nodes of a watch face: the user configuration that
+ * produces it, and the resources that are rendered under that configuration.
+ *
+ * @property configuration the value of each user configuration key in the heaviest config set,
+ *   keyed by the id of the key.
+ * @property resources the resources rendered under that configuration, with their footprint in
+ *   bytes, heaviest first.
+ * @property approximate whether the configuration was chosen by the greedy evaluation, which may
+ *   combine values that cannot be selected together and over-approximates the footprint.
+ */
+data class FootprintAttribution(
+    val configuration: Map<String, String>,
+    val resources: List<ResourceFootprint>,
+    val approximate: Boolean
+)
+
+/**
+ * The footprint of one resource of a [FootprintAttribution].
+ *
+ * @property resource the name of the resource.
+ * @property bytes the footprint of the resource, in bytes.
+ */
+data class ResourceFootprint(val resource: String, val bytes: Long)
+
+/**
+ * Explains the maximum footprint of a watch face in ambient.
+ *
+ * @property layerCount the number of full screen layers.
+ * @property layerStarts the path of the node that starts each layer, in draw order. Under user
+ *   configurations, the layers of the option with the most layers are listed.
+ * @property dynamicNodes the attribution of the footprint of the nodes that are drawn dynamically,
+ *   on top of the layers.
+ */
+data class AmbientAttribution(
+    val layerCount: Int,
+    val layerStarts: List<String>,
+    val dynamicNodes: FootprintAttribution
+)
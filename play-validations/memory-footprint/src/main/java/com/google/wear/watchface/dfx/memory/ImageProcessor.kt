@@ -16,6 +16,17 @@ interface ImageProcessor {
 
         /** Returns the RGB color of the pixel at the specified coordinates.  */
         fun getRgb(x: Int, y: Int): Int
+
+        /**
+         * Copies the RGB colors of the pixels in row [y] into the first [width] elements of [row].
+         * Implementations should override this when they can copy a whole row at once, which is
+         * much faster than calling [getRgb] for every pixel.
+         */
+        fun getRgbRow(y: Int, row: IntArray) {
+            for (x in 0 until width) {
+                row[x] = getRgb(x, y)
+            }
+        }
     }
 
     /** A reader for decoding image files, including animated formats.  */
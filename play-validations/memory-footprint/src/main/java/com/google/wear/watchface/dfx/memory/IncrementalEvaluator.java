@@ -0,0 +1,160 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.wear.watchface.dfx.memory.DrawableResourceDetails.findInMap;
+import static java.util.stream.Collectors.toList;
+
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Counter;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+import org.w3c.dom.Document;
+
+/**
+ * Evaluates the layouts of a watch face incrementally, from the {@link EvaluationSnapshot} of the
+ * previous evaluation. A layout whose content and resources are the same as then is not evaluated
+ * again, its footprint is taken from the snapshot. Otherwise, the layout is evaluated, but the
+ * maximum footprints of its components whose resources did not change are reused, so that only
+ * the config sets of the components affected by the changed resources are enumerated.
+ *
+ * <p>The resources are compared by their SHA-1 digest, and the layouts by {@link
+ * WatchFaceDocuments#hashLayout}. If {@link EvaluationSettings#getIncrementalCheck()} is set, the
+ * layouts are also evaluated in full, and the evaluation fails if the footprints differ.
+ */
+@SuppressWarnings("KotlinInternal")
+class IncrementalEvaluator {
+    private IncrementalEvaluator() {}
+
+    /**
+     * Evaluates the memory footprint of each of the given layouts, like {@link
+     * WatchFaceLayoutEvaluator#evaluateLayouts}, then stores them in the snapshot for the next
+     * evaluation.
+     *
+     * @throws IllegalStateException if the incremental evaluation is checked, and it differs from
+     *     the full evaluation of a layout.
+     */
+    static List<MemoryFootprint> evaluateLayouts(
+            List<Document> layouts,
+            Map<String, DrawableResourceDetails> resourceMemoryMap,
+            EvaluationSettings settings) {
+        EvaluationSnapshot snapshot =
+                EvaluationSnapshot.read(
+                        Paths.get(settings.getIncrementalSnapshot()), settings.isVerbose());
+        List<String> layoutHashes =
+                layouts.stream().map(WatchFaceDocuments::hashLayout).collect(toList());
+        List<Integer> layoutIndices = IntStream.range(0, layouts.size()).boxed().collect(toList());
+        List<MemoryFootprint> footprints =
+                WatchFaceLayoutEvaluator.evaluateConcurrently(
+                        layoutIndices,
+                        settings,
+                        index ->
+                                evaluateLayout(
+                                        layouts.get(index),
+                                        layoutHashes.get(index),
+                                        resourceMemoryMap,
+                                        settings,
+                                        snapshot));
+
+        if (settings.getIncrementalCheck()) {
+            // the metrics only count the work of the incremental evaluation
+            EvaluationSettings checkSettings = settings.withoutMetrics();
+            List<MemoryFootprint> fullFootprints =
+                    WatchFaceLayoutEvaluator.evaluateConcurrently(
+                            layouts,
+                            checkSettings,
+                            layout ->
+                                    WatchFaceLayoutEvaluator.evaluate(
+                                            layout, resourceMemoryMap, checkSettings));
+            for (int i = 0; i < layouts.size(); i++) {
+                if (!footprints.get(i).equals(fullFootprints.get(i))) {
+                    throw new IllegalStateException(
+                            String.format(
+                                    "The incremental evaluation of layout %d differs from its full"
+                                            + " evaluation: %s instead of %s",
+                                    i, footprints.get(i), fullFootprints.get(i)));
+                }
+            }
+        }
+
+        snapshot.write(new HashSet<>(layoutHashes));
+        return footprints;
+    }
+
+    private static MemoryFootprint evaluateLayout(
+            Document layout,
+            String layoutHash,
+            Map<String, DrawableResourceDetails> resourceMemoryMap,
+            EvaluationSettings settings,
+            EvaluationSnapshot snapshot) {
+        String settingsFingerprint = settings.getLayoutEvaluationFingerprint();
+        EvaluationSnapshot.LayoutEntry previous = snapshot.find(layoutHash, settingsFingerprint);
+        ComponentFootprintCache componentFootprintCache =
+                new ComponentFootprintCache(previous == null ? Map.of() : previous.components);
+        // the resources collected for the fingerprints are remembered by the context, so the
+        // evaluation does not collect them again
+        WatchFaceAnalysisContext context =
+                WatchFaceLayoutEvaluator.createAnalysisContext(
+                        layout, resourceMemoryMap, settings, componentFootprintCache);
+        Map<String, String> resourceFingerprints =
+                fingerprintResources(
+                        context.getResourceCollector().collectResources(context.getSceneNode()),
+                        resourceMemoryMap);
+        if (previous != null && previous.resourceFingerprints.equals(resourceFingerprints)) {
+            settings.getMetrics().increment(Counter.LAYOUTS_REUSED);
+            return previous.footprint;
+        }
+
+        MemoryFootprint footprint = WatchFaceLayoutEvaluator.evaluate(context);
+        snapshot.put(
+                new EvaluationSnapshot.LayoutEntry(
+                        layoutHash,
+                        settingsFingerprint,
+                        resourceFingerprints,
+                        footprint,
+                        new TreeMap<>(componentFootprintCache.getComponents())));
+        return footprint;
+    }
+
+    /**
+     * Returns the fingerprint of each of the given resources of a layout: the SHA-1 digest of its
+     * data, or its name and footprint if it has no digest, such as the resources merged from
+     * several qualifiers. The fingerprints do not depend on the deferred pixel analysis, so they
+     * do not decode the images.
+     */
+    private static Map<String, String> fingerprintResources(
+            Set<String> layoutResources, Map<String, DrawableResourceDetails> resourceMemoryMap) {
+        Map<String, String> fingerprints = new TreeMap<>();
+        for (String resourceName : layoutResources) {
+            DrawableResourceDetails details = findInMap(resourceMemoryMap, resourceName);
+            fingerprints.put(
+                    resourceName,
+                    details.getSha1() != null
+                            ? details.getSha1()
+                            : String.format(
+                                    "%s:%d:%d",
+                                    details.getName(),
+                                    details.getBiggestFrameFootprintBytes(),
+                                    details.getNumberOfImages()));
+        }
+        return fingerprints;
+    }
+}
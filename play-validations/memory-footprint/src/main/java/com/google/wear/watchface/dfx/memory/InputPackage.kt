@@ -17,8 +17,8 @@
 package com.google.wear.watchface.dfx.memory
 
 import java.io.File
+import java.nio.file.Paths
 import java.util.zip.ZipFile
-import java.util.zip.ZipInputStream
 import kotlin.streams.asSequence
 
 /**
@@ -74,12 +74,21 @@ interface InputPackage : AutoCloseable {
             }
         }
 
-        /** Creates an input package from a declarative watch face APK. */
+        /**
+         * Creates an input package from a declarative watch face APK. The APK is memory-mapped, so
+         * that its uncompressed resources can be read without copying them.
+         */
         fun openFromApkFile(apkPath: String): InputPackage {
             val zipFile = ZipFile(apkPath)
+            val mappedZipFile = try {
+                MappedZipFile.open(Paths.get(apkPath))
+            } catch (e: Exception) {
+                zipFile.close()
+                throw e
+            }
             return object : InputPackage {
                 override fun getWatchFaceFiles() =
-                    AndroidResourceLoader.streamFromApkFile(zipFile)
+                    AndroidResourceLoader.streamFromApkFile(zipFile, mappedZipFile)
 
                 override fun getManifest() = AndroidManifest.loadFromApk(zipFile)
 
@@ -91,13 +100,20 @@ interface InputPackage : AutoCloseable {
 
         /**
          * Creates an input package from a declarative watch face AAB. Each file is relative to the
-         * base module of the app bundle. Every other module will be ignored.
+         * base module of the app bundle. Every other module will be ignored. Like APKs, AABs are
+         * memory-mapped to read their uncompressed resources without copying them.
          */
         fun openFromAabFile(aabPath: String): InputPackage {
             val zipFile = ZipFile(aabPath)
+            val mappedZipFile = try {
+                MappedZipFile.open(Paths.get(aabPath))
+            } catch (e: Exception) {
+                zipFile.close()
+                throw e
+            }
             return object : InputPackage {
                 override fun getWatchFaceFiles(): Sequence<AndroidResource> {
-                    return AndroidResourceLoader.streamFromAabFile(zipFile)
+                    return AndroidResourceLoader.streamFromAabFile(zipFile, mappedZipFile)
                 }
 
                 override fun getManifest() = AndroidManifest.loadFromAab(zipFile)
@@ -110,7 +126,8 @@ interface InputPackage : AutoCloseable {
 
         /**
          * Creates an input package from a zip file containing the base split apk, as produced by
-         * mokka.
+         * mokka. The base split is extracted once to a temporary file, from which both the
+         * resources and the manifest are read, so that it is inflated only once.
          */
         fun openFromMokkaZip(zipPath: String): InputPackage {
             val mokkaZip = ZipFile(zipPath)
@@ -127,18 +144,17 @@ interface InputPackage : AutoCloseable {
                     throw InvalidTestRunException("Zip file does not contain a base split apk")
                 }
 
+                val baseSplit = AndroidResourceLoader.ExtractedSplit.extract(mokkaZip, baseSplitApk)
+
                 return object : InputPackage {
                     override fun getWatchFaceFiles(): Sequence<AndroidResource> {
-                        return AndroidResourceLoader.streamFromMokkaZip(mokkaZip)
+                        return AndroidResourceLoader.streamFromMokkaZip(mokkaZip, baseSplit)
                     }
 
-                    override fun getManifest(): AndroidManifest {
-                        val baseSplitApkZip = ZipInputStream(mokkaZip.getInputStream(baseSplitApk))
-                        return AndroidManifest.loadFromMokkaZip(baseSplitApkZip)
-                    }
+                    override fun getManifest() = AndroidManifest.loadFromApk(baseSplit.zipFile)
 
                     override fun close() {
-                        mokkaZip.close()
+                        mokkaZip.use { baseSplit.close() }
                     }
                 }
             } catch (e: Exception) {
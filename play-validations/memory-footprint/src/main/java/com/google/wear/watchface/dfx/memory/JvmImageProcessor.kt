@@ -1,8 +1,11 @@
 package com.google.wear.watchface.dfx.memory
 
 import com.google.wear.watchface.dfx.memory.ImageProcessor.ImageData
+import java.awt.image.BufferedImage
 import java.io.InputStream
+import java.nio.ByteBuffer
 import javax.imageio.ImageIO
+import javax.imageio.stream.ImageInputStreamImpl
 
 /** JVM-specific implementation of ImageProcessor using AWT and ImageIO. */
 class JvmImageProcessor(private val evaluationSettings: EvaluationSettings) : ImageProcessor {
@@ -10,7 +13,12 @@ class JvmImageProcessor(private val evaluationSettings: EvaluationSettings) : Im
         stream: InputStream,
         imageName: String,
     ): ImageProcessor.ImageReader? {
-        val imageInputStream = ImageIO.createImageInputStream(stream)
+        // ImageIO caches streams to support seeking, which copies memory-mapped data to the heap
+        val imageInputStream = if (stream is ByteBufferInputStream) {
+            ByteBufferImageInputStream(stream.remainingBuffer())
+        } else {
+            ImageIO.createImageInputStream(stream)
+        }
         val imageReaders = ImageIO.getImageReaders(imageInputStream)
 
         if (!imageReaders.hasNext()) {
@@ -40,17 +48,116 @@ class JvmImageProcessor(private val evaluationSettings: EvaluationSettings) : Im
                     null
                 }
 
-                return object : ImageData {
-                    override val width: Int = bufferedImage?.width ?: reader.getWidth(imageIndex)
+                if (bufferedImage == null) {
+                    return FullWhiteImageData(
+                        reader.getWidth(imageIndex),
+                        reader.getHeight(imageIndex)
+                    )
+                }
+                return BufferedImageData(bufferedImage)
+            }
+        }
+    }
+
+    /** Reads an image from a buffer in place. The whole buffer is available for seeking. */
+    private class ByteBufferImageInputStream(private val buffer: ByteBuffer) :
+        ImageInputStreamImpl() {
+        override fun read(): Int {
+            checkClosed()
+            bitOffset = 0
+            if (streamPos >= buffer.limit()) {
+                return -1
+            }
+            return buffer.get((streamPos++).toInt()).toInt() and 0xff
+        }
+
+        override fun read(bytes: ByteArray, offset: Int, length: Int): Int {
+            checkClosed()
+            bitOffset = 0
+            if (length == 0) {
+                return 0
+            }
+            if (streamPos >= buffer.limit()) {
+                return -1
+            }
+            val count = minOf(length.toLong(), buffer.limit() - streamPos).toInt()
+            buffer.get(streamPos.toInt(), bytes, offset, count)
+            streamPos += count
+            return count
+        }
+
+        override fun length(): Long = buffer.limit().toLong()
+    }
+
+    /** Stands in for an image that could not be decoded, overestimating its footprint. */
+    private class FullWhiteImageData(override val width: Int, override val height: Int) :
+        ImageData {
+        // -1 corresponds to a full white pixel
+        override fun getRgb(x: Int, y: Int): Int = -1
+
+        override fun getRgbRow(y: Int, row: IntArray) = row.fill(-1, 0, width)
+    }
+
+    /**
+     * Reads the pixels of a decoded image. Rows of the most common image types are copied straight
+     * from the raster, skipping the color model conversion that [BufferedImage.getRGB] performs
+     * for every pixel. The result is the same as calling [BufferedImage.getRGB], since these types
+     * always store non-premultiplied sRGB colors.
+     */
+    private class BufferedImageData(private val bufferedImage: BufferedImage) : ImageData {
+        override val width: Int = bufferedImage.width
 
-                    override val height: Int = bufferedImage?.height ?: reader.getHeight(imageIndex)
+        override val height: Int = bufferedImage.height
 
-                    override fun getRgb(x: Int, y: Int): Int {
-                        // -1 corresponds to a full white pixel
-                        return bufferedImage?.getRGB(x, y) ?: -1
+        /** Scratch buffer for the image types that store each channel in a separate byte. */
+        private var byteRow: ByteArray? = null
+
+        override fun getRgb(x: Int, y: Int): Int = bufferedImage.getRGB(x, y)
+
+        override fun getRgbRow(y: Int, row: IntArray) {
+            val raster = bufferedImage.raster
+            when (bufferedImage.type) {
+                BufferedImage.TYPE_INT_ARGB -> raster.getDataElements(0, y, width, 1, row)
+                BufferedImage.TYPE_INT_RGB -> {
+                    raster.getDataElements(0, y, width, 1, row)
+                    for (x in 0 until width) {
+                        row[x] = row[x] or OPAQUE_ALPHA
+                    }
+                }
+                BufferedImage.TYPE_4BYTE_ABGR -> {
+                    val bytes = raster.getDataElements(0, y, width, 1, byteRow(4)) as ByteArray
+                    // the data elements of a pixel are in R, G, B, A order
+                    for (x in 0 until width) {
+                        val i = x * 4
+                        row[x] = (bytes[i + 3].toInt() and 0xff shl 24) or
+                            (bytes[i].toInt() and 0xff shl 16) or
+                            (bytes[i + 1].toInt() and 0xff shl 8) or
+                            (bytes[i + 2].toInt() and 0xff)
+                    }
+                }
+                BufferedImage.TYPE_3BYTE_BGR -> {
+                    val bytes = raster.getDataElements(0, y, width, 1, byteRow(3)) as ByteArray
+                    // the data elements of a pixel are in R, G, B order
+                    for (x in 0 until width) {
+                        val i = x * 3
+                        row[x] = OPAQUE_ALPHA or
+                            (bytes[i].toInt() and 0xff shl 16) or
+                            (bytes[i + 1].toInt() and 0xff shl 8) or
+                            (bytes[i + 2].toInt() and 0xff)
                     }
                 }
+                // the bulk getRGB still converts every pixel, but avoids the per call overhead
+                else -> bufferedImage.getRGB(0, y, width, 1, row, 0, width)
             }
         }
+
+        private fun byteRow(bytesPerPixel: Int): ByteArray {
+            val size = width * bytesPerPixel
+            return byteRow?.takeIf { it.size == size } ?: ByteArray(size).also { byteRow = it }
+        }
+    }
+
+    private companion object {
+        const val OPAQUE_ALPHA = 0xff shl 24
     }
 }
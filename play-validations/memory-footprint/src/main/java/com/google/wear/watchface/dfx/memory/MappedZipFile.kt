@@ -0,0 +1,175 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * A read-only memory mapping of a zip file, exposing the data of its uncompressed (STORED) entries
+ * as slices of the mapping. APKs store most of their resources uncompressed and aligned, so their
+ * data can be hashed and decoded straight from the page cache, without being copied to the heap.
+ *
+ * Only the central directory is parsed. Compressed entries, encrypted entries and zip64 archives
+ * are not supported, and must be read through a [java.util.zip.ZipFile] instead.
+ */
+class MappedZipFile private constructor(
+    private val mapping: ByteBuffer,
+    private val storedEntries: Map<String, StoredEntry>
+) {
+    private class StoredEntry(val localHeaderOffset: Int, val size: Int)
+
+    /**
+     * Returns the data of the STORED entry with the given name, or null if there is no such
+     * entry, or if it is compressed. The returned buffer is independent of the ones returned by
+     * other calls, so it can be read from any thread.
+     */
+    fun getStoredEntryData(name: String): ByteBuffer? {
+        val entry = storedEntries[name] ?: return null
+        val buffer = mapping.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+        val headerOffset = entry.localHeaderOffset
+        if (headerOffset + LOCAL_HEADER_SIZE > buffer.limit() ||
+            buffer.getInt(headerOffset) != LOCAL_HEADER_SIGNATURE
+        ) {
+            return null
+        }
+        // The name and extra field of the local header may differ from the central directory
+        // ones, so the data offset must be computed from the local header.
+        val dataOffset = headerOffset + LOCAL_HEADER_SIZE +
+            buffer.getUnsignedShort(headerOffset + 26) +
+            buffer.getUnsignedShort(headerOffset + 28)
+        if (dataOffset.toLong() + entry.size > buffer.limit()) {
+            return null
+        }
+        buffer.position(dataOffset).limit(dataOffset + entry.size)
+        return buffer.slice().asReadOnlyBuffer()
+    }
+
+    companion object {
+        private const val LOCAL_HEADER_SIGNATURE = 0x04034b50
+        private const val CENTRAL_HEADER_SIGNATURE = 0x02014b50
+        private const val END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50
+        private const val LOCAL_HEADER_SIZE = 30
+        private const val CENTRAL_HEADER_SIZE = 46
+        private const val END_OF_CENTRAL_DIRECTORY_SIZE = 22
+        private const val MAX_COMMENT_SIZE = 0xffff
+        private const val METHOD_STORED = 0
+        private const val FLAG_ENCRYPTED = 0x1
+        private const val ZIP64_MARKER = 0xffffffffL
+
+        /**
+         * Maps the zip file at the given path. Returns null if the file cannot be mapped, because
+         * it is bigger than 2GB or it is not a zip file that this class supports. In that case,
+         * the entries should be read through a [java.util.zip.ZipFile], which reports any errors.
+         */
+        @JvmStatic
+        fun open(path: Path): MappedZipFile? {
+            val mapping = try {
+                FileChannel.open(path, StandardOpenOption.READ).use { channel ->
+                    if (channel.size() > Int.MAX_VALUE) {
+                        return null
+                    }
+                    // the mapping stays valid after the channel is closed
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                }
+            } catch (e: IOException) {
+                return null
+            }
+            mapping.order(ByteOrder.LITTLE_ENDIAN)
+            val storedEntries = readStoredEntries(mapping) ?: return null
+            return MappedZipFile(mapping, storedEntries)
+        }
+
+        private fun readStoredEntries(buffer: ByteBuffer): Map<String, StoredEntry>? {
+            val endOfCentralDirectory = findEndOfCentralDirectory(buffer) ?: return null
+            val entryCount = buffer.getUnsignedShort(endOfCentralDirectory + 10)
+            val centralDirectoryOffset =
+                buffer.getInt(endOfCentralDirectory + 16).toLong() and 0xffffffffL
+            if (centralDirectoryOffset == ZIP64_MARKER ||
+                centralDirectoryOffset >= endOfCentralDirectory
+            ) {
+                return null
+            }
+
+            // The offsets and lengths are read from the file, so each of them is checked against
+            // the central directory before it is used. A malformed archive is then left to the
+            // ZipFile, which reports the error, rather than read out of bounds here.
+            val storedEntries = HashMap<String, StoredEntry>()
+            var offset = centralDirectoryOffset.toInt()
+            for (i in 0 until entryCount) {
+                if (offset.toLong() + CENTRAL_HEADER_SIZE > endOfCentralDirectory ||
+                    buffer.getInt(offset) != CENTRAL_HEADER_SIGNATURE
+                ) {
+                    return null
+                }
+                val flags = buffer.getUnsignedShort(offset + 8)
+                val method = buffer.getUnsignedShort(offset + 10)
+                val compressedSize = buffer.getInt(offset + 20).toLong() and 0xffffffffL
+                val size = buffer.getInt(offset + 24).toLong() and 0xffffffffL
+                val nameLength = buffer.getUnsignedShort(offset + 28)
+                val extraLength = buffer.getUnsignedShort(offset + 30)
+                val commentLength = buffer.getUnsignedShort(offset + 32)
+                val localHeaderOffset = buffer.getInt(offset + 42).toLong() and 0xffffffffL
+                val nextOffset = offset.toLong() + CENTRAL_HEADER_SIZE + nameLength +
+                    extraLength + commentLength
+                if (nextOffset > endOfCentralDirectory) {
+                    return null
+                }
+
+                val isSupported = method == METHOD_STORED &&
+                    (flags and FLAG_ENCRYPTED) == 0 &&
+                    compressedSize == size &&
+                    size != ZIP64_MARKER &&
+                    localHeaderOffset != ZIP64_MARKER
+                if (isSupported) {
+                    // the local header and the data of the entry precede the central directory
+                    if (localHeaderOffset + LOCAL_HEADER_SIZE + size > centralDirectoryOffset) {
+                        return null
+                    }
+                    val nameBytes = ByteArray(nameLength)
+                    buffer.duplicate().position(offset + CENTRAL_HEADER_SIZE).get(nameBytes)
+                    storedEntries[String(nameBytes, Charsets.UTF_8)] =
+                        StoredEntry(localHeaderOffset.toInt(), size.toInt())
+                }
+                offset = nextOffset.toInt()
+            }
+            return storedEntries
+        }
+
+        /** Finds the end of central directory record, which is followed by an optional comment. */
+        private fun findEndOfCentralDirectory(buffer: ByteBuffer): Int? {
+            val lastCandidate = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE
+            val firstCandidate = maxOf(0, lastCandidate - MAX_COMMENT_SIZE)
+            for (offset in lastCandidate downTo firstCandidate) {
+                if (buffer.getInt(offset) == END_OF_CENTRAL_DIRECTORY_SIGNATURE &&
+                    offset + END_OF_CENTRAL_DIRECTORY_SIZE +
+                    buffer.getUnsignedShort(offset + 20) == buffer.limit()
+                ) {
+                    return offset
+                }
+            }
+            return null
+        }
+
+        private fun ByteBuffer.getUnsignedShort(index: Int): Int =
+            getShort(index).toInt() and 0xffff
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the maximum footprint of a self-contained set of user config keys with a branch-and-bound
+ * search over the values of the keys, instead of enumerating every combination of values.
+ *
+ * <p>Keys are assigned one at a time. After each assignment, the drawable node entries that do not
+ * conflict with any assigned value may still be rendered. The union of their resources is an upper
+ * bound of the footprint of any complete assignment below the current one, which counts the
+ * resources shared between entries only once.
+ * A branch is pruned as soon as its bound is not greater than the best footprint found so far.
+ * Once every key is assigned, the bound is the exact footprint of the config set.
+ *
+ * <p>The result is the same as the maximum footprint over all the config sets produced by {@link
+ * UserConfigKey#buildConfigSets} for the same keys, but the search explores far fewer nodes when
+ * the footprints of the options differ, which allows computing exact footprints for watch faces
+ * whose config space is too big to enumerate.
+ *
+ * <p>The search can also rank the heaviest config sets. A branch is then pruned only once as many
+ * config sets as requested, all at least as heavy as its bound, have been found.
+ */
+class MaxFootprintSearch {
+    /** Counters describing how much of the config space was explored. */
+    static class Statistics {
+        /** The number of partial and complete assignments visited. */
+        long nodesExplored;
+        /** The number of partial assignments whose subtree was skipped because of their bound. */
+        long nodesPruned;
+        /** The number of complete assignments reached, ie. config sets actually evaluated. */
+        long configSetsEvaluated;
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "explored %d nodes, pruned %d, evaluated %d config sets",
+                    nodesExplored, nodesPruned, configSetsEvaluated);
+        }
+    }
+
+    private final DrawableNodeResourceSets resourceSets;
+    /** The keys, in assignment order. */
+    private final List<UserConfigKey> orderedKeys;
+    /** The values of each key, in assignment order. */
+    private final List<List<UserConfigValue>> orderedValues = new ArrayList<>();
+    /** The number of values of each key, in assignment order. */
+    private final int[] valueCounts;
+    /** For each key, the entries constrained by the key. */
+    private final int[][] entriesByKey;
+    /** For each key, the value index that each of the entries in entriesByKey requires. */
+    private final int[][] requiredValuesByKey;
+    /** The entries that can match some config set. Other entries never match. */
+    private final int[] candidateEntries;
+    /** For each entry, the number of assigned keys whose value differs from the required one. */
+    private final int[] conflicts;
+    private final Statistics statistics = new Statistics();
+    private long bestFootprint;
+    /** The value index assigned to each key on the current branch. */
+    private final int[] assignment;
+    /** Whether the assignment with the best footprint is kept, for {@link #getBestConfigSet()}. */
+    private final boolean recordBestConfigSet;
+    /**
+     * The assignment with the best footprint found so far, or null if none was reached or it is
+     * not recorded.
+     */
+    private int[] bestAssignment;
+    /** The number of heaviest config sets to rank, or 0 to only search for the maximum. */
+    private final int topConfigSetCount;
+    /** The heaviest assignments found so far, if config sets are ranked. */
+    private TopConfigSets<int[]> topAssignments;
+
+    MaxFootprintSearch(List<UserConfigKey> keys, DrawableNodeResourceSets resourceSets) {
+        this(keys, resourceSets, /* topConfigSetCount= */ 0, /* recordBestConfigSet= */ true);
+    }
+
+    /**
+     * Creates a search that also ranks the {@code topConfigSetCount} heaviest config sets, which
+     * are returned by {@link #getTopConfigSets()}. The config set with the maximum footprint is
+     * only kept for {@link #getBestConfigSet()} if {@code recordBestConfigSet} is set, since it is
+     * copied on every improvement of the maximum.
+     */
+    MaxFootprintSearch(
+            List<UserConfigKey> keys,
+            DrawableNodeResourceSets resourceSets,
+            int topConfigSetCount,
+            boolean recordBestConfigSet) {
+        this.resourceSets = resourceSets;
+        this.topConfigSetCount = topConfigSetCount;
+        this.recordBestConfigSet = recordBestConfigSet;
+        List<DrawableNodeConfigTable.Entry> entries = resourceSets.getEntries();
+
+        // keys without values never appear in a config set, like in buildConfigSets
+        Map<UserConfigKey, List<UserConfigValue>> valuesByKey = new HashMap<>();
+        for (UserConfigKey key : keys) {
+            List<UserConfigValue> values = key.getConfigurationValues();
+            if (!values.isEmpty()) {
+                valuesByKey.put(key, values);
+            }
+        }
+
+        // an entry is a candidate if each of its keys is searched and has the required value
+        List<Integer> candidates = new ArrayList<>();
+        Map<UserConfigKey, List<int[]>> constraintsByKey = new HashMap<>();
+        this.conflicts = new int[entries.size()];
+        for (int entryIndex = 0; entryIndex < entries.size(); entryIndex++) {
+            UserConfigSet required = entries.get(entryIndex).userConfigSet;
+            boolean isCandidate = true;
+            for (Map.Entry<UserConfigKey, UserConfigValue> constraint :
+                    required.config.entrySet()) {
+                List<UserConfigValue> values = valuesByKey.get(constraint.getKey());
+                if (values == null || !values.contains(constraint.getValue())) {
+                    isCandidate = false;
+                    break;
+                }
+            }
+            if (!isCandidate) {
+                continue;
+            }
+            candidates.add(entryIndex);
+            for (Map.Entry<UserConfigKey, UserConfigValue> constraint :
+                    required.config.entrySet()) {
+                int valueIndex =
+                        valuesByKey.get(constraint.getKey()).indexOf(constraint.getValue());
+                constraintsByKey
+                        .computeIfAbsent(constraint.getKey(), key -> new ArrayList<>())
+                        .add(new int[] {entryIndex, valueIndex});
+            }
+        }
+        this.candidateEntries = candidates.stream().mapToInt(Integer::intValue).toArray();
+
+        // assigning the most constraining keys first tightens the bounds early
+        this.orderedKeys = new ArrayList<>(valuesByKey.keySet());
+        orderedKeys.sort(
+                Comparator.comparingInt(
+                        (UserConfigKey key) ->
+                                constraintsByKey.getOrDefault(key, List.of()).size())
+                        .reversed());
+        this.valueCounts = new int[orderedKeys.size()];
+        this.entriesByKey = new int[orderedKeys.size()][];
+        this.requiredValuesByKey = new int[orderedKeys.size()][];
+        for (int keyIndex = 0; keyIndex < orderedKeys.size(); keyIndex++) {
+            UserConfigKey key = orderedKeys.get(keyIndex);
+            List<int[]> constraints = constraintsByKey.getOrDefault(key, List.of());
+            orderedValues.add(valuesByKey.get(key));
+            valueCounts[keyIndex] = valuesByKey.get(key).size();
+            entriesByKey[keyIndex] = constraints.stream().mapToInt(c -> c[0]).toArray();
+            requiredValuesByKey[keyIndex] = constraints.stream().mapToInt(c -> c[1]).toArray();
+        }
+        this.assignment = new int[orderedKeys.size()];
+    }
+
+    /** Returns the maximum footprint of any config set of the keys, in bytes. */
+    long search() {
+        bestFootprint = 0;
+        bestAssignment = null;
+        topAssignments = topConfigSetCount > 0 ? new TopConfigSets<>(topConfigSetCount) : null;
+        if (valueCounts.length == 0) {
+            // there are no config sets to evaluate
+            return 0;
+        }
+        search(0, new BitSet());
+        return bestFootprint;
+    }
+
+    Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns a config set with the maximum footprint found by the last {@link #search()}. Keys
+     * whose value does not change the footprint are assigned their first value. The config set is
+     * empty if there are no config sets, or if the best config set is not recorded.
+     */
+    UserConfigSet getBestConfigSet() {
+        return bestAssignment != null
+                ? toConfigSet(bestAssignment)
+                : new UserConfigSet(new HashMap<>());
+    }
+
+    /**
+     * Returns the heaviest config sets found by the last {@link #search()}, heaviest first, or an
+     * empty list if config sets are not ranked or there are none.
+     */
+    List<TopConfigSets.Entry<UserConfigSet>> getTopConfigSets() {
+        List<TopConfigSets.Entry<UserConfigSet>> configSets = new ArrayList<>();
+        if (topAssignments != null) {
+            for (TopConfigSets.Entry<int[]> entry : topAssignments.toSortedList()) {
+                configSets.add(
+                        new TopConfigSets.Entry<>(entry.footprint, toConfigSet(entry.configSet)));
+            }
+        }
+        return configSets;
+    }
+
+    private UserConfigSet toConfigSet(int[] assignment) {
+        Map<UserConfigKey, UserConfigValue> config = new HashMap<>();
+        for (int keyIndex = 0; keyIndex < assignment.length; keyIndex++) {
+            config.put(
+                    orderedKeys.get(keyIndex),
+                    orderedValues.get(keyIndex).get(assignment[keyIndex]));
+        }
+        return new UserConfigSet(config);
+    }
+
+    private void search(int keyIndex, BitSet scratch) {
+        statistics.nodesExplored++;
+        long bound = upperBound(scratch);
+        if (keyIndex == valueCounts.length) {
+            statistics.configSetsEvaluated++;
+            if (recordBestConfigSet && (bestAssignment == null || bound > bestFootprint)) {
+                bestAssignment = assignment.clone();
+            }
+            bestFootprint = Math.max(bestFootprint, bound);
+            if (topAssignments != null && topAssignments.accepts(bound)) {
+                topAssignments.offer(bound, assignment.clone());
+            }
+            return;
+        }
+        if (isPruned(bound)) {
+            statistics.nodesPruned++;
+            return;
+        }
+        if (!constrainsAnyCandidate(keyIndex)) {
+            // every value of this key leads to the same footprint, so only one is explored, unless
+            // config sets are ranked, where each value makes a distinct config set
+            int valueCount = topAssignments != null ? valueCounts[keyIndex] : 1;
+            for (int value = 0; value < valueCount && !isPruned(bound); value++) {
+                assignment[keyIndex] = value;
+                search(keyIndex + 1, scratch);
+            }
+            return;
+        }
+
+        // explore the most promising values first, to find a good footprint to prune with early
+        long[] valueBounds = new long[valueCounts[keyIndex]];
+        for (int value = 0; value < valueBounds.length; value++) {
+            assign(keyIndex, value, 1);
+            valueBounds[value] = upperBound(scratch);
+            assign(keyIndex, value, -1);
+        }
+        Integer[] values = new Integer[valueBounds.length];
+        Arrays.setAll(values, value -> value);
+        Arrays.sort(
+                values,
+                Comparator.comparingLong((Integer value) -> valueBounds[value]).reversed());
+
+        for (int value : values) {
+            if (isPruned(valueBounds[value])) {
+                statistics.nodesPruned++;
+                continue;
+            }
+            assign(keyIndex, value, 1);
+            assignment[keyIndex] = value;
+            search(keyIndex + 1, scratch);
+            assign(keyIndex, value, -1);
+        }
+    }
+
+    /** Returns whether no config set below a branch with the given bound can improve the result. */
+    private boolean isPruned(long bound) {
+        return topAssignments != null ? !topAssignments.accepts(bound) : bound <= bestFootprint;
+    }
+
+    /**
+     * Applies ({@code delta} = 1) or reverts ({@code delta} = -1) the assignment of the value to
+     * the key, updating the state of the entries constrained by the key.
+     */
+    private void assign(int keyIndex, int value, int delta) {
+        int[] entries = entriesByKey[keyIndex];
+        int[] requiredValues = requiredValuesByKey[keyIndex];
+        for (int i = 0; i < entries.length; i++) {
+            if (requiredValues[i] != value) {
+                conflicts[entries[i]] += delta;
+            }
+        }
+    }
+
+    private boolean constrainsAnyCandidate(int keyIndex) {
+        for (int entry : entriesByKey[keyIndex]) {
+            if (conflicts[entry] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the footprint of the resources of the entries that do not conflict with the current
+     * assignment. When every key is assigned, these are exactly the entries that match it.
+     */
+    private long upperBound(BitSet scratch) {
+        scratch.clear();
+        for (int entry : candidateEntries) {
+            if (conflicts[entry] == 0) {
+                scratch.or(resourceSets.getEntryResources(entry));
+            }
+        }
+        return resourceSets.footprintOf(scratch);
+    }
+}
@@ -16,6 +16,9 @@
 
 package com.google.wear.watchface.dfx.memory
 
+import com.google.gson.Gson
+import com.google.gson.JsonObject
+
 /**
  * Represents the memory footprint calculation result.
  *
@@ -24,14 +27,29 @@ package com.google.wear.watchface.dfx.memory
  *   point in time on the watch face in active mode, in bytes.
  * @property maxAmbientBytes the maximum sum memory footprint of the assets that can be active at
  *   any point in time on the watch face in ambient mode, in bytes.
+ * @property ambientBytesPerScreen the maximum memory footprint in ambient mode on each of the
+ *   [EvaluationSettings.ambientScreenSizes], keyed by the screen size formatted as WIDTHxHEIGHT.
+ * @property activeAttribution what produces [maxActiveBytes], if
+ *   [EvaluationSettings.reportAttribution] is enabled.
+ * @property ambientAttribution what produces [maxAmbientBytes], if
+ *   [EvaluationSettings.reportAttribution] is enabled.
+ * @property topActiveConfigurations the heaviest user configurations in active mode, if
+ *   [EvaluationSettings.topConfigurations] is set.
  */
-data class MemoryFootprint(
+data class MemoryFootprint
+@JvmOverloads
+constructor(
     val totalBytes: Long,
     val maxActiveBytes: Long,
-    val maxAmbientBytes: Long
+    val maxAmbientBytes: Long,
+    val ambientBytesPerScreen: Map<String, Long> = emptyMap(),
+    val activeAttribution: FootprintAttribution? = null,
+    val ambientAttribution: AmbientAttribution? = null,
+    val topActiveConfigurations: TopConfigurations? = null
 ) {
     /**
-     * Validates that the maximum footprint is less than the allowed footprint.
+     * Validates that the maximum footprint is less than the allowed footprint, including the
+     * ambient footprint on each of the [ambientBytesPerScreen] screens.
      *
      * @param settings The EvaluationSettings object, used to determine the maximum allowed memory
      *   footprint in ambient and in active mode.
@@ -55,6 +73,30 @@ data class MemoryFootprint(
                 )
             )
         }
+        val worstScreen = ambientBytesPerScreen.maxByOrNull { it.value }
+        if (worstScreen != null && worstScreen.value > settings.ambientLimitBytes) {
+            throw TestFailedException(
+                String.format(
+                    "Watch Face has a memory footprint of %,.2f MB in ambient on a %s screen, " +
+                        "which is more than the allowed %,.2f MB in ambient.",
+                    toMB(worstScreen.value),
+                    worstScreen.key,
+                    toMB(settings.ambientLimitBytes)
+                )
+            )
+        }
+    }
+
+    /**
+     * Returns the footprint as in the JSON report. [ambientBytesPerScreen] is left out when no
+     * ambient screen sizes were evaluated.
+     */
+    fun toJson(): JsonObject {
+        val json = Gson().toJsonTree(this).asJsonObject
+        if (ambientBytesPerScreen.isEmpty()) {
+            json.remove("ambientBytesPerScreen")
+        }
+        return json
     }
 
     companion object {
@@ -66,14 +108,32 @@ data class MemoryFootprint(
 
         /**
          * Computes the maximum memory footprint between two MemoryFootprint objects by taking the
-         * maximum of each component.
+         * maximum of each component. The attributions and top configurations are those of the
+         * footprint with the maximum active and ambient bytes respectively.
          */
         @JvmStatic
         fun max(left: MemoryFootprint, right: MemoryFootprint): MemoryFootprint {
             return MemoryFootprint(
                 totalBytes = maxOf(left.totalBytes, right.totalBytes),
                 maxActiveBytes = maxOf(left.maxActiveBytes, right.maxActiveBytes),
-                maxAmbientBytes = maxOf(left.maxAmbientBytes, right.maxAmbientBytes)
+                maxAmbientBytes = maxOf(left.maxAmbientBytes, right.maxAmbientBytes),
+                ambientBytesPerScreen =
+                    (left.ambientBytesPerScreen.keys + right.ambientBytesPerScreen.keys)
+                        .associateWith { screen ->
+                            maxOf(
+                                left.ambientBytesPerScreen[screen] ?: 0L,
+                                right.ambientBytesPerScreen[screen] ?: 0L
+                            )
+                        },
+                activeAttribution =
+                    if (right.maxActiveBytes > left.maxActiveBytes) right.activeAttribution
+                    else left.activeAttribution,
+                ambientAttribution =
+                    if (right.maxAmbientBytes > left.maxAmbientBytes) right.ambientAttribution
+                    else left.ambientAttribution,
+                topActiveConfigurations =
+                    if (right.maxActiveBytes > left.maxActiveBytes) right.topActiveConfigurations
+                    else left.topActiveConfigurations
             )
         }
     }
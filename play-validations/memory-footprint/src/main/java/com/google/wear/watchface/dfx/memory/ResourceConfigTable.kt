@@ -136,8 +136,15 @@ internal class ResourceConfigTable(
      * </WatchFace>
      * ```
      */
-    fun replaceWithTopLevelKeys(document: Document): ResourceConfigTable {
-        val userConfigKeys = UserConfigKey.readUserConfigKeys(document).associateBy { it.keyId }
+    fun replaceWithTopLevelKeys(document: Document): ResourceConfigTable =
+        replaceWithTopLevelKeys(UserConfigKey.readUserConfigKeys(document))
+
+    /**
+     * Same as [replaceWithTopLevelKeys], with the top level user config keys already read from the
+     * document.
+     */
+    fun replaceWithTopLevelKeys(topLevelKeys: List<UserConfigKey>): ResourceConfigTable {
+        val userConfigKeys = topLevelKeys.associateBy { it.keyId }
 
         // in this object's resourceNameToKeys, replace each reference to a user config key with the
         // top level user config definition, which contains all allowed values
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory
+
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+
+/**
+ * The data of a resource, which is read from its source on demand instead of being held in memory.
+ * This keeps the memory used for a package bounded by the resources being processed at a time,
+ * rather than by the size of the package.
+ *
+ * A data source backed by a file or a zip entry is only valid while the file is open, i.e. until
+ * the [InputPackage] it comes from is closed.
+ */
+interface ResourceData {
+    /** The size of the data in bytes. */
+    val size: Long
+
+    /** Opens a new stream over the data. The caller is responsible for closing it. */
+    fun openStream(): InputStream
+
+    /** Reads the whole data into memory. */
+    fun readBytes(): ByteArray = openStream().use { it.readBytes() }
+
+    /**
+     * Returns the data as a read-only buffer, if it can be accessed without copying it, for
+     * example when it is memory-mapped. Otherwise, returns null.
+     */
+    fun asByteBuffer(): ByteBuffer? = null
+
+    companion object {
+        /** Creates a data source from data that is already in memory. */
+        @JvmStatic
+        fun of(bytes: ByteArray): ResourceData = object : ResourceData {
+            override val size: Long = bytes.size.toLong()
+
+            override fun openStream(): InputStream = ByteArrayInputStream(bytes)
+
+            override fun readBytes(): ByteArray = bytes
+        }
+
+        /** Creates a data source reading the given file. */
+        @JvmStatic
+        fun ofFile(path: Path): ResourceData = object : ResourceData {
+            override val size: Long = Files.size(path)
+
+            override fun openStream(): InputStream = Files.newInputStream(path)
+        }
+
+        /** Creates a data source backed by a buffer, which must not be modified afterwards. */
+        @JvmStatic
+        fun of(buffer: ByteBuffer): ResourceData = object : ResourceData {
+            private val readOnlyBuffer = buffer.asReadOnlyBuffer()
+
+            override val size: Long = readOnlyBuffer.remaining().toLong()
+
+            override fun openStream(): InputStream =
+                ByteBufferInputStream(readOnlyBuffer.duplicate())
+
+            override fun asByteBuffer(): ByteBuffer = readOnlyBuffer.duplicate()
+        }
+
+        /**
+         * Creates a data source reading the entry with the given name from a zip file. If the
+         * entry is stored uncompressed and the zip file is memory-mapped, then the data is read
+         * from the mapping instead.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun ofZipEntry(
+            zipFile: ZipFile,
+            entryName: String,
+            mappedZipFile: MappedZipFile? = null
+        ): ResourceData {
+            val entry = zipFile.getEntry(entryName)
+                ?: throw IOException("Missing entry $entryName in ${zipFile.name}")
+            return ofZipEntry(zipFile, entry, mappedZipFile)
+        }
+
+        /**
+         * Creates a data source reading the given entry from a zip file. If the entry is stored
+         * uncompressed and the zip file is memory-mapped, then the data is read from the mapping
+         * instead.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun ofZipEntry(
+            zipFile: ZipFile,
+            entry: ZipEntry,
+            mappedZipFile: MappedZipFile? = null
+        ): ResourceData {
+            if (entry.method == ZipEntry.STORED) {
+                mappedZipFile?.getStoredEntryData(entry.name)?.let { return of(it) }
+            }
+            return zipEntrySource(zipFile, entry)
+        }
+
+        private fun zipEntrySource(zipFile: ZipFile, entry: ZipEntry) = object : ResourceData {
+            // the size is unknown (-1) only for entries that were not read from the central
+            // directory, which is never the case for the entries of a ZipFile
+            override val size: Long = entry.size
+
+            override fun openStream(): InputStream = zipFile.getInputStream(entry)
+        }
+    }
+}
+
+/** Reads a buffer as a stream, without copying its content. */
+class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+    /** The data that has not been read yet. */
+    fun remainingBuffer(): ByteBuffer = buffer.slice()
+
+    override fun read(): Int = if (buffer.hasRemaining()) buffer.get().toInt() and 0xff else -1
+
+    override fun read(bytes: ByteArray, offset: Int, length: Int): Int {
+        if (length == 0) {
+            return 0
+        }
+        if (!buffer.hasRemaining()) {
+            return -1
+        }
+        val count = minOf(length, buffer.remaining())
+        buffer.get(bytes, offset, count)
+        return count
+    }
+
+    override fun skip(n: Long): Long {
+        val count = minOf(n, buffer.remaining().toLong()).coerceAtLeast(0).toInt()
+        buffer.position(buffer.position() + count)
+        return count.toLong()
+    }
+
+    override fun available(): Int = buffer.remaining()
+}
@@ -21,13 +21,20 @@ import static com.google.wear.watchface.dfx.memory.MemoryFootprint.toMB;
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Phase;
 import com.samsung.watchface.WatchFaceXmlValidator;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 import org.w3c.dom.Document;
 
 /** Computes the asset memory footprint for a given watch face. */
@@ -44,22 +51,37 @@ public class ResourceMemoryEvaluator {
             System.exit(EXIT_STATUS_BAD_ARGUMENTS);
         }
 
-        if (settings.get().isReportMode()) {
+        if (settings.get().isBatchMode()) {
+            evaluateBatch(settings.get());
+        } else if (settings.get().isReportMode()) {
             evaluateMemoryFootprintJsonReport(settings.get());
         } else {
             evaluateInHumanReadableMode(settings.get());
         }
     }
 
+    private static void evaluateBatch(EvaluationSettings settings) {
+        boolean allSucceeded;
+        try {
+            allSucceeded = new BatchEvaluator(settings).evaluate(System.out);
+        } catch (IOException e) {
+            System.err.println("Could not run the batch evaluation: " + e.getMessage());
+            System.exit(EXIT_STATUS_BAD_ARGUMENTS);
+            return;
+        }
+        if (!allSucceeded) {
+            System.exit(EXIT_STATUS_WATCH_FACE_FAILED);
+        }
+    }
+
     private static void evaluateMemoryFootprintJsonReport(EvaluationSettings settings) {
         Gson gson = new GsonBuilder().setPrettyPrinting().create();
         try {
-            Optional<MemoryFootprint> memoryFootprint =
-                    evaluateMemoryFootprint(settings).stream().reduce(MemoryFootprint::max);
-            if (!memoryFootprint.isPresent()) {
-                throw new IllegalArgumentException("The provided watch face has no xml layouts");
+            JsonObject report = createJsonReport(settings);
+            if (settings.getReportMetrics()) {
+                report.add("metrics", settings.getMetrics().toJson());
             }
-            System.out.println(gson.toJson(memoryFootprint.get()));
+            System.out.println(gson.toJson(report));
         } catch (Exception e) {
             StringWriter stringWriter = new StringWriter();
             PrintWriter printWriter = new PrintWriter(stringWriter);
@@ -74,6 +96,10 @@ public class ResourceMemoryEvaluator {
 
     private static void evaluateInHumanReadableMode(EvaluationSettings settings) {
         System.out.println("Starting memory footprint test with " + settings.getWatchFacePath());
+        if (!settings.getDeviceProfiles().isEmpty()) {
+            evaluateDeviceProfilesInHumanReadableMode(settings);
+            return;
+        }
         try {
             List<MemoryFootprint> memoryFootprint = evaluateMemoryFootprint(settings);
             // We don't want to print the memory footprint to the manual testers
@@ -104,6 +130,71 @@ public class ResourceMemoryEvaluator {
         }
     }
 
+    private static void evaluateDeviceProfilesInHumanReadableMode(EvaluationSettings settings) {
+        try {
+            List<DeviceProfileResult> results = evaluateDeviceProfiles(settings);
+            boolean allPassed = true;
+            System.out.println("Test report:");
+            for (DeviceProfileResult result : results) {
+                String profileName = result.getProfile().getName();
+                if (settings.isVerbose()) {
+                    System.out.printf("Device profile %s:%n", profileName);
+                    printMemoryFootprints(Collections.singletonList(result.getFootprint()));
+                }
+                if (result.getPassed()) {
+                    System.out.println(
+                            TestResultFormatter.formatSuccess(
+                                    "Watch Face has passed the memory footprint test on "
+                                            + profileName
+                                            + "."));
+                } else {
+                    allPassed = false;
+                    System.out.println(
+                            TestResultFormatter.formatFailure(
+                                    String.format("%s: %s", profileName, result.getFailure())));
+                }
+            }
+            if (!allPassed) {
+                System.exit(EXIT_STATUS_WATCH_FACE_FAILED);
+            }
+        } catch (TestFailedException e) {
+            System.out.println("Test report:");
+            System.out.println(TestResultFormatter.formatFailure(e.getMessage()));
+            System.exit(EXIT_STATUS_WATCH_FACE_FAILED);
+        } catch (Exception e) {
+            System.out.println(TestResultFormatter.formatException(e.getMessage()));
+            e.printStackTrace();
+            System.exit(EXIT_STATUS_WATCH_FACE_FAILED);
+        }
+    }
+
+    /**
+     * Evaluates a watch face package and creates its JSON report. The report holds the maximum
+     * memory footprint of its layouts, or, if the settings have device profiles, a {@code
+     * deviceProfiles} array with the footprint and the outcome of the validation on each profile.
+     */
+    static JsonObject createJsonReport(EvaluationSettings settings) {
+        if (!settings.getDeviceProfiles().isEmpty()) {
+            JsonArray profileReports = new JsonArray();
+            for (DeviceProfileResult result : evaluateDeviceProfiles(settings)) {
+                profileReports.add(result.toJson());
+            }
+            JsonObject report = new JsonObject();
+            report.add("deviceProfiles", profileReports);
+            return report;
+        }
+        return maxFootprint(evaluateMemoryFootprint(settings)).toJson();
+    }
+
+    private static MemoryFootprint maxFootprint(List<MemoryFootprint> footprints) {
+        return footprints.stream()
+                .reduce(MemoryFootprint::max)
+                .orElseThrow(
+                        () ->
+                                new IllegalArgumentException(
+                                        "The provided watch face has no xml layouts"));
+    }
+
     /**
      * Parses a watch face package and evaluates the memory footprint for all of its layouts.
      *
@@ -111,7 +202,51 @@ public class ResourceMemoryEvaluator {
      * @return the list of memory footprints, one for each layout supported by the watch face.
      */
     static List<MemoryFootprint> evaluateMemoryFootprint(EvaluationSettings evaluationSettings) {
-        try (InputPackage inputPackage = InputPackage.open(evaluationSettings.getWatchFacePath())) {
+        return evaluatePackage(
+                evaluationSettings,
+                watchFaceData ->
+                        WatchFaceLayoutEvaluator.evaluateLayouts(
+                                watchFaceData.getWatchFaceDocuments(),
+                                watchFaceData.getResourceDetailsMap(),
+                                evaluationSettings));
+    }
+
+    /**
+     * Parses a watch face package once and evaluates the maximum memory footprint of its layouts
+     * against each of the device profiles of the settings.
+     *
+     * @param evaluationSettings the settings object for running the watch face evaluation, which
+     *     has at least one device profile.
+     * @return the results of the evaluation, in the order of the device profiles.
+     */
+    static List<DeviceProfileResult> evaluateDeviceProfiles(EvaluationSettings evaluationSettings) {
+        return evaluatePackage(
+                evaluationSettings,
+                watchFaceData -> {
+                    List<DeviceProfileResult> results = new ArrayList<>();
+                    for (DeviceProfile profile : evaluationSettings.getDeviceProfiles()) {
+                        EvaluationSettings profileSettings =
+                                evaluationSettings.withDeviceProfile(profile);
+                        MemoryFootprint footprint =
+                                maxFootprint(
+                                        WatchFaceLayoutEvaluator.evaluateLayouts(
+                                                watchFaceData.getWatchFaceDocuments(),
+                                                watchFaceData.getResourceDetailsMap(),
+                                                profileSettings));
+                        results.add(
+                                DeviceProfileResult.validate(profile, footprint, profileSettings));
+                    }
+                    return results;
+                });
+    }
+
+    /**
+     * Reads and validates a watch face package, then evaluates it while the package is still
+     * open, since the image resources may be decoded lazily by the evaluation.
+     */
+    private static <T> T evaluatePackage(
+            EvaluationSettings evaluationSettings, Function<WatchFaceData, T> evaluation) {
+        try (InputPackage inputPackage = openInputPackage(evaluationSettings)) {
             WatchFaceData watchFaceData =
                     WatchFaceData.fromResourcesStream(
                             inputPackage.getWatchFaceFiles(),
@@ -121,17 +256,41 @@ public class ResourceMemoryEvaluator {
             if (!evaluationSettings.isHoneyfaceMode()) {
                 String wffVersion =
                         getWatchFaceFormatVersion(inputPackage.getManifest(), evaluationSettings);
-                validateFormat(watchFaceData, wffVersion);
+                try (EvaluationMetrics.Timer ignored =
+                        evaluationSettings.getMetrics().start(Phase.VALIDATE_SCHEMA)) {
+                    validateFormat(watchFaceData, wffVersion);
+                }
             }
 
-            return watchFaceData.getWatchFaceDocuments().stream()
-                    .map(
-                            watchFaceDocument ->
-                                    WatchFaceLayoutEvaluator.evaluate(
-                                            watchFaceDocument,
-                                            watchFaceData.getResourceDetailsMap(),
-                                            evaluationSettings))
-                    .collect(Collectors.toList());
+            return evaluation.apply(watchFaceData);
+        } finally {
+            // in batch mode, the batch evaluator writes a single trace for all the packages
+            if (!evaluationSettings.isBatchMode()) {
+                writeTrace(evaluationSettings);
+            }
+        }
+    }
+
+    /** Writes the trace of the evaluation, if a trace file was requested. */
+    private static void writeTrace(EvaluationSettings evaluationSettings) {
+        String traceFile = evaluationSettings.getTraceFile();
+        if (traceFile == null) {
+            return;
+        }
+        try {
+            EvaluationMetrics.writeTrace(
+                    ImmutableMap.of(
+                            evaluationSettings.getWatchFacePath(), evaluationSettings.getMetrics()),
+                    Paths.get(traceFile));
+        } catch (IOException e) {
+            System.err.println("Could not write the trace file: " + e.getMessage());
+        }
+    }
+
+    private static InputPackage openInputPackage(EvaluationSettings evaluationSettings) {
+        try (EvaluationMetrics.Timer ignored =
+                evaluationSettings.getMetrics().start(Phase.READ_PACKAGE)) {
+            return InputPackage.open(evaluationSettings.getWatchFacePath());
         }
     }
 
@@ -178,8 +337,11 @@ public class ResourceMemoryEvaluator {
     private static void validateFormat(WatchFaceData watchFaceData, String watchFaceFormatVersion) {
         WatchFaceXmlValidator xmlValidator = new WatchFaceXmlValidator();
         for (Document watchFaceDocument : watchFaceData.getWatchFaceDocuments()) {
+            // the validator walks the document as a full DOM, so compact layouts are copied
             boolean documentHasValidSchema =
-                    xmlValidator.validate(watchFaceDocument, watchFaceFormatVersion);
+                    xmlValidator.validate(
+                            CompactLayoutTree.toW3cDocument(watchFaceDocument),
+                            watchFaceFormatVersion);
             if (!documentHasValidSchema) {
                 throw new TestFailedException(
                         "Watch Face has syntactic errors and cannot be parsed.");
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory
+
+/**
+ * The size in pixels of a device screen. Every full screen layer rendered in ambient takes 4 bytes
+ * per pixel of the screen.
+ */
+data class ScreenSize(val width: Int, val height: Int) {
+    init {
+        require(width > 0 && height > 0) { "Screen size must be positive, but was $this" }
+    }
+
+    /** The number of bytes of a full screen ARGB8888 layer. */
+    val layerBytes: Long
+        get() = width.toLong() * height * 4
+
+    /** Formats the size as WIDTHxHEIGHT, which is the format accepted by [parse]. */
+    override fun toString(): String = "${width}x$height"
+
+    companion object {
+        /** The screen size assumed when a layout does not declare its dimensions. */
+        @JvmField val DEFAULT = ScreenSize(450, 450)
+
+        /** Parses a screen size written as WIDTHxHEIGHT, e.g. 450x450. */
+        @JvmStatic
+        fun parse(value: String): ScreenSize {
+            val dimensions = value.trim().lowercase().split("x")
+            val width = dimensions.getOrNull(0)?.toIntOrNull()
+            val height = dimensions.getOrNull(1)?.toIntOrNull()
+            require(dimensions.size == 2 && width != null && height != null) {
+                "Screen size must be written as WIDTHxHEIGHT, but was $value"
+            }
+            return ScreenSize(width, height)
+        }
+    }
+}
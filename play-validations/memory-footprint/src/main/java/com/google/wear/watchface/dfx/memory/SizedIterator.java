@@ -16,6 +16,7 @@
 
 package com.google.wear.watchface.dfx.memory;
 
+import com.google.common.math.LongMath;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.function.BiFunction;
@@ -85,7 +86,9 @@ interface SizedIterator<T> extends Iterator<T> {
         // lazily consume each partial config from the rest iterator and append each value for the
         // current key, producing new partial configs.
         return new SizedIterator<T>() {
-            private final long size = elements.size() * iterator.getSize();
+            // saturates instead of overflowing, so that huge config spaces are still detected
+            private final long size =
+                    LongMath.saturatedMultiply(elements.size(), iterator.getSize());
             private Iterator<U> crtValuesIter = elements.iterator();
             private T currentFromTail = iterator.next();
 
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.BinaryOperator;
+
+/**
+ * Keeps the config sets with the biggest footprints among the ones offered to it, up to a fixed
+ * capacity. The config sets are kept in a bounded min-heap, so offering a config set that is
+ * lighter than all the kept ones costs a single comparison, which allows ranking every config set
+ * of an enumeration.
+ *
+ * @param <T> the representation of the config sets, e.g. their index in a {@link ConfigSpace}.
+ */
+class TopConfigSets<T> {
+    /** A config set and its footprint. */
+    static class Entry<T> {
+        final long footprint;
+        final T configSet;
+
+        Entry(long footprint, T configSet) {
+            this.footprint = footprint;
+            this.configSet = configSet;
+        }
+    }
+
+    private final int capacity;
+    /** The footprints of the heap, whose root is the lightest kept config set. */
+    private final long[] footprints;
+    private final Object[] configSets;
+    private int size;
+
+    TopConfigSets(int capacity) {
+        checkArgument(capacity > 0, "Capacity must be positive, but was %s", capacity);
+        this.capacity = capacity;
+        this.footprints = new long[capacity];
+        this.configSets = new Object[capacity];
+    }
+
+    /** Returns whether a config set with the footprint would be kept by {@link #offer}. */
+    boolean accepts(long footprint) {
+        return size < capacity || footprint > footprints[0];
+    }
+
+    /**
+     * Keeps the config set if it is among the heaviest ones offered so far, evicting the lightest
+     * kept config set if the capacity is reached.
+     */
+    void offer(long footprint, T configSet) {
+        if (size < capacity) {
+            footprints[size] = footprint;
+            configSets[size] = configSet;
+            siftUp(size++);
+        } else if (footprint > footprints[0]) {
+            footprints[0] = footprint;
+            configSets[0] = configSet;
+            siftDown(0);
+        }
+    }
+
+    /** Offers every config set kept by {@code other}. */
+    void addAll(TopConfigSets<T> other) {
+        for (int i = 0; i < other.size; i++) {
+            if (accepts(other.footprints[i])) {
+                offer(other.footprints[i], other.getConfigSet(i));
+            }
+        }
+    }
+
+    /** Returns the kept config sets, heaviest first. */
+    List<Entry<T>> toSortedList() {
+        List<Entry<T>> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry<>(footprints[i], getConfigSet(i)));
+        }
+        entries.sort(Comparator.comparingLong((Entry<T> entry) -> entry.footprint).reversed());
+        return entries;
+    }
+
+    /**
+     * Returns the {@code capacity} heaviest combinations of one config set of {@code left} and one
+     * of {@code right}, whose footprint is the sum of theirs, heaviest first. Both lists must be
+     * sorted heaviest first. Only the combinations on the frontier of the ones already taken are
+     * considered, rather than every pair.
+     */
+    static <T> List<Entry<T>> largestSums(
+            List<Entry<T>> left, List<Entry<T>> right, int capacity, BinaryOperator<T> combiner) {
+        List<Entry<T>> sums = new ArrayList<>();
+        if (left.isEmpty() || right.isEmpty()) {
+            return sums;
+        }
+        PriorityQueue<int[]> frontier =
+                new PriorityQueue<>(
+                        Comparator.comparingLong(
+                                        (int[] pair) ->
+                                                left.get(pair[0]).footprint
+                                                        + right.get(pair[1]).footprint)
+                                .reversed());
+        Set<Long> visited = new HashSet<>();
+        frontier.add(new int[] {0, 0});
+        visited.add(0L);
+        while (sums.size() < capacity && !frontier.isEmpty()) {
+            int[] pair = frontier.poll();
+            Entry<T> leftEntry = left.get(pair[0]);
+            Entry<T> rightEntry = right.get(pair[1]);
+            sums.add(
+                    new Entry<>(
+                            leftEntry.footprint + rightEntry.footprint,
+                            combiner.apply(leftEntry.configSet, rightEntry.configSet)));
+            if (pair[0] + 1 < left.size()
+                    && visited.add((long) (pair[0] + 1) * right.size() + pair[1])) {
+                frontier.add(new int[] {pair[0] + 1, pair[1]});
+            }
+            if (pair[1] + 1 < right.size()
+                    && visited.add((long) pair[0] * right.size() + pair[1] + 1)) {
+                frontier.add(new int[] {pair[0], pair[1] + 1});
+            }
+        }
+        return sums;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T getConfigSet(int i) {
+        return (T) configSets[i];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (footprints[parent] <= footprints[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int lightest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && footprints[left] < footprints[lightest]) {
+                lightest = left;
+            }
+            if (right < size && footprints[right] < footprints[lightest]) {
+                lightest = right;
+            }
+            if (lightest == i) {
+                return;
+            }
+            swap(i, lightest);
+            i = lightest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long footprint = footprints[i];
+        footprints[i] = footprints[j];
+        footprints[j] = footprint;
+        Object configSet = configSets[i];
+        configSets[i] = configSets[j];
+        configSets[j] = configSet;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory
+
+/**
+ * The user configurations of a watch face with the biggest footprints, so that several heavy
+ * configurations can be fixed at once.
+ *
+ * @property configurations the configurations, heaviest first.
+ * @property approximate whether the configurations were ranked by the greedy evaluation, which
+ *   over-approximates their footprints and may combine values that cannot be selected together.
+ */
+data class TopConfigurations(
+    val configurations: List<ConfigurationFootprint>,
+    val approximate: Boolean
+)
+
+/**
+ * The footprint of one user configuration of [TopConfigurations].
+ *
+ * @property configuration the value of each user configuration key, keyed by the id of the key.
+ * @property bytes the footprint of the configuration, in bytes.
+ */
+data class ConfigurationFootprint(val configuration: Map<String, String>, val bytes: Long)
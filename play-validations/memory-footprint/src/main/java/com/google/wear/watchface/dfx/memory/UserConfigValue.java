@@ -68,6 +68,10 @@ class UserConfigValue {
         this.configValueId = configValueId;
     }
 
+    public String getConfigValueId() {
+        return configValueId;
+    }
+
     /**
      * Selects the child of the node that must be evaluated based on this configuration id. It works
      * on either a ListConfiguration with ListOptions or BooleanConfiguration with BooleanOptions.
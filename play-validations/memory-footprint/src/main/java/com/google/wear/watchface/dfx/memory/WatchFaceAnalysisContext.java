@@ -0,0 +1,166 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.findSceneNode;
+import static java.util.Collections.unmodifiableSet;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * The analysis state of a watch face document that is shared by the total, active and ambient
+ * memory computations, so that the document is parsed and traversed once rather than once per
+ * computation. This holds the scene node, the user config keys and a single resource collector,
+ * which parses the bitmap font definitions once and remembers the resources found under each node
+ * for each variant.
+ */
+@SuppressWarnings("KotlinInternal")
+class WatchFaceAnalysisContext {
+    private final Document document;
+    private final Node sceneNode;
+    private final Map<String, DrawableResourceDetails> resourceMemoryMap;
+    private final EvaluationSettings evaluationSettings;
+    private final VariantConfigValue activeVariant;
+    private final VariantConfigValue ambientVariant;
+    private final MemoizingResourceCollector resourceCollector;
+    private final ComponentFootprintCache componentFootprintCache;
+
+    private List<UserConfigKey> userConfigKeys;
+    private DrawableNodeConfigTable activeDrawableNodeConfigTable;
+
+    WatchFaceAnalysisContext(
+            Document document,
+            Map<String, DrawableResourceDetails> resourceMemoryMap,
+            EvaluationSettings evaluationSettings) {
+        this(document, resourceMemoryMap, evaluationSettings, null);
+    }
+
+    /**
+     * @param componentFootprintCache the maximum footprints of the components of a previous
+     *     evaluation of the document, or null if the components are always evaluated.
+     */
+    WatchFaceAnalysisContext(
+            Document document,
+            Map<String, DrawableResourceDetails> resourceMemoryMap,
+            EvaluationSettings evaluationSettings,
+            ComponentFootprintCache componentFootprintCache) {
+        this.document = document;
+        this.sceneNode = findSceneNode(document);
+        this.resourceMemoryMap = resourceMemoryMap;
+        this.evaluationSettings = evaluationSettings;
+        this.activeVariant = VariantConfigValue.active(evaluationSettings);
+        this.ambientVariant = VariantConfigValue.ambient(evaluationSettings);
+        this.resourceCollector =
+                new MemoizingResourceCollector(
+                        new WatchFaceResourceCollector(
+                                document, resourceMemoryMap, evaluationSettings));
+        this.componentFootprintCache = componentFootprintCache;
+    }
+
+    Document getDocument() {
+        return document;
+    }
+
+    Node getSceneNode() {
+        return sceneNode;
+    }
+
+    Map<String, DrawableResourceDetails> getResourceMemoryMap() {
+        return resourceMemoryMap;
+    }
+
+    EvaluationSettings getEvaluationSettings() {
+        return evaluationSettings;
+    }
+
+    VariantConfigValue getActiveVariant() {
+        return activeVariant;
+    }
+
+    VariantConfigValue getAmbientVariant() {
+        return ambientVariant;
+    }
+
+    /**
+     * Returns the resource collector of the document. The resources it returns for a node and a
+     * variant are computed once, so the variants passed to it should be the ones of this context.
+     */
+    WatchFaceResourceCollector getResourceCollector() {
+        return resourceCollector;
+    }
+
+    /**
+     * Returns the maximum footprints of the components of a previous evaluation of the document,
+     * or null if there is none.
+     */
+    ComponentFootprintCache getComponentFootprintCache() {
+        return componentFootprintCache;
+    }
+
+    /** Returns the top-level user config keys declared by the document. */
+    synchronized List<UserConfigKey> getUserConfigKeys() {
+        if (userConfigKeys == null) {
+            userConfigKeys = UserConfigKey.readUserConfigKeys(document);
+        }
+        return userConfigKeys;
+    }
+
+    /** Returns the drawable nodes of the scene that are rendered in active. */
+    synchronized DrawableNodeConfigTable getActiveDrawableNodeConfigTable() {
+        if (activeDrawableNodeConfigTable == null) {
+            activeDrawableNodeConfigTable =
+                    DrawableNodeConfigTable.create(sceneNode, activeVariant);
+        }
+        return activeDrawableNodeConfigTable;
+    }
+
+    /**
+     * A resource collector that remembers the resources of each node it visits, per variant. Since
+     * the collection is recursive, a walk over the whole scene also fills in the resources of
+     * every node below it.
+     */
+    private static class MemoizingResourceCollector extends WatchFaceResourceCollector {
+        private final Map<Node, Set<String>> resourcesIgnoringVariant = new ConcurrentHashMap<>();
+        private final Map<VariantConfigValue, Map<Node, Set<String>>> resourcesPerVariant =
+                new ConcurrentHashMap<>();
+
+        MemoizingResourceCollector(WatchFaceResourceCollector resourceCollector) {
+            super(resourceCollector);
+        }
+
+        @Override
+        Set<String> collectResources(Node currentNode, VariantConfigValue variant) {
+            Map<Node, Set<String>> resourcesPerNode =
+                    variant == null
+                            ? resourcesIgnoringVariant
+                            : resourcesPerVariant.computeIfAbsent(
+                                    variant, key -> new ConcurrentHashMap<>());
+            // computeIfAbsent cannot be used here, since the collection recurses into this method
+            Set<String> resources = resourcesPerNode.get(currentNode);
+            if (resources == null) {
+                resources = unmodifiableSet(super.collectResources(currentNode, variant));
+                resourcesPerNode.putIfAbsent(currentNode, resources);
+            }
+            return resources;
+        }
+    }
+}
@@ -16,15 +16,20 @@
 
 package com.google.wear.watchface.dfx.memory
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Counter
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Phase
 import org.w3c.dom.Document
-import java.io.ByteArrayInputStream
+import java.util.ArrayDeque
+import java.util.Optional
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import java.util.stream.Stream
-import javax.xml.parsers.DocumentBuilderFactory
-import javax.xml.transform.TransformerFactory
 import javax.xml.transform.dom.DOMResult
 import javax.xml.transform.sax.SAXSource
-import javax.xml.xpath.XPathConstants
-import javax.xml.xpath.XPathFactory
 import kotlin.streams.asSequence
 import org.xml.sax.InputSource
 
@@ -81,15 +86,20 @@ internal class WatchFaceData private constructor() {
         /** The size of Roboto-Regular.ttf in bytes. */
         const val SYSTEM_DEFAULT_FONT_SIZE: Long = 2371712
 
-        private fun parseXmlResource(xmlData: ByteArray): Document {
+        private fun parseXmlResource(
+            xmlResource: AndroidResource,
+            evaluationSettings: EvaluationSettings
+        ): Document {
+            if (evaluationSettings.compactLayouts) {
+                return xmlResource.openStream().use { CompactLayoutTree.parse(it).asDocument() }
+            }
             // Parsing the document using a SAX source to better replicate the working of the real
             // DWF Runtime. See b/493476140 for details.
-            val docFactory = DocumentBuilderFactory.newInstance().apply { isNamespaceAware = true }
-            val doc = docFactory.newDocumentBuilder().newDocument()
-            val inputStream = InputSource(ByteArrayInputStream(xmlData))
-            val sax = SAXSource(inputStream)
-            val transformer = TransformerFactory.newInstance().newTransformer()
-            transformer.transform(sax, DOMResult(doc))
+            val doc = XmlFactories.namespaceAwareDocumentBuilder().newDocument()
+            val transformer = XmlFactories.transformer()
+            xmlResource.openStream().use {
+                transformer.transform(SAXSource(InputSource(it)), DOMResult(doc))
+            }
             return doc
         }
 
@@ -100,7 +110,14 @@ internal class WatchFaceData private constructor() {
             imageProcessor: ImageProcessor
         ) = fromResourcesStream(resources.asSequence(), evaluationSettings, imageProcessor)
 
-        /** Creates a WatchFaceData object from a stream of watch face package resources. */
+        /**
+         * Creates a WatchFaceData object from a stream of watch face package resources.
+         *
+         * When [EvaluationSettings.resourceAnalysisThreads] is greater than 1, the drawable
+         * resources are decoded and analyzed concurrently on a bounded pool of worker threads. The
+         * results are still recorded in the order in which the resources are produced by the
+         * stream, so the resulting resource details are the same as for a sequential analysis.
+         */
         @JvmStatic
         fun fromResourcesStream(
             resources: Sequence<AndroidResource>,
@@ -108,31 +125,126 @@ internal class WatchFaceData private constructor() {
             imageProcessor: ImageProcessor
         ): WatchFaceData {
             val watchFaceData = WatchFaceData()
-
-            for (resource in resources) {
-                if (resource.isWatchFaceXml()) {
-                    val document = parseXmlResource(resource.data)
-                    if (isWatchFaceDocument(document, evaluationSettings)) {
-                        watchFaceData._watchFaceDocuments.add(document)
+            val analysisCache = DrawableResourceDetailsCache.fromSettings(evaluationSettings)
+            val executor = createResourceAnalysisExecutor(evaluationSettings)
+            val metrics = evaluationSettings.metrics
+            val instrumentedImageProcessor = metrics.instrument(imageProcessor)
+
+            try {
+                // The analysis results that are still being computed, in the order of the stream.
+                // Their number is bounded so that we don't hold the data of every resource of the
+                // package in memory while waiting for the workers.
+                val pendingDetails = ArrayDeque<Future<Optional<DrawableResourceDetails>>>()
+                val maxPendingDetails = evaluationSettings.resourceAnalysisThreads * 2
+
+                // the package files are read while iterating, so that is timed as well
+                val resourceIterator = resources.iterator()
+                while (metrics.start(Phase.READ_PACKAGE).use { resourceIterator.hasNext() }) {
+                    val resource =
+                        metrics.start(Phase.READ_PACKAGE).use { resourceIterator.next() }
+                    metrics.increment(Counter.RESOURCES_READ)
+                    metrics.add(Counter.BYTES_READ, resource.size)
+                    if (resource.isWatchFaceXml()) {
+                        val document =
+                            metrics.start(Phase.PARSE_XML).use {
+                                parseXmlResource(resource, evaluationSettings)
+                            }
+                        if (isWatchFaceDocument(document, evaluationSettings)) {
+                            watchFaceData._watchFaceDocuments.add(document)
+                            continue
+                        }
+                    }
+                    if (executor == null) {
+                        analyzeResource(
+                                resource,
+                                instrumentedImageProcessor,
+                                analysisCache,
+                                evaluationSettings
+                            )
+                            .ifPresent { watchFaceData.recordResourceDetails(it) }
                         continue
                     }
+                    pendingDetails.addLast(
+                        executor.submit(
+                            Callable {
+                                analyzeResource(
+                                    resource,
+                                    instrumentedImageProcessor,
+                                    analysisCache,
+                                    evaluationSettings
+                                )
+                            }
+                        )
+                    )
+                    if (pendingDetails.size > maxPendingDetails) {
+                        watchFaceData.awaitResourceDetails(pendingDetails.removeFirst())
+                    }
                 }
-                DrawableResourceDetails.fromPackageResource(resource, imageProcessor).ifPresent {
-                    watchFaceData.recordResourceDetails(it)
+                while (pendingDetails.isNotEmpty()) {
+                    watchFaceData.awaitResourceDetails(pendingDetails.removeFirst())
                 }
+                analysisCache.trim()
+            } finally {
+                executor?.shutdownNow()
             }
 
             return watchFaceData
         }
 
+        private fun analyzeResource(
+            resource: AndroidResource,
+            imageProcessor: ImageProcessor,
+            analysisCache: DrawableResourceDetailsCache,
+            evaluationSettings: EvaluationSettings
+        ): Optional<DrawableResourceDetails> =
+            evaluationSettings.metrics.start(Phase.ANALYZE_IMAGES).use {
+                DrawableResourceDetails.fromPackageResource(
+                    resource,
+                    imageProcessor,
+                    analysisCache,
+                    evaluationSettings.lazyImageAnalysis
+                )
+            }
+
+        private fun createResourceAnalysisExecutor(
+            evaluationSettings: EvaluationSettings
+        ): ExecutorService? {
+            if (evaluationSettings.resourceAnalysisThreads <= 1) {
+                return null
+            }
+            return Executors.newFixedThreadPool(
+                evaluationSettings.resourceAnalysisThreads,
+                ThreadFactoryBuilder()
+                    .setNameFormat("resource-analysis-%d")
+                    .setDaemon(true)
+                    .build()
+            )
+        }
+
+        /**
+         * Waits for the analysis of a resource to finish and records its details. Any exception
+         * thrown by the analysis is rethrown as is on the calling thread.
+         */
+        private fun WatchFaceData.awaitResourceDetails(
+            pendingDetails: Future<Optional<DrawableResourceDetails>>
+        ) {
+            val details =
+                try {
+                    pendingDetails.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            details.ifPresent { recordResourceDetails(it) }
+        }
+
         private fun isWatchFaceDocument(
             document: Document,
             evaluationSettings: EvaluationSettings
         ): Boolean {
+            // the root element is checked directly, which is cheaper than evaluating an XPath
+            // expression for every resource
             val rootNode = WatchFaceDocuments.getWatchFaceRootNode(evaluationSettings)
-            val xPath =
-                XPathFactory.newInstance().newXPath().compile(String.format("/%s", rootNode))
-            return xPath.evaluate(document, XPathConstants.BOOLEAN) as Boolean
+            return document.documentElement?.nodeName == rootNode
         }
     }
 }
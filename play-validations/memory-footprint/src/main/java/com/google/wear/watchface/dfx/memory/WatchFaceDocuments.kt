@@ -18,7 +18,10 @@ package com.google.wear.watchface.dfx.memory
 
 import org.w3c.dom.Document
 import org.w3c.dom.Node
+import java.nio.charset.StandardCharsets.UTF_8
+import java.security.MessageDigest
 import java.util.Optional
+import java.util.stream.Collectors
 import java.util.stream.IntStream
 import java.util.stream.Stream
 
@@ -67,6 +70,63 @@ object WatchFaceDocuments {
         return document.getElementsByTagName("Scene").item(0)
     }
 
+    /**
+     * Returns the screen size the layout is designed for, as declared by the width and height of
+     * its root node, or [ScreenSize.DEFAULT] if they are missing or invalid.
+     */
+    @JvmStatic
+    fun getLayoutScreenSize(document: Document): ScreenSize {
+        val rootNode = document.documentElement ?: return ScreenSize.DEFAULT
+        val width = getNodeAttribute(rootNode, "width").orElse(null)?.toIntOrNull()
+        val height = getNodeAttribute(rootNode, "height").orElse(null)?.toIntOrNull()
+        if (width == null || height == null || width <= 0 || height <= 0) {
+            return ScreenSize.DEFAULT
+        }
+        return ScreenSize(width, height)
+    }
+
+    /**
+     * Returns the SHA-1 digest, in hexadecimal, of the content of a layout: its nodes, their
+     * attributes and their text. The attributes are hashed in name order and blank text is left
+     * out, so the digest only changes when the content of the layout does.
+     */
+    @JvmStatic
+    fun hashLayout(document: Document): String {
+        val digest = MessageDigest.getInstance("SHA-1")
+        document.documentElement?.let { hashNode(it, digest) }
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+
+    private fun hashNode(node: Node, digest: MessageDigest) {
+        digest.updateString(node.nodeName)
+        if (node.nodeType == Node.TEXT_NODE || node.nodeType == Node.CDATA_SECTION_NODE) {
+            digest.updateString(node.nodeValue ?: "")
+        }
+        val attributes = node.attributes
+        if (attributes != null) {
+            (0 until attributes.length)
+                .map { attributes.item(it) }
+                .sortedBy { it.nodeName }
+                .forEach {
+                    digest.updateString(it.nodeName)
+                    digest.updateString(it.nodeValue ?: "")
+                }
+        }
+        val children =
+            childrenStream(node).filter { !isBlankText(it) }.collect(Collectors.toList())
+        // the number of children separates them from the next siblings of the node
+        digest.updateString(children.size.toString())
+        children.forEach { hashNode(it, digest) }
+    }
+
+    private fun isBlankText(node: Node): Boolean =
+        node.nodeType == Node.TEXT_NODE && node.nodeValue.isNullOrBlank()
+
+    private fun MessageDigest.updateString(value: String) {
+        update(value.toByteArray(UTF_8))
+        update(0)
+    }
+
     @JvmStatic
     fun findBitmapFontsNode(document: Document): Node? {
         return document.getElementsByTagName("BitmapFonts")?.item(0)
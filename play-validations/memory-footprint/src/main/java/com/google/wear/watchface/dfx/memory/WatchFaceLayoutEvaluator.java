@@ -17,32 +17,138 @@
 package com.google.wear.watchface.dfx.memory;
 
 import static com.google.wear.watchface.dfx.memory.DrawableResourceDetails.findInMap;
-import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.findSceneNode;
+import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.getLayoutScreenSize;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Counter;
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Phase;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.w3c.dom.Document;
 
 @SuppressWarnings("KotlinInternal")
 public class WatchFaceLayoutEvaluator {
+    /**
+     * The fork-join pools that enumerate the config sets of a layout, by number of threads. They
+     * are shared by all the evaluations, so that each calculation does not start its own threads.
+     * The workers are daemon threads that terminate when idle, so the pools are never shut down.
+     */
+    private static final Map<Integer, ForkJoinPool> CONFIG_ENUMERATION_POOLS =
+            new ConcurrentHashMap<>();
+
     public static List<MemoryFootprint> evaluate(
             EvaluationSettings evaluationSettings, ImageProcessor imageProcessor) {
-        try (InputPackage inputPackage = InputPackage.open(evaluationSettings.getWatchFacePath())) {
+        try (InputPackage inputPackage = openInputPackage(evaluationSettings)) {
             WatchFaceData watchFaceData =
                     WatchFaceData.fromResourcesStream(
                             inputPackage.getWatchFaceFiles(), evaluationSettings, imageProcessor);
             AndroidManifest manifest = inputPackage.getManifest();
             String wffVersion = manifest == null ? null : String.valueOf(manifest.getWffVersion());
-            return watchFaceData.getWatchFaceDocuments().stream()
-                    .map(
-                            watchFaceDocument ->
-                                    getMemoryFootprint(
-                                            watchFaceDocument,
-                                            watchFaceData.getResourceDetailsMap(),
-                                            evaluationSettings))
-                    .collect(Collectors.toList());
+            return evaluateLayouts(
+                    watchFaceData.getWatchFaceDocuments(),
+                    watchFaceData.getResourceDetailsMap(),
+                    evaluationSettings);
+        }
+    }
+
+    /**
+     * Evaluates the memory footprint of each of the given layouts. Up to {@link
+     * EvaluationSettings#getLayoutParallelism()} layouts are evaluated concurrently, but the
+     * footprints are returned in the order of the layouts.
+     *
+     * <p>The resource details are shared by all the layouts and must not be modified while they
+     * are evaluated. Any exception thrown by the evaluation of a layout is rethrown as is on the
+     * calling thread.
+     *
+     * <p>If {@link EvaluationSettings#getIncrementalSnapshot()} is set, then the layouts are
+     * evaluated incrementally by the {@link IncrementalEvaluator}.
+     */
+    static List<MemoryFootprint> evaluateLayouts(
+            List<Document> layouts,
+            Map<String, DrawableResourceDetails> resourceMemoryMap,
+            EvaluationSettings settings) {
+        if (settings.getIncrementalSnapshot() != null) {
+            return IncrementalEvaluator.evaluateLayouts(layouts, resourceMemoryMap, settings);
+        }
+        return evaluateConcurrently(
+                layouts, settings, layout -> evaluate(layout, resourceMemoryMap, settings));
+    }
+
+    /**
+     * Applies the evaluation to each of the inputs, up to {@link
+     * EvaluationSettings#getLayoutParallelism()} of them concurrently, and returns the results in
+     * the order of the inputs.
+     */
+    static <T, R> List<R> evaluateConcurrently(
+            List<T> inputs, EvaluationSettings settings, Function<T, R> evaluation) {
+        int parallelism = Math.min(settings.getLayoutParallelism(), inputs.size());
+        if (parallelism <= 1) {
+            return inputs.stream().map(evaluation).collect(Collectors.toList());
+        }
+
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        parallelism,
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("layout-evaluation-%d")
+                                .setDaemon(true)
+                                .build());
+        try {
+            List<Future<R>> futures = new ArrayList<>();
+            for (T input : inputs) {
+                futures.add(executor.submit(() -> evaluation.apply(input)));
+            }
+            List<R> results = new ArrayList<>();
+            for (Future<R> future : futures) {
+                results.add(await(future));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <R> R await(Future<R> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while evaluating the layouts", e);
+        }
+    }
+
+    /**
+     * Returns the shared fork-join pool of the given number of threads that enumerates config
+     * sets.
+     */
+    static ForkJoinPool getConfigEnumerationPool(int threads) {
+        return CONFIG_ENUMERATION_POOLS.computeIfAbsent(threads, ForkJoinPool::new);
+    }
+
+    private static InputPackage openInputPackage(EvaluationSettings evaluationSettings) {
+        try (EvaluationMetrics.Timer ignored =
+                evaluationSettings.getMetrics().start(Phase.READ_PACKAGE)) {
+            return InputPackage.open(evaluationSettings.getWatchFacePath());
         }
     }
 
@@ -50,8 +156,46 @@ public class WatchFaceLayoutEvaluator {
             Document currentLayout,
             Map<String, DrawableResourceDetails> resourceMemoryMap,
             EvaluationSettings settings) {
+        return evaluate(createAnalysisContext(currentLayout, resourceMemoryMap, settings, null));
+    }
+
+    /**
+     * Creates the analysis context of a layout, to be evaluated by {@link
+     * #evaluate(WatchFaceAnalysisContext)}. If the optimizations are estimated, the context holds
+     * copies of the resource details, which the evaluation resizes.
+     *
+     * @param componentFootprintCache the components of a previous evaluation of the layout, or
+     *     null to evaluate every component.
+     */
+    static WatchFaceAnalysisContext createAnalysisContext(
+            Document document,
+            Map<String, DrawableResourceDetails> resourceMemoryMap,
+            EvaluationSettings settings,
+            ComponentFootprintCache componentFootprintCache) {
+        if (settings.estimateOptimization()) {
+            // The estimation resizes the drawables in place. The layouts may be evaluated
+            // concurrently, and each of them must start from the original sizes, so each layout
+            // resizes its own copies.
+            resourceMemoryMap = copyResourceDetails(resourceMemoryMap);
+        }
+        return new WatchFaceAnalysisContext(
+                document, resourceMemoryMap, settings, componentFootprintCache);
+    }
+
+    /**
+     * Evaluates the memory footprint of the layout of a context created by {@link
+     * #createAnalysisContext}, reusing the maximum footprints of the components of its cache whose
+     * resources did not change. Each context is evaluated at most once.
+     */
+    static MemoryFootprint evaluate(WatchFaceAnalysisContext context) {
+        EvaluationSettings settings = context.getEvaluationSettings();
         long startTime = System.currentTimeMillis();
-        MemoryFootprint footprint = getMemoryFootprint(currentLayout, resourceMemoryMap, settings);
+        MemoryFootprint footprint;
+        try (EvaluationMetrics.Timer ignored =
+                settings.getMetrics().start(Phase.EVALUATE_LAYOUT)) {
+            footprint = getMemoryFootprint(context);
+        }
+        settings.getMetrics().increment(Counter.LAYOUTS_EVALUATED);
         long endTime = System.currentTimeMillis();
         long duration = endTime - startTime;
 
@@ -61,45 +205,65 @@ public class WatchFaceLayoutEvaluator {
         return footprint;
     }
 
-    private static MemoryFootprint getMemoryFootprint(
-            Document document,
-            Map<String, DrawableResourceDetails> resourceMemoryMap,
-            EvaluationSettings settings) {
+    private static MemoryFootprint getMemoryFootprint(WatchFaceAnalysisContext context) {
+        Document document = context.getDocument();
+        EvaluationSettings settings = context.getEvaluationSettings();
         if (settings.estimateOptimization()) {
-            new OptimizationEstimator(document, resourceMemoryMap, settings)
+            // resizes the copies of the resource details made by createAnalysisContext
+            new OptimizationEstimator(document, context.getResourceMemoryMap(), settings)
                     .estimateOptimizations();
         }
 
-        long totalFootprint = computeTotalMemory(document, resourceMemoryMap, settings);
+        // the total, active and ambient computations share the same analysis of the document
+        long totalFootprint = computeTotalMemory(context);
 
-        long maxInActive =
-                new ActiveMemoryFootprintCalculator(document, resourceMemoryMap, settings)
-                        .computeActiveMemoryFootprint();
-        long maxInAmbient =
-                new AmbientMemoryFootprintCalculator(document, resourceMemoryMap, settings)
-                        .computeAmbientMemoryFootprint(450, 450);
+        ActiveMemoryFootprintCalculator activeCalculator =
+                new ActiveMemoryFootprintCalculator(context);
+        long maxInActive = activeCalculator.computeActiveMemoryFootprint();
+        // the layers and the dynamic resources are evaluated once, then costed for each screen
+        AmbientMemoryFootprintCalculator.AmbientFootprint ambientFootprint =
+                new AmbientMemoryFootprintCalculator(context).computeAmbientFootprint();
+        ScreenSize screenSize =
+                settings.getScreenSize() != null
+                        ? settings.getScreenSize()
+                        : getLayoutScreenSize(document);
+        long maxInAmbient = ambientFootprint.getFootprintBytes(screenSize);
+        Map<String, Long> ambientBytesPerScreen = new LinkedHashMap<>();
+        for (ScreenSize ambientScreenSize : settings.getAmbientScreenSizes()) {
+            ambientBytesPerScreen.put(
+                    ambientScreenSize.toString(),
+                    ambientFootprint.getFootprintBytes(ambientScreenSize));
+        }
 
         return new MemoryFootprint(
                 /* totalBytes= */ totalFootprint,
                 // greedy evaluation might lead to more than the total, but the footprint in
                 // active or ambient should not exceed total
                 /* maxActiveBytes= */ Math.min(maxInActive, totalFootprint),
-                /* maxAmbientBytes= */ maxInAmbient);
+                /* maxAmbientBytes= */ maxInAmbient,
+                /* ambientBytesPerScreen= */ ambientBytesPerScreen,
+                /* activeAttribution= */ activeCalculator.getAttribution(),
+                /* ambientAttribution= */ ambientFootprint.getAttribution(),
+                /* topActiveConfigurations= */ activeCalculator.getTopConfigurations());
+    }
+
+    private static Map<String, DrawableResourceDetails> copyResourceDetails(
+            Map<String, DrawableResourceDetails> resourceMemoryMap) {
+        Map<String, DrawableResourceDetails> copies = new HashMap<>();
+        for (Map.Entry<String, DrawableResourceDetails> entry : resourceMemoryMap.entrySet()) {
+            copies.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copies;
     }
 
     /**
      * Evaluates the total memory footprint for the current layout, of all the assets referenced by
      * the watch face.
      */
-    private static long computeTotalMemory(
-            Document currentLayout,
-            Map<String, DrawableResourceDetails> resourceMemoryMap,
-            EvaluationSettings evaluationSettings) {
-        WatchFaceResourceCollector resourceCollector =
-                new WatchFaceResourceCollector(
-                        currentLayout, resourceMemoryMap, evaluationSettings);
+    private static long computeTotalMemory(WatchFaceAnalysisContext context) {
+        Map<String, DrawableResourceDetails> resourceMemoryMap = context.getResourceMemoryMap();
         Set<String> allResourceNames =
-                resourceCollector.collectResources(findSceneNode(currentLayout));
+                context.getResourceCollector().collectResources(context.getSceneNode());
 
         return allResourceNames.stream()
                 .mapToLong(
@@ -22,21 +22,18 @@ import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.getNodeAtt
 import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.isBitmapFont;
 import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.isFont;
 import static java.util.Collections.emptySet;
+import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
 import com.google.common.collect.ImmutableMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Stream;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 @SuppressWarnings("KotlinInternal")
 class WatchFaceResourceCollector {
@@ -50,11 +47,17 @@ class WatchFaceResourceCollector {
             EvaluationSettings evaluationSettings) {
         this.resourceMemoryMap = resourceMemoryMap;
         this.evaluationSettings = evaluationSettings;
-        try {
-            bitmapFontDefinitions = parseBitmapFontDefinitions(document, evaluationSettings);
-        } catch (XPathExpressionException e) {
-            throw new IllegalStateException("Could not parse bitmap font definitions", e);
-        }
+        this.bitmapFontDefinitions = parseBitmapFontDefinitions(document, evaluationSettings);
+    }
+
+    /**
+     * Creates a collector for the same document as {@code other}, reusing its bitmap font
+     * definitions instead of parsing them again.
+     */
+    WatchFaceResourceCollector(WatchFaceResourceCollector other) {
+        this.bitmapFontDefinitions = other.bitmapFontDefinitions;
+        this.resourceMemoryMap = other.resourceMemoryMap;
+        this.evaluationSettings = other.evaluationSettings;
     }
 
     /**
@@ -188,24 +191,28 @@ class WatchFaceResourceCollector {
                 || nodeName.equals("SecondHand");
     }
 
+    /**
+     * Finds the BitmapFont definitions under the root node of the document. The nodes are looked up
+     * by walking the children of the root, which is cheaper than evaluating an XPath expression.
+     */
     private static Map<String, Node> parseBitmapFontDefinitions(
-            Document document, EvaluationSettings evaluationSettings)
-            throws XPathExpressionException {
+            Document document, EvaluationSettings evaluationSettings) {
         ImmutableMap.Builder<String, Node> resourcesForFontsMapBuilder = ImmutableMap.builder();
-        XPathExpression xpath =
-                XPathFactory.newInstance()
-                        .newXPath()
-                        .compile(
-                                String.format(
-                                        "/%s/BitmapFonts/BitmapFont",
-                                        WatchFaceDocuments.getWatchFaceRootNode(
-                                                evaluationSettings)));
-        NodeList nodeList = (NodeList) xpath.evaluate(document, XPathConstants.NODESET);
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node currentElement = nodeList.item(i);
-            getNodeAttribute(currentElement, "name")
-                    .ifPresent(
-                            fontName -> resourcesForFontsMapBuilder.put(fontName, currentElement));
+        Node rootNode = document.getDocumentElement();
+        if (rootNode == null
+                || !rootNode.getNodeName()
+                        .equals(WatchFaceDocuments.getWatchFaceRootNode(evaluationSettings))) {
+            return resourcesForFontsMapBuilder.build();
+        }
+        List<Node> bitmapFonts =
+                childrenStream(rootNode)
+                        .filter(node -> node.getNodeName().equals("BitmapFonts"))
+                        .flatMap(WatchFaceDocuments::childrenStream)
+                        .filter(WatchFaceDocuments::isBitmapFont)
+                        .collect(toList());
+        for (Node bitmapFont : bitmapFonts) {
+            getNodeAttribute(bitmapFont, "name")
+                    .ifPresent(fontName -> resourcesForFontsMapBuilder.put(fontName, bitmapFont));
         }
         return resourcesForFontsMapBuilder.build();
     }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory
+
+import javax.xml.namespace.NamespaceContext
+import javax.xml.parsers.DocumentBuilder
+import javax.xml.parsers.DocumentBuilderFactory
+import javax.xml.stream.XMLInputFactory
+import javax.xml.transform.Transformer
+import javax.xml.transform.TransformerFactory
+import javax.xml.xpath.XPath
+import javax.xml.xpath.XPathExpression
+import javax.xml.xpath.XPathFactory
+
+/**
+ * The XML parsers, transformers and XPath expressions used by the memory footprint evaluation.
+ *
+ * Looking up a JAXP factory goes through the service loader, which scans the classpath, and
+ * compiling an XPath expression is not free either. A package can contain many XML resources, so
+ * the factories are looked up once and their products are reused. None of them is thread-safe,
+ * hence each thread gets its own, which must not escape the calling thread.
+ */
+internal object XmlFactories {
+    private val namespaceAwareDocumentBuilders = ThreadLocal.withInitial {
+        DocumentBuilderFactory.newInstance()
+            .apply { isNamespaceAware = true }
+            .newDocumentBuilder()
+    }
+
+    private val documentBuilders = ThreadLocal.withInitial {
+        DocumentBuilderFactory.newInstance().newDocumentBuilder()
+    }
+
+    private val transformers = ThreadLocal.withInitial {
+        TransformerFactory.newInstance().newTransformer()
+    }
+
+    private val xPaths = ThreadLocal.withInitial { XPathFactory.newInstance().newXPath() }
+
+    private val xmlInputFactories = ThreadLocal.withInitial { XMLInputFactory.newInstance() }
+
+    /** The compiled expressions of each thread, by namespace context and expression. */
+    private val xPathExpressions =
+        ThreadLocal.withInitial { HashMap<Pair<NamespaceContext?, String>, XPathExpression>() }
+
+    /** Returns a namespace-aware document builder, reset to its initial state. */
+    @JvmStatic
+    fun namespaceAwareDocumentBuilder(): DocumentBuilder =
+        namespaceAwareDocumentBuilders.get().apply { reset() }
+
+    /** Returns a document builder with the default configuration, reset to its initial state. */
+    @JvmStatic
+    fun documentBuilder(): DocumentBuilder = documentBuilders.get().apply { reset() }
+
+    /** Returns an identity transformer, reset to its initial state. */
+    @JvmStatic
+    fun transformer(): Transformer = transformers.get().apply { reset() }
+
+    /** Returns a StAX factory, for reading XML as a stream of events. */
+    @JvmStatic
+    fun xmlInputFactory(): XMLInputFactory = xmlInputFactories.get()
+
+    /**
+     * Returns the compiled form of the given XPath expression. Expressions are compiled once per
+     * thread and then reused, so they should be constants rather than built from document content.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun xPathExpression(
+        expression: String,
+        namespaceContext: NamespaceContext? = null
+    ): XPathExpression =
+        xPathExpressions.get().getOrPut(namespaceContext to expression) {
+            xPath(namespaceContext).compile(expression)
+        }
+
+    private fun xPath(namespaceContext: NamespaceContext?): XPath =
+        xPaths.get().apply {
+            reset()
+            if (namespaceContext != null) {
+                this.namespaceContext = namespaceContext
+            }
+        }
+}
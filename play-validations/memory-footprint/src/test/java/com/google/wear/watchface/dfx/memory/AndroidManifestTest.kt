@@ -83,6 +83,31 @@ class AndroidManifestTest {
         assertThat(manifest.minSdkVersion).isEqualTo(33)
         assertThat(manifest.targetSdkVersion).isEqualTo(33)
     }
+
+    @Test
+    fun loadFromApk_validMokkaBaseSplitVersionsTest() {
+        val wffPath = Path.of(
+            SAMPLE_WF_BASE_ARTIFACTS_PATH,
+            "zipApk/com.google.wear.watchface.memory.sample.zip"
+        )
+        val wffZip = ZipFile(wffPath.toFile())
+
+        val baseSplitPattern = Pattern.compile(".*base[-_]split.*")
+        val baseSplitApk = wffZip.stream()
+            .filter { x -> baseSplitPattern.matcher(x!!.name).matches() }
+            .findFirst()
+        if (!baseSplitApk.isPresent) {
+            throw InvalidTestRunException("Zip file does not contain a base split apk")
+        }
+        val manifest =
+            AndroidResourceLoader.ExtractedSplit.extract(wffZip, baseSplitApk.get()).use { split ->
+                AndroidManifest.loadFromApk(split.zipFile)
+            }
+
+        assertThat(manifest.wffVersion).isEqualTo(1)
+        assertThat(manifest.minSdkVersion).isEqualTo(33)
+        assertThat(manifest.targetSdkVersion).isEqualTo(33)
+    }
     @Test
     fun loadFromDocument_resolvesResourceReference() {
         val apkZip = ZipFile(Path.of(SAMPLE_WF_BASE_ARTIFACTS_PATH, "apk/release/sample-wf-release.apk").toFile())
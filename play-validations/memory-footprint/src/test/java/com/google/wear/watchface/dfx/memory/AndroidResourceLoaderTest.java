@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.Streams;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AndroidResourceLoaderTest {
+    private static final String BASE_SPLIT = "com.example.watchface-base-split.apk";
+    private static final byte[] IMAGE = "image data".getBytes(UTF_8);
+    private static final byte[] WATCH_FACE = "<WatchFace/>".getBytes(UTF_8);
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void streamFromMokkaZip_readsBaseSplitFromExtractedCopy() throws Exception {
+        File mokkaZip = writeMokkaZip();
+
+        List<AndroidResource> fromStream;
+        List<AndroidResource> fromExtractedSplit;
+        File extractedFile;
+        try (ZipFile zipFile = new ZipFile(mokkaZip)) {
+            fromStream = toList(AndroidResourceLoader.INSTANCE.streamFromMokkaZip(zipFile, null));
+            try (AndroidResourceLoader.ExtractedSplit baseSplit =
+                    AndroidResourceLoader.ExtractedSplit.extract(
+                            zipFile, zipFile.getEntry(BASE_SPLIT))) {
+                extractedFile = new File(baseSplit.getZipFile().getName());
+                fromExtractedSplit =
+                        toList(
+                                AndroidResourceLoader.INSTANCE.streamFromMokkaZip(
+                                        zipFile, baseSplit));
+                assertThat(toDataByPath(fromExtractedSplit))
+                        .containsExactlyEntriesIn(toDataByPath(fromStream));
+            }
+        }
+
+        assertThat(fromExtractedSplit).hasSize(2);
+        assertThat(extractedFile.exists()).isFalse();
+    }
+
+    private static List<AndroidResource> toList(kotlin.sequences.Sequence<AndroidResource> files) {
+        return Streams.stream(files.iterator()).collect(Collectors.toList());
+    }
+
+    private static Map<String, String> toDataByPath(List<AndroidResource> resources) {
+        return resources.stream()
+                .collect(
+                        Collectors.toMap(
+                                resource -> resource.getFilePath().toString(),
+                                resource -> new String(resource.getData(), UTF_8)));
+    }
+
+    private File writeMokkaZip() throws Exception {
+        ByteArrayOutputStream baseSplit = new ByteArrayOutputStream();
+        try (ZipOutputStream splitStream = new ZipOutputStream(baseSplit)) {
+            splitStream.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+            splitStream.closeEntry();
+            splitStream.putNextEntry(new ZipEntry("res/drawable/image.png"));
+            splitStream.write(IMAGE);
+            splitStream.closeEntry();
+            splitStream.putNextEntry(new ZipEntry("res/raw/watchface.xml"));
+            splitStream.write(WATCH_FACE);
+            splitStream.closeEntry();
+        }
+
+        File mokkaZip = temporaryFolder.newFile("watchface.zip");
+        try (ZipOutputStream zipStream = new ZipOutputStream(new FileOutputStream(mokkaZip))) {
+            zipStream.putNextEntry(new ZipEntry(BASE_SPLIT));
+            zipStream.write(baseSplit.toByteArray());
+            zipStream.closeEntry();
+        }
+        return mokkaZip;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.wear.watchface.dfx.memory.EvaluationSettings.parseFromArguments;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BatchEvaluatorTest {
+    private static final String SAMPLE_WF_PATH =
+            "test-samples/sample-wf/build/outputs/bundle/release/sample-wf-release.aab";
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readPackagePaths_readsManifestFile() throws Exception {
+        File manifest = temporaryFolder.newFile("packages.txt");
+        Files.write(
+                manifest.toPath(),
+                Arrays.asList("# sample packages", "first.apk", "", "  second.aab  "),
+                UTF_8);
+
+        assertThat(BatchEvaluator.readPackagePaths(manifest.toPath()))
+                .containsExactly("first.apk", "second.aab")
+                .inOrder();
+    }
+
+    @Test
+    public void readPackagePaths_listsPackagesInDirectory() throws Exception {
+        File directory = temporaryFolder.newFolder("packages");
+        Path directoryPath = directory.toPath();
+        Files.createFile(directoryPath.resolve("b.apk"));
+        Files.createFile(directoryPath.resolve("a.aab"));
+        Files.createFile(directoryPath.resolve("notes.txt"));
+        Files.createDirectory(directoryPath.resolve("c-unpacked"));
+
+        assertThat(BatchEvaluator.readPackagePaths(directoryPath))
+                .containsExactly(
+                        directoryPath.resolve("a.aab").toString(),
+                        directoryPath.resolve("b.apk").toString(),
+                        directoryPath.resolve("c-unpacked").toString())
+                .inOrder();
+    }
+
+    @Test
+    public void evaluate_isolatesFailingPackages() throws Exception {
+        File manifest = temporaryFolder.newFile("packages.txt");
+        String missingPackage =
+                temporaryFolder.getRoot().toPath().resolve("missing.apk").toString();
+        Files.write(manifest.toPath(), Arrays.asList(missingPackage, SAMPLE_WF_PATH), UTF_8);
+        EvaluationSettings settings =
+                parseFromArguments("--batch", manifest.getPath(), "--batch-parallelism", "2")
+                        .get();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        boolean allSucceeded =
+                new BatchEvaluator(settings).evaluate(new PrintStream(output, true, "UTF-8"));
+
+        List<String> lines = Arrays.asList(output.toString("UTF-8").trim().split("\n"));
+        assertThat(allSucceeded).isFalse();
+        assertThat(lines).hasSize(2);
+        JsonObject failedReport = JsonParser.parseString(lines.get(0)).getAsJsonObject();
+        assertThat(failedReport.get("watchFace").getAsString()).isEqualTo(missingPackage);
+        assertThat(failedReport.has("error")).isTrue();
+        JsonObject successfulReport = JsonParser.parseString(lines.get(1)).getAsJsonObject();
+        assertThat(successfulReport.get("watchFace").getAsString()).isEqualTo(SAMPLE_WF_PATH);
+        assertThat(successfulReport.has("error")).isFalse();
+        assertThat(successfulReport.get("maxActiveBytes").getAsLong()).isGreaterThan(0L);
+    }
+
+    @Test
+    public void evaluate_writesReportFilesToOutputDirectory() throws Exception {
+        File manifest = temporaryFolder.newFile("packages.txt");
+        Files.write(manifest.toPath(), Arrays.asList(SAMPLE_WF_PATH), UTF_8);
+        Path outputDirectory = temporaryFolder.getRoot().toPath().resolve("reports");
+        EvaluationSettings settings =
+                parseFromArguments(
+                                "--batch",
+                                manifest.getPath(),
+                                "--batch-output-dir",
+                                outputDirectory.toString())
+                        .get();
+
+        boolean allSucceeded = new BatchEvaluator(settings).evaluate(System.out);
+
+        assertThat(allSucceeded).isTrue();
+        Path report = outputDirectory.resolve(Paths.get(SAMPLE_WF_PATH).getFileName() + ".json");
+        assertThat(Files.exists(report)).isTrue();
+    }
+
+    @Test
+    public void evaluate_reportsMetricsAndWritesTrace() throws Exception {
+        File manifest = temporaryFolder.newFile("packages.txt");
+        Files.write(manifest.toPath(), Arrays.asList(SAMPLE_WF_PATH), UTF_8);
+        Path traceFile = temporaryFolder.getRoot().toPath().resolve("trace.json");
+        EvaluationSettings settings =
+                parseFromArguments(
+                                "--batch",
+                                manifest.getPath(),
+                                "--metrics",
+                                "--trace-file",
+                                traceFile.toString())
+                        .get();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        new BatchEvaluator(settings).evaluate(new PrintStream(output, true, "UTF-8"));
+
+        JsonObject report = JsonParser.parseString(output.toString("UTF-8")).getAsJsonObject();
+        JsonObject counters = report.getAsJsonObject("metrics").getAsJsonObject("counters");
+        assertThat(counters.get("resourcesRead").getAsLong()).isGreaterThan(0L);
+        assertThat(counters.get("bytesRead").getAsLong()).isGreaterThan(0L);
+        assertThat(counters.get("layoutsEvaluated").getAsLong()).isGreaterThan(0L);
+        JsonObject trace =
+                JsonParser.parseString(new String(Files.readAllBytes(traceFile), UTF_8))
+                        .getAsJsonObject();
+        assertThat(trace.getAsJsonArray("traceEvents").size()).isGreaterThan(1);
+    }
+
+    @Test
+    public void evaluatePackage_reportsEachDeviceProfile() throws Exception {
+        File profiles = temporaryFolder.newFile("profiles.json");
+        Files.write(
+                profiles.toPath(),
+                Arrays.asList(
+                        "[",
+                        "  {\"name\": \"default\"},",
+                        "  {\"name\": \"tight\", \"screenSize\": \"466x466\",",
+                        "   \"ambientLimitMb\": 1, \"rgb565\": false}",
+                        "]"),
+                UTF_8);
+        File manifest = temporaryFolder.newFile("packages.txt");
+        EvaluationSettings settings =
+                parseFromArguments(
+                                "--batch",
+                                manifest.getPath(),
+                                "--device-profiles",
+                                profiles.getPath(),
+                                "--metrics")
+                        .get();
+        EvaluationSettings defaultSettings =
+                parseFromArguments("--batch", manifest.getPath(), "--metrics").get();
+
+        JsonObject report = new BatchEvaluator(settings).evaluatePackage(SAMPLE_WF_PATH);
+        JsonObject defaultReport =
+                new BatchEvaluator(defaultSettings).evaluatePackage(SAMPLE_WF_PATH);
+
+        JsonArray profileReports = report.getAsJsonArray("deviceProfiles");
+        assertThat(profileReports.size()).isEqualTo(2);
+        JsonObject defaultProfile = profileReports.get(0).getAsJsonObject();
+        assertThat(defaultProfile.get("profile").getAsString()).isEqualTo("default");
+        assertThat(defaultProfile.get("passed").getAsBoolean()).isTrue();
+        assertThat(defaultProfile.get("maxAmbientBytes"))
+                .isEqualTo(defaultReport.get("maxAmbientBytes"));
+        assertThat(defaultProfile.get("maxActiveBytes"))
+                .isEqualTo(defaultReport.get("maxActiveBytes"));
+        JsonObject tightProfile = profileReports.get(1).getAsJsonObject();
+        assertThat(tightProfile.get("profile").getAsString()).isEqualTo("tight");
+        assertThat(tightProfile.get("passed").getAsBoolean()).isFalse();
+        assertThat(tightProfile.get("failure").getAsString()).contains("ambient");
+        assertThat(tightProfile.get("maxAmbientBytes").getAsLong())
+                .isGreaterThan(defaultProfile.get("maxAmbientBytes").getAsLong());
+        // the package is read once, while its layouts are evaluated once per profile
+        JsonObject counters = report.getAsJsonObject("metrics").getAsJsonObject("counters");
+        JsonObject defaultCounters =
+                defaultReport.getAsJsonObject("metrics").getAsJsonObject("counters");
+        assertThat(counters.get("resourcesRead")).isEqualTo(defaultCounters.get("resourcesRead"));
+        assertThat(counters.get("layoutsEvaluated").getAsLong())
+                .isEqualTo(2 * defaultCounters.get("layoutsEvaluated").getAsLong());
+    }
+}
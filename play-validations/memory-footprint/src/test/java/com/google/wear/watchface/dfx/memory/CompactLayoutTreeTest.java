@@ -0,0 +1,168 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.findSceneNode;
+import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.getNodeAttribute;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+@RunWith(JUnit4.class)
+public class CompactLayoutTreeTest {
+    private static final String LAYOUT =
+            "<WatchFace width=\"450\" height=\"450\">\n"
+                    + "    <!-- a comment -->\n"
+                    + "    <Scene>\n"
+                    + "        <Condition>\n"
+                    + "            <Expressions>\n"
+                    + "                <Expression name=\"isAmbient\">"
+                    + "<![CDATA[ [STATE.IS_AMBIENT]]]> </Expression>\n"
+                    + "            </Expressions>\n"
+                    + "        </Condition>\n"
+                    + "        <PartImage x=\"0\" y=\"0\">"
+                    + "<Image resource=\"image1\"/>"
+                    + "</PartImage>\n"
+                    + "    </Scene>\n"
+                    + "</WatchFace>\n";
+
+    @Test
+    public void parse_keepsElementsAndAttributesInDocumentOrder() throws Exception {
+        Document document = parse(LAYOUT);
+
+        Node root = document.getDocumentElement();
+        assertThat(root.getNodeName()).isEqualTo("WatchFace");
+        assertThat(root.getParentNode()).isSameInstanceAs(document);
+        assertThat(getNodeAttribute(root, "width")).hasValue("450");
+        assertThat(getNodeAttribute(root, "depth")).isEmpty();
+
+        Node scene = findSceneNode(document);
+        NodeList sceneChildren = scene.getChildNodes();
+        // the whitespace between the elements is dropped
+        assertThat(sceneChildren.getLength()).isEqualTo(2);
+        assertThat(sceneChildren.item(0).getNodeName()).isEqualTo("Condition");
+        assertThat(sceneChildren.item(1).getNodeName()).isEqualTo("PartImage");
+        assertThat(sceneChildren.item(1).getParentNode()).isSameInstanceAs(scene);
+        assertThat(sceneChildren.item(0).getNextSibling()).isSameInstanceAs(sceneChildren.item(1));
+    }
+
+    @Test
+    public void siblings_areBoundedByTheChildrenOfTheParent() throws Exception {
+        Document document = parse(LAYOUT);
+
+        Node root = document.getDocumentElement();
+        Node scene = findSceneNode(document);
+        Node condition = scene.getFirstChild();
+        Node partImage = scene.getLastChild();
+
+        assertThat(partImage.getPreviousSibling()).isSameInstanceAs(condition);
+        assertThat(condition.getPreviousSibling()).isNull();
+        assertThat(partImage.getNextSibling()).isNull();
+        assertThat(root.getNextSibling()).isNull();
+        assertThat(document.getNextSibling()).isNull();
+        // an only child has no siblings, even though other nodes are stored next to it
+        assertThat(partImage.getFirstChild().getPreviousSibling()).isNull();
+    }
+
+    @Test
+    public void parse_mergesTextAndCdata() throws Exception {
+        Document document = parse(LAYOUT);
+
+        Node expression = document.getElementsByTagName("Expression").item(0);
+
+        assertThat(expression.getChildNodes().getLength()).isEqualTo(1);
+        assertThat(expression.getTextContent()).isEqualTo(" [STATE.IS_AMBIENT] ");
+    }
+
+    @Test
+    public void asDocument_returnsSameNodeObjects() throws Exception {
+        Document document = parse(LAYOUT);
+
+        assertThat(findSceneNode(document)).isSameInstanceAs(findSceneNode(document));
+        assertThat(document.getElementsByTagName("Image").item(0))
+                .isSameInstanceAs(
+                        findSceneNode(document).getChildNodes().item(1).getFirstChild());
+    }
+
+    @Test
+    public void asDocument_isReadOnly() throws Exception {
+        Document document = parse(LAYOUT);
+        Node scene = findSceneNode(document);
+
+        assertThrows(DOMException.class, () -> scene.removeChild(scene.getFirstChild()));
+        assertThrows(DOMException.class, () -> document.createElement("Group"));
+    }
+
+    @Test
+    public void toW3cDocument_copiesTheTree() throws Exception {
+        Document copy = CompactLayoutTree.toW3cDocument(parse(LAYOUT));
+
+        assertThat(copy.getClass().getName()).doesNotContain("CompactLayoutTree");
+        assertThat(copy.getDocumentElement().getAttribute("height")).isEqualTo("450");
+        assertThat(copy.getElementsByTagName("Expression").item(0).getTextContent())
+                .isEqualTo(" [STATE.IS_AMBIENT] ");
+        assertThat(copy.getElementsByTagName("Image").getLength()).isEqualTo(1);
+    }
+
+    @Test
+    public void resourceCollector_collectsSameResourcesAsForDom() throws Exception {
+        EvaluationSettings evaluationSettings = new EvaluationSettings("");
+        for (String layout :
+                new String[] {
+                    "/ActiveDigitalClockBitmapFont.xml", "/NestedLists.xml", "/TTFFont.xml"
+                }) {
+            Document dom = readDom(layout);
+            Document compact;
+            try (InputStream is = getClass().getResourceAsStream(layout)) {
+                compact = CompactLayoutTree.parse(is).asDocument();
+            }
+            VariantConfigValue ambient = VariantConfigValue.ambient(evaluationSettings);
+
+            assertThat(
+                            new WatchFaceResourceCollector(
+                                            compact, new HashMap<>(), evaluationSettings)
+                                    .collectResources(findSceneNode(compact), ambient))
+                    .containsExactlyElementsIn(
+                            new WatchFaceResourceCollector(
+                                            dom, new HashMap<>(), evaluationSettings)
+                                    .collectResources(findSceneNode(dom), ambient));
+        }
+    }
+
+    private static Document parse(String xml) throws Exception {
+        return CompactLayoutTree.parse(new ByteArrayInputStream(xml.getBytes(UTF_8)))
+                .asDocument();
+    }
+
+    private Document readDom(String documentPath) throws Exception {
+        try (InputStream is = getClass().getResourceAsStream(documentPath)) {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+@RunWith(JUnit4.class)
+public class ConfigSpaceTest {
+    private Document document;
+
+    @Before
+    public void setUp() throws Exception {
+        document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    }
+
+    @Test
+    public void spliterator_producesSameConfigSetsAsBuildConfigSets() {
+        List<UserConfigKey> keys = new ArrayList<>();
+        keys.add(buildListConfigKey("l1", "l1-1", "l1-2", "l1-3"));
+        keys.add(buildListConfigKey("l2"));
+        keys.add(buildListConfigKey("l3", "l3-1", "l3-2"));
+
+        ConfigSpace configSpace = new ConfigSpace(keys);
+
+        assertEquals(6, configSpace.getSize());
+        assertThat(toList(configSpace.spliterator()))
+                .containsExactlyElementsIn(toList(UserConfigKey.buildConfigSets(keys)));
+    }
+
+    @Test
+    public void get_decodesIndexWithFirstKeyAsLeastSignificantDigit() {
+        List<UserConfigKey> keys = new ArrayList<>();
+        keys.add(buildListConfigKey("l1", "l1-1", "l1-2", "l1-3"));
+        keys.add(buildListConfigKey("l2", "l2-1", "l2-2"));
+
+        ConfigSpace configSpace = new ConfigSpace(keys);
+
+        UserConfigSet configSet = configSpace.get(4);
+        assertEquals(new UserConfigValue("l1-2"), configSet.get(new UserConfigKey("l1")));
+        assertEquals(new UserConfigValue("l2-2"), configSet.get(new UserConfigKey("l2")));
+    }
+
+    @Test
+    public void trySplit_splitsIntoContiguousRanges() {
+        List<UserConfigKey> keys = new ArrayList<>();
+        keys.add(buildListConfigKey("l1", "l1-1", "l1-2", "l1-3"));
+        keys.add(buildListConfigKey("l2", "l2-1", "l2-2", "l2-3"));
+        keys.add(buildListConfigKey("l3", "l3-1", "l3-2", "l3-3"));
+        ConfigSpace configSpace = new ConfigSpace(keys);
+
+        Spliterator<UserConfigSet> suffix = configSpace.spliterator();
+        Spliterator<UserConfigSet> prefix = suffix.trySplit();
+
+        assertEquals(13, prefix.estimateSize());
+        assertEquals(14, suffix.estimateSize());
+        List<UserConfigSet> configSets = toList(prefix);
+        configSets.addAll(toList(suffix));
+        assertThat(configSets).containsExactlyElementsIn(toList(configSpace.spliterator()));
+        assertThat(configSets).hasSize(27);
+    }
+
+    @Test
+    public void spliterator_resumesFromIndex() {
+        List<UserConfigKey> keys = new ArrayList<>();
+        keys.add(buildListConfigKey("l1", "l1-1", "l1-2", "l1-3"));
+        keys.add(buildListConfigKey("l2", "l2-1", "l2-2", "l2-3"));
+        ConfigSpace configSpace = new ConfigSpace(keys);
+
+        List<UserConfigSet> configSets = toList(configSpace.spliterator(5, 9));
+
+        assertThat(configSets)
+                .containsExactly(
+                        configSpace.get(5),
+                        configSpace.get(6),
+                        configSpace.get(7),
+                        configSpace.get(8))
+                .inOrder();
+    }
+
+    @Test
+    public void findFirstDense_returnsIndexOfFirstMatchingConfigSet() {
+        List<UserConfigKey> keys = new ArrayList<>();
+        keys.add(buildListConfigKey("l1", "l1-1", "l1-2", "l1-3"));
+        keys.add(buildListConfigKey("l2", "l2-1", "l2-2", "l2-3"));
+        ConfigSpace configSpace = new ConfigSpace(keys);
+
+        ConfigSpace.IndexRange range = configSpace.spliterator(4, 9);
+
+        assertEquals(5, range.findFirstDense(digits -> digits[0] == 2 && digits[1] == 1));
+        assertEquals(3, range.estimateSize());
+        assertEquals(-1, range.findFirstDense(digits -> digits[1] == 0));
+        assertEquals(0, range.estimateSize());
+    }
+
+    @Test
+    public void emptySpace_hasNoConfigSets() {
+        ConfigSpace configSpace =
+                new ConfigSpace(Collections.singletonList(buildListConfigKey("l1")));
+
+        assertEquals(0, configSpace.getSize());
+        assertThat(toList(configSpace.spliterator())).isEmpty();
+        assertNull(configSpace.spliterator().trySplit());
+    }
+
+    @Test
+    public void hugeSpace_saturatesSizeInsteadOfOverflowing() {
+        String[] options = new String[1000];
+        for (int i = 0; i < options.length; i++) {
+            options[i] = "option-" + i;
+        }
+        List<UserConfigKey> keys = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            keys.add(buildListConfigKey("l" + i, options));
+        }
+
+        ConfigSpace configSpace = new ConfigSpace(keys);
+
+        assertEquals(BigInteger.valueOf(1000).pow(7), configSpace.getExactSize());
+        assertEquals(Long.MAX_VALUE, configSpace.getSize());
+        assertFalse(configSpace.isIndexable());
+        assertEquals(Long.MAX_VALUE, UserConfigKey.buildConfigSets(keys).getSize());
+    }
+
+    private static <T> List<T> toList(Spliterator<T> spliterator) {
+        return StreamSupport.stream(spliterator, false).collect(Collectors.toList());
+    }
+
+    private static <T> List<T> toList(SizedIterator<T> iterator) {
+        List<T> list = new ArrayList<>();
+        iterator.forEachRemaining(list::add);
+        return list;
+    }
+
+    private UserConfigKey buildListConfigKey(String listId, String... options) {
+        Element node = document.createElement("ListConfiguration");
+        for (String s : options) {
+            Element listOption = document.createElement("ListOption");
+            listOption.setAttribute("id", s);
+            node.appendChild(listOption);
+        }
+        return new UserConfigKey(listId, node);
+    }
+}
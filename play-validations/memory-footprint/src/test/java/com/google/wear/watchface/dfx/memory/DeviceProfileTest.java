@@ -0,0 +1,106 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.gson.JsonObject;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DeviceProfileTest {
+
+    @Test
+    public void parseProfiles_parsesAllProperties() {
+        List<DeviceProfile> profiles =
+                DeviceProfile.parseProfiles(
+                        "[{\"name\": \"small-round\", \"screenSize\": \"384x384\","
+                                + " \"offloadVersion\": 1, \"ambientLimitMb\": 5,"
+                                + " \"activeLimitMb\": 50, \"rgb565\": false},"
+                                + " {\"name\": \"default\"}]");
+
+        assertThat(profiles)
+                .containsExactly(
+                        new DeviceProfile(
+                                "small-round",
+                                new ScreenSize(384, 384),
+                                1,
+                                MemoryFootprint.toBytes(5.0),
+                                MemoryFootprint.toBytes(50.0),
+                                false),
+                        new DeviceProfile("default", null, null, null, null, null))
+                .inOrder();
+    }
+
+    @Test
+    public void parseProfiles_failsOnDuplicateNames() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> DeviceProfile.parseProfiles("[{\"name\": \"a\"}, {\"name\": \"a\"}]"));
+    }
+
+    @Test
+    public void parseProfiles_failsOnMissingName() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> DeviceProfile.parseProfiles("[{\"screenSize\": \"384x384\"}]"));
+    }
+
+    @Test
+    public void validate_recordsTheFailure() {
+        DeviceProfile profile =
+                new DeviceProfile("tight", null, null, MemoryFootprint.toBytes(1.0), null, null);
+        MemoryFootprint footprint =
+                new MemoryFootprint(
+                        MemoryFootprint.toBytes(3.0),
+                        MemoryFootprint.toBytes(2.0),
+                        MemoryFootprint.toBytes(2.0));
+
+        DeviceProfileResult result =
+                DeviceProfileResult.validate(
+                        profile,
+                        footprint,
+                        new EvaluationSettings("watchface.apk").withDeviceProfile(profile));
+
+        assertThat(result.getPassed()).isFalse();
+        assertThat(result.getFailure()).contains("ambient");
+        assertThat(result.toJson().get("profile").getAsString()).isEqualTo("tight");
+        assertThat(result.toJson().get("passed").getAsBoolean()).isFalse();
+    }
+
+    @Test
+    public void toJson_omitsAmbientBytesPerScreenWithoutAmbientScreenSizes() {
+        DeviceProfile profile = new DeviceProfile("default", null, null, null, null, null);
+        MemoryFootprint footprint = new MemoryFootprint(3, 2, 1);
+        MemoryFootprint perScreenFootprint =
+                new MemoryFootprint(3, 2, 1, Map.of("384x384", 1L));
+
+        JsonObject json = new DeviceProfileResult(profile, footprint, null).toJson();
+        JsonObject perScreenJson =
+                new DeviceProfileResult(profile, perScreenFootprint, null).toJson();
+
+        assertThat(json.has("ambientBytesPerScreen")).isFalse();
+        assertThat(json.get("maxAmbientBytes").getAsLong()).isEqualTo(1L);
+        JsonObject ambientBytesPerScreen = perScreenJson.getAsJsonObject("ambientBytesPerScreen");
+        assertThat(ambientBytesPerScreen.get("384x384").getAsLong()).isEqualTo(1L);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.findSceneNode;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Document;
+
+@RunWith(JUnit4.class)
+public class DrawableNodeResourceSetsTest {
+    private static final EvaluationSettings evaluationSettings = new EvaluationSettings("");
+    private static final VariantConfigValue TEST_VARIANT =
+            VariantConfigValue.active(evaluationSettings);
+    private static final ImmutableMap<String, Long> RESOURCE_SIZES =
+            ImmutableMap.of(
+                    "list1-option1-list2-option2", 128L,
+                    "list1-option2", 64L,
+                    "list1-option3", 32L,
+                    "list2-option1", 8L,
+                    "list2-option2-image2", 2L,
+                    "list2-option3", 4L);
+
+    private final List<String> evaluatedResources = new ArrayList<>();
+    private Document document;
+    private DrawableNodeResourceSets resourceSets;
+
+    @Before
+    public void setUp() throws Exception {
+        document = readDocument("/MultipleListsReferenceSameImage.xml");
+        DrawableNodeConfigTable table =
+                DrawableNodeConfigTable.create(findSceneNode(document), TEST_VARIANT);
+        WatchFaceResourceCollector resourceCollector =
+                new WatchFaceResourceCollector(document, new HashMap<>(), evaluationSettings);
+        resourceSets =
+                DrawableNodeResourceSets.create(
+                        table.getDependentDrawableNodes(),
+                        resourceCollector,
+                        TEST_VARIANT,
+                        resource -> {
+                            evaluatedResources.add(resource);
+                            return RESOURCE_SIZES.get(resource);
+                        });
+    }
+
+    @Test
+    public void create_evaluatesEachResourceOnce() {
+        assertThat(evaluatedResources).containsExactlyElementsIn(RESOURCE_SIZES.keySet());
+        assertThat(resourceSets.getResourceCount()).isEqualTo(RESOURCE_SIZES.size());
+    }
+
+    @Test
+    public void footprintOfMatchingEntries_countsSharedResourceOnce() {
+        long footprint =
+                resourceSets.footprintOfMatchingEntries(
+                        configSet(ImmutableMap.of("l1", "l1-1", "l2", "l2-2")), new BitSet());
+
+        assertThat(footprint).isEqualTo(128L + 2L);
+    }
+
+    @Test
+    public void footprintOfMatchingEntries_reusesScratchBitSet() {
+        BitSet scratch = new BitSet();
+
+        long first =
+                resourceSets.footprintOfMatchingEntries(
+                        configSet(ImmutableMap.of("l1", "l1-2", "l2", "l2-2")), scratch);
+        long second =
+                resourceSets.footprintOfMatchingEntries(
+                        configSet(ImmutableMap.of("l1", "l1-3", "l2", "l2-3")), scratch);
+
+        assertThat(first).isEqualTo(64L + 128L + 2L);
+        assertThat(second).isEqualTo(32L + 4L);
+    }
+
+    @Test
+    public void footprintOfMatchingEntries_ignoresEntriesOfOtherKeys() {
+        long footprint =
+                resourceSets.footprintOfMatchingEntries(
+                        configSet(ImmutableMap.of("l2", "l2-1")), new BitSet());
+
+        assertThat(footprint).isEqualTo(8L);
+    }
+
+    @Test
+    public void denseMatcher_matchesSameEntriesAsConfigSets() {
+        ConfigSpace configSpace = new ConfigSpace(UserConfigKey.readUserConfigKeys(document));
+        DrawableNodeResourceSets.DenseMatcher matcher = resourceSets.denseMatcher(configSpace);
+        List<Long> denseFootprints = new ArrayList<>();
+
+        configSpace
+                .spliterator()
+                .forEachRemainingDense(
+                        denseConfigSet ->
+                                denseFootprints.add(
+                                        matcher.footprintOfMatchingEntries(
+                                                denseConfigSet, new BitSet())));
+
+        List<Long> footprints = new ArrayList<>();
+        for (long index = 0; index < configSpace.getSize(); index++) {
+            footprints.add(
+                    resourceSets.footprintOfMatchingEntries(
+                            configSpace.get(index), new BitSet()));
+        }
+        assertThat(denseFootprints).containsExactlyElementsIn(footprints).inOrder();
+        assertThat(denseFootprints).contains(64L + 128L + 2L);
+    }
+
+    @Test
+    public void denseMatcher_ignoresEntriesOfKeysOutsideConfigSpace() {
+        List<UserConfigKey> keys = new ArrayList<>();
+        for (UserConfigKey key : UserConfigKey.readUserConfigKeys(document)) {
+            if (key.equals(new UserConfigKey("l2"))) {
+                keys.add(key);
+            }
+        }
+        ConfigSpace configSpace = new ConfigSpace(keys);
+        DrawableNodeResourceSets.DenseMatcher matcher = resourceSets.denseMatcher(configSpace);
+
+        // l2-2 is the second value of l2, the only key of the space
+        assertThat(matcher.footprintOfMatchingEntries(new int[] {1}, new BitSet()))
+                .isEqualTo(128L + 2L);
+    }
+
+    private static UserConfigSet configSet(Map<String, String> config) {
+        Map<UserConfigKey, UserConfigValue> configSet = new HashMap<>();
+        config.forEach(
+                (key, value) -> configSet.put(new UserConfigKey(key), new UserConfigValue(value)));
+        return new UserConfigSet(configSet);
+    }
+
+    private Document readDocument(String documentPath) throws Exception {
+        try (InputStream is = getClass().getResourceAsStream(documentPath)) {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+        }
+    }
+}
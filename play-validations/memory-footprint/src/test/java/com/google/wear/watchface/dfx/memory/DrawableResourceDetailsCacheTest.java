@@ -0,0 +1,152 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DrawableResourceDetailsCacheTest {
+    private static final String SHA1 = "954f5884424465ce39114eb61173700ebf8209b8";
+
+    private static final ImageProcessor imageProcessor =
+            new JvmImageProcessor(new EvaluationSettings(""));
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void getOrAnalyze_reusesStoredAnalysis() throws Exception {
+        Path cacheDirectory = temporaryFolder.newFolder().toPath();
+        AtomicInteger analyzerCalls = new AtomicInteger();
+
+        Optional<DrawableResourceDetails.ImageAnalysis> first =
+                new DrawableResourceDetailsCache(cacheDirectory, Long.MAX_VALUE, false)
+                        .getOrAnalyze(SHA1, () -> countingAnalysis(analyzerCalls));
+        Optional<DrawableResourceDetails.ImageAnalysis> second =
+                new DrawableResourceDetailsCache(cacheDirectory, Long.MAX_VALUE, false)
+                        .getOrAnalyze(SHA1, () -> countingAnalysis(analyzerCalls));
+
+        assertThat(analyzerCalls.get()).isEqualTo(1);
+        assertThat(second.get().numberOfImages).isEqualTo(first.get().numberOfImages);
+        assertThat(second.get().width).isEqualTo(first.get().width);
+        assertThat(second.get().height).isEqualTo(first.get().height);
+        assertThat(second.get().bounds).isEqualTo(first.get().bounds);
+        assertThat(second.get().canUseRGB565).isEqualTo(first.get().canUseRGB565);
+    }
+
+    @Test
+    public void getOrAnalyze_cachesResourcesThatAreNotImages() throws Exception {
+        Path cacheDirectory = temporaryFolder.newFolder().toPath();
+        DrawableResourceDetailsCache cache =
+                new DrawableResourceDetailsCache(cacheDirectory, Long.MAX_VALUE, false);
+        AtomicInteger analyzerCalls = new AtomicInteger();
+
+        cache.getOrAnalyze(
+                SHA1,
+                () -> {
+                    analyzerCalls.incrementAndGet();
+                    return Optional.empty();
+                });
+        Optional<DrawableResourceDetails.ImageAnalysis> analysis =
+                cache.getOrAnalyze(SHA1, () -> countingAnalysis(analyzerCalls));
+
+        assertThat(analyzerCalls.get()).isEqualTo(1);
+        assertThat(analysis.isPresent()).isFalse();
+    }
+
+    @Test
+    public void getOrAnalyze_ignoresEntriesFromOtherVersions() throws Exception {
+        Path cacheDirectory = temporaryFolder.newFolder().toPath();
+        Files.write(
+                cacheDirectory.resolve(SHA1 + ".json"),
+                "{\"version\":0,\"isImage\":false}".getBytes(UTF_8));
+        AtomicInteger analyzerCalls = new AtomicInteger();
+
+        Optional<DrawableResourceDetails.ImageAnalysis> analysis =
+                new DrawableResourceDetailsCache(cacheDirectory, Long.MAX_VALUE, false)
+                        .getOrAnalyze(SHA1, () -> countingAnalysis(analyzerCalls));
+
+        assertThat(analyzerCalls.get()).isEqualTo(1);
+        assertThat(analysis.isPresent()).isTrue();
+    }
+
+    @Test
+    public void fromPackageResource_producesSameDetailsWithCache() throws Exception {
+        Path cacheDirectory = temporaryFolder.newFolder().toPath();
+        DrawableResourceDetailsCache cache =
+                new DrawableResourceDetailsCache(cacheDirectory, Long.MAX_VALUE, false);
+        AndroidResource resource = readTestResource("alpha.png");
+
+        DrawableResourceDetails uncached =
+                DrawableResourceDetails.fromPackageResource(resource, imageProcessor).get();
+        DrawableResourceDetails firstRun =
+                DrawableResourceDetails.fromPackageResource(resource, imageProcessor, cache).get();
+        DrawableResourceDetails secondRun =
+                DrawableResourceDetails.fromPackageResource(resource, imageProcessor, cache).get();
+
+        assertThat(firstRun).isEqualTo(uncached);
+        assertThat(secondRun).isEqualTo(uncached);
+    }
+
+    @Test
+    public void trim_evictsLeastRecentlyUsedEntries() throws Exception {
+        Path cacheDirectory = temporaryFolder.newFolder().toPath();
+        DrawableResourceDetailsCache unboundedCache =
+                new DrawableResourceDetailsCache(cacheDirectory, Long.MAX_VALUE, false);
+        AtomicInteger analyzerCalls = new AtomicInteger();
+        unboundedCache.getOrAnalyze("old", () -> countingAnalysis(analyzerCalls));
+        unboundedCache.getOrAnalyze("new", () -> countingAnalysis(analyzerCalls));
+        Files.setLastModifiedTime(cacheDirectory.resolve("old.json"), FileTime.fromMillis(0));
+        long entrySize = Files.size(cacheDirectory.resolve("new.json"));
+
+        new DrawableResourceDetailsCache(cacheDirectory, entrySize, false).trim();
+
+        try (Stream<Path> files = Files.list(cacheDirectory)) {
+            assertThat(files.map(file -> file.getFileName().toString()).toArray())
+                    .asList()
+                    .containsExactly("new.json");
+        }
+    }
+
+    private static Optional<DrawableResourceDetails.ImageAnalysis> countingAnalysis(
+            AtomicInteger analyzerCalls) {
+        analyzerCalls.incrementAndGet();
+        return Optional.of(
+                new DrawableResourceDetails.ImageAnalysis(
+                        1, 450, 450, new DrawableResourceDetails.Bounds(9, 14, 443, 432), true));
+    }
+
+    private AndroidResource readTestResource(String name) throws Exception {
+        String path = String.format("/res/drawable/%s", name);
+        try (InputStream is = getClass().getResourceAsStream(path)) {
+            return AndroidResource.fromPath(path, AndroidResourceLoader.readAllBytes(is));
+        }
+    }
+}
@@ -12,6 +12,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 
 public class DrawableResourceDetailsTest {
@@ -214,6 +215,114 @@ public class DrawableResourceDetailsTest {
         assertThat(eightBppNeeded.canUseRGB565()).isFalse();
     }
 
+    @Test
+    public void fromPackageResource_lazyAnalysisDecodesPixelsOnDemand() throws Exception {
+        AndroidResource pngFile = readPackageFile("base/res/drawable-nodpi/dial.png");
+        AtomicInteger decodedFrames = new AtomicInteger();
+        ImageProcessor countingImageProcessor =
+                (stream, imageName) -> {
+                    ImageProcessor.ImageReader reader =
+                            imageProcessor.createImageReader(stream, imageName);
+                    return new ImageProcessor.ImageReader() {
+                        @Override
+                        public int getWidth(int imageIndex) {
+                            return reader.getWidth(imageIndex);
+                        }
+
+                        @Override
+                        public int getHeight(int imageIndex) {
+                            return reader.getHeight(imageIndex);
+                        }
+
+                        @Override
+                        public int getNumImages() {
+                            return reader.getNumImages();
+                        }
+
+                        @Override
+                        public ImageProcessor.ImageData read(int imageIndex) {
+                            decodedFrames.incrementAndGet();
+                            return reader.read(imageIndex);
+                        }
+                    };
+                };
+
+        DrawableResourceDetails pngDetails =
+                DrawableResourceDetails.fromPackageResource(
+                                pngFile,
+                                countingImageProcessor,
+                                DrawableResourceDetailsCache.disabled(),
+                                /* lazyAnalysis= */ true)
+                        .get();
+
+        assertThat(pngDetails.getTotalFootprintBytes())
+                .isEqualTo(expectedPng.getTotalFootprintBytes());
+        assertThat(decodedFrames.get()).isEqualTo(0);
+        assertThat(pngDetails).isEqualTo(expectedPng);
+        assertThat(pngDetails.canUseRGB565()).isTrue();
+        assertThat(decodedFrames.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void fromPackageResource_lazyAnalysisIsNotRunByEqualsHashCodeOrToString()
+            throws Exception {
+        AndroidResource pngFile = readPackageFile("base/res/drawable-nodpi/dial.png");
+        AtomicInteger analyzedResources = new AtomicInteger();
+        ImageProcessor countingImageProcessor =
+                (stream, imageName) -> {
+                    analyzedResources.incrementAndGet();
+                    return imageProcessor.createImageReader(stream, imageName);
+                };
+
+        DrawableResourceDetails pngDetails =
+                DrawableResourceDetails.fromPackageResource(
+                                pngFile,
+                                countingImageProcessor,
+                                DrawableResourceDetailsCache.disabled(),
+                                /* lazyAnalysis= */ true)
+                        .get();
+        // the probe of the image headers
+        assertThat(analyzedResources.get()).isEqualTo(1);
+
+        assertThat(pngDetails).isEqualTo(expectedPng);
+        assertThat(pngDetails.hashCode()).isEqualTo(expectedPng.hashCode());
+        assertThat(pngDetails.toString()).contains("<deferred>");
+        assertThat(analyzedResources.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void analyzeFrame_findsSameBoundsWithoutQuantizationCheck() throws Exception {
+        for (String name : ImmutableList.of("alpha.png", "4bpp_ok.png", "8bpp_needed.png")) {
+            ImageProcessor.ImageData frame = readFirstFrame(name);
+
+            DrawableResourceDetails.FrameAnalysis withQuantization =
+                    DrawableResourceDetails.analyzeFrame(frame, true);
+            DrawableResourceDetails.FrameAnalysis withoutQuantization =
+                    DrawableResourceDetails.analyzeFrame(frame, false);
+
+            assertThat(withoutQuantization.bounds).isEqualTo(withQuantization.bounds);
+            assertThat(withoutQuantization.canBeQuantized).isFalse();
+        }
+    }
+
+    @Test
+    public void analyzeFrame_checksQuantization() throws Exception {
+        DrawableResourceDetails.FrameAnalysis fourBppOK =
+                DrawableResourceDetails.analyzeFrame(readFirstFrame("4bpp_ok.png"), true);
+        DrawableResourceDetails.FrameAnalysis eightBppNeeded =
+                DrawableResourceDetails.analyzeFrame(readFirstFrame("8bpp_needed.png"), true);
+
+        assertThat(fourBppOK.canBeQuantized).isTrue();
+        assertThat(eightBppNeeded.canBeQuantized).isFalse();
+    }
+
+    private ImageProcessor.ImageData readFirstFrame(String name) throws Exception {
+        String path = String.format("/res/drawable/%s", name);
+        try (InputStream is = getClass().getResourceAsStream(path)) {
+            return imageProcessor.createImageReader(is, name).read(0);
+        }
+    }
+
     private AndroidResource readPackageFile(String originFilePath) throws Exception {
         Path filePath = Paths.get(TEST_PACKAGE_FILES_ROOT, originFilePath);
         byte[] bytes = Files.readAllBytes(filePath);
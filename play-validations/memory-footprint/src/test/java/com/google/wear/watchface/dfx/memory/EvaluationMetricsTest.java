@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Counter;
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Phase;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class EvaluationMetricsTest {
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void disabled_recordsNothing() {
+        EvaluationMetrics metrics = EvaluationMetrics.disabled();
+
+        try (EvaluationMetrics.Timer ignored = metrics.start(Phase.PARSE_XML)) {
+            metrics.add(Counter.BYTES_READ, 42);
+        }
+
+        assertThat(metrics.getPhaseCount(Phase.PARSE_XML)).isEqualTo(0L);
+        assertThat(metrics.getCount(Counter.BYTES_READ)).isEqualTo(0L);
+    }
+
+    @Test
+    public void toJson_containsPhasesAndCounters() {
+        EvaluationMetrics metrics = new EvaluationMetrics(true, false);
+
+        for (int i = 0; i < 3; i++) {
+            try (EvaluationMetrics.Timer ignored = metrics.start(Phase.PARSE_XML)) {
+                metrics.increment(Counter.RESOURCES_READ);
+                metrics.add(Counter.BYTES_READ, 100);
+            }
+        }
+        JsonObject json = metrics.toJson();
+
+        JsonObject parseXml = json.getAsJsonObject("phases").getAsJsonObject("parseXml");
+        assertThat(parseXml.get("count").getAsLong()).isEqualTo(3L);
+        assertThat(parseXml.get("totalMillis").getAsDouble()).isAtLeast(0.0);
+        assertThat(
+                        json.getAsJsonObject("phases")
+                                .getAsJsonObject("validateSchema")
+                                .get("count")
+                                .getAsLong())
+                .isEqualTo(0L);
+        JsonObject counters = json.getAsJsonObject("counters");
+        assertThat(counters.get("resourcesRead").getAsLong()).isEqualTo(3L);
+        assertThat(counters.get("bytesRead").getAsLong()).isEqualTo(300L);
+        assertThat(json.get("peakHeapBytes").getAsLong()).isGreaterThan(0L);
+    }
+
+    @Test
+    public void instrument_countsDecodedFramesAndScannedPixels() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics(true, false);
+        ImageProcessor imageProcessor = metrics.instrument(new FakeImageProcessor(2, 3, 4));
+
+        ImageProcessor.ImageReader reader =
+                imageProcessor.createImageReader(new ByteArrayInputStream(new byte[0]), "image");
+        int[] row = new int[3];
+        for (int i = 0; i < reader.getNumImages(); i++) {
+            ImageProcessor.ImageData image = reader.read(i);
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.getRgbRow(y, row);
+            }
+        }
+
+        assertThat(metrics.getCount(Counter.IMAGES_DECODED)).isEqualTo(2L);
+        assertThat(metrics.getCount(Counter.PIXELS_SCANNED)).isEqualTo(2L * 3 * 4);
+        assertThat(metrics.getPhaseCount(Phase.DECODE_IMAGES)).isEqualTo(2L);
+    }
+
+    @Test
+    public void writeTrace_writesCompleteEventsPerEvaluation() throws Exception {
+        EvaluationMetrics metrics = new EvaluationMetrics(true, true);
+        try (EvaluationMetrics.Timer ignored = metrics.start(Phase.EVALUATE_LAYOUT)) {
+            try (EvaluationMetrics.Timer nested = metrics.start(Phase.ENUMERATE_CONFIGS)) {
+                metrics.increment(Counter.LAZY_EVALUATIONS);
+            }
+        }
+        Path traceFile = temporaryFolder.getRoot().toPath().resolve("traces/trace.json");
+
+        EvaluationMetrics.writeTrace(ImmutableMap.of("watchface.apk", metrics), traceFile);
+
+        JsonArray events =
+                JsonParser.parseString(new String(Files.readAllBytes(traceFile), UTF_8))
+                        .getAsJsonObject()
+                        .getAsJsonArray("traceEvents");
+        assertThat(events.size()).isEqualTo(3);
+        JsonObject processName = events.get(0).getAsJsonObject();
+        assertThat(processName.get("ph").getAsString()).isEqualTo("M");
+        assertThat(processName.getAsJsonObject("args").get("name").getAsString())
+                .isEqualTo("watchface.apk");
+        // the nested span is closed, hence recorded, first
+        JsonObject enumerateConfigs = events.get(1).getAsJsonObject();
+        JsonObject evaluateLayout = events.get(2).getAsJsonObject();
+        assertThat(enumerateConfigs.get("name").getAsString()).isEqualTo("enumerateConfigs");
+        assertThat(evaluateLayout.get("name").getAsString()).isEqualTo("evaluateLayout");
+        assertThat(evaluateLayout.get("ph").getAsString()).isEqualTo("X");
+        assertThat(evaluateLayout.get("ts").getAsDouble())
+                .isAtMost(enumerateConfigs.get("ts").getAsDouble());
+        assertThat(evaluateLayout.get("dur").getAsDouble())
+                .isAtLeast(enumerateConfigs.get("dur").getAsDouble());
+    }
+
+    /** Produces fully transparent frames of a fixed size, whatever the input. */
+    private static class FakeImageProcessor implements ImageProcessor {
+        private final int frames;
+        private final int width;
+        private final int height;
+
+        FakeImageProcessor(int frames, int width, int height) {
+            this.frames = frames;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public ImageReader createImageReader(InputStream stream, String imageName) {
+            return new ImageReader() {
+                @Override
+                public int getWidth(int imageIndex) {
+                    return width;
+                }
+
+                @Override
+                public int getHeight(int imageIndex) {
+                    return height;
+                }
+
+                @Override
+                public int getNumImages() {
+                    return frames;
+                }
+
+                @Override
+                public ImageData read(int imageIndex) {
+                    return new ImageData() {
+                        @Override
+                        public int getWidth() {
+                            return width;
+                        }
+
+                        @Override
+                        public int getHeight() {
+                            return height;
+                        }
+
+                        @Override
+                        public int getRgb(int x, int y) {
+                            return 0;
+                        }
+
+                        @Override
+                        public void getRgbRow(int y, int[] row) {
+                            for (int x = 0; x < width; x++) {
+                                row[x] = 0;
+                            }
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -3,8 +3,10 @@ package com.google.wear.watchface.dfx.memory;
 import static com.google.wear.watchface.dfx.memory.EvaluationSettings.parseFromArguments;
 import static junit.framework.TestCase.assertEquals;
 import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertSame;
 import static junit.framework.TestCase.assertTrue;
 
+import java.util.Arrays;
 import java.util.Optional;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -71,6 +73,280 @@ public class EvaluationSettingsTest {
         assertFalse(evaluationSettings.isPresent());
     }
 
+    @Test
+    public void parseFromArguments_parsesResourceAnalysisThreads() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face",
+                        "path/to/watchface.apk",
+                        "--resource-analysis-threads",
+                        "8");
+
+        assertTrue(evaluationSettings.isPresent());
+        assertEquals(8, evaluationSettings.get().getResourceAnalysisThreads());
+    }
+
+    @Test
+    public void parseFromArguments_returnsNoneWhenResourceAnalysisThreadsIsNotPositive() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face",
+                        "path/to/watchface.apk",
+                        "--resource-analysis-threads",
+                        "0");
+
+        assertFalse(evaluationSettings.isPresent());
+    }
+
+    @Test
+    public void parseFromArguments_parsesAnalysisCacheArgs() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face",
+                        "path/to/watchface.apk",
+                        "--analysis-cache-dir",
+                        "path/to/cache",
+                        "--analysis-cache-max-mb",
+                        "16");
+
+        assertTrue(evaluationSettings.isPresent());
+        assertEquals("path/to/cache", evaluationSettings.get().getAnalysisCacheDirectory());
+        assertEquals(16 * 1024 * 1024, evaluationSettings.get().getAnalysisCacheMaxBytes());
+    }
+
+    @Test
+    public void parseFromArguments_keepsFractionalAnalysisCacheSize() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face", "path/to/watchface.apk", "--analysis-cache-max-mb", "0.5");
+
+        assertTrue(evaluationSettings.isPresent());
+        assertEquals(512 * 1024, evaluationSettings.get().getAnalysisCacheMaxBytes());
+    }
+
+    @Test
+    public void parseFromArguments_returnsNoneWhenAnalysisCacheSizeIsNotPositive() {
+        for (String maxSize : Arrays.asList("0", "-16")) {
+            Optional<EvaluationSettings> evaluationSettings =
+                    parseFromArguments(
+                            "--watch-face",
+                            "path/to/watchface.apk",
+                            "--analysis-cache-max-mb",
+                            maxSize);
+
+            assertFalse(evaluationSettings.isPresent());
+        }
+    }
+
+    @Test
+    public void parseFromArguments_parsesLazyImageAnalysis() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face", "path/to/watchface.apk", "--lazy-image-analysis");
+
+        assertTrue(evaluationSettings.isPresent());
+        assertTrue(evaluationSettings.get().getLazyImageAnalysis());
+    }
+
+    @Test
+    public void parseFromArguments_parsesEvaluationThreads() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face", "path/to/watchface.apk", "--evaluation-threads", "8");
+
+        assertTrue(evaluationSettings.isPresent());
+        assertEquals(8, evaluationSettings.get().getEvaluationThreads());
+    }
+
+    @Test
+    public void parseFromArguments_parsesLayoutParallelism() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face", "path/to/watchface.apk", "--layout-parallelism", "3");
+
+        assertTrue(evaluationSettings.isPresent());
+        assertEquals(3, evaluationSettings.get().getLayoutParallelism());
+        assertEquals(
+                3,
+                evaluationSettings
+                        .get()
+                        .withWatchFacePath("path/to/other.apk")
+                        .getLayoutParallelism());
+    }
+
+    @Test
+    public void parseFromArguments_parsesScreenSizes() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face",
+                        "path/to/watchface.apk",
+                        "--screen-size",
+                        "454x454",
+                        "--ambient-screen-sizes",
+                        "384x384, 466x466,384x384");
+
+        assertTrue(evaluationSettings.isPresent());
+        assertEquals(new ScreenSize(454, 454), evaluationSettings.get().getScreenSize());
+        assertEquals(
+                Arrays.asList(new ScreenSize(384, 384), new ScreenSize(466, 466)),
+                evaluationSettings
+                        .get()
+                        .withWatchFacePath("path/to/other.apk")
+                        .getAmbientScreenSizes());
+    }
+
+    @Test
+    public void parseFromArguments_returnsNoneWhenScreenSizeIsInvalid() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face", "path/to/watchface.apk", "--screen-size", "450");
+
+        assertFalse(evaluationSettings.isPresent());
+    }
+
+    @Test
+    public void withDeviceProfile_overridesOnlyTheSetProperties() {
+        EvaluationSettings settings =
+                parseFromArguments(
+                                "--watch-face",
+                                "path/to/watchface.apk",
+                                "--active-limit-mb",
+                                "50",
+                                "--metrics")
+                        .get();
+        DeviceProfile profile =
+                new DeviceProfile(
+                        "small-round",
+                        new ScreenSize(384, 384),
+                        /* offloadVersion= */ 1,
+                        MemoryFootprint.toBytes(5.0),
+                        /* activeLimitBytes= */ null,
+                        /* supportsRgb565= */ false);
+
+        EvaluationSettings profileSettings = settings.withDeviceProfile(profile);
+
+        assertEquals("path/to/watchface.apk", profileSettings.getWatchFacePath());
+        assertEquals(new ScreenSize(384, 384), profileSettings.getScreenSize());
+        assertTrue(profileSettings.applyV1OffloadLimitations());
+        assertEquals(MemoryFootprint.toBytes(5.0), profileSettings.getAmbientLimitBytes());
+        assertEquals(MemoryFootprint.toBytes(50.0), profileSettings.getActiveLimitBytes());
+        assertFalse(profileSettings.supportsRgb565());
+        assertTrue(settings.supportsRgb565());
+        assertSame(settings.getMetrics(), profileSettings.getMetrics());
+    }
+
+    @Test
+    public void parseFromArguments_returnsNoneWhenDeviceProfilesAreMissing() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face",
+                        "path/to/watchface.apk",
+                        "--device-profiles",
+                        "path/to/missing-profiles.json");
+
+        assertFalse(evaluationSettings.isPresent());
+    }
+
+    @Test
+    public void parseFromArguments_parsesBatchArgsWithoutWatchFace() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--batch",
+                        "path/to/packages.txt",
+                        "--batch-parallelism",
+                        "4",
+                        "--batch-output-dir",
+                        "path/to/reports");
+
+        assertTrue(evaluationSettings.isPresent());
+        assertTrue(evaluationSettings.get().isBatchMode());
+        assertTrue(evaluationSettings.get().isReportMode());
+        assertEquals("path/to/packages.txt", evaluationSettings.get().getBatchInput());
+        assertEquals(4, evaluationSettings.get().getBatchParallelism());
+        assertEquals("path/to/reports", evaluationSettings.get().getBatchOutputDirectory());
+    }
+
+    @Test
+    public void withWatchFacePath_keepsOtherSettings() {
+        EvaluationSettings batchSettings =
+                parseFromArguments(
+                                "--batch",
+                                "path/to/packages.txt",
+                                "--schema-version",
+                                "2",
+                                "--estimate-optimization")
+                        .get();
+
+        EvaluationSettings packageSettings =
+                batchSettings.withWatchFacePath("path/to/watchface.apk");
+
+        assertEquals("path/to/watchface.apk", packageSettings.getWatchFacePath());
+        assertEquals("2", packageSettings.getSchemaVersion());
+        assertTrue(packageSettings.estimateOptimization());
+        assertTrue(packageSettings.isReportMode());
+    }
+
+    @Test
+    public void parseFromArguments_parsesIncrementalArgs() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face",
+                        "path/to/watchface.apk",
+                        "--incremental-snapshot",
+                        "path/to/snapshot.json",
+                        "--incremental-check");
+
+        assertTrue(evaluationSettings.isPresent());
+        assertEquals("path/to/snapshot.json", evaluationSettings.get().getIncrementalSnapshot());
+        assertTrue(evaluationSettings.get().getIncrementalCheck());
+        // the images are analyzed once across the incremental evaluations
+        assertEquals(
+                "path/to/snapshot.json.analysis-cache",
+                evaluationSettings.get().getAnalysisCacheDirectory());
+    }
+
+    @Test
+    public void parseFromArguments_returnsNoneWhenIncrementalCheckHasNoSnapshot() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--watch-face", "path/to/watchface.apk", "--incremental-check");
+
+        assertFalse(evaluationSettings.isPresent());
+    }
+
+    @Test
+    public void parseFromArguments_returnsNoneWhenIncrementalSnapshotIsUsedInBatchMode() {
+        Optional<EvaluationSettings> evaluationSettings =
+                parseFromArguments(
+                        "--batch",
+                        "path/to/packages.txt",
+                        "--incremental-snapshot",
+                        "path/to/snapshot.json");
+
+        assertFalse(evaluationSettings.isPresent());
+    }
+
+    @Test
+    public void getLayoutEvaluationFingerprint_changesWithTheEvaluationSettings() {
+        EvaluationSettings settings =
+                parseFromArguments("--watch-face", "path/to/watchface.apk").get();
+
+        assertEquals(
+                settings.getLayoutEvaluationFingerprint(),
+                parseFromArguments("--watch-face", "path/to/other.apk", "--verbose")
+                        .get()
+                        .getLayoutEvaluationFingerprint());
+        assertFalse(
+                settings.getLayoutEvaluationFingerprint()
+                        .equals(
+                                parseFromArguments(
+                                                "--watch-face",
+                                                "path/to/watchface.apk",
+                                                "--estimate-optimization")
+                                        .get()
+                                        .getLayoutEvaluationFingerprint()));
+    }
+
     @Test
     public void parseFromArguments_returnsNoneWhenMissingRequiredArg() {
         Optional<EvaluationSettings> evaluationSettings = parseFromArguments();
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.wear.watchface.dfx.memory.EvaluationSettings.parseFromArguments;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.wear.watchface.dfx.memory.EvaluationMetrics.Counter;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Document;
+
+@RunWith(JUnit4.class)
+public class IncrementalEvaluatorTest {
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void evaluateLayouts_reusesUnchangedLayouts() throws Exception {
+        Path snapshot = temporaryFolder.getRoot().toPath().resolve("snapshot.json");
+        Map<String, DrawableResourceDetails> resources = layoutResources(100);
+
+        List<MemoryFootprint> first =
+                WatchFaceLayoutEvaluator.evaluateLayouts(
+                        readLayouts(), resources, incrementalSettings(snapshot));
+        EvaluationSettings secondSettings = incrementalSettings(snapshot);
+        List<MemoryFootprint> second =
+                WatchFaceLayoutEvaluator.evaluateLayouts(readLayouts(), resources, secondSettings);
+
+        assertThat(Files.isRegularFile(snapshot)).isTrue();
+        assertThat(second).containsExactlyElementsIn(first).inOrder();
+        assertThat(secondSettings.getMetrics().getCount(Counter.LAYOUTS_REUSED)).isEqualTo(1);
+        assertThat(secondSettings.getMetrics().getCount(Counter.LAYOUTS_EVALUATED)).isEqualTo(0);
+    }
+
+    @Test
+    public void evaluateLayouts_reevaluatesOnlyTheComponentsOfChangedResources()
+            throws Exception {
+        Path snapshot = temporaryFolder.getRoot().toPath().resolve("snapshot.json");
+        WatchFaceLayoutEvaluator.evaluateLayouts(
+                readLayouts(), layoutResources(100), incrementalSettings(snapshot));
+        Map<String, DrawableResourceDetails> changedResources = layoutResources(100);
+        putResource(changedResources, "list2-image3", 5000);
+
+        EvaluationSettings settings = incrementalSettings(snapshot);
+        List<MemoryFootprint> footprints =
+                WatchFaceLayoutEvaluator.evaluateLayouts(readLayouts(), changedResources, settings);
+
+        assertThat(settings.getMetrics().getCount(Counter.LAYOUTS_REUSED)).isEqualTo(0);
+        // the config spaces of the first list and of the boolean did not change, so they are not
+        // enumerated again
+        assertThat(settings.getMetrics().getCount(Counter.CONFIG_SPACES_REUSED)).isAtLeast(2);
+        assertThat(footprints)
+                .containsExactly(
+                        WatchFaceLayoutEvaluator.evaluate(
+                                readLayouts().get(0),
+                                changedResources,
+                                parseFromArguments("--watch-face", "").get()));
+        assertThat(footprints.get(0).getMaxActiveBytes()).isEqualTo(5000 + 100 + 100);
+    }
+
+    @Test
+    public void evaluateLayouts_checksIncrementalEvaluationAgainstFullEvaluation()
+            throws Exception {
+        Path snapshot = temporaryFolder.getRoot().toPath().resolve("snapshot.json");
+        WatchFaceLayoutEvaluator.evaluateLayouts(
+                readLayouts(), layoutResources(100), incrementalSettings(snapshot));
+        Map<String, DrawableResourceDetails> changedResources = layoutResources(100);
+        putResource(changedResources, "list1-image2", 3000);
+
+        EvaluationSettings settings =
+                parseFromArguments(
+                                "--watch-face",
+                                "",
+                                "--metrics",
+                                "--incremental-snapshot",
+                                snapshot.toString(),
+                                "--incremental-check")
+                        .get();
+        List<MemoryFootprint> footprints =
+                WatchFaceLayoutEvaluator.evaluateLayouts(readLayouts(), changedResources, settings);
+
+        assertThat(footprints.get(0).getMaxActiveBytes()).isEqualTo(3000 + 100 + 100);
+        // the full evaluation of the check is not counted with the incremental evaluation
+        assertThat(settings.getMetrics().getCount(Counter.LAYOUTS_EVALUATED)).isEqualTo(1);
+    }
+
+    @Test
+    public void evaluateLayouts_evaluatesLayoutsWhenSnapshotIsInvalid() throws Exception {
+        Path snapshot = temporaryFolder.getRoot().toPath().resolve("snapshot.json");
+        Files.write(snapshot, "not a snapshot".getBytes(UTF_8));
+        EvaluationSettings settings = incrementalSettings(snapshot);
+
+        List<MemoryFootprint> footprints =
+                WatchFaceLayoutEvaluator.evaluateLayouts(
+                        readLayouts(), layoutResources(100), settings);
+
+        assertThat(settings.getMetrics().getCount(Counter.LAYOUTS_EVALUATED)).isEqualTo(1);
+        assertThat(footprints.get(0).getMaxActiveBytes()).isEqualTo(300);
+        // the invalid snapshot is replaced by the results of this evaluation
+        EvaluationSettings nextSettings = incrementalSettings(snapshot);
+        WatchFaceLayoutEvaluator.evaluateLayouts(readLayouts(), layoutResources(100), nextSettings);
+        assertThat(nextSettings.getMetrics().getCount(Counter.LAYOUTS_REUSED)).isEqualTo(1);
+    }
+
+    private static EvaluationSettings incrementalSettings(Path snapshot) {
+        return parseFromArguments(
+                        "--watch-face",
+                        "",
+                        "--metrics",
+                        "--incremental-snapshot",
+                        snapshot.toString())
+                .get();
+    }
+
+    private List<Document> readLayouts() throws Exception {
+        List<Document> layouts = new ArrayList<>();
+        try (InputStream is = getClass().getResourceAsStream("/LinearCombinations.xml")) {
+            layouts.add(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is));
+        }
+        return layouts;
+    }
+
+    /**
+     * Returns the images of LinearCombinations.xml, which all have the same size. Each of its
+     * three user configurations has its own images, so they are evaluated as separate components.
+     */
+    private static Map<String, DrawableResourceDetails> layoutResources(long bytes) {
+        Map<String, DrawableResourceDetails> resources = new HashMap<>();
+        for (int list = 1; list <= 2; list++) {
+            for (int image = 1; image <= 3; image++) {
+                putResource(resources, String.format("list%s-image%s", list, image), bytes);
+            }
+        }
+        putResource(resources, "boolean-image-true", bytes);
+        putResource(resources, "boolean-image-false", bytes);
+        return resources;
+    }
+
+    private static void putResource(
+            Map<String, DrawableResourceDetails> resources, String name, long bytes) {
+        resources.put(
+                name,
+                DrawableResourceDetails.builder()
+                        .setName(name)
+                        .setNumberOfImages(1)
+                        .setBiggestFrameFootprintBytes(bytes)
+                        // the digest of the image data, which changes with the image
+                        .setSha1(name + "-" + bytes)
+                        .build());
+    }
+}
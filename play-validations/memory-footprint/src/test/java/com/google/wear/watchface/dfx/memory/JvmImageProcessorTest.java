@@ -0,0 +1,76 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class JvmImageProcessorTest {
+    private static final ImageProcessor imageProcessor =
+            new JvmImageProcessor(new EvaluationSettings(""));
+
+    @Test
+    public void getRgbRow_matchesGetRgbForImageWithAlpha() throws Exception {
+        assertRowsMatchPixels(decodePng(BufferedImage.TYPE_INT_ARGB));
+    }
+
+    @Test
+    public void getRgbRow_matchesGetRgbForOpaqueImage() throws Exception {
+        assertRowsMatchPixels(decodePng(BufferedImage.TYPE_INT_RGB));
+    }
+
+    @Test
+    public void getRgbRow_matchesGetRgbForGrayImage() throws Exception {
+        assertRowsMatchPixels(decodePng(BufferedImage.TYPE_BYTE_GRAY));
+    }
+
+    private static void assertRowsMatchPixels(ImageProcessor.ImageData image) {
+        int[] row = new int[image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRgbRow(y, row);
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertThat(row[x]).isEqualTo(image.getRgb(x, y));
+            }
+        }
+    }
+
+    /** Encodes an image with random pixels as PNG and decodes it with the image processor. */
+    private static ImageProcessor.ImageData decodePng(int imageType) throws Exception {
+        BufferedImage image = new BufferedImage(37, 21, imageType);
+        Random random = new Random(imageType);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+
+        return imageProcessor
+                .createImageReader(new ByteArrayInputStream(png.toByteArray()), "test.png")
+                .read(0);
+    }
+}
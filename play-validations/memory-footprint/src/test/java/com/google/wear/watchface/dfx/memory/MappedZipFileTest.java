@@ -0,0 +1,143 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class MappedZipFileTest {
+    private static final String STORED_ENTRY = "res/drawable/stored.png";
+    private static final String DEFLATED_ENTRY = "res/raw/watchface.xml";
+    private static final byte[] CONTENT = "watch face resource data".getBytes(UTF_8);
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void getStoredEntryData_returnsSliceOfStoredEntry() throws Exception {
+        MappedZipFile mappedZipFile = MappedZipFile.open(writeZip().toPath());
+
+        assertThat(mappedZipFile).isNotNull();
+        ByteBuffer data = mappedZipFile.getStoredEntryData(STORED_ENTRY);
+        assertThat(data.isReadOnly()).isTrue();
+        assertThat(toByteArray(data)).isEqualTo(CONTENT);
+    }
+
+    @Test
+    public void getStoredEntryData_returnsNullForCompressedOrMissingEntry() throws Exception {
+        MappedZipFile mappedZipFile = MappedZipFile.open(writeZip().toPath());
+
+        assertThat(mappedZipFile.getStoredEntryData(DEFLATED_ENTRY)).isNull();
+        assertThat(mappedZipFile.getStoredEntryData("res/drawable/missing.png")).isNull();
+    }
+
+    @Test
+    public void open_returnsNullForNonZipFile() throws Exception {
+        File file = temporaryFolder.newFile("not-a-zip.apk");
+        Files.write(file.toPath(), CONTENT);
+
+        assertThat(MappedZipFile.open(file.toPath())).isNull();
+    }
+
+    @Test
+    public void open_returnsNullWhenNameExceedsCentralDirectory() throws Exception {
+        File zip = writeZip();
+        byte[] bytes = Files.readAllBytes(zip.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        // the name length of the first entry
+        buffer.putShort(firstCentralHeaderOffset(buffer) + 28, (short) 0xffff);
+        Files.write(zip.toPath(), bytes);
+
+        assertThat(MappedZipFile.open(zip.toPath())).isNull();
+    }
+
+    @Test
+    public void open_returnsNullWhenLocalHeaderIsOutOfBounds() throws Exception {
+        File zip = writeZip();
+        byte[] bytes = Files.readAllBytes(zip.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        // the local header offset of the first entry, which is stored
+        buffer.putInt(firstCentralHeaderOffset(buffer) + 42, 0x7fffff00);
+        Files.write(zip.toPath(), bytes);
+
+        assertThat(MappedZipFile.open(zip.toPath())).isNull();
+    }
+
+    @Test
+    public void ofZipEntry_readsStoredEntryFromMapping() throws Exception {
+        File zip = writeZip();
+        MappedZipFile mappedZipFile = MappedZipFile.open(zip.toPath());
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            ResourceData stored = ResourceData.ofZipEntry(zipFile, STORED_ENTRY, mappedZipFile);
+            ResourceData deflated =
+                    ResourceData.ofZipEntry(zipFile, DEFLATED_ENTRY, mappedZipFile);
+
+            assertThat(stored.asByteBuffer()).isNotNull();
+            assertThat(stored.getSize()).isEqualTo((long) CONTENT.length);
+            assertThat(stored.readBytes()).isEqualTo(CONTENT);
+            assertThat(deflated.asByteBuffer()).isNull();
+            assertThat(deflated.readBytes()).isEqualTo(CONTENT);
+        }
+    }
+
+    private File writeZip() throws Exception {
+        File zip = temporaryFolder.newFile("package.apk");
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zip))) {
+            ZipEntry storedEntry = new ZipEntry(STORED_ENTRY);
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(CONTENT.length);
+            CRC32 crc = new CRC32();
+            crc.update(CONTENT);
+            storedEntry.setCrc(crc.getValue());
+            zipOutputStream.putNextEntry(storedEntry);
+            zipOutputStream.write(CONTENT);
+            zipOutputStream.closeEntry();
+
+            zipOutputStream.putNextEntry(new ZipEntry(DEFLATED_ENTRY));
+            zipOutputStream.write(CONTENT);
+            zipOutputStream.closeEntry();
+        }
+        return zip;
+    }
+
+    private static int firstCentralHeaderOffset(ByteBuffer zip) {
+        // the zip has no comment, so the end of central directory record ends the file
+        return zip.getInt(zip.limit() - 22 + 16);
+    }
+
+    private static byte[] toByteArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.wear.watchface.dfx.memory.WatchFaceDocuments.findSceneNode;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.ImmutableMap;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Document;
+
+@RunWith(JUnit4.class)
+public class MaxFootprintSearchTest {
+    private static final EvaluationSettings evaluationSettings = new EvaluationSettings("");
+    private static final VariantConfigValue TEST_VARIANT =
+            VariantConfigValue.active(evaluationSettings);
+
+    @Test
+    public void search_findsMaxFootprintWithSharedResource() throws Exception {
+        ImmutableMap<String, Long> resourceSizes =
+                ImmutableMap.of(
+                        "list1-option1-list2-option2", 128L,
+                        "list1-option2", 64L,
+                        "list1-option3", 32L,
+                        "list2-option1", 8L,
+                        "list2-option2-image2", 2L,
+                        "list2-option3", 4L);
+        Document document = readDocument("/MultipleListsReferenceSameImage.xml");
+        DrawableNodeResourceSets resourceSets = createResourceSets(document, resourceSizes::get);
+        List<UserConfigKey> keys = UserConfigKey.readUserConfigKeys(document);
+
+        MaxFootprintSearch search = new MaxFootprintSearch(keys, resourceSets);
+
+        // [list1-option2, list1-option1-list2-option2, list2-option2-image2]
+        assertThat(search.search()).isEqualTo(64L + 128L + 2L);
+        assertThat(search.search()).isEqualTo(enumerateMaxFootprint(keys, resourceSets));
+    }
+
+    @Test
+    public void search_prunesOptionsThatCannotBeatBestFootprint() throws Exception {
+        Map<String, Long> resourceSizes = new HashMap<>();
+        Document document = readDocument("/NestedLists.xml");
+        // the first resource is much bigger than the others, so it bounds every other branch
+        long size = 1L << 20;
+        for (String resource : collectDependentResources(document)) {
+            resourceSizes.put(resource, size);
+            size = 1;
+        }
+        DrawableNodeResourceSets resourceSets = createResourceSets(document, resourceSizes::get);
+        List<UserConfigKey> keys = UserConfigKey.readUserConfigKeys(document);
+
+        MaxFootprintSearch search = new MaxFootprintSearch(keys, resourceSets);
+
+        assertThat(search.search()).isEqualTo(enumerateMaxFootprint(keys, resourceSets));
+        MaxFootprintSearch.Statistics statistics = search.getStatistics();
+        assertThat(statistics.nodesPruned).isGreaterThan(0L);
+        assertThat(statistics.configSetsEvaluated)
+                .isLessThan(UserConfigKey.buildConfigSets(keys).getSize());
+    }
+
+    @Test
+    public void getBestConfigSet_returnsConfigSetWithMaxFootprint() throws Exception {
+        Map<String, Long> resourceSizes = new HashMap<>();
+        Document document = readDocument("/NestedLists.xml");
+        long size = 1;
+        for (String resource : collectDependentResources(document)) {
+            resourceSizes.put(resource, size);
+            size *= 2;
+        }
+        DrawableNodeResourceSets resourceSets = createResourceSets(document, resourceSizes::get);
+        List<UserConfigKey> keys = UserConfigKey.readUserConfigKeys(document);
+
+        MaxFootprintSearch search = new MaxFootprintSearch(keys, resourceSets);
+        long maxFootprint = search.search();
+
+        UserConfigSet bestConfigSet = search.getBestConfigSet();
+        for (UserConfigKey key : keys) {
+            assertThat(bestConfigSet.containsKey(key)).isTrue();
+        }
+        assertThat(resourceSets.footprintOfMatchingEntries(bestConfigSet, new BitSet()))
+                .isEqualTo(maxFootprint);
+    }
+
+    @Test
+    public void getBestConfigSet_isEmptyWhenNotRecorded() throws Exception {
+        Document document = readDocument("/NestedLists.xml");
+        DrawableNodeResourceSets resourceSets = createResourceSets(document, resource -> 1L);
+        List<UserConfigKey> keys = UserConfigKey.readUserConfigKeys(document);
+
+        MaxFootprintSearch search =
+                new MaxFootprintSearch(keys, resourceSets, 0, /* recordBestConfigSet= */ false);
+
+        assertThat(search.search()).isGreaterThan(0);
+        assertThat(search.getBestConfigSet().config).isEmpty();
+    }
+
+    @Test
+    public void getTopConfigSets_ranksSameFootprintsAsEnumeration() throws Exception {
+        Map<String, Long> resourceSizes = new HashMap<>();
+        Document document = readDocument("/NestedLists.xml");
+        long size = 1;
+        for (String resource : collectDependentResources(document)) {
+            resourceSizes.put(resource, size);
+            size = size * 3 % 17 + 1;
+        }
+        DrawableNodeResourceSets resourceSets = createResourceSets(document, resourceSizes::get);
+        List<UserConfigKey> keys = UserConfigKey.readUserConfigKeys(document);
+        List<Long> enumeratedFootprints = new ArrayList<>();
+        SizedIterator<UserConfigSet> configSets = UserConfigKey.buildConfigSets(keys);
+        while (configSets.hasNext()) {
+            enumeratedFootprints.add(
+                    resourceSets.footprintOfMatchingEntries(configSets.next(), new BitSet()));
+        }
+        enumeratedFootprints.sort(Comparator.reverseOrder());
+
+        MaxFootprintSearch search =
+                new MaxFootprintSearch(keys, resourceSets, 4, /* recordBestConfigSet= */ false);
+        long maxFootprint = search.search();
+
+        List<TopConfigSets.Entry<UserConfigSet>> topConfigSets = search.getTopConfigSets();
+        assertThat(maxFootprint).isEqualTo(enumeratedFootprints.get(0));
+        assertThat(topConfigSets.stream().map(entry -> entry.footprint).collect(toList()))
+                .containsExactlyElementsIn(enumeratedFootprints.subList(0, 4))
+                .inOrder();
+        for (TopConfigSets.Entry<UserConfigSet> entry : topConfigSets) {
+            assertThat(resourceSets.footprintOfMatchingEntries(entry.configSet, new BitSet()))
+                    .isEqualTo(entry.footprint);
+        }
+    }
+
+    @Test
+    public void search_returnsZeroWithoutKeys() throws Exception {
+        Document document = readDocument("/MultipleListsReferenceSameImage.xml");
+        DrawableNodeResourceSets resourceSets =
+                createResourceSets(document, resource -> 1L);
+
+        assertThat(new MaxFootprintSearch(new ArrayList<>(), resourceSets).search())
+                .isEqualTo(0L);
+    }
+
+    private static long enumerateMaxFootprint(
+            List<UserConfigKey> keys, DrawableNodeResourceSets resourceSets) {
+        SizedIterator<UserConfigSet> configSets = UserConfigKey.buildConfigSets(keys);
+        long maxFootprint = 0;
+        while (configSets.hasNext()) {
+            maxFootprint =
+                    Math.max(
+                            maxFootprint,
+                            resourceSets.footprintOfMatchingEntries(
+                                    configSets.next(), new BitSet()));
+        }
+        return maxFootprint;
+    }
+
+    private static List<String> collectDependentResources(Document document) {
+        WatchFaceResourceCollector resourceCollector =
+                new WatchFaceResourceCollector(document, new HashMap<>(), evaluationSettings);
+        List<String> resources = new ArrayList<>();
+        for (DrawableNodeConfigTable.Entry entry :
+                DrawableNodeConfigTable.create(findSceneNode(document), TEST_VARIANT)
+                        .getDependentDrawableNodes()) {
+            for (String resource : resourceCollector.collectResources(entry.node, TEST_VARIANT)) {
+                if (!resources.contains(resource)) {
+                    resources.add(resource);
+                }
+            }
+        }
+        return resources;
+    }
+
+    private static DrawableNodeResourceSets createResourceSets(
+            Document document, Function<String, Long> evaluator) {
+        return DrawableNodeResourceSets.create(
+                DrawableNodeConfigTable.create(findSceneNode(document), TEST_VARIANT)
+                        .getDependentDrawableNodes(),
+                new WatchFaceResourceCollector(document, new HashMap<>(), evaluationSettings),
+                TEST_VARIANT,
+                evaluator);
+    }
+
+    private Document readDocument(String documentPath) throws Exception {
+        try (InputStream is = getClass().getResourceAsStream(documentPath)) {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+        }
+    }
+}
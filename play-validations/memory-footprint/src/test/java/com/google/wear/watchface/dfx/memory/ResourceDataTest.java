@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ResourceDataTest {
+    private static final byte[] CONTENT = "watch face resource data".getBytes(UTF_8);
+
+    @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void ofFile_readsFileOnDemand() throws Exception {
+        File file = temporaryFolder.newFile("resource.png");
+        Files.write(file.toPath(), CONTENT);
+
+        ResourceData resourceData = ResourceData.ofFile(file.toPath());
+
+        assertThat(resourceData.getSize()).isEqualTo((long) CONTENT.length);
+        assertThat(resourceData.readBytes()).isEqualTo(CONTENT);
+        try (InputStream stream = resourceData.openStream()) {
+            assertThat(AndroidResourceLoader.readAllBytes(stream)).isEqualTo(CONTENT);
+        }
+    }
+
+    @Test
+    public void ofZipEntry_readsEntryOnDemand() throws Exception {
+        File zip = temporaryFolder.newFile("package.apk");
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zip))) {
+            zipOutputStream.putNextEntry(new ZipEntry("res/drawable/image.png"));
+            zipOutputStream.write(CONTENT);
+            zipOutputStream.closeEntry();
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            ResourceData resourceData = ResourceData.ofZipEntry(zipFile, "res/drawable/image.png");
+
+            assertThat(resourceData.getSize()).isEqualTo((long) CONTENT.length);
+            assertThat(resourceData.readBytes()).isEqualTo(CONTENT);
+            // every stream starts from the beginning of the entry
+            assertThat(resourceData.readBytes()).isEqualTo(CONTENT);
+        }
+    }
+
+    @Test
+    public void androidResource_exposesDataFromSource() throws Exception {
+        AndroidResource resource =
+                AndroidResource.fromPath(
+                        Paths.get("res/drawable/image.png"), ResourceData.of(CONTENT));
+
+        assertThat(resource.getSize()).isEqualTo((long) CONTENT.length);
+        assertThat(resource.getData()).isEqualTo(CONTENT);
+    }
+}
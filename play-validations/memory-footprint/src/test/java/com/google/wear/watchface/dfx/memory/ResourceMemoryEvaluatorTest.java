@@ -20,9 +20,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -1085,6 +1087,95 @@ public class ResourceMemoryEvaluatorTest {
             }
         }
 
+        @Test
+        public void evaluateWatchFaceForLayout_parallelEvaluationHasExpectedFootprint()
+                throws Exception {
+            assertEvaluatesToExpectedFootprint("--evaluation-threads", "4");
+        }
+
+        @Test
+        public void evaluateWatchFaceForLayout_exactEvaluationHasExpectedFootprint()
+                throws Exception {
+            assertEvaluatesToExpectedFootprint("--exact-evaluation");
+        }
+
+        @Test
+        public void evaluateWatchFaceForLayout_topConfigurationsAgreeBetweenEvaluations()
+                throws Exception {
+            List<Long> lazyRanking = rankTopConfigurations();
+
+            assertThat(lazyRanking).isNotEmpty();
+            assertThat(lazyRanking.get(0)).isEqualTo(testParams.expectedActiveFootprint);
+            assertThat(lazyRanking).isInOrder(Comparator.reverseOrder());
+            assertThat(rankTopConfigurations("--evaluation-threads", "4")).isEqualTo(lazyRanking);
+            assertThat(rankTopConfigurations("--exact-evaluation")).isEqualTo(lazyRanking);
+        }
+
+        @Test
+        public void evaluateWatchFaceForLayout_compactLayoutHasExpectedFootprint()
+                throws Exception {
+            assertEvaluatesToExpectedFootprint("--compact-layouts");
+        }
+
+        @Test
+        public void compactLayout_copyToW3cDocumentIsValid() throws Exception {
+            WatchFaceXmlValidator xmlValidator = new WatchFaceXmlValidator();
+            try (InputStream is = getClass().getResourceAsStream(testParams.layoutPath)) {
+                Document document = CompactLayoutTree.parse(is).asDocument();
+                assertTrue(
+                        xmlValidator.validate(CompactLayoutTree.toW3cDocument(document), "1"));
+            }
+        }
+
+        private void assertEvaluatesToExpectedFootprint(String... evaluationArguments)
+                throws Exception {
+            List<String> arguments = new ArrayList<>(Arrays.asList("--watch-face", ""));
+            arguments.addAll(Arrays.asList(evaluationArguments));
+            EvaluationSettings settings =
+                    EvaluationSettings.parseFromArguments(arguments.toArray(new String[0])).get();
+            try (InputStream is = getClass().getResourceAsStream(testParams.layoutPath)) {
+                Document document =
+                        settings.getCompactLayouts()
+                                ? CompactLayoutTree.parse(is).asDocument()
+                                : DocumentBuilderFactory.newInstance()
+                                        .newDocumentBuilder()
+                                        .parse(is);
+                MemoryFootprint memoryFootprint =
+                        evaluateWatchFaceForLayout(
+                                testParams.memoryFootprintForImages, document, settings);
+
+                MemoryFootprint expectedFootprint =
+                        new MemoryFootprint(
+                                testParams.expectedTotalFootprint,
+                                testParams.expectedActiveFootprint,
+                                testParams.expectedAmbientFootprint);
+
+                assertEquals(expectedFootprint, memoryFootprint);
+            }
+        }
+
+        private List<Long> rankTopConfigurations(String... evaluationArguments)
+                throws Exception {
+            List<String> arguments =
+                    new ArrayList<>(Arrays.asList("--watch-face", "", "--top-configurations", "3"));
+            arguments.addAll(Arrays.asList(evaluationArguments));
+            EvaluationSettings settings =
+                    EvaluationSettings.parseFromArguments(arguments.toArray(new String[0])).get();
+            try (InputStream is = getClass().getResourceAsStream(testParams.layoutPath)) {
+                Document document =
+                        DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+                TopConfigurations topConfigurations =
+                        evaluateWatchFaceForLayout(
+                                        testParams.memoryFootprintForImages, document, settings)
+                                .getTopActiveConfigurations();
+
+                assertThat(topConfigurations.getApproximate()).isFalse();
+                return topConfigurations.getConfigurations().stream()
+                        .map(ConfigurationFootprint::getBytes)
+                        .collect(Collectors.toList());
+            }
+        }
+
         @Before
         public void xmlIsValid() throws Exception {
             WatchFaceXmlValidator xmlValidator = new WatchFaceXmlValidator();
@@ -1118,6 +1209,193 @@ public class ResourceMemoryEvaluatorTest {
             assertEquals(2326806, multiShapesFootprint.get(0).getMaxAmbientBytes());
         }
 
+        @Test
+        public void evaluateMemoryFootprint_parallelLayoutsMatchSequentialLayouts() {
+            String watchFacePath =
+                    Paths.get(SAMPLE_WF_BASE_ARTIFACTS_PATH, "bundle/release/sample-wf-release.aab")
+                            .toString();
+
+            List<MemoryFootprint> sequentialFootprints =
+                    evaluateMemoryFootprint(
+                            parseFromArguments(
+                                            "--watch-face",
+                                            watchFacePath,
+                                            "--estimate-optimization")
+                                    .get());
+            List<MemoryFootprint> parallelFootprints =
+                    evaluateMemoryFootprint(
+                            parseFromArguments(
+                                            "--watch-face",
+                                            watchFacePath,
+                                            "--estimate-optimization",
+                                            "--layout-parallelism",
+                                            "4")
+                                    .get());
+
+            assertThat(parallelFootprints)
+                    .containsExactlyElementsIn(sequentialFootprints)
+                    .inOrder();
+        }
+
+        @Test
+        public void evaluateLayouts_estimatesOptimizationsOnCopiesOfTheResources()
+                throws Exception {
+            List<Document> layouts = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                try (InputStream is =
+                        getClass().getResourceAsStream("/ImageReusedAtMultipleSizes.xml")) {
+                    layouts.add(
+                            DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is));
+                }
+            }
+            DrawableResourceDetails image =
+                    DrawableResourceDetails.builder()
+                            .setName("image")
+                            .setNumberOfImages(1)
+                            .setWidth(200)
+                            .setHeight(200)
+                            .setBounds(new DrawableResourceDetails.Bounds(50, 50, 150, 175))
+                            .setBiggestFrameFootprintBytes(200 * 200 * 4)
+                            .build();
+            Map<String, DrawableResourceDetails> resources = new HashMap<>();
+            resources.put("image", image);
+
+            List<MemoryFootprint> footprints =
+                    WatchFaceLayoutEvaluator.evaluateLayouts(
+                            layouts,
+                            resources,
+                            parseFromArguments(
+                                            "--watch-face",
+                                            "path/to/watchface.apk",
+                                            "--estimate-optimization",
+                                            "--layout-parallelism",
+                                            "2")
+                                    .get());
+
+            // both layouts are estimated from the original image, which is left untouched
+            assertThat(footprints).hasSize(2);
+            assertEquals(100 * 125 * 4, footprints.get(0).getTotalBytes());
+            assertThat(footprints.get(1)).isEqualTo(footprints.get(0));
+            assertEquals(200, image.getWidth());
+            assertEquals(200, image.getHeight());
+            assertThat(resources).containsExactly("image", image);
+        }
+
+        @Test
+        public void evaluateWatchFaceForLayout_costsAmbientLayersForEachScreenSize()
+                throws Exception {
+            Document document = readAnalogClockLayout();
+            document.getDocumentElement().setAttribute("width", "384");
+            document.getDocumentElement().setAttribute("height", "384");
+
+            MemoryFootprint footprint =
+                    evaluateWatchFaceForLayout(
+                            analogClockResources(),
+                            document,
+                            parseFromArguments(
+                                            "--watch-face",
+                                            "path/to/watchface.apk",
+                                            "--ambient-screen-sizes",
+                                            "384x384,466x466")
+                                    .get());
+
+            // two layers, plus the hour and minute hands which are drawn dynamically
+            assertEquals(2 * 384 * 384 * 4 + 2 * 300, footprint.getMaxAmbientBytes());
+            assertThat(footprint.getAmbientBytesPerScreen())
+                    .containsExactly(
+                            "384x384", 2L * 384 * 384 * 4 + 2 * 300,
+                            "466x466", 2L * 466 * 466 * 4 + 2 * 300)
+                    .inOrder();
+        }
+
+        @Test
+        public void evaluateWatchFaceForLayout_screenSizeOverridesTheLayoutSize()
+                throws Exception {
+            MemoryFootprint footprint =
+                    evaluateWatchFaceForLayout(
+                            analogClockResources(),
+                            readAnalogClockLayout(),
+                            parseFromArguments(
+                                            "--watch-face",
+                                            "path/to/watchface.apk",
+                                            "--screen-size",
+                                            "466x466")
+                                    .get());
+
+            assertEquals(2 * 466 * 466 * 4 + 2 * 300, footprint.getMaxAmbientBytes());
+            assertThat(footprint.getAmbientBytesPerScreen()).isEmpty();
+        }
+
+        @Test
+        public void evaluateWatchFaceForLayout_attributesActiveAndAmbientFootprints()
+                throws Exception {
+            MemoryFootprint footprint =
+                    evaluateWatchFaceForLayout(
+                            analogClockResources(),
+                            readAnalogClockLayout(),
+                            parseFromArguments(
+                                            "--watch-face",
+                                            "path/to/watchface.apk",
+                                            "--attribution")
+                                    .get());
+
+            FootprintAttribution activeAttribution = footprint.getActiveAttribution();
+            assertThat(activeAttribution.getConfiguration()).isEmpty();
+            assertThat(activeAttribution.getApproximate()).isFalse();
+            assertThat(activeAttribution.getResources())
+                    .containsExactly(
+                            new ResourceFootprint("hour-hand", 300),
+                            new ResourceFootprint("minute-hand", 300),
+                            new ResourceFootprint("second-hand", 300),
+                            new ResourceFootprint("image1", 12),
+                            new ResourceFootprint("image2", 12))
+                    .inOrder();
+            AmbientAttribution ambientAttribution = footprint.getAmbientAttribution();
+            // the clock hands split the static images into two layers
+            assertEquals(2, ambientAttribution.getLayerCount());
+            assertThat(ambientAttribution.getLayerStarts()).hasSize(2);
+            assertThat(ambientAttribution.getDynamicNodes().getResources())
+                    .containsExactly(
+                            new ResourceFootprint("hour-hand", 300),
+                            new ResourceFootprint("minute-hand", 300))
+                    .inOrder();
+        }
+
+        @Test
+        public void evaluateWatchFaceForLayout_attributesNothingByDefault() throws Exception {
+            MemoryFootprint footprint =
+                    evaluateWatchFaceForLayout(
+                            analogClockResources(),
+                            readAnalogClockLayout(),
+                            getTestEvaluationSettings());
+
+            assertThat(footprint.getActiveAttribution()).isNull();
+            assertThat(footprint.getAmbientAttribution()).isNull();
+        }
+
+        private Document readAnalogClockLayout() throws Exception {
+            try (InputStream is =
+                    getClass().getResourceAsStream("/layer-split/SimpleAnalogClock.xml")) {
+                return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+            }
+        }
+
+        private static Map<String, DrawableResourceDetails> analogClockResources() {
+            Map<String, DrawableResourceDetails> resources = new HashMap<>();
+            for (String resource :
+                    Arrays.asList("image1", "image2", "hour-hand", "minute-hand", "second-hand")) {
+                resources.put(
+                        resource,
+                        DrawableResourceDetails.builder()
+                                .setName(resource)
+                                .setNumberOfImages(1)
+                                .setBiggestFrameFootprintBytes(resource.endsWith("hand") ? 300 : 12)
+                                .setSha1(resource)
+                                .build());
+            }
+            return resources;
+        }
+
         @Test
         public void evaluateWatchFaceForLayout_failsOnMissingResource() throws Exception {
             try (InputStream is = getClass().getResourceAsStream("/FailsOnMissingResource.xml")) {
@@ -1266,6 +1544,48 @@ public class ResourceMemoryEvaluatorTest {
             }
         }
 
+        @Test
+        public void evaluateWatchFaceForLayout_ranksTopConfigurationsApproximatelyWhenGreedy()
+                throws Exception {
+            try (InputStream is = getClass().getResourceAsStream("/TooManyConfigs.xml")) {
+                Document document =
+                        DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+                Map<String, DrawableResourceDetails> testDrawableMap = new HashMap<>();
+                for (int list = 1; list <= 2; list++) {
+                    for (int image = 1; image <= 10; image++) {
+                        String imageName = String.format("list%s-image%s", list, image);
+                        putSimpleResource(testDrawableMap, imageName, 100L * image);
+                    }
+                }
+
+                MemoryFootprint memoryFootprint =
+                        evaluateWatchFaceForLayout(
+                                testDrawableMap,
+                                document,
+                                parseFromArguments(
+                                                "--watch-face",
+                                                "",
+                                                "--greedy-after-iterations",
+                                                "99",
+                                                "--top-configurations",
+                                                "3")
+                                        .get());
+
+                TopConfigurations topConfigurations =
+                        memoryFootprint.getTopActiveConfigurations();
+                assertThat(topConfigurations.getApproximate()).isTrue();
+                assertThat(
+                                topConfigurations.getConfigurations().stream()
+                                        .map(ConfigurationFootprint::getBytes)
+                                        .collect(Collectors.toList()))
+                        .containsExactly(2000L, 1900L, 1900L)
+                        .inOrder();
+                assertThat(topConfigurations.getConfigurations().get(0).getConfiguration())
+                        .containsExactly("l1", "l1-10", "l2", "l2-10");
+                assertEquals(2000, memoryFootprint.getMaxActiveBytes());
+            }
+        }
+
         @Test
         public void evaluateWatchFaceForLayout_handlesHoneyfaceWatchFaces() throws Exception {
             EvaluationSettings settings = new EvaluationSettings("", "honeyface");
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TopConfigSetsTest {
+    @Test
+    public void offer_keepsHeaviestConfigSets() {
+        TopConfigSets<String> top = new TopConfigSets<>(3);
+        long[] footprints = {5, 1, 9, 3, 7, 9, 2};
+        for (int i = 0; i < footprints.length; i++) {
+            top.offer(footprints[i], "config" + i);
+        }
+
+        assertThat(footprintsOf(top.toSortedList())).containsExactly(9L, 9L, 7L).inOrder();
+        assertThat(top.toSortedList().get(2).configSet).isEqualTo("config4");
+        assertFalse(top.accepts(7));
+        assertTrue(top.accepts(8));
+    }
+
+    @Test
+    public void addAll_mergesKeptConfigSets() {
+        TopConfigSets<Integer> left = new TopConfigSets<>(2);
+        TopConfigSets<Integer> right = new TopConfigSets<>(2);
+        for (int i = 0; i < 10; i++) {
+            (i % 2 == 0 ? left : right).offer(i, i);
+        }
+
+        left.addAll(right);
+
+        assertThat(footprintsOf(left.toSortedList())).containsExactly(9L, 8L).inOrder();
+    }
+
+    @Test
+    public void largestSums_matchesEveryPairSorted() {
+        Random random = new Random(42);
+        List<TopConfigSets.Entry<String>> left = randomEntries(random, "l", 7);
+        List<TopConfigSets.Entry<String>> right = randomEntries(random, "r", 5);
+        List<Long> allSums = new ArrayList<>();
+        for (TopConfigSets.Entry<String> leftEntry : left) {
+            for (TopConfigSets.Entry<String> rightEntry : right) {
+                allSums.add(leftEntry.footprint + rightEntry.footprint);
+            }
+        }
+        allSums.sort(Comparator.reverseOrder());
+
+        List<TopConfigSets.Entry<String>> sums =
+                TopConfigSets.largestSums(left, right, 10, String::concat);
+
+        assertThat(footprintsOf(sums)).containsExactlyElementsIn(allSums.subList(0, 10)).inOrder();
+        assertThat(sums.get(0).configSet).isEqualTo("l0r0");
+    }
+
+    @Test
+    public void largestSums_returnsEveryPairBelowCapacity() {
+        List<TopConfigSets.Entry<String>> left = randomEntries(new Random(1), "l", 2);
+        List<TopConfigSets.Entry<String>> right = randomEntries(new Random(2), "r", 3);
+
+        assertThat(TopConfigSets.largestSums(left, right, 100, String::concat)).hasSize(6);
+        assertThat(TopConfigSets.largestSums(left, new ArrayList<>(), 100, String::concat))
+                .isEmpty();
+    }
+
+    private static List<TopConfigSets.Entry<String>> randomEntries(
+            Random random, String prefix, int count) {
+        TopConfigSets<String> top = new TopConfigSets<>(count);
+        for (int i = 0; i < count; i++) {
+            top.offer(random.nextInt(100), null);
+        }
+        List<TopConfigSets.Entry<String>> entries = new ArrayList<>();
+        List<TopConfigSets.Entry<String>> sorted = top.toSortedList();
+        for (int i = 0; i < sorted.size(); i++) {
+            entries.add(new TopConfigSets.Entry<>(sorted.get(i).footprint, prefix + i));
+        }
+        return entries;
+    }
+
+    private static List<Long> footprintsOf(List<? extends TopConfigSets.Entry<?>> entries) {
+        return entries.stream().map(entry -> entry.footprint).collect(Collectors.toList());
+    }
+}
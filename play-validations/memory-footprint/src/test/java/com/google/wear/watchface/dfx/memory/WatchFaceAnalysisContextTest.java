@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+@RunWith(JUnit4.class)
+public class WatchFaceAnalysisContextTest {
+    private static final EvaluationSettings evaluationSettings = new EvaluationSettings("");
+
+    @Test
+    public void resourceCollector_collectsSameResourcesAsUnsharedCollector() throws Exception {
+        Document document = readDocument("/ActiveDigitalClockBitmapFont.xml");
+        WatchFaceAnalysisContext context =
+                new WatchFaceAnalysisContext(document, new HashMap<>(), evaluationSettings);
+        WatchFaceResourceCollector unsharedCollector =
+                new WatchFaceResourceCollector(document, new HashMap<>(), evaluationSettings);
+        Node sceneNode = context.getSceneNode();
+
+        assertThat(context.getResourceCollector().collectResources(sceneNode))
+                .containsExactlyElementsIn(unsharedCollector.collectResources(sceneNode));
+        assertThat(
+                        context.getResourceCollector()
+                                .collectResources(sceneNode, context.getAmbientVariant()))
+                .containsExactlyElementsIn(
+                        unsharedCollector.collectResources(
+                                sceneNode, context.getAmbientVariant()));
+    }
+
+    @Test
+    public void resourceCollector_collectsEachNodeOncePerVariant() throws Exception {
+        Document document = readDocument("/NestedLists.xml");
+        WatchFaceAnalysisContext context =
+                new WatchFaceAnalysisContext(document, new HashMap<>(), evaluationSettings);
+        WatchFaceResourceCollector resourceCollector = context.getResourceCollector();
+        Node sceneNode = context.getSceneNode();
+        VariantConfigValue activeVariant = context.getActiveVariant();
+
+        assertThat(resourceCollector.collectResources(sceneNode, activeVariant))
+                .isSameInstanceAs(resourceCollector.collectResources(sceneNode, activeVariant));
+        assertThat(resourceCollector.collectResources(sceneNode))
+                .isSameInstanceAs(resourceCollector.collectResources(sceneNode));
+    }
+
+    @Test
+    public void getActiveDrawableNodeConfigTable_isBuiltOnce() throws Exception {
+        WatchFaceAnalysisContext context =
+                new WatchFaceAnalysisContext(
+                        readDocument("/NestedLists.xml"), new HashMap<>(), evaluationSettings);
+
+        assertThat(context.getActiveDrawableNodeConfigTable())
+                .isSameInstanceAs(context.getActiveDrawableNodeConfigTable());
+        assertThat(context.getUserConfigKeys()).isSameInstanceAs(context.getUserConfigKeys());
+    }
+
+    private Document readDocument(String documentPath) throws Exception {
+        try (InputStream is = getClass().getResourceAsStream(documentPath)) {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+        }
+    }
+}
@@ -86,6 +86,22 @@ public class WatchFaceDataTest {
         }
     }
 
+    @Test
+    public void fromResourcesStream_parallelAnalysisMatchesSequentialAnalysis() {
+        EvaluationSettings parallelSettings =
+                EvaluationSettings.parseFromArguments(
+                                "--watch-face", "", "--resource-analysis-threads", "4")
+                        .get();
+        Stream<AndroidResource> packageFileStream = TEST_FILES.stream().map(this::readPackageFile);
+
+        WatchFaceData watchFaceData =
+                WatchFaceData.fromResourcesStream(
+                        packageFileStream, parallelSettings, imageProcessor);
+
+        assertThat(watchFaceData.getWatchFaceDocuments()).hasSize(1);
+        assertThat(watchFaceData.getResourceDetailsMap()).isEqualTo(expectedDetails);
+    }
+
     private AndroidResource readPackageFile(String path) throws RuntimeException {
         Path rootPath = Paths.get(TEST_PACKAGE_FILES_ROOT);
         Path filePath = Paths.get(TEST_PACKAGE_FILES_ROOT, path);
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.wear.watchface.dfx.memory;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Document;
+
+@RunWith(JUnit4.class)
+@SuppressWarnings("KotlinInternal")
+public class XmlFactoriesTest {
+    private static final String LAYOUT =
+            "<WatchFace width=\"450\" height=\"450\">"
+                    + "<Scene><Group name=\"a\"/></Scene>"
+                    + "</WatchFace>";
+
+    @Test
+    public void xPathExpression_isCompiledOncePerThread() throws Exception {
+        XPathExpression expression = XmlFactories.xPathExpression("/WatchFace/Scene");
+        AtomicReference<XPathExpression> otherThreadExpression = new AtomicReference<>();
+        Thread thread =
+                new Thread(
+                        () ->
+                                otherThreadExpression.set(
+                                        XmlFactories.xPathExpression("/WatchFace/Scene")));
+        thread.start();
+        thread.join();
+
+        assertThat(XmlFactories.xPathExpression("/WatchFace/Scene")).isSameInstanceAs(expression);
+        assertThat(otherThreadExpression.get()).isNotNull();
+        assertThat(otherThreadExpression.get()).isNotSameInstanceAs(expression);
+    }
+
+    @Test
+    public void documentBuilder_canBeReusedForSeveralDocuments() throws Exception {
+        Document first = parse(LAYOUT);
+        Document second = parse(LAYOUT);
+
+        assertThat(first).isNotSameInstanceAs(second);
+        assertThat(
+                        XmlFactories.xPathExpression("/WatchFace/Scene/Group/@name")
+                                .evaluate(second, XPathConstants.STRING))
+                .isEqualTo("a");
+    }
+
+    private static Document parse(String xml) throws Exception {
+        return XmlFactories.namespaceAwareDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(UTF_8)));
+    }
+}